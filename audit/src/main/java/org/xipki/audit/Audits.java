@@ -17,9 +17,13 @@
 
 package org.xipki.audit;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 
+import org.xipki.audit.services.AsyncAuditService;
 import org.xipki.audit.services.EmbedAuditService;
+import org.xipki.audit.services.FileAuditService;
 import org.xipki.audit.services.SyslogAuditService;
 
 /**
@@ -30,18 +34,106 @@ import org.xipki.audit.services.SyslogAuditService;
 
 public class Audits {
 
+  /**
+   * Configuration of the asynchronous logging of the audit events.
+   */
+  public static class AsyncConf {
+
+    public static final String OVERFLOW_BLOCK = "block";
+
+    public static final String OVERFLOW_DROP_OLDEST = "dropOldest";
+
+    public static final String OVERFLOW_SPILL = "spill";
+
+    /**
+     * capacity of the queue, will be rounded up to the next power of 2.
+     */
+    private int queueSize = 8192;
+
+    /**
+     * number of threads forwarding the events to the audit service.
+     */
+    private int drainers = 1;
+
+    /**
+     * maximal number of events forwarded by a drainer in one round.
+     */
+    private int batchSize = 256;
+
+    /**
+     * valid values are:
+     *   block: the caller waits until the queue has space (default)
+     *   dropOldest: the oldest event in the queue is dropped
+     *   spill: the event is written to the spillFile
+     */
+    private String overflowPolicy;
+
+    /**
+     * file to which the events are written if the queue is full and the overflowPolicy
+     * is spill.
+     */
+    private String spillFile;
+
+    public int getQueueSize() {
+      return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
+    }
+
+    public int getDrainers() {
+      return drainers;
+    }
+
+    public void setDrainers(int drainers) {
+      this.drainers = drainers;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public String getOverflowPolicy() {
+      return overflowPolicy == null || overflowPolicy.isEmpty() ? OVERFLOW_BLOCK : overflowPolicy;
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+      this.overflowPolicy = overflowPolicy;
+    }
+
+    public String getSpillFile() {
+      return spillFile;
+    }
+
+    public void setSpillFile(String spillFile) {
+      this.spillFile = spillFile;
+    }
+
+  } // class AsyncConf
+
   public static class AuditConf {
 
     /**
      * valid values are:
      *   embed: use the embedded slf4j logging
      *   syslog: use the syslog
+     *   file: use the local files, see FileAuditService
      *   java:&lt;name of class that implements org.xipki.audit.AuditService&gt;
      */
     private String type;
 
     private String conf;
 
+    /**
+     * If present, the events are forwarded to the audit service asynchronously.
+     */
+    private AsyncConf async;
+
     public static AuditConf DEFAULT = new AuditConf();
 
     public String getType() {
@@ -60,7 +152,15 @@ public class Audits {
       this.conf = conf;
     }
 
-  }
+    public AsyncConf getAsync() {
+      return async;
+    }
+
+    public void setAsync(AsyncConf async) {
+      this.async = async;
+    }
+
+  } // class AuditConf
 
   private static AuditService auditService;
 
@@ -82,12 +182,29 @@ public class Audits {
   } // method getAuditService
 
   public static void init(String auditType, String auditConf)  {
+    init(auditType, auditConf, null);
+  }
+
+  /**
+   * Initializes the audit service.
+   *
+   * @param auditType
+   *          Type of the audit service. Must not be {@code null}.
+   * @param auditConf
+   *          Configuration of the audit service. May be {@code null}.
+   * @param asyncConf
+   *          If not {@code null}, the events are forwarded to the audit service
+   *          asynchronously.
+   */
+  public static void init(String auditType, String auditConf, AsyncConf asyncConf)  {
     try {
       AuditService service;
       if ("embed".equalsIgnoreCase(auditType)) {
         service = new EmbedAuditService();
       } else if ("syslog".equalsIgnoreCase(auditType)) {
         service = new SyslogAuditService();
+      } else if ("file".equalsIgnoreCase(auditType)) {
+        service = new FileAuditService();
       } else  if (auditType.startsWith("java:")) {
         String className = auditType.substring("java:".length());
         try {
@@ -101,11 +218,15 @@ public class Audits {
         }
       } else {
         throw new AuditServiceRuntimeException("invalid Audit.Type '" + auditType
-            + "'. Valid values are 'embed', 'syslog' or java:<name of class that implements "
+            + "'. Valid values are 'embed', 'syslog', 'file' or "
+            + "java:<name of class that implements "
             + AuditService.class.getName() + ">");
       }
 
       service.init(auditConf);
+      if (asyncConf != null) {
+        service = new AsyncAuditService(service, asyncConf);
+      }
       auditService = service;
     } catch (AuditServiceRuntimeException ex) {
       initializationException = ex;
@@ -114,4 +235,18 @@ public class Audits {
     }
   } // method init
 
+  /**
+   * Closes the audit service, the queued events of an asynchronous audit service are
+   * forwarded before.
+   */
+  public static void close() {
+    if (auditService instanceof Closeable) {
+      try {
+        ((Closeable) auditService).close();
+      } catch (IOException ex) {
+        throw new AuditServiceRuntimeException("could not close the AuditService", ex);
+      }
+    }
+  } // method close
+
 }
@@ -0,0 +1,343 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditService;
+import org.xipki.audit.AuditServiceRuntimeException;
+import org.xipki.audit.Audits.AsyncConf;
+import org.xipki.audit.PciAuditEvent;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+import org.xipki.util.concurrent.RingBuffer;
+import org.xipki.util.metrics.MetricsRegistry;
+
+/**
+ * Audit service which queues the events in a bounded lock-free ring buffer and forwards them
+ * to the underlying audit service in the drainer threads. The caller is not blocked by a slow
+ * audit service unless the queue is full and the overflow policy is block.
+ *
+ * <p>The events must not be modified after they have been logged.
+ *
+ * @author Lijun Liao
+ */
+
+public class AsyncAuditService implements AuditService, Closeable {
+
+  private enum OverflowPolicy {
+    BLOCK,
+    DROP_OLDEST,
+    SPILL
+  } // class OverflowPolicy
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncAuditService.class);
+
+  private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final AtomicInteger DRAINER_INDEX = new AtomicInteger(0);
+
+  private static final String METRIC_STATISTICS = "xipki_audit_async";
+
+  private final AuditService delegate;
+
+  private final RingBuffer<Object> queue;
+
+  private final OverflowPolicy overflowPolicy;
+
+  private final int batchSize;
+
+  private final List<Thread> drainers;
+
+  private final BufferedWriter spillWriter;
+
+  private final LongAdder countEnqueued = new LongAdder();
+
+  private final LongAdder countForwarded = new LongAdder();
+
+  private final LongAdder countFailed = new LongAdder();
+
+  private final LongAdder countBlocked = new LongAdder();
+
+  private final LongAdder countDropped = new LongAdder();
+
+  private final LongAdder countSpilled = new LongAdder();
+
+  private final AtomicLong maxQueueDepth = new AtomicLong(0);
+
+  private volatile boolean closed;
+
+  public AsyncAuditService(AuditService delegate, AsyncConf conf) {
+    this.delegate = Args.notNull(delegate, "delegate");
+    Args.notNull(conf, "conf");
+    this.queue = new RingBuffer<>(Args.range(conf.getQueueSize(), "conf.queueSize", 2, 1 << 24));
+    this.batchSize = Args.positive(conf.getBatchSize(), "conf.batchSize");
+    int numDrainers = Args.range(conf.getDrainers(), "conf.drainers", 1, 64);
+
+    String policy = conf.getOverflowPolicy();
+    if (AsyncConf.OVERFLOW_BLOCK.equalsIgnoreCase(policy)) {
+      this.overflowPolicy = OverflowPolicy.BLOCK;
+    } else if (AsyncConf.OVERFLOW_DROP_OLDEST.equalsIgnoreCase(policy)) {
+      this.overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    } else if (AsyncConf.OVERFLOW_SPILL.equalsIgnoreCase(policy)) {
+      this.overflowPolicy = OverflowPolicy.SPILL;
+    } else {
+      throw new AuditServiceRuntimeException("invalid overflowPolicy '" + policy
+          + "'. Valid values are 'block', 'dropOldest' or 'spill'");
+    }
+
+    if (overflowPolicy == OverflowPolicy.SPILL) {
+      String spillFile = conf.getSpillFile();
+      if (spillFile == null || spillFile.isEmpty()) {
+        throw new AuditServiceRuntimeException("spillFile is not specified");
+      }
+
+      Path path = Paths.get(IoUtil.expandFilepath(spillFile));
+      try {
+        IoUtil.mkdirsParent(path);
+        this.spillWriter = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      } catch (IOException ex) {
+        throw new AuditServiceRuntimeException("could not open the spillFile " + spillFile, ex);
+      }
+    } else {
+      this.spillWriter = null;
+    }
+
+    this.drainers = new ArrayList<>(numDrainers);
+    for (int i = 0; i < numDrainers; i++) {
+      Thread thread = new Thread(this::drain, "audit-drainer-" + DRAINER_INDEX.incrementAndGet());
+      thread.setDaemon(true);
+      drainers.add(thread);
+      thread.start();
+    }
+
+    MetricsRegistry.getDefault().statistics(METRIC_STATISTICS,
+        "Statistics of the asynchronous audit", "stat", this::getStatistics);
+    LOG.info("started asynchronous audit with queueSize={}, drainers={}, batchSize={}, "
+        + "overflowPolicy={}", queue.capacity(), numDrainers, batchSize, overflowPolicy);
+  } // constructor
+
+  public AuditService getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Initializes the underlying audit service.
+   */
+  @Override
+  public void init(String conf) {
+    delegate.init(conf);
+  }
+
+  @Override
+  public void logEvent(AuditEvent event) {
+    enqueue(Args.notNull(event, "event"));
+  }
+
+  @Override
+  public void logEvent(PciAuditEvent event) {
+    enqueue(Args.notNull(event, "event"));
+  }
+
+  /**
+   * Returns the statistics of the queue.
+   *
+   * @return the statistics.
+   */
+  public Map<String, Long> getStatistics() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("queueSize", (long) queue.capacity());
+    stats.put("queueDepth", (long) queue.size());
+    stats.put("maxQueueDepth", maxQueueDepth.get());
+    stats.put("enqueued", countEnqueued.sum());
+    stats.put("forwarded", countForwarded.sum());
+    stats.put("failed", countFailed.sum());
+    stats.put("blocked", countBlocked.sum());
+    stats.put("dropped", countDropped.sum());
+    stats.put("spilled", countSpilled.sum());
+    return stats;
+  } // method getStatistics
+
+  private void enqueue(Object event) {
+    if (closed) {
+      // the drainers are (being) stopped
+      forward(event);
+      return;
+    }
+
+    if (queue.offer(event)) {
+      countEnqueued.increment();
+      return;
+    }
+
+    switch (overflowPolicy) {
+      case BLOCK:
+        countBlocked.increment();
+        long parkNanos = MIN_PARK_NANOS;
+        while (!queue.offer(event)) {
+          if (closed) {
+            forward(event);
+            return;
+          }
+
+          LockSupport.parkNanos(parkNanos);
+          parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+        }
+        countEnqueued.increment();
+        break;
+      case DROP_OLDEST:
+        while (!queue.offer(event)) {
+          if (queue.poll() != null) {
+            countDropped.increment();
+          }
+        }
+        countEnqueued.increment();
+        break;
+      case SPILL:
+        spill(event);
+        break;
+      default:
+        throw new IllegalStateException("unknown OverflowPolicy " + overflowPolicy);
+    }
+  } // method enqueue
+
+  private void drain() {
+    List<Object> batch = new ArrayList<>(batchSize);
+    long parkNanos = MIN_PARK_NANOS;
+    while (true) {
+      long depth = queue.size();
+      if (depth > maxQueueDepth.get()) {
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+      }
+
+      if (queue.drainTo(batch, batchSize) == 0) {
+        if (closed) {
+          break;
+        }
+
+        LockSupport.parkNanos(parkNanos);
+        parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+        continue;
+      }
+
+      parkNanos = MIN_PARK_NANOS;
+      for (Object event : batch) {
+        forward(event);
+      }
+      batch.clear();
+    }
+  } // method drain
+
+  private void forward(Object event) {
+    try {
+      if (event instanceof AuditEvent) {
+        delegate.logEvent((AuditEvent) event);
+      } else {
+        delegate.logEvent((PciAuditEvent) event);
+      }
+      countForwarded.increment();
+    } catch (RuntimeException ex) {
+      countFailed.increment();
+      LogUtil.error(LOG, ex, "could not forward audit event");
+    }
+  } // method forward
+
+  private void spill(Object event) {
+    String text;
+    if (event instanceof AuditEvent) {
+      AuditEvent ae = (AuditEvent) event;
+      text = (ae.getTimestamp() == null ? "" : ae.getTimestamp().toInstant() + " ")
+          + EmbedAuditService.createMessage(ae);
+    } else {
+      PciAuditEvent pe = (PciAuditEvent) event;
+      text = pe.getLevel().getAlignedText() + " | " + pe.toCharArrayWriter("").toString();
+    }
+
+    try {
+      synchronized (spillWriter) {
+        spillWriter.write(text);
+        spillWriter.newLine();
+        spillWriter.flush();
+      }
+      countSpilled.increment();
+    } catch (IOException ex) {
+      countDropped.increment();
+      LogUtil.error(LOG, ex, "could not write audit event to the spillFile");
+    }
+  } // method spill
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    MetricsRegistry.getDefault().remove(METRIC_STATISTICS);
+    for (Thread drainer : drainers) {
+      try {
+        drainer.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    // forward the events added after the drainers have been stopped
+    Object event;
+    while ((event = queue.poll()) != null) {
+      forward(event);
+    }
+
+    LOG.info("stopped asynchronous audit: {}", getStatistics());
+
+    if (spillWriter != null) {
+      synchronized (spillWriter) {
+        spillWriter.close();
+      }
+    }
+
+    if (delegate instanceof Closeable) {
+      ((Closeable) delegate).close();
+    }
+  } // method close
+
+}
@@ -0,0 +1,389 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.Hex;
+
+/**
+ * Reader of the files written by {@link FileAuditService}, to verify the sequence numbers and
+ * the hash chain, and to replay the records.
+ *
+ * @author Lijun Liao
+ */
+
+public class FileAuditLogReader {
+
+  public static class VerifyResult {
+
+    private final List<String> errors = new ArrayList<>();
+
+    private int numFiles;
+
+    private long numRecords;
+
+    private long firstSeq;
+
+    private long lastSeq;
+
+    public boolean isValid() {
+      return errors.isEmpty();
+    }
+
+    public List<String> getErrors() {
+      return Collections.unmodifiableList(errors);
+    }
+
+    public int getNumFiles() {
+      return numFiles;
+    }
+
+    public long getNumRecords() {
+      return numRecords;
+    }
+
+    public long getFirstSeq() {
+      return firstSeq;
+    }
+
+    public long getLastSeq() {
+      return lastSeq;
+    }
+
+  } // class VerifyResult
+
+  private static final Logger LOG = LoggerFactory.getLogger(FileAuditLogReader.class);
+
+  private static final int MAX_ERRORS = 100;
+
+  private final Path dir;
+
+  private final String prefix;
+
+  private final MessageDigest md;
+
+  /**
+   * Constructor.
+   *
+   * @param dir
+   *          Directory of the audit files. Must not be {@code null}.
+   * @param prefix
+   *          Prefix of the file names. Must not be {@code null}.
+   * @param hashAlgo
+   *          Hash algorithm of the hash chain, {@code null} or none if the hash chain is
+   *          not used.
+   */
+  public FileAuditLogReader(Path dir, String prefix, String hashAlgo) {
+    this.dir = Args.notNull(dir, "dir");
+    this.prefix = Args.notBlank(prefix, "prefix");
+    if (hashAlgo == null || "none".equalsIgnoreCase(hashAlgo)) {
+      this.md = null;
+    } else {
+      try {
+        this.md = MessageDigest.getInstance(hashAlgo);
+      } catch (NoSuchAlgorithmException ex) {
+        throw new IllegalArgumentException("unknown hashAlgo " + hashAlgo, ex);
+      }
+    }
+  } // constructor
+
+  /**
+   * Returns the audit files ordered by the sequence number of their first record.
+   *
+   * @return the audit files.
+   * @throws IOException
+   *           if IO error occurs.
+   */
+  public List<Path> listFiles() throws IOException {
+    List<long[]> seqs = new ArrayList<>();
+    List<Path> files = new ArrayList<>();
+    if (!Files.isDirectory(dir)) {
+      return files;
+    }
+
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(dir, prefix + "-*" + FileAuditService.FILE_SUFFIX)) {
+      for (Path file : stream) {
+        String name = file.getFileName().toString();
+        String str = name.substring(0, name.length() - FileAuditService.FILE_SUFFIX.length());
+        try {
+          long firstSeq = Long.parseLong(str.substring(str.lastIndexOf('-') + 1));
+          seqs.add(new long[]{firstSeq, files.size()});
+          files.add(file);
+        } catch (NumberFormatException ex) {
+          LOG.warn("ignore file with unknown name {}", file);
+        }
+      }
+    }
+
+    seqs.sort((a, b) -> Long.compare(a[0], b[0]));
+    List<Path> ret = new ArrayList<>(files.size());
+    for (long[] m : seqs) {
+      ret.add(files.get((int) m[1]));
+    }
+    return ret;
+  } // method listFiles
+
+  /**
+   * Verifies the sequence numbers and the hash chain of all records. The first record must
+   * have the sequence number 1 and, with the hash chain, the prev field consisting only of
+   * zeros, so that the removal of the first records is detected.
+   *
+   * @return the verification result.
+   * @throws IOException
+   *           if IO error occurs.
+   */
+  public VerifyResult verify() throws IOException {
+    VerifyResult result = new VerifyResult();
+    long expectedSeq = -1;
+    String expectedPrev = null;
+    boolean first = true;
+    String genesisPrev = (md == null) ? null : Hex.encode(new byte[md.getDigestLength()]);
+
+    for (Path file : listFiles()) {
+      result.numFiles++;
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        int lineNo = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lineNo++;
+          String location = file.getFileName() + ":" + lineNo;
+
+          long seq;
+          try {
+            seq = getSeq(line);
+          } catch (IllegalArgumentException ex) {
+            addError(result, location + ": " + ex.getMessage());
+            expectedSeq = -1;
+            expectedPrev = null;
+            continue;
+          }
+
+          if (result.numRecords == 0) {
+            result.firstSeq = seq;
+          }
+          result.numRecords++;
+          result.lastSeq = seq;
+
+          if (first && seq != 1) {
+            addError(result, location + ": first record has seq " + seq + " instead of 1");
+          } else if (expectedSeq != -1 && seq != expectedSeq) {
+            addError(result, location + ": expected seq " + expectedSeq + ", but is " + seq);
+          }
+          expectedSeq = seq + 1;
+
+          if (md != null) {
+            String prev = getPrev(line);
+            if (prev == null) {
+              addError(result, location + ": seq " + seq + " has no prev");
+            } else if (first) {
+              if (!genesisPrev.equalsIgnoreCase(prev)) {
+                addError(result, location + ": first record seq " + seq
+                    + " does not start the hash chain");
+              }
+            } else if (expectedPrev != null && !expectedPrev.equalsIgnoreCase(prev)) {
+              addError(result, location + ": seq " + seq + " does not match the hash of seq "
+                  + (seq - 1));
+            }
+            expectedPrev = Hex.encode(md.digest(line.getBytes(StandardCharsets.UTF_8)));
+          }
+          first = false;
+        }
+      }
+    }
+
+    return result;
+  } // method verify
+
+  /**
+   * Passes the records with sequence number within the given range to the consumer. The
+   * records without valid sequence number are skipped and passed to the errorConsumer.
+   *
+   * @param fromSeq
+   *          The smallest sequence number (inclusive).
+   * @param toSeq
+   *          The greatest sequence number (inclusive).
+   * @param consumer
+   *          Consumer of the records. Must not be {@code null}.
+   * @param errorConsumer
+   *          Consumer of the description (location and reason) of the malformed records.
+   *          Must not be {@code null}.
+   * @return number of replayed records.
+   * @throws IOException
+   *           if IO error occurs.
+   */
+  public long replay(long fromSeq, long toSeq, Consumer<String> consumer,
+      Consumer<String> errorConsumer) throws IOException {
+    Args.notNull(consumer, "consumer");
+    Args.notNull(errorConsumer, "errorConsumer");
+    List<Path> files = listFiles();
+    long num = 0;
+    for (int i = 0; i < files.size(); i++) {
+      // skip the files containing only records before fromSeq
+      if (i + 1 < files.size() && getFirstSeq(files.get(i + 1)) <= fromSeq) {
+        continue;
+      }
+
+      Path file = files.get(i);
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        int lineNo = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lineNo++;
+          long seq;
+          try {
+            seq = getSeq(line);
+          } catch (IllegalArgumentException ex) {
+            errorConsumer.accept(file.getFileName() + ":" + lineNo + ": " + ex.getMessage());
+            continue;
+          }
+
+          if (seq > toSeq) {
+            return num;
+          }
+
+          if (seq >= fromSeq) {
+            consumer.accept(line);
+            num++;
+          }
+        }
+      }
+    }
+
+    return num;
+  } // method replay
+
+  /**
+   * Removes the incomplete record at the end of the last file (e.g. after a crash) and returns
+   * the last complete record.
+   *
+   * @return the last complete record, or {@code null} if there is none.
+   * @throws IOException
+   *           if IO error occurs.
+   */
+  String recoverLastRecord() throws IOException {
+    List<Path> files = listFiles();
+    for (int i = files.size() - 1; i >= 0; i--) {
+      Path file = files.get(i);
+      try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ,
+          StandardOpenOption.WRITE)) {
+        long size = ch.size();
+        if (size == 0) {
+          continue;
+        }
+
+        long lastNewline = findLastNewline(ch, size);
+        if (lastNewline != size - 1) {
+          LOG.warn("removed incomplete record at the end of the audit file {}", file);
+          ch.truncate(lastNewline + 1);
+          ch.force(true);
+        }
+
+        if (lastNewline < 0) {
+          continue;
+        }
+
+        long start = findLastNewline(ch, lastNewline) + 1;
+        ByteBuffer bb = ByteBuffer.allocate((int) (lastNewline - start));
+        while (bb.hasRemaining()) {
+          if (ch.read(bb, start + bb.position()) < 0) {
+            break;
+          }
+        }
+        return new String(bb.array(), StandardCharsets.UTF_8);
+      }
+    }
+
+    return null;
+  } // method recoverLastRecord
+
+  private static long findLastNewline(FileChannel ch, long end) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(8192);
+    long pos = end;
+    while (pos > 0) {
+      int len = (int) Math.min(bb.capacity(), pos);
+      pos -= len;
+      bb.clear().limit(len);
+      while (bb.hasRemaining()) {
+        if (ch.read(bb, pos + bb.position()) < 0) {
+          break;
+        }
+      }
+
+      for (int i = len - 1; i >= 0; i--) {
+        if (bb.get(i) == '\n') {
+          return pos + i;
+        }
+      }
+    }
+    return -1;
+  } // method findLastNewline
+
+  private static void addError(VerifyResult result, String error) {
+    if (result.errors.size() < MAX_ERRORS) {
+      result.errors.add(error);
+    }
+  }
+
+  private static long getFirstSeq(Path file) {
+    String name = file.getFileName().toString();
+    String str = name.substring(0, name.length() - FileAuditService.FILE_SUFFIX.length());
+    return Long.parseLong(str.substring(str.lastIndexOf('-') + 1));
+  }
+
+  static long getSeq(String record) {
+    if (!record.startsWith(FileAuditService.FIELD_SEQ)) {
+      throw new IllegalArgumentException("record does not start with seq");
+    }
+
+    int offset = FileAuditService.FIELD_SEQ.length();
+    int idx = record.indexOf(',', offset);
+    try {
+      return Long.parseLong(record.substring(offset, idx == -1 ? record.length() - 1 : idx));
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("invalid seq");
+    }
+  } // method getSeq
+
+  static String getPrev(String record) {
+    int idx = record.lastIndexOf(FileAuditService.FIELD_PREV);
+    if (idx == -1 || !record.endsWith("\"}")) {
+      return null;
+    }
+    return record.substring(idx + FileAuditService.FIELD_PREV.length(), record.length() - 2);
+  }
+
+}
@@ -0,0 +1,533 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditEventData;
+import org.xipki.audit.AuditService;
+import org.xipki.audit.AuditServiceRuntimeException;
+import org.xipki.audit.AuditStatus;
+import org.xipki.audit.PciAuditEvent;
+import org.xipki.util.Hex;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+import org.xipki.util.metrics.MetricsRegistry;
+
+/**
+ * Audit service which appends the events as JSON lines to local files.
+ *
+ * <p>The records are buffered and written to the file and synchronized to the disk (fsync)
+ * by a background thread every syncInterval milliseconds. If waitForSync is true, the caller
+ * wakes up the background thread and waits until its record has been synchronized, the
+ * records of all callers arriving during one fsync are committed with the next one (group
+ * commit). The files are rotated if the maximal size is reached or the rotation interval
+ * elapsed. With the hash chain, each record contains in the field prev the hex encoded digest
+ * of the previous record, so that any modification, insertion or removal of records can be
+ * detected by {@link FileAuditLogReader#verify()}.
+ *
+ * <p>The configuration is a properties file with the following keys:
+ * <ul>
+ *   <li>dir: directory of the files, default logs/audit</li>
+ *   <li>prefix: prefix of the file names, default audit</li>
+ *   <li>maxFileSize: maximal size of a file in MB, default 100</li>
+ *   <li>rotationInterval: rotation interval in minutes, 0 to disable, default 1440</li>
+ *   <li>syncInterval: interval of the group commit in milliseconds, default 200</li>
+ *   <li>waitForSync: whether the caller waits for the fsync, default false</li>
+ *   <li>hashAlgo: hash algorithm of the hash chain, none to disable, default SHA-256</li>
+ * </ul>
+ *
+ * @author Lijun Liao
+ */
+
+public class FileAuditService implements AuditService, Closeable {
+
+  public static final String FILE_SUFFIX = ".jsonl";
+
+  static final String FIELD_SEQ = "{\"seq\":";
+
+  static final String FIELD_PREV = ",\"prev\":\"";
+
+  private static final Logger LOG = LoggerFactory.getLogger(FileAuditService.class);
+
+  private static final DateTimeFormatter FILE_TIME_FORMATTER =
+      DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final String METRIC_STATISTICS = "xipki_audit_file";
+
+  private final Object lock = new Object();
+
+  private final Object syncMonitor = new Object();
+
+  private final Object syncRequest = new Object();
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  private final LongAdder countRecords = new LongAdder();
+
+  private final LongAdder countFailed = new LongAdder();
+
+  private final LongAdder countSyncs = new LongAdder();
+
+  private final LongAdder countRotations = new LongAdder();
+
+  private Path dir;
+
+  private String prefix;
+
+  private long maxFileSize;
+
+  private long rotationInterval;
+
+  private long syncInterval;
+
+  private boolean waitForSync;
+
+  private MessageDigest md;
+
+  private FileChannel channel;
+
+  private long fileSize;
+
+  private long nextRotationTime;
+
+  private long seq;
+
+  private byte[] prevHash;
+
+  private boolean syncRequested;
+
+  private volatile long syncedSeq;
+
+  private volatile long maxSyncNanos;
+
+  private volatile boolean closed;
+
+  private Thread syncer;
+
+  public FileAuditService() {
+  }
+
+  @Override
+  public void init(String conf) {
+    LOG.info("initializing: {}", FileAuditService.class);
+    Properties props = new Properties();
+    if (conf != null && !conf.trim().isEmpty()) {
+      try (InputStream is = Files.newInputStream(Paths.get(IoUtil.expandFilepath(conf.trim())))) {
+        props.load(is);
+      } catch (IOException ex) {
+        throw new AuditServiceRuntimeException("could not load properties from file " + conf, ex);
+      }
+    }
+
+    this.dir = Paths.get(IoUtil.expandFilepath(props.getProperty("dir", "logs/audit")));
+    this.prefix = props.getProperty("prefix", "audit");
+    this.maxFileSize = Long.parseLong(props.getProperty("maxFileSize", "100")) * 1024 * 1024;
+    this.rotationInterval =
+        Long.parseLong(props.getProperty("rotationInterval", "1440")) * 60 * 1000;
+    this.syncInterval = Math.max(1, Long.parseLong(props.getProperty("syncInterval", "200")));
+    this.waitForSync = Boolean.parseBoolean(props.getProperty("waitForSync", "false"));
+
+    if (maxFileSize < 1) {
+      throw new AuditServiceRuntimeException("invalid maxFileSize " + maxFileSize);
+    }
+
+    String hashAlgo = props.getProperty("hashAlgo", "SHA-256");
+    if (!"none".equalsIgnoreCase(hashAlgo)) {
+      try {
+        this.md = MessageDigest.getInstance(hashAlgo);
+      } catch (NoSuchAlgorithmException ex) {
+        throw new AuditServiceRuntimeException("unknown hashAlgo " + hashAlgo, ex);
+      }
+    }
+
+    try {
+      Files.createDirectories(dir);
+      FileAuditLogReader reader = new FileAuditLogReader(dir, prefix, hashAlgo);
+      String lastRecord = reader.recoverLastRecord();
+      if (lastRecord != null) {
+        this.seq = FileAuditLogReader.getSeq(lastRecord);
+        if (md != null) {
+          this.prevHash = md.digest(lastRecord.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      this.syncedSeq = seq;
+
+      synchronized (lock) {
+        openFile();
+      }
+    } catch (IOException ex) {
+      throw new AuditServiceRuntimeException("could not initialize the audit file in " + dir, ex);
+    }
+
+    if (md != null && prevHash == null) {
+      prevHash = new byte[md.getDigestLength()];
+    }
+
+    syncer = new Thread(() -> {
+      while (!closed) {
+        synchronized (syncRequest) {
+          try {
+            if (!syncRequested) {
+              syncRequest.wait(syncInterval);
+            }
+          } catch (InterruptedException ex) {
+            // closed
+          }
+          syncRequested = false;
+        }
+        sync();
+      }
+    }, "audit-file-syncer");
+    syncer.setDaemon(true);
+    syncer.start();
+
+    MetricsRegistry.getDefault().statistics(METRIC_STATISTICS, "Statistics of the file audit",
+        "stat", this::getStatistics);
+    LOG.info("initialized: {}, dir={}, seq={}", FileAuditService.class, dir, seq);
+  } // method init
+
+  @Override
+  public void logEvent(AuditEvent event) {
+    StringBuilder sb = new StringBuilder(300);
+    sb.append("\"time\":");
+    appendTime(sb, event.getTimestamp());
+    sb.append(",\"level\":");
+    appendString(sb, event.getLevel().name());
+    sb.append(",\"app\":");
+    appendString(sb, event.getApplicationName());
+    sb.append(",\"name\":");
+    appendString(sb, event.getName());
+
+    AuditStatus status = event.getStatus();
+    sb.append(",\"status\":");
+    appendString(sb, (status == null ? AuditStatus.UNDEFINED : status).name());
+
+    long duration = event.getDuration();
+    if (duration >= 0) {
+      sb.append(",\"duration\":").append(duration);
+    }
+
+    List<AuditEventData> eventDatas = event.getEventDatas();
+    if (eventDatas != null && !eventDatas.isEmpty()) {
+      sb.append(",\"data\":{");
+      boolean first = true;
+      for (AuditEventData m : eventDatas) {
+        if (duration >= 0 && "duration".equalsIgnoreCase(m.getName())) {
+          continue;
+        }
+
+        if (!first) {
+          sb.append(',');
+        }
+        first = false;
+        appendString(sb, m.getName());
+        sb.append(':');
+        appendString(sb, m.getValue());
+      }
+      sb.append('}');
+    }
+
+    append(sb);
+  } // method logEvent(AuditEvent)
+
+  @Override
+  public void logEvent(PciAuditEvent event) {
+    StringBuilder sb = new StringBuilder(300);
+    sb.append("\"time\":");
+    appendTime(sb, new Date());
+    sb.append(",\"level\":");
+    appendString(sb, event.getLevel().name());
+    sb.append(",\"pci\":{\"userId\":");
+    appendString(sb, event.getUserId());
+    sb.append(",\"eventType\":");
+    appendString(sb, event.getEventType());
+    sb.append(",\"date\":");
+    appendString(sb, event.getDate());
+    sb.append(",\"time\":");
+    appendString(sb, event.getTime());
+    sb.append(",\"status\":");
+    appendString(sb, event.getStatus());
+    sb.append(",\"origination\":");
+    appendString(sb, event.getOrigination());
+    sb.append(",\"affectedResource\":");
+    appendString(sb, event.getAffectedResource());
+    sb.append('}');
+
+    append(sb);
+  } // method logEvent(PciAuditEvent)
+
+  public Map<String, Long> getStatistics() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("records", countRecords.sum());
+    stats.put("failed", countFailed.sum());
+    stats.put("syncs", countSyncs.sum());
+    stats.put("rotations", countRotations.sum());
+    stats.put("maxSyncNanos", maxSyncNanos);
+    return stats;
+  } // method getStatistics
+
+  private void append(StringBuilder body) {
+    if (closed) {
+      countFailed.increment();
+      LOG.error("file audit closed, ignore the event");
+      return;
+    }
+
+    long mySeq;
+    try {
+      synchronized (lock) {
+        mySeq = ++seq;
+        StringBuilder sb = new StringBuilder(body.length() + 120);
+        sb.append(FIELD_SEQ).append(mySeq).append(',').append(body);
+        if (md != null) {
+          sb.append(FIELD_PREV).append(Hex.encode(prevHash)).append('"');
+        }
+        sb.append('}');
+
+        byte[] record = sb.toString().getBytes(StandardCharsets.UTF_8);
+        if (md != null) {
+          prevHash = md.digest(record);
+        }
+
+        int len = record.length + 1;
+        if (fileSize > 0 && (fileSize + len > maxFileSize
+            || (rotationInterval > 0 && System.currentTimeMillis() >= nextRotationTime))) {
+          rotate();
+        }
+
+        if (buffer.remaining() < len) {
+          flushBuffer();
+        }
+
+        if (len > buffer.capacity()) {
+          ByteBuffer bb = ByteBuffer.allocate(len);
+          bb.put(record).put((byte) '\n').flip();
+          while (bb.hasRemaining()) {
+            channel.write(bb);
+          }
+        } else {
+          buffer.put(record).put((byte) '\n');
+        }
+        fileSize += len;
+      }
+      countRecords.increment();
+    } catch (IOException | RuntimeException ex) {
+      countFailed.increment();
+      LogUtil.error(LOG, ex, "could not write audit event to file");
+      return;
+    }
+
+    if (waitForSync) {
+      // wake up the syncer, all records written during the current fsync are committed
+      // with the next fsync.
+      synchronized (syncRequest) {
+        syncRequested = true;
+        syncRequest.notify();
+      }
+
+      synchronized (syncMonitor) {
+        while (syncedSeq < mySeq && !closed) {
+          try {
+            syncMonitor.wait(syncInterval);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+    }
+  } // method append
+
+  private void sync() {
+    long targetSeq;
+    FileChannel ch;
+    try {
+      synchronized (lock) {
+        if (channel == null) {
+          return;
+        }
+        flushBuffer();
+        targetSeq = seq;
+        ch = channel;
+      }
+
+      if (targetSeq > syncedSeq) {
+        long start = System.nanoTime();
+        ch.force(false);
+        long duration = System.nanoTime() - start;
+        if (duration > maxSyncNanos) {
+          maxSyncNanos = duration;
+        }
+        countSyncs.increment();
+      }
+    } catch (ClosedChannelException ex) {
+      // file has been rotated, and was synchronized while closing.
+      return;
+    } catch (IOException ex) {
+      LogUtil.error(LOG, ex, "could not synchronize the audit file");
+      return;
+    }
+
+    markSynced(targetSeq);
+  } // method sync
+
+  private void markSynced(long targetSeq) {
+    synchronized (syncMonitor) {
+      if (targetSeq > syncedSeq) {
+        syncedSeq = targetSeq;
+      }
+      syncMonitor.notifyAll();
+    }
+  } // method markSynced
+
+  // must be called within lock
+  private void flushBuffer() throws IOException {
+    if (buffer.position() == 0) {
+      return;
+    }
+
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  } // method flushBuffer
+
+  // must be called within lock
+  private void rotate() throws IOException {
+    flushBuffer();
+    long lastSeq = seq - 1;
+    channel.force(true);
+    channel.close();
+    markSynced(lastSeq);
+    countRotations.increment();
+    openFile();
+  } // method rotate
+
+  // must be called within lock
+  private void openFile() throws IOException {
+    long now = System.currentTimeMillis();
+    String fileName = prefix + "-" + FILE_TIME_FORMATTER.format(Instant.ofEpochMilli(now))
+        + "-" + (seq + 1) + FILE_SUFFIX;
+    Path path = dir.resolve(fileName);
+    channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    fileSize = 0;
+    nextRotationTime = now + rotationInterval;
+    LOG.info("opened audit file {}", path);
+  } // method openFile
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    MetricsRegistry.getDefault().remove(METRIC_STATISTICS);
+    if (syncer != null) {
+      syncer.interrupt();
+      try {
+        syncer.join(10000);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized (lock) {
+      if (channel != null) {
+        flushBuffer();
+        channel.force(true);
+        channel.close();
+        channel = null;
+      }
+    }
+
+    markSynced(seq);
+    LOG.info("closed file audit: {}", getStatistics());
+  } // method close
+
+  private static void appendTime(StringBuilder sb, Date time) {
+    sb.append('"').append((time == null ? Instant.now() : time.toInstant()).toString())
+      .append('"');
+  }
+
+  private static void appendString(StringBuilder sb, String value) {
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+
+    sb.append('"');
+    final int len = value.length();
+    for (int i = 0; i < len; i++) {
+      char ch = value.charAt(i);
+      switch (ch) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (ch < 0x20) {
+            sb.append(String.format("\\u%04x", (int) ch));
+          } else {
+            sb.append(ch);
+          }
+      }
+    }
+    sb.append('"');
+  } // method appendString
+
+}
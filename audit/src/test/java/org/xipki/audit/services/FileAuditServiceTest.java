@@ -0,0 +1,273 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.audit.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.audit.AuditEvent;
+import org.xipki.audit.AuditLevel;
+import org.xipki.audit.AuditStatus;
+import org.xipki.audit.services.FileAuditLogReader.VerifyResult;
+
+/**
+ * FileAuditService and FileAuditLogReader test.
+ *
+ * @author Lijun Liao
+ */
+
+public class FileAuditServiceTest {
+
+  private static final String PREFIX = "audit";
+
+  private Path dir;
+
+  private FileAuditService service;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("file-audit");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (service != null) {
+      service.close();
+    }
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path file : stream) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  public void testGroupCommit() throws Exception {
+    service = newService("waitForSync=true\nsyncInterval=5000\n");
+
+    final int numThreads = 8;
+    final int numPerThread = 50;
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>(numThreads);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numThreads; i++) {
+      final int threadIndex = i;
+      Thread thread = new Thread(() -> {
+        try {
+          for (int j = 0; j < numPerThread; j++) {
+            service.logEvent(newEvent("thread-" + threadIndex + "-" + j, 10));
+          }
+        } catch (Throwable th) {
+          error.set(th);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long duration = System.currentTimeMillis() - start;
+    Assert.assertNull("error in thread", error.get());
+
+    // the callers are woken up and do not wait for the next regular sync
+    Assert.assertTrue("waited for the syncInterval: " + duration + " ms", duration < 5000);
+
+    // all records have been written to the file before the callers returned
+    int numRecords = numThreads * numPerThread;
+    long numLines = 0;
+    for (Path file : newReader().listFiles()) {
+      numLines += Files.readAllLines(file, StandardCharsets.UTF_8).size();
+    }
+    Assert.assertEquals("records in files", numRecords, numLines);
+
+    long numSyncs = service.getStatistics().get("syncs");
+    Assert.assertTrue("no group commit: " + numSyncs + " syncs",
+        numSyncs > 0 && numSyncs < numRecords);
+
+    service.close();
+    assertValid(newReader().verify(), numRecords);
+  } // method testGroupCommit
+
+  @Test
+  public void testRotation() throws Exception {
+    service = newService("maxFileSize=1\n");
+    int numRecords = 2500;
+    for (int i = 0; i < numRecords; i++) {
+      service.logEvent(newEvent("event-" + i, 1000));
+    }
+    service.close();
+
+    FileAuditLogReader reader = newReader();
+    List<Path> files = reader.listFiles();
+    Assert.assertTrue("too few files: " + files.size(), files.size() >= 3);
+    for (Path file : files) {
+      Assert.assertTrue("file is too large: " + file, Files.size(file) <= 1024 * 1024);
+    }
+
+    VerifyResult result = reader.verify();
+    assertValid(result, numRecords);
+    Assert.assertEquals("number of files", files.size(), result.getNumFiles());
+
+    // records across the file boundaries
+    List<String> records = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+    Assert.assertEquals("number of replayed records", 1001,
+        reader.replay(1000, 2000, records::add, errors::add));
+    Assert.assertEquals("errors", 0, errors.size());
+    for (int i = 0; i < records.size(); i++) {
+      Assert.assertEquals("seq", 1000 + i, FileAuditLogReader.getSeq(records.get(i)));
+    }
+  } // method testRotation
+
+  @Test
+  public void testTornRecordRecovery() throws Exception {
+    service = newService("");
+    for (int i = 0; i < 10; i++) {
+      service.logEvent(newEvent("event-" + i, 10));
+    }
+    service.close();
+
+    // crash while writing the 11th record
+    List<Path> files = newReader().listFiles();
+    Files.write(files.get(files.size() - 1),
+        "{\"seq\":11,\"time\":\"2020".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+    Assert.assertFalse("torn record is not detected", newReader().verify().isValid());
+
+    service = newService("");
+    for (int i = 10; i < 15; i++) {
+      service.logEvent(newEvent("event-" + i, 10));
+    }
+    service.close();
+
+    assertValid(newReader().verify(), 15);
+  } // method testTornRecordRecovery
+
+  @Test
+  public void testTamperedRecord() throws Exception {
+    writeRecords(10);
+    Path file = newReader().listFiles().get(0);
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+    // modified record
+    List<String> modified = new ArrayList<>(lines);
+    modified.set(4, modified.get(4).replace("event-4", "event-X"));
+    Files.write(file, modified, StandardCharsets.UTF_8);
+    assertErrors(newReader().verify(), "seq 6 does not match the hash of seq 5");
+
+    // removed record
+    modified = new ArrayList<>(lines);
+    modified.remove(4);
+    Files.write(file, modified, StandardCharsets.UTF_8);
+    assertErrors(newReader().verify(), "expected seq 5, but is 6",
+        "seq 6 does not match the hash of seq 5");
+
+    // removed first record
+    modified = new ArrayList<>(lines);
+    modified.remove(0);
+    Files.write(file, modified, StandardCharsets.UTF_8);
+    assertErrors(newReader().verify(), "first record has seq 2 instead of 1",
+        "first record seq 2 does not start the hash chain");
+
+    // malformed record
+    modified = new ArrayList<>(lines);
+    modified.set(4, "garbage");
+    Files.write(file, modified, StandardCharsets.UTF_8);
+    Assert.assertFalse("malformed record is not detected", newReader().verify().isValid());
+
+    List<String> records = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+    Assert.assertEquals("number of replayed records", 9,
+        newReader().replay(0, Long.MAX_VALUE, records::add, errors::add));
+    Assert.assertEquals("errors", 1, errors.size());
+    Assert.assertTrue("error " + errors.get(0),
+        errors.get(0).startsWith(file.getFileName() + ":5: "));
+  } // method testTamperedRecord
+
+  private void writeRecords(int num) throws IOException {
+    service = newService("");
+    for (int i = 0; i < num; i++) {
+      service.logEvent(newEvent("event-" + i, 10));
+    }
+    service.close();
+    assertValid(newReader().verify(), num);
+  }
+
+  private FileAuditService newService(String conf) throws IOException {
+    Path confFile = dir.resolve("audit.cfg");
+    String str = "dir=" + dir.toString().replace('\\', '/') + "\nprefix=" + PREFIX + "\n" + conf;
+    Files.write(confFile, str.getBytes(StandardCharsets.UTF_8));
+    try {
+      FileAuditService ret = new FileAuditService();
+      ret.init(confFile.toString());
+      return ret;
+    } finally {
+      Files.delete(confFile);
+    }
+  }
+
+  private FileAuditLogReader newReader() {
+    return new FileAuditLogReader(dir, PREFIX, "SHA-256");
+  }
+
+  private static AuditEvent newEvent(String name, int dataSize) {
+    AuditEvent event = new AuditEvent(new Date());
+    event.setApplicationName("test");
+    event.setLevel(AuditLevel.INFO);
+    event.setName(name);
+    event.setStatus(AuditStatus.SUCCESSFUL);
+    StringBuilder sb = new StringBuilder(dataSize);
+    for (int i = 0; i < dataSize; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+    event.addEventData("data", sb.toString());
+    return event;
+  }
+
+  private static void assertValid(VerifyResult result, long numRecords) {
+    Assert.assertTrue("invalid: " + result.getErrors(), result.isValid());
+    Assert.assertEquals("number of records", numRecords, result.getNumRecords());
+    Assert.assertEquals("first seq", 1, result.getFirstSeq());
+    Assert.assertEquals("last seq", numRecords, result.getLastSeq());
+  }
+
+  private static void assertErrors(VerifyResult result, String... errors) {
+    Assert.assertEquals("errors " + result.getErrors(), errors.length, result.getErrors().size());
+    for (int i = 0; i < errors.length; i++) {
+      Assert.assertTrue("error " + result.getErrors().get(i),
+          result.getErrors().get(i).endsWith(errors[i]));
+    }
+  }
+
+}
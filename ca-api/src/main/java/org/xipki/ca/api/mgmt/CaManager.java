@@ -741,6 +741,35 @@ public interface CaManager {
   List<CertListInfo> listCertificates(String caName, X500Name subjectPattern, Date validFrom,
       Date validTo, CertListOrderBy orderBy, int numEntries) throws CaMgmtException;
 
+  /**
+   * Streams the certificates with database ID greater than {@code afterId} in ascending order
+   * of the ID. Unlike {@link #listCertificates(String, X500Name, Date, Date, CertListOrderBy,
+   * int)}, the certificates are not collected in memory, and the ID of the last handled
+   * certificate can be used as {@code afterId} of the next call to continue the scan.
+   *
+   * @param caName
+   *          CA name. Must not be {@code null}.
+   * @param subjectPattern
+   *          Subject pattern. Could be {@code null}.
+   * @param validFrom
+   *          Valid from. Could be {@code null}.
+   * @param validTo
+   *          Valid to. Could be {@code null}.
+   * @param afterId
+   *          Only certificates with ID greater than this value are streamed, 0 to start from
+   *          the beginning.
+   * @param numEntries
+   *          Maximal number of certificates to be streamed.
+   * @param handler
+   *          Handler of the certificates. Must not be {@code null}.
+   * @return the ID of the last handled certificate, or {@code afterId} if no certificate is
+   *         found.
+   * @throws CaMgmtException
+   *          if error occurs.
+   */
+  long streamCertificates(String caName, X500Name subjectPattern, Date validFrom, Date validTo,
+      long afterId, int numEntries, CertListHandler handler) throws CaMgmtException;
+
   /**
    * Returns the request used to enroll the given certificate.
    * @param caName
@@ -0,0 +1,39 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.api.mgmt;
+
+/**
+ * Handler of the certificates streamed by
+ * {@link CaManager#streamCertificates(String, org.bouncycastle.asn1.x500.X500Name,
+ * java.util.Date, java.util.Date, long, int, CertListHandler)}.
+ *
+ * @author Lijun Liao
+ */
+
+public interface CertListHandler {
+
+  /**
+   * Handles one certificate.
+   * @param certInfo
+   *          Certificate meta information. Must not be {@code null}.
+   * @throws CaMgmtException
+   *          if error occurs, the streaming will be aborted.
+   */
+  void handle(CertListInfo certInfo) throws CaMgmtException;
+
+}
@@ -30,6 +30,14 @@ import org.xipki.util.Args;
  */
 
 public class CertListInfo {
+
+  /**
+   * Database ID of the certificate, only set by
+   * {@link CaManager#streamCertificates(String, org.bouncycastle.asn1.x500.X500Name, Date,
+   * Date, long, int, CertListHandler)}.
+   */
+  private long id;
+
   private BigInteger serialNumber;
 
   private Date notBefore;
@@ -50,6 +58,20 @@ public class CertListInfo {
     this.subject = Args.notNull(subject, "subject");
   }
 
+  public CertListInfo(long id, BigInteger serialNumber, String subject, Date notBefore,
+      Date notAfter) {
+    this(serialNumber, subject, notBefore, notAfter);
+    this.id = id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public long getId() {
+    return id;
+  }
+
   public void setSerialNumber(BigInteger serialNumber) {
     this.serialNumber = Args.notNull(serialNumber, "serialNumber");
   }
@@ -48,10 +48,35 @@ public class CtlogControl {
    */
   public static final String KEY_SSLCONTEXT_NAME = "sslcontext.name";
 
+  /**
+   * Minimal number of SCTs to be embedded in the certificate, default to the number of
+   * CT Log servers.
+   */
+  public static final String KEY_MIN_SCTS = "min.scts";
+
+  /**
+   * Timeout in milliseconds for each CT Log server, default to 10000.
+   */
+  public static final String KEY_TIMEOUT = "timeout";
+
+  /**
+   * Maximal number of pooled keep-alive connections to each CT Log server, default to 0
+   * (no pooling).
+   */
+  public static final String KEY_MAX_CONNECTIONS = "max.connections";
+
+  private static final int DFLT_TIMEOUT = 10000;
+
   private boolean enabled;
 
   private String sslContextName;
 
+  private int minScts;
+
+  private int timeout = DFLT_TIMEOUT;
+
+  private int maxConnections;
+
   private List<String> servers;
 
   private String conf;
@@ -70,6 +95,23 @@ public class CtlogControl {
       throw new InvalidConfException(KEY_SERVERS + " is not specified");
     }
 
+    minScts = getInt(pairs, KEY_MIN_SCTS, servers.size());
+    if (minScts < 1 || minScts > servers.size()) {
+      throw new InvalidConfException(KEY_MIN_SCTS + " is not in [1, " + servers.size() + "]");
+    }
+
+    timeout = getInt(pairs, KEY_TIMEOUT, DFLT_TIMEOUT);
+    if (timeout < 1) {
+      throw new InvalidConfException(KEY_TIMEOUT + " is not positive");
+    }
+
+    if (pairs.value(KEY_MAX_CONNECTIONS) != null) {
+      maxConnections = getInt(pairs, KEY_MAX_CONNECTIONS, 0);
+      if (maxConnections < 0) {
+        throw new InvalidConfException(KEY_MAX_CONNECTIONS + " is negative");
+      }
+    }
+
     this.conf = pairs.getEncoded();
   } // constructor
 
@@ -83,6 +125,7 @@ public class CtlogControl {
 
     pairs.putPair(KEY_SERVERS, StringUtil.collectionAsString(servers, ";"));
     this.servers = servers;
+    this.minScts = servers.size();
 
     this.sslContextName = sslContextName;
     if (sslContextName != null) {
@@ -108,6 +151,30 @@ public class CtlogControl {
     this.sslContextName = sslContextName;
   }
 
+  public int getMinScts() {
+    return minScts;
+  }
+
+  public void setMinScts(int minScts) {
+    this.minScts = minScts;
+  }
+
+  public int getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
   public List<String> getServers() {
     return servers;
   }
@@ -134,7 +201,10 @@ public class CtlogControl {
     return StringUtil.concatObjects(
         "  enabled: ", enabled,
         "\n  SSL context name: ", sslContextName,
-        "\n  Servers: ", servers);
+        "\n  Servers: ", servers,
+        "\n  Minimal SCTs: ", minScts,
+        "\n  Timeout: ", timeout, " ms",
+        "\n  Max. connections: ", maxConnections);
   }
 
   @Override
@@ -155,4 +225,21 @@ public class CtlogControl {
     return ret;
   } // method getBoolean
 
+  private static int getInt(ConfPairs pairs, String key, int defaultValue)
+      throws InvalidConfException {
+    String str = pairs.value(key);
+    if (StringUtil.isBlank(str)) {
+      return defaultValue;
+    }
+
+    int ret;
+    try {
+      ret = Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new InvalidConfException("invalid " + key + ": " + str);
+    }
+    pairs.putPair(key, Integer.toString(ret));
+    return ret;
+  } // method getInt
+
 }
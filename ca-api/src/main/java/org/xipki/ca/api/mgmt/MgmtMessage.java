@@ -114,6 +114,7 @@ public abstract class MgmtMessage {
     restartCaSystem,
     revokeCa,
     revokeCertficate,
+    streamCertificates,
     unlockCa,
     unrevokeCa,
     unrevokeCertificate;
@@ -563,6 +563,60 @@ public abstract class MgmtRequest extends MgmtMessage {
 
   } // class ListCertificates
 
+  public static class StreamCertificates extends CaNameRequest {
+
+    private byte[] encodedSubjectDnPattern;
+
+    private Date validFrom;
+
+    private Date validTo;
+
+    private long afterId;
+
+    private int numEntries;
+
+    public byte[] getEncodedSubjectDnPattern() {
+      return encodedSubjectDnPattern;
+    }
+
+    public void setEncodedSubjectDnPattern(byte[] encodedSubjectDnPattern) {
+      this.encodedSubjectDnPattern = encodedSubjectDnPattern;
+    }
+
+    public Date getValidFrom() {
+      return validFrom;
+    }
+
+    public void setValidFrom(Date validFrom) {
+      this.validFrom = validFrom;
+    }
+
+    public Date getValidTo() {
+      return validTo;
+    }
+
+    public void setValidTo(Date validTo) {
+      this.validTo = validTo;
+    }
+
+    public long getAfterId() {
+      return afterId;
+    }
+
+    public void setAfterId(long afterId) {
+      this.afterId = afterId;
+    }
+
+    public int getNumEntries() {
+      return numEntries;
+    }
+
+    public void setNumEntries(int numEntries) {
+      this.numEntries = numEntries;
+    }
+
+  } // class StreamCertificates
+
   public static class LoadConf extends MgmtRequest {
 
     private byte[] confBytes;
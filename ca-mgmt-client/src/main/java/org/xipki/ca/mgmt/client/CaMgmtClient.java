@@ -20,11 +20,13 @@ package org.xipki.ca.mgmt.client;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
 import java.util.Date;
@@ -42,6 +44,7 @@ import org.bouncycastle.cert.X509CRLHolder;
 import org.xipki.ca.api.mgmt.CaManager;
 import org.xipki.ca.api.mgmt.CaMgmtException;
 import org.xipki.ca.api.mgmt.CaSystemStatus;
+import org.xipki.ca.api.mgmt.CertListHandler;
 import org.xipki.ca.api.mgmt.CertListInfo;
 import org.xipki.ca.api.mgmt.CertListOrderBy;
 import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
@@ -64,6 +67,8 @@ import org.xipki.util.StringUtil;
 import org.xipki.util.http.SslContextConf;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONReader;
 
 /**
  * CA management client via REST API.
@@ -702,6 +707,46 @@ public class CaMgmtClient implements CaManager {
     return resp.getResult();
   } // method listCertificates
 
+  @Override
+  public long streamCertificates(String caName, X500Name subjectPattern, Date validFrom,
+      Date validTo, long afterId, int numEntries, CertListHandler handler)
+      throws CaMgmtException {
+    Args.notNull(handler, "handler");
+    MgmtRequest.StreamCertificates req = new MgmtRequest.StreamCertificates();
+    req.setCaName(caName);
+    if (subjectPattern != null) {
+      try {
+        req.setEncodedSubjectDnPattern(subjectPattern.getEncoded());
+      } catch (IOException ex) {
+        throw new CaMgmtException("could not parse subjectPattern", ex);
+      }
+    }
+
+    req.setValidFrom(validFrom);
+    req.setValidTo(validTo);
+    req.setAfterId(afterId);
+    req.setNumEntries(numEntries);
+
+    HttpURLConnection httpUrlConnection = send(MgmtAction.streamCertificates, req);
+    long lastId = afterId;
+    // parse the JSON array incrementally, the response may be very large.
+    try (JSONReader reader = new JSONReader(
+        new InputStreamReader(httpUrlConnection.getInputStream(), StandardCharsets.UTF_8))) {
+      reader.startArray();
+      while (reader.hasNext()) {
+        CertListInfo info = reader.readObject(CertListInfo.class);
+        handler.handle(info);
+        lastId = info.getId();
+      }
+      reader.endArray();
+    } catch (IOException | JSONException ex) {
+      throw new CaMgmtException("error while receiving the certificate list after ID " + lastId
+          + ": " + ex.getMessage(), ex);
+    }
+
+    return lastId;
+  } // method streamCertificates
+
   @Override
   public byte[] getCertRequest(String caName, BigInteger serialNumber) throws CaMgmtException {
     MgmtRequest.GetCertRequest req = new MgmtRequest.GetCertRequest();
@@ -772,6 +817,22 @@ public class CaMgmtClient implements CaManager {
 
   private byte[] transmit(MgmtAction action, MgmtRequest req, boolean voidReturn)
       throws CaMgmtException {
+    HttpURLConnection httpUrlConnection = send(action, req);
+    try {
+      InputStream in = httpUrlConnection.getInputStream();
+      if (voidReturn) {
+        in.close();
+        return null;
+      } else {
+        return IoUtil.read(in);
+      }
+    } catch (IOException ex) {
+      throw new CaMgmtException(
+          "IOException while receiving message from the server: " + ex.getMessage(), ex);
+    }
+  } // method transmit
+
+  private HttpURLConnection send(MgmtAction action, MgmtRequest req) throws CaMgmtException {
     initIfNotDone();
 
     byte[] reqBytes = req == null ? null : JSON.toJSONBytes(req);
@@ -804,27 +865,13 @@ public class CaMgmtClient implements CaManager {
       outputstream.flush();
 
       if (httpUrlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-        InputStream in = httpUrlConnection.getInputStream();
-
-        boolean inClosed = false;
-        try {
-          String responseContentType = httpUrlConnection.getContentType();
-          if (!RESPONSE_CT.equals(responseContentType)) {
-            throw new CaMgmtException(
-                "bad response: mime type " + responseContentType + " not supported!");
-          }
-
-          if (voidReturn) {
-            return null;
-          } else {
-            inClosed = true;
-            return IoUtil.read(httpUrlConnection.getInputStream());
-          }
-        } finally {
-          if (in != null & !inClosed) {
-            in.close();
-          }
+        String responseContentType = httpUrlConnection.getContentType();
+        if (!RESPONSE_CT.equals(responseContentType)) {
+          httpUrlConnection.getInputStream().close();
+          throw new CaMgmtException(
+              "bad response: mime type " + responseContentType + " not supported!");
         }
+        return httpUrlConnection;
       } else {
         String errorMessage = httpUrlConnection.getHeaderField(HttpConstants.HEADER_XIPKI_ERROR);
         if (errorMessage == null) {
@@ -843,7 +890,7 @@ public class CaMgmtClient implements CaManager {
       throw new CaMgmtException(
           "IOException while sending message to the server: " + ex.getMessage(), ex);
     }
-  } // method transmit
+  } // method send
 
   private static <T extends MgmtResponse> T parse(byte[] bytes, Class<?> clazz)
       throws CaMgmtException {
@@ -31,6 +31,8 @@ import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.Deflater;
@@ -58,6 +60,8 @@ public class DbToolBase implements Closeable {
 
   private static final int STREAM_BUFFER_SIZE = 1048576; // 1M
 
+  private static final int RANGES_PER_THREAD = 4;
+
   protected final AtomicBoolean stopMe;
 
   protected final DataSourceWrapper datasource;
@@ -290,6 +294,41 @@ public class DbToolBase implements Closeable {
     return sb.toString();
   } // method buildFilename
 
+  /**
+   * Splits the IDs from {@code minId} to {@code maxId} into ranges of equal size to be processed
+   * concurrently. There are more ranges than threads, so that the gaps in the ID space are
+   * balanced.
+   *
+   * @param minId
+   *          The minimal ID.
+   * @param maxId
+   *          The maximal ID, less than 1 if there is no entry.
+   * @param numThreads
+   *          Number of threads.
+   * @param minRangeSize
+   *          Minimal number of IDs in a range.
+   * @return the ranges, each in the form {fromId, toId}, empty if there is no ID.
+   */
+  public static List<long[]> splitIdRange(long minId, long maxId, int numThreads,
+      long minRangeSize) {
+    Args.positive(numThreads, "numThreads");
+    Args.positive(minRangeSize, "minRangeSize");
+
+    List<long[]> ranges = new ArrayList<>();
+    if (maxId < 1 || minId > maxId) {
+      return ranges;
+    }
+
+    long numIds = maxId - minId + 1;
+    long numRanges = Math.max(1, Math.min((long) numThreads * RANGES_PER_THREAD,
+        numIds / minRangeSize));
+    long rangeSize = (numIds + numRanges - 1) / numRanges;
+    for (long fromId = minId; fromId <= maxId; fromId += rangeSize) {
+      ranges.add(new long[]{fromId, Math.min(maxId, fromId + rangeSize - 1)});
+    }
+    return ranges;
+  } // method splitIdRange
+
   public static ZipOutputStream getZipOutputStream(File zipFile) throws IOException {
     BufferedOutputStream out = new BufferedOutputStream(
         Files.newOutputStream(zipFile.toPath()), STREAM_BUFFER_SIZE);
@@ -0,0 +1,843 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.ca.mgmt.db.diffdb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.mgmt.db.DbToolBase;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.security.FpIdCalculator;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.X509Cert;
+import org.xipki.security.util.X509Util;
+import org.xipki.util.Args;
+import org.xipki.util.Base64;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ProcessLog;
+
+/**
+ * Compare content of two databases via digests of buckets. The certificates of each CA are
+ * distributed to buckets by the prefix of the hash of their serial numbers. Both databases are
+ * scanned in parallel by disjoint ID ranges to compute the number and the order-independent
+ * digest of the certificates in each bucket. Only the certificates in the buckets whose digests
+ * differ are compared one by one.
+ *
+ * <p>The state of the scan is saved periodically in a checkpoint file in the report directory,
+ * an interrupted comparison can be resumed from there.
+ *
+ * @author Lijun Liao
+ */
+
+class BucketDigestDiff {
+
+  private interface ProgressListener {
+
+    void processed(int numProcessed);
+
+  } // interface ProgressListener
+
+  private static class ScanRange {
+
+    private final long fromId;
+
+    private final long toId;
+
+    private long lastId;
+
+    ScanRange(long fromId, long toId, long lastId) {
+      this.fromId = fromId;
+      this.toId = toId;
+      this.lastId = lastId;
+    }
+
+  } // class ScanRange
+
+  private static class CaPair {
+
+    private final int refCaId;
+
+    private final int targetCaId;
+
+    private final byte[] caCertBytes;
+
+    CaPair(int refCaId, int targetCaId, byte[] caCertBytes) {
+      this.refCaId = refCaId;
+      this.targetCaId = targetCaId;
+      this.caCertBytes = caCertBytes;
+    }
+
+  } // class CaPair
+
+  private static class Side {
+
+    private final String name;
+
+    private final DataSourceWrapper datasource;
+
+    private final DbType dbType;
+
+    private final boolean revokedOnly;
+
+    // CA id to the index of the CA in caPairs
+    private final Map<Integer, Integer> caIndexes = new HashMap<>();
+
+    private AtomicLongArray digests;
+
+    private AtomicLongArray counts;
+
+    private List<ScanRange> ranges;
+
+    private boolean scanned;
+
+    Side(String name, DataSourceWrapper datasource, DbType dbType, boolean revokedOnly) {
+      this.name = name;
+      this.datasource = datasource;
+      this.dbType = dbType;
+      this.revokedOnly = revokedOnly;
+    }
+
+    String caIdColumn() {
+      return dbType == DbType.XIPKI_OCSP_v4 ? "IID" : "CA_ID";
+    }
+
+  } // class Side
+
+  private static final Logger LOG = LoggerFactory.getLogger(BucketDigestDiff.class);
+
+  static final String CHECKPOINT_FILENAME = "bucket-diff.checkpoint";
+
+  private static final int CHECKPOINT_MAGIC = 0x42444431; // BDD1
+
+  private static final int BUCKET_BITS = 16;
+
+  private static final int NUM_BUCKETS = 1 << BUCKET_BITS;
+
+  private static final long CHECKPOINT_INTERVAL_MS = 30 * 1000L;
+
+  private static final int MAX_ENTRIES_IN_MEMORY = 1000000;
+
+  private final Side ref;
+
+  private final Side target;
+
+  private final HashAlgo certhashAlgo;
+
+  private final String reportDirName;
+
+  private final AtomicBoolean stopMe;
+
+  private final int numPerSelect;
+
+  private final int numThreads;
+
+  private final boolean resume;
+
+  private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+  private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+  private Set<byte[]> includeCaCerts;
+
+  private List<CaPair> caPairs;
+
+  public BucketDigestDiff(DataSourceWrapper refDatasource, DataSourceWrapper targetDatasource,
+      String reportDirName, boolean revokedOnly, AtomicBoolean stopMe, int numPerSelect,
+      int numThreads, boolean resume) throws DataAccessException {
+    Args.notNull(refDatasource, "refDatasource");
+    Args.notNull(targetDatasource, "targetDatasource");
+    this.reportDirName = Args.notNull(reportDirName, "reportDirName");
+    this.stopMe = Args.notNull(stopMe, "stopMe");
+    this.numPerSelect = Args.positive(numPerSelect, "numPerSelect");
+    this.numThreads = Args.positive(numThreads, "numThreads");
+    this.resume = resume;
+
+    DbType refDbType = DigestDiff.detectDbType(refDatasource);
+    DbType targetDbType = DigestDiff.detectDbType(targetDatasource);
+    this.certhashAlgo = DigestDiff.detectCerthashAlgo(refDatasource, refDbType,
+        targetDatasource);
+    if (targetDbType == DbType.XIPKI_OCSP_v4) {
+      HashAlgo targetAlgo = DigestDiff.detectOcspDbCerthashAlgo(targetDatasource);
+      if (targetAlgo != certhashAlgo) {
+        throw new IllegalArgumentException("certhashAlgo of the reference (" + certhashAlgo
+            + ") != of the target (" + targetAlgo + ")");
+      }
+    }
+
+    this.ref = new Side("reference", refDatasource, refDbType, revokedOnly);
+    this.target = new Side("target", targetDatasource, targetDbType, false);
+  } // constructor
+
+  public void setIncludeCaCerts(Set<byte[]> includeCaCerts) {
+    this.includeCaCerts = includeCaCerts;
+  }
+
+  public void diff() throws Exception {
+    File checkpointFile = new File(reportDirName, CHECKPOINT_FILENAME);
+    List<byte[]> unmatchedCas = matchCas();
+
+    if (resume && checkpointFile.exists()) {
+      readCheckpoint(checkpointFile);
+      System.out.println("resumed from the checkpoint file " + checkpointFile.getPath());
+    } else {
+      initScan();
+    }
+
+    if (!(ref.scanned && target.scanned)) {
+      scan(checkpointFile);
+    }
+
+    Set<String> reportDirs = new HashSet<>();
+    for (byte[] caCertBytes : unmatchedCas) {
+      DigestDiffReporter reporter = new DigestDiffReporter(newReportDir(caCertBytes, reportDirs),
+          caCertBytes);
+      reporter.addNoCaMatch();
+      reporter.close();
+    }
+
+    List<DigestDiffReporter> reporters = new ArrayList<>(caPairs.size());
+    try {
+      for (CaPair caPair : caPairs) {
+        reporters.add(new DigestDiffReporter(newReportDir(caPair.caCertBytes, reportDirs),
+            caPair.caCertBytes));
+      }
+
+      List<BitSet> groups = compareBuckets(reporters);
+      for (int i = 0; i < groups.size(); i++) {
+        System.out.println("comparing certificates in mismatching buckets, group "
+            + (i + 1) + "/" + groups.size());
+        drillDown(groups.get(i), reporters);
+      }
+    } finally {
+      for (DigestDiffReporter reporter : reporters) {
+        reporter.close();
+      }
+    }
+
+    checkpointFile.delete();
+  } // method diff
+
+  /**
+   * Pairs the CAs of the reference with the ones of the target.
+   *
+   * @return the certificates of the reference CAs without counterpart in the target.
+   */
+  List<byte[]> matchCas() throws DataAccessException {
+    Map<Integer, byte[]> refCas = DigestDiff.getCas(ref.datasource, ref.dbType);
+    Map<Integer, byte[]> targetCas = DigestDiff.getCas(target.datasource, target.dbType);
+
+    // reference CAs without counterpart in the target
+    List<byte[]> unmatchedCas = new ArrayList<>();
+    caPairs = new ArrayList<>();
+    for (Integer refCaId : new TreeMap<>(refCas).keySet()) {
+      byte[] caCertBytes = refCas.get(refCaId);
+      if (!isIncluded(caCertBytes)) {
+        System.out.println("skipped CA " + refCaId);
+        continue;
+      }
+
+      Integer targetCaId = null;
+      for (Integer id : targetCas.keySet()) {
+        if (Arrays.equals(caCertBytes, targetCas.get(id))) {
+          targetCaId = id;
+          break;
+        }
+      }
+
+      if (targetCaId == null) {
+        unmatchedCas.add(caCertBytes);
+      } else {
+        int index = caPairs.size();
+        caPairs.add(new CaPair(refCaId, targetCaId, caCertBytes));
+        ref.caIndexes.put(refCaId, index);
+        target.caIndexes.put(targetCaId, index);
+      }
+    }
+    return unmatchedCas;
+  } // method matchCas
+
+  /**
+   * Initializes the empty buckets and the ID ranges to be scanned.
+   */
+  void initScan() throws DataAccessException {
+    for (Side side : new Side[]{ref, target}) {
+      side.digests = new AtomicLongArray(caPairs.size() * NUM_BUCKETS);
+      side.counts = new AtomicLongArray(caPairs.size() * NUM_BUCKETS);
+      side.ranges = splitRanges(side);
+    }
+  } // method initScan
+
+  private boolean isIncluded(byte[] caCertBytes) {
+    if (includeCaCerts == null || includeCaCerts.isEmpty()) {
+      return true;
+    }
+
+    for (byte[] m : includeCaCerts) {
+      if (Arrays.equals(m, caCertBytes)) {
+        return true;
+      }
+    }
+    return false;
+  } // method isIncluded
+
+  private String newReportDir(byte[] caCertBytes, Set<String> reportDirs) {
+    String commonName;
+    try {
+      X509Cert caCert = X509Util.parseCert(caCertBytes);
+      commonName = caCert.getCommonName();
+    } catch (Exception ex) {
+      LogUtil.warn(LOG, ex, "could not parse CA certificate");
+      commonName = null;
+    }
+
+    String name = "ca-" + (commonName == null ? "unknown" : commonName);
+    String dirName = name;
+    int idx = 2;
+    while (!reportDirs.add(dirName)) {
+      dirName = name + "-" + (idx++);
+    }
+    return new File(reportDirName, dirName).getPath();
+  } // method newReportDir
+
+  private List<ScanRange> splitRanges(Side side) throws DataAccessException {
+    Connection conn = side.datasource.getConnection();
+    long minId;
+    long maxId;
+    try {
+      minId = side.datasource.getMin(conn, "CERT", "ID");
+      maxId = side.datasource.getMax(conn, "CERT", "ID");
+    } finally {
+      side.datasource.returnConnection(conn);
+    }
+
+    List<ScanRange> ranges = new ArrayList<>();
+    for (long[] idRange : DbToolBase.splitIdRange(minId, maxId, numThreads, numPerSelect)) {
+      ranges.add(new ScanRange(idRange[0], idRange[1], idRange[0] - 1));
+    }
+    return ranges;
+  } // method splitRanges
+
+  void scan(File checkpointFile) throws Exception {
+    long total = 0;
+    for (Side side : new Side[]{ref, target}) {
+      if (!side.scanned) {
+        for (ScanRange range : side.ranges) {
+          total += range.toId - range.lastId;
+        }
+      }
+    }
+
+    ProcessLog processLog = new ProcessLog(Math.max(1, total));
+    System.out.println("computing digests of buckets");
+    processLog.printHeader();
+
+    List<ExecutorService> executors = new ArrayList<>(2);
+    Map<Future<Void>, Side> futures = new HashMap<>();
+    for (Side side : new Side[]{ref, target}) {
+      if (side.scanned || side.ranges.isEmpty()) {
+        side.scanned = true;
+        continue;
+      }
+
+      int numSideThreads = Math.max(1, Math.min(Math.min(numThreads, side.ranges.size()),
+          side.datasource.getMaximumPoolSize() - 1));
+      ExecutorService executor = Executors.newFixedThreadPool(numSideThreads);
+      executors.add(executor);
+      for (ScanRange range : side.ranges) {
+        futures.put(executor.submit(() -> {
+          try {
+            scanRange(side, range, null, null, numProcessed -> {
+              synchronized (processLog) {
+                processLog.addNumProcessed(numProcessed);
+                processLog.printStatus();
+              }
+            });
+          } catch (Exception ex) {
+            cancelled.set(true);
+            throw ex;
+          }
+          return null;
+        }), side);
+      }
+    }
+
+    for (ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+
+    try {
+      for (ExecutorService executor : executors) {
+        while (!executor.awaitTermination(CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+          writeCheckpoint(checkpointFile);
+        }
+      }
+    } finally {
+      for (ExecutorService executor : executors) {
+        executor.shutdownNow();
+      }
+    }
+
+    Exception exception = null;
+    Set<Side> failedSides = new HashSet<>();
+    for (Map.Entry<Future<Void>, Side> entry : futures.entrySet()) {
+      try {
+        entry.getKey().get();
+      } catch (ExecutionException ex) {
+        failedSides.add(entry.getValue());
+        Throwable cause = ex.getCause();
+        if (exception == null || exception instanceof InterruptedException) {
+          exception = (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+        }
+      }
+    }
+
+    for (Side side : new Side[]{ref, target}) {
+      if (!failedSides.contains(side)) {
+        side.scanned = true;
+      }
+    }
+    writeCheckpoint(checkpointFile);
+
+    if (exception != null) {
+      System.err.println("could not compute the digests of buckets, "
+          + "please continue with the option '--resume'");
+      throw exception;
+    }
+
+    processLog.printTrailer();
+  } // method scan
+
+  // If filter is null, the digests and counts of the buckets are updated, otherwise the
+  // certificates in the buckets set in filter are collected in entries.
+  private void scanRange(Side side, ScanRange range, BitSet filter,
+      Map<Integer, Map<BigInteger, DigestEntry>> entries, ProgressListener listener)
+      throws Exception {
+    String coreSql = "ID," + side.caIdColumn() + ",SN,REV,RR,RT,RIT," + hashColumn(side)
+        + " FROM CERT WHERE ID>? AND ID<=?" + (side.revokedOnly ? " AND REV=1" : "");
+    String sql = side.datasource.buildSelectFirstSql(numPerSelect, "ID ASC", coreSql);
+
+    long lastId = (filter == null) ? range.lastId : range.fromId - 1;
+    int[] indexes = new int[numPerSelect];
+    long[] digests = new long[numPerSelect];
+
+    Connection conn = side.datasource.getConnection();
+    PreparedStatement ps = null;
+    try {
+      ps = side.datasource.prepareStatement(conn, sql);
+      while (true) {
+        if (stopMe.get()) {
+          throw new InterruptedException("interrupted by the user");
+        } else if (cancelled.get()) {
+          throw new InterruptedException("cancelled due to error in other thread");
+        }
+
+        ps.setLong(1, lastId);
+        ps.setLong(2, range.toId);
+        int numRows = 0;
+        int numEntries = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            numRows++;
+            lastId = rs.getLong("ID");
+            Integer caIndex = side.caIndexes.get(rs.getInt(side.caIdColumn()));
+            if (caIndex == null) {
+              continue;
+            }
+
+            DigestEntry entry = readEntry(side, rs);
+            int index = caIndex * NUM_BUCKETS + bucketOf(entry.getSerialNumber());
+            if (filter == null) {
+              indexes[numEntries] = index;
+              digests[numEntries] = FpIdCalculator.hash(entry.encoded());
+              numEntries++;
+            } else if (filter.get(index)) {
+              entries.get(caIndex).put(entry.getSerialNumber(), entry);
+            }
+          }
+        }
+
+        if (filter == null) {
+          // apply the page atomically, so that the checkpoint is consistent with lastId
+          checkpointLock.readLock().lock();
+          try {
+            for (int i = 0; i < numEntries; i++) {
+              side.digests.addAndGet(indexes[i], digests[i]);
+              side.counts.incrementAndGet(indexes[i]);
+            }
+            range.lastId = lastId;
+          } finally {
+            checkpointLock.readLock().unlock();
+          }
+        }
+
+        if (listener != null) {
+          listener.processed(numRows);
+        }
+
+        if (numRows < numPerSelect) {
+          break;
+        }
+      }
+    } catch (SQLException ex) {
+      throw side.datasource.translate(sql, ex);
+    } finally {
+      side.datasource.releaseResources(ps, null, false);
+      side.datasource.returnConnection(conn);
+    }
+  } // method scanRange
+
+  private String hashColumn(Side side) {
+    if (side.dbType == DbType.XIPKI_OCSP_v4) {
+      return "HASH";
+    } else {
+      return certhashAlgo == HashAlgo.SHA1 ? "SHA1" : "CERT";
+    }
+  } // method hashColumn
+
+  private DigestEntry readEntry(Side side, ResultSet rs) throws SQLException {
+    BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+    boolean revoked = rs.getBoolean("REV");
+    Integer revReason = null;
+    Long revTime = null;
+    Long revInvTime = null;
+    if (revoked) {
+      revReason = rs.getInt("RR");
+      revTime = rs.getLong("RT");
+      revInvTime = rs.getLong("RIT");
+      if (revInvTime == 0) {
+        revInvTime = null;
+      }
+    }
+
+    String base64Certhash;
+    if (side.dbType == DbType.XIPKI_OCSP_v4) {
+      base64Certhash = rs.getString("HASH");
+    } else if (certhashAlgo == HashAlgo.SHA1) {
+      base64Certhash = rs.getString("SHA1");
+    } else {
+      base64Certhash = certhashAlgo.base64Hash(Base64.decodeFast(rs.getString("CERT")));
+    }
+
+    return new DigestEntry(serialNumber, revoked, revReason, revTime, revInvTime,
+        base64Certhash);
+  } // method readEntry
+
+  static int bucketOf(BigInteger serialNumber) {
+    // finalizer of MurmurHash3, the serial numbers assigned in sequence are spread as well
+    long hash = serialNumber.longValue();
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return (int) (hash >>> (64 - BUCKET_BITS));
+  } // method bucketOf
+
+  /**
+   * Compares the buckets of both sides and counts the certificates in the matching buckets as
+   * good ones.
+   *
+   * @return groups of mismatching buckets, each of them fits in the memory.
+   */
+  private List<BitSet> compareBuckets(List<DigestDiffReporter> reporters) {
+    List<BitSet> groups = new ArrayList<>();
+    BitSet group = null;
+    long numInGroup = 0;
+    long numMismatchBuckets = 0;
+
+    for (int caIndex = 0; caIndex < caPairs.size(); caIndex++) {
+      int offset = caIndex * NUM_BUCKETS;
+      if (rootDigest(ref, offset) == rootDigest(target, offset)) {
+        long numGood = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+          numGood += ref.counts.get(offset + i);
+        }
+        reporters.get(caIndex).addGood(numGood);
+        continue;
+      }
+
+      long numGood = 0;
+      for (int i = offset; i < offset + NUM_BUCKETS; i++) {
+        long refCount = ref.counts.get(i);
+        long targetCount = target.counts.get(i);
+        if (refCount == targetCount && ref.digests.get(i) == target.digests.get(i)) {
+          numGood += refCount;
+          continue;
+        }
+
+        numMismatchBuckets++;
+        if (group == null || numInGroup + refCount + targetCount > MAX_ENTRIES_IN_MEMORY) {
+          group = new BitSet();
+          groups.add(group);
+          numInGroup = 0;
+        }
+        group.set(i);
+        numInGroup += refCount + targetCount;
+      }
+      reporters.get(caIndex).addGood(numGood);
+    }
+
+    System.out.println("found " + numMismatchBuckets + " mismatching buckets of "
+        + ((long) caPairs.size() * NUM_BUCKETS));
+    return groups;
+  } // method compareBuckets
+
+  private static long rootDigest(Side side, int offset) {
+    byte[] leaves = new byte[NUM_BUCKETS * 16];
+    int off = 0;
+    for (int i = offset; i < offset + NUM_BUCKETS; i++) {
+      off = putLong(leaves, off, side.digests.get(i));
+      off = putLong(leaves, off, side.counts.get(i));
+    }
+    return FpIdCalculator.hash(leaves);
+  } // method rootDigest
+
+  private static int putLong(byte[] dest, int off, long value) {
+    for (int i = 7; i >= 0; i--) {
+      dest[off++] = (byte) (value >>> (i * 8));
+    }
+    return off;
+  } // method putLong
+
+  private void drillDown(BitSet group, List<DigestDiffReporter> reporters) throws Exception {
+    Map<Side, Map<Integer, Map<BigInteger, DigestEntry>>> sideEntries = new HashMap<>();
+    Set<Integer> caIndexes = new HashSet<>();
+    for (int i = group.nextSetBit(0); i >= 0; i = group.nextSetBit(i + 1)) {
+      caIndexes.add(i / NUM_BUCKETS);
+    }
+
+    List<ExecutorService> executors = new ArrayList<>(2);
+    List<Future<Void>> futures = new ArrayList<>();
+    for (Side side : new Side[]{ref, target}) {
+      Map<Integer, Map<BigInteger, DigestEntry>> entries = new HashMap<>();
+      for (Integer caIndex : caIndexes) {
+        entries.put(caIndex, new ConcurrentHashMap<>());
+      }
+      sideEntries.put(side, entries);
+
+      if (side.ranges.isEmpty()) {
+        continue;
+      }
+
+      int numSideThreads = Math.max(1, Math.min(Math.min(numThreads, side.ranges.size()),
+          side.datasource.getMaximumPoolSize() - 1));
+      ExecutorService executor = Executors.newFixedThreadPool(numSideThreads);
+      executors.add(executor);
+      for (ScanRange range : side.ranges) {
+        futures.add(executor.submit(() -> {
+          try {
+            scanRange(side, range, group, entries, null);
+          } catch (Exception ex) {
+            cancelled.set(true);
+            throw ex;
+          }
+          return null;
+        }));
+      }
+    }
+
+    Exception exception = null;
+    try {
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (exception == null || exception instanceof InterruptedException) {
+            exception = (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+          }
+        }
+      }
+    } finally {
+      for (ExecutorService executor : executors) {
+        executor.shutdown();
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+
+    for (Integer caIndex : caIndexes) {
+      DigestDiffReporter reporter = reporters.get(caIndex);
+      Map<BigInteger, DigestEntry> targetEntries = sideEntries.get(target).get(caIndex);
+      for (DigestEntry refEntry : sideEntries.get(ref).get(caIndex).values()) {
+        BigInteger serialNumber = refEntry.getSerialNumber();
+        DigestEntry targetEntry = targetEntries.remove(serialNumber);
+        if (targetEntry == null) {
+          reporter.addMissing(serialNumber);
+        } else if (refEntry.contentEquals(targetEntry)) {
+          reporter.addGood(serialNumber);
+        } else {
+          reporter.addDiff(refEntry, targetEntry);
+        }
+      }
+
+      for (BigInteger serialNumber : targetEntries.keySet()) {
+        reporter.addUnexpected(serialNumber);
+      }
+    }
+  } // method drillDown
+
+  void writeCheckpoint(File file) throws IOException {
+    List<long[]> rangeSnapshots = new ArrayList<>(2);
+    long[][] digests = new long[2][];
+    long[][] counts = new long[2][];
+    Side[] sides = {ref, target};
+
+    // snapshot under the write lock, the scanning threads apply complete pages only
+    checkpointLock.writeLock().lock();
+    try {
+      for (int i = 0; i < sides.length; i++) {
+        Side side = sides[i];
+        long[] lastIds = new long[side.ranges.size()];
+        for (int j = 0; j < lastIds.length; j++) {
+          lastIds[j] = side.ranges.get(j).lastId;
+        }
+        rangeSnapshots.add(lastIds);
+
+        int len = side.digests.length();
+        digests[i] = new long[len];
+        counts[i] = new long[len];
+        for (int j = 0; j < len; j++) {
+          digests[i][j] = side.digests.get(j);
+          counts[i][j] = side.counts.get(j);
+        }
+      }
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+      out.writeInt(CHECKPOINT_MAGIC);
+      out.writeInt(BUCKET_BITS);
+      out.writeBoolean(ref.revokedOnly);
+      out.writeInt(caPairs.size());
+      for (CaPair caPair : caPairs) {
+        out.writeInt(caPair.refCaId);
+        out.writeInt(caPair.targetCaId);
+      }
+
+      for (int i = 0; i < sides.length; i++) {
+        Side side = sides[i];
+        out.writeBoolean(side.scanned);
+        out.writeInt(side.ranges.size());
+        long[] lastIds = rangeSnapshots.get(i);
+        for (int j = 0; j < lastIds.length; j++) {
+          ScanRange range = side.ranges.get(j);
+          out.writeLong(range.fromId);
+          out.writeLong(range.toId);
+          out.writeLong(lastIds[j]);
+        }
+
+        for (int j = 0; j < digests[i].length; j++) {
+          out.writeLong(digests[i][j]);
+          out.writeLong(counts[i][j]);
+        }
+      }
+    }
+
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  } // method writeCheckpoint
+
+  void readCheckpoint(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != BUCKET_BITS) {
+        throw new IOException("invalid checkpoint file " + file.getPath());
+      }
+
+      if (in.readBoolean() != ref.revokedOnly) {
+        throw new IOException("checkpoint file " + file.getPath()
+            + " was created with different revokedOnly");
+      }
+
+      int numCas = in.readInt();
+      boolean match = numCas == caPairs.size();
+      for (int i = 0; i < numCas; i++) {
+        int refCaId = in.readInt();
+        int targetCaId = in.readInt();
+        if (match) {
+          CaPair caPair = caPairs.get(i);
+          match = caPair.refCaId == refCaId && caPair.targetCaId == targetCaId;
+        }
+      }
+
+      if (!match) {
+        throw new IOException("checkpoint file " + file.getPath()
+            + " was created for different CAs");
+      }
+
+      for (Side side : new Side[]{ref, target}) {
+        side.scanned = in.readBoolean();
+        int numRanges = in.readInt();
+        side.ranges = new ArrayList<>(numRanges);
+        for (int i = 0; i < numRanges; i++) {
+          side.ranges.add(new ScanRange(in.readLong(), in.readLong(), in.readLong()));
+        }
+
+        int len = numCas * NUM_BUCKETS;
+        side.digests = new AtomicLongArray(len);
+        side.counts = new AtomicLongArray(len);
+        for (int i = 0; i < len; i++) {
+          side.digests.set(i, in.readLong());
+          side.counts.set(i, in.readLong());
+        }
+        LOG.info("{} side: scanned={}, ranges={}", side.name, side.scanned, numRanges);
+      }
+    }
+  } // method readCheckpoint
+
+}
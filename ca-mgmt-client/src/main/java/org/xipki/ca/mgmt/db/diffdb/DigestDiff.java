@@ -89,23 +89,7 @@ class DigestDiff {
     this.refDbType = detectDbType(refDatasource);
     this.targetDbType = detectDbType(targetDatasource);
 
-    switch (refDbType) {
-      case XIPKI_OCSP_v4:
-        HashAlgo refAlgo = detectOcspDbCerthashAlgo(refDatasource);
-        HashAlgo targetAlgo = detectOcspDbCerthashAlgo(targetDatasource);
-        if (refAlgo != targetAlgo) {
-          throw new IllegalArgumentException(StringUtil.concatObjects(
-              "Could not compare OCSP datasources with different CERTHASH_ALGO: refDataSource (",
-              refAlgo, ") and targetDataSource (", targetAlgo, ")"));
-        }
-        this.certhashAlgo = refAlgo;
-        break;
-      case XIPKI_CA_v4:
-        this.certhashAlgo = HashAlgo.SHA1;
-        break;
-      default:
-        throw new IllegalStateException("unknown refDbType " + refDbType);
-    }
+    this.certhashAlgo = detectCerthashAlgo(refDatasource, refDbType, targetDatasource);
 
     // number of threads
     this.numTargetThreads = Math.min(numThreads, targetDatasource.getMaximumPoolSize() - 1);
@@ -183,6 +167,8 @@ class DigestDiff {
       }
       if (!include) {
         System.out.println("skipped CA " + refReader.getCaSubjectName());
+        refReader.close();
+        return;
       }
     }
 
@@ -239,7 +225,7 @@ class DigestDiff {
     }
   } // method diffSingleCa
 
-  private static Map<Integer, byte[]> getCas(DataSourceWrapper datasource, DbType dbType)
+  static Map<Integer, byte[]> getCas(DataSourceWrapper datasource, DbType dbType)
       throws DataAccessException {
     // get a list of available CAs in the target database
     String sql = "SELECT ID,CERT FROM ";
@@ -275,7 +261,7 @@ class DigestDiff {
     Connection conn = datasource.getConnection();
     try {
       String dbSchemaVersion = datasource.getFirstValue(
-          null, "DBSCHEMA", "VALUE2", "WHERE NAME='VERSION'", String.class);
+          null, "DBSCHEMA", "VALUE2", "NAME='VERSION'", String.class);
 
       if (datasource.tableExists(conn, "CA")) {
         if ("4".equals(dbSchemaVersion)) {
@@ -297,6 +283,25 @@ class DigestDiff {
     }
   } // method
 
+  static HashAlgo detectCerthashAlgo(DataSourceWrapper refDatasource, DbType refDbType,
+      DataSourceWrapper targetDatasource) throws DataAccessException {
+    switch (refDbType) {
+      case XIPKI_OCSP_v4:
+        HashAlgo refAlgo = detectOcspDbCerthashAlgo(refDatasource);
+        HashAlgo targetAlgo = detectOcspDbCerthashAlgo(targetDatasource);
+        if (refAlgo != targetAlgo) {
+          throw new IllegalArgumentException(StringUtil.concatObjects(
+              "Could not compare OCSP datasources with different CERTHASH_ALGO: refDataSource (",
+              refAlgo, ") and targetDataSource (", targetAlgo, ")"));
+        }
+        return refAlgo;
+      case XIPKI_CA_v4:
+        return HashAlgo.SHA1;
+      default:
+        throw new IllegalStateException("unknown refDbType " + refDbType);
+    }
+  } // method detectCerthashAlgo
+
   public static HashAlgo detectOcspDbCerthashAlgo(DataSourceWrapper datasource)
       throws DataAccessException {
     String str = datasource.getFirstValue(null, "DBSCHEMA", "VALUE2", "NAME='CERTHASH_ALGO'",
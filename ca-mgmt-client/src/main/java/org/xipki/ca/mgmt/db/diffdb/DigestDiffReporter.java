@@ -27,6 +27,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Date;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +61,7 @@ class DigestDiffReporter implements Closeable {
 
   private Date startTime;
 
-  private AtomicInteger numGood = new AtomicInteger(0);
+  private AtomicLong numGood = new AtomicLong(0);
 
   private AtomicInteger numDiff = new AtomicInteger(0);
 
@@ -105,6 +106,16 @@ class DigestDiffReporter implements Closeable {
     writeSerialNumberLine(goodWriter, serialNumber);
   }
 
+  /**
+   * Counts the good certificates without writing their serial numbers.
+   *
+   * @param num
+   *          Number of the good certificates.
+   */
+  public void addGood(long num) {
+    numGood.addAndGet(num);
+  }
+
   public void addUnexpected(BigInteger serialNumber) throws IOException {
     numUnexpected.incrementAndGet();
     writeSerialNumberLine(unexpectedWriter, serialNumber);
@@ -114,7 +125,7 @@ class DigestDiffReporter implements Closeable {
     Args.notNull(refCert, "refCert");
     Args.notNull(targetCert, "targetCert");
 
-    if (refCert.getSerialNumber().equals(targetCert.getSerialNumber())) {
+    if (!refCert.getSerialNumber().equals(targetCert.getSerialNumber())) {
       throw new IllegalArgumentException("refCert and targetCert are not of the same serialNumber");
     }
 
@@ -150,7 +161,7 @@ class DigestDiffReporter implements Closeable {
     closeWriter(goodWriter);
     closeWriter(errorWriter);
 
-    int sum = numGood.get() + numDiff.get() + numMissing.get() + numUnexpected.get()
+    long sum = numGood.get() + numDiff.get() + numMissing.get() + numUnexpected.get()
               + numError.get();
     Date now = new Date();
     int durationSec = (int) ((now.getTime() - startTime.getTime()) / 1000);
@@ -59,16 +59,34 @@ public class DigestDiffWorker extends DbPortWorker {
 
   private final int numThreads;
 
+  private final boolean bucketMode;
+
+  private final boolean resume;
+
   public DigestDiffWorker(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
       boolean revokedOnly, String refDbConfFile, String targetDbConfFile, String reportDirName,
       int numCertsPerSelect, int numThreads, Set<byte[]> includeCaCerts)
       throws PasswordResolverException, IOException {
+    this(datasourceFactory, passwordResolver, revokedOnly, refDbConfFile, targetDbConfFile,
+        reportDirName, numCertsPerSelect, numThreads, includeCaCerts, false, false);
+  }
+
+  public DigestDiffWorker(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
+      boolean revokedOnly, String refDbConfFile, String targetDbConfFile, String reportDirName,
+      int numCertsPerSelect, int numThreads, Set<byte[]> includeCaCerts, boolean bucketMode,
+      boolean resume) throws PasswordResolverException, IOException {
     super(datasourceFactory, passwordResolver, refDbConfFile);
     this.reportDir = reportDirName;
     this.numThreads = Args.positive(numThreads, "numThreads");
     this.numCertsPerSelect = numCertsPerSelect;
     this.includeCaCerts = includeCaCerts;
     this.revokedOnly = revokedOnly;
+    this.bucketMode = bucketMode;
+    this.resume = resume;
+
+    if (resume && !bucketMode) {
+      throw new IllegalArgumentException("resume is only supported in the bucket mode");
+    }
 
     File file = new File(reportDirName);
     if (!file.exists()) {
@@ -83,9 +101,15 @@ public class DigestDiffWorker extends DbPortWorker {
       }
     }
 
-    String[] children = file.list();
-    if (children != null && children.length > 0) {
-      throw new IOException(reportDirName + " is not empty");
+    if (resume) {
+      if (!new File(file, BucketDigestDiff.CHECKPOINT_FILENAME).exists()) {
+        throw new IOException("could not find checkpoint file in " + reportDirName);
+      }
+    } else {
+      String[] children = file.list();
+      if (children != null && children.length > 0) {
+        throw new IOException(reportDirName + " is not empty");
+      }
     }
 
     Properties props = DbPorter.getDbConfProperties(
@@ -99,10 +123,17 @@ public class DigestDiffWorker extends DbPortWorker {
     long start = System.currentTimeMillis();
 
     try {
-      DigestDiff diff = new DigestDiff(datasource, targetDatasource, reportDir, revokedOnly,
-          stopMe, numCertsPerSelect, numThreads);
-      diff.setIncludeCaCerts(includeCaCerts);
-      diff.diff();
+      if (bucketMode) {
+        BucketDigestDiff diff = new BucketDigestDiff(datasource, targetDatasource, reportDir,
+            revokedOnly, stopMe, numCertsPerSelect, numThreads, resume);
+        diff.setIncludeCaCerts(includeCaCerts);
+        diff.diff();
+      } else {
+        DigestDiff diff = new DigestDiff(datasource, targetDatasource, reportDir, revokedOnly,
+            stopMe, numCertsPerSelect, numThreads);
+        diff.setIncludeCaCerts(includeCaCerts);
+        diff.diff();
+      }
     } finally {
       try {
         datasource.close();
@@ -110,7 +110,7 @@ class DigestEntry {
       return false;
     }
 
-    if (serialNumber != obj.serialNumber) {
+    if (!serialNumber.equals(obj.serialNumber)) {
       return false;
     }
 
@@ -0,0 +1,469 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.ca.mgmt.db.port;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.xipki.ca.mgmt.db.port.DbPorter.CaDbEntryType;
+import org.xipki.util.Args;
+
+/**
+ * Compact binary container of the entries of one CA database table. Compared to the ZIP
+ * bundles with JSON overview, the fixed columns and the DER encoded content of each entry are
+ * written as one length-prefixed record. The records are grouped in deflate compressed blocks,
+ * and an index footer with the ID range of each block allows the reader to skip the blocks
+ * already imported.
+ *
+ * <pre>
+ * header:  magic "XIPKIBIN", version (1 byte), compression (1 byte), type name (UTF)
+ * block:   raw length (int), compressed length (int), compressed records
+ * index:   per block: offset (long), first ID (long), last ID (long), number of records (int)
+ * trailer: offset of the index (long), number of blocks (int), magic "XIDX"
+ * </pre>
+ *
+ * @author Lijun Liao
+ */
+
+class CaCertstoreBinaryBundle {
+
+  static class Writer implements Closeable {
+
+    private final CaDbEntryType type;
+
+    private final DataOutputStream out;
+
+    private final Deflater deflater;
+
+    private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(BLOCK_SIZE + 65536);
+
+    private final DataOutputStream block = new DataOutputStream(blockBytes);
+
+    private final List<long[]> index = new ArrayList<>();
+
+    private byte[] compressBuffer = new byte[BLOCK_SIZE];
+
+    private long offset;
+
+    private long firstIdInBlock = -1;
+
+    private long lastIdInBlock;
+
+    private int numInBlock;
+
+    private boolean closed;
+
+    Writer(File file, CaDbEntryType type) throws IOException {
+      this.type = Args.notNull(type, "type");
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(Args.notNull(file, "file").toPath()), 65536));
+      this.deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+      out.write(MAGIC);
+      out.writeByte(VERSION);
+      out.writeByte(COMPRESSION_DEFLATE);
+      out.writeUTF(type.name());
+      offset = out.size();
+    } // constructor
+
+    void add(IdentifidDbObject entry, byte[] content) throws IOException {
+      long id = entry.getId();
+      switch (type) {
+        case CERT:
+          CaCertstore.Cert cert = (CaCertstore.Cert) entry;
+          block.writeLong(id);
+          block.writeLong(cert.getUpdate());
+          block.writeUTF(cert.getSn());
+          block.writeInt(cert.getCaId());
+          block.writeInt(cert.getPid());
+          block.writeInt(cert.getRid());
+          block.writeInt(cert.getReqType());
+          block.writeBoolean(cert.getEe());
+          block.writeInt(cert.getRev());
+          block.writeInt(intValue(cert.getRr()));
+          block.writeLong(longValue(cert.getRt()));
+          block.writeLong(longValue(cert.getRit()));
+          block.writeInt(intValue(cert.getUid()));
+          block.writeLong(longValue(cert.getFpRs()));
+          block.writeInt(cert.getCrlScope());
+          writeString(cert.getTid());
+          writeString(cert.getRs());
+          writeBytes(content);
+          break;
+        case CRL:
+          CaCertstore.Crl crl = (CaCertstore.Crl) entry;
+          block.writeLong(id);
+          block.writeInt(crl.getCaId());
+          block.writeUTF(crl.getCrlNo());
+          block.writeInt(crl.getCrlScope());
+          writeBytes(content);
+          break;
+        case REQUEST:
+          CaCertstore.Request request = (CaCertstore.Request) entry;
+          block.writeLong(id);
+          block.writeLong(request.getUpdate());
+          writeBytes(content);
+          break;
+        case REQCERT:
+          CaCertstore.ReqCert reqCert = (CaCertstore.ReqCert) entry;
+          block.writeLong(id);
+          block.writeLong(reqCert.getRid());
+          block.writeLong(reqCert.getCid());
+          break;
+        default:
+          throw new IllegalStateException("unknown CaDbEntryType " + type);
+      }
+
+      if (firstIdInBlock == -1) {
+        firstIdInBlock = id;
+      }
+      lastIdInBlock = id;
+      numInBlock++;
+
+      if (blockBytes.size() >= BLOCK_SIZE) {
+        flushBlock();
+      }
+    } // method add
+
+    private void writeString(String value) throws IOException {
+      block.writeBoolean(value != null);
+      if (value != null) {
+        block.writeUTF(value);
+      }
+    }
+
+    private void writeBytes(byte[] value) throws IOException {
+      block.writeInt(value.length);
+      block.write(value);
+    }
+
+    private void flushBlock() throws IOException {
+      if (numInBlock == 0) {
+        return;
+      }
+
+      int rawLen = blockBytes.size();
+      if (compressBuffer.length < rawLen + 1024) {
+        compressBuffer = new byte[rawLen + 1024];
+      }
+
+      deflater.reset();
+      deflater.setInput(blockBytes.toByteArray());
+      deflater.finish();
+      int compressedLen = 0;
+      while (!deflater.finished()) {
+        if (compressedLen == compressBuffer.length) {
+          compressBuffer = Arrays.copyOf(compressBuffer, compressBuffer.length * 2);
+        }
+        compressedLen += deflater.deflate(compressBuffer, compressedLen,
+            compressBuffer.length - compressedLen);
+      }
+
+      index.add(new long[]{offset, firstIdInBlock, lastIdInBlock, numInBlock});
+
+      out.writeInt(rawLen);
+      out.writeInt(compressedLen);
+      out.write(compressBuffer, 0, compressedLen);
+      offset += 8 + compressedLen;
+
+      blockBytes.reset();
+      firstIdInBlock = -1;
+      numInBlock = 0;
+    } // method flushBlock
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      try {
+        flushBlock();
+
+        long indexOffset = offset;
+        for (long[] m : index) {
+          out.writeLong(m[0]);
+          out.writeLong(m[1]);
+          out.writeLong(m[2]);
+          out.writeInt((int) m[3]);
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(index.size());
+        out.write(INDEX_MAGIC);
+      } finally {
+        deflater.end();
+        out.close();
+      }
+    } // method close
+
+  } // class Writer
+
+  static class Reader implements Closeable {
+
+    private final CaDbEntryType type;
+
+    private final RandomAccessFile raf;
+
+    private final List<long[]> index;
+
+    private final Inflater inflater = new Inflater(true);
+
+    private int nextBlock;
+
+    private DataInputStream block;
+
+    private int remainingInBlock;
+
+    private byte[] content;
+
+    Reader(File file, CaDbEntryType type) throws IOException {
+      this.type = Args.notNull(type, "type");
+      this.raf = new RandomAccessFile(Args.notNull(file, "file"), "r");
+      try {
+        byte[] magic = new byte[MAGIC.length];
+        raf.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+          throw new IOException("invalid binary bundle " + file.getName());
+        }
+
+        int version = raf.readUnsignedByte();
+        if (version != VERSION) {
+          throw new IOException("unsupported version " + version + " of binary bundle "
+              + file.getName());
+        }
+
+        int compression = raf.readUnsignedByte();
+        if (compression != COMPRESSION_DEFLATE) {
+          throw new IOException("unsupported compression " + compression + " of binary bundle "
+              + file.getName());
+        }
+
+        String typeName = raf.readUTF();
+        if (!type.name().equals(typeName)) {
+          throw new IOException("binary bundle " + file.getName() + " contains " + typeName
+              + ", but not " + type.name());
+        }
+
+        long len = raf.length();
+        raf.seek(len - 16);
+        long indexOffset = raf.readLong();
+        int numBlocks = raf.readInt();
+        byte[] indexMagic = new byte[INDEX_MAGIC.length];
+        raf.readFully(indexMagic);
+        if (!Arrays.equals(INDEX_MAGIC, indexMagic)) {
+          throw new IOException("binary bundle " + file.getName() + " is incomplete");
+        }
+
+        raf.seek(indexOffset);
+        this.index = new ArrayList<>(numBlocks);
+        for (int i = 0; i < numBlocks; i++) {
+          index.add(new long[]{raf.readLong(), raf.readLong(), raf.readLong(), raf.readInt()});
+        }
+      } catch (IOException | RuntimeException ex) {
+        close();
+        throw ex;
+      }
+    } // constructor
+
+    /**
+     * Skips the blocks containing only entries with ID less than {@code minId}. The entries
+     * with smaller ID in the first returned block must still be filtered by the caller.
+     *
+     * @param minId
+     *          The smallest ID to be read.
+     */
+    void skipTo(long minId) {
+      while (nextBlock < index.size() && index.get(nextBlock)[2] < minId) {
+        nextBlock++;
+      }
+    }
+
+    /**
+     * Reads the next entry. The DER encoded content of the entry can be retrieved via
+     * {@link #getContent()}.
+     *
+     * @return the next entry, or {@code null} if there is no more entry.
+     * @throws IOException
+     *           if IO error occurs.
+     */
+    IdentifidDbObject next() throws IOException {
+      while (remainingInBlock == 0) {
+        if (nextBlock == index.size()) {
+          return null;
+        }
+        readBlock(index.get(nextBlock++));
+      }
+
+      remainingInBlock--;
+      content = null;
+      long id = block.readLong();
+      switch (type) {
+        case CERT:
+          CaCertstore.Cert cert = new CaCertstore.Cert();
+          cert.setId(id);
+          cert.setUpdate(block.readLong());
+          cert.setSn(block.readUTF());
+          cert.setCaId(block.readInt());
+          cert.setPid(block.readInt());
+          cert.setRid(block.readInt());
+          cert.setReqType(block.readInt());
+          cert.setEe(block.readBoolean());
+          int rev = block.readInt();
+          cert.setRev(rev);
+          int rr = block.readInt();
+          long rt = block.readLong();
+          long rit = block.readLong();
+          if (rev == 1) {
+            cert.setRr(rr);
+            cert.setRt(rt);
+            if (rit != 0) {
+              cert.setRit(rit);
+            }
+          }
+          int uid = block.readInt();
+          if (uid != 0) {
+            cert.setUid(uid);
+          }
+          long fpRs = block.readLong();
+          if (fpRs != 0) {
+            cert.setFpRs(fpRs);
+          }
+          cert.setCrlScope(block.readInt());
+          cert.setTid(readString());
+          cert.setRs(readString());
+          content = readBytes();
+          return cert;
+        case CRL:
+          CaCertstore.Crl crl = new CaCertstore.Crl();
+          crl.setId(id);
+          crl.setCaId(block.readInt());
+          crl.setCrlNo(block.readUTF());
+          crl.setCrlScope(block.readInt());
+          content = readBytes();
+          return crl;
+        case REQUEST:
+          CaCertstore.Request request = new CaCertstore.Request();
+          request.setId(id);
+          request.setUpdate(block.readLong());
+          content = readBytes();
+          return request;
+        case REQCERT:
+          CaCertstore.ReqCert reqCert = new CaCertstore.ReqCert();
+          reqCert.setId(id);
+          reqCert.setRid(block.readLong());
+          reqCert.setCid(block.readLong());
+          return reqCert;
+        default:
+          throw new IllegalStateException("unknown CaDbEntryType " + type);
+      }
+    } // method next
+
+    /**
+     * Returns the DER encoded content of the entry returned by the last {@link #next()}.
+     *
+     * @return the content, or {@code null} for the entries without content.
+     */
+    byte[] getContent() {
+      return content;
+    }
+
+    private void readBlock(long[] blockIndex) throws IOException {
+      raf.seek(blockIndex[0]);
+      int rawLen = raf.readInt();
+      byte[] compressed = new byte[raf.readInt()];
+      raf.readFully(compressed);
+
+      byte[] raw = new byte[rawLen];
+      inflater.reset();
+      inflater.setInput(compressed);
+      try {
+        int off = 0;
+        while (off < rawLen) {
+          int n = inflater.inflate(raw, off, rawLen - off);
+          if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+            throw new EOFException("unexpected end of compressed block");
+          }
+          off += n;
+        }
+      } catch (DataFormatException ex) {
+        throw new IOException("invalid compressed block: " + ex.getMessage(), ex);
+      }
+
+      block = new DataInputStream(new ByteArrayInputStream(raw));
+      remainingInBlock = (int) blockIndex[3];
+    } // method readBlock
+
+    private String readString() throws IOException {
+      return block.readBoolean() ? block.readUTF() : null;
+    }
+
+    private byte[] readBytes() throws IOException {
+      byte[] bytes = new byte[block.readInt()];
+      block.readFully(bytes);
+      return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+      inflater.end();
+      raf.close();
+    }
+
+  } // class Reader
+
+  static final String FILE_SUFFIX = ".bin";
+
+  private static final byte[] MAGIC = {'X', 'I', 'P', 'K', 'I', 'B', 'I', 'N'};
+
+  private static final byte[] INDEX_MAGIC = {'X', 'I', 'D', 'X'};
+
+  private static final int VERSION = 1;
+
+  private static final int COMPRESSION_DEFLATE = 1;
+
+  private static final int BLOCK_SIZE = 1048576; // 1M
+
+  private CaCertstoreBinaryBundle() {
+  }
+
+  private static int intValue(Integer value) {
+    return value == null ? 0 : value;
+  }
+
+  private static long longValue(Long value) {
+    return value == null ? 0 : value;
+  }
+
+}
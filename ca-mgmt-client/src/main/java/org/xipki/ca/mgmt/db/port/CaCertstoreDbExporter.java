@@ -27,12 +27,20 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.security.cert.CRLException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -64,22 +72,149 @@ import com.alibaba.fastjson.JSON;
 
 class CaCertstoreDbExporter extends DbPorter {
 
+  private interface BundleListener {
+
+    void bundleExported(String filename, int numEntries, long lastId) throws Exception;
+
+  } // class BundleListener
+
+  /**
+   * Bundle of entries, either a ZIP file with JSON overview or a binary container.
+   */
+  private class EntriesBundle {
+
+    private final CaDbEntryType type;
+
+    private final File tmpFile;
+
+    private final ZipOutputStream zip;
+
+    private final Object container;
+
+    private final CaCertstoreBinaryBundle.Writer binaryWriter;
+
+    private int numEntries;
+
+    private long minId = -1;
+
+    private long maxId = -1;
+
+    EntriesBundle(CaDbEntryType type, File tmpFile) throws IOException {
+      this.type = type;
+      this.tmpFile = tmpFile;
+      if (binary) {
+        this.binaryWriter = new CaCertstoreBinaryBundle.Writer(tmpFile, type);
+        this.zip = null;
+        this.container = null;
+      } else {
+        this.binaryWriter = null;
+        this.zip = getZipOutputStream(tmpFile);
+        this.container = createContainer(type);
+      }
+    } // constructor
+
+    void add(IdentifidDbObject entry, String filename, byte[] content) throws IOException {
+      if (binaryWriter != null) {
+        binaryWriter.add(entry, content);
+      } else {
+        if (content != null) {
+          zip.putNextEntry(new ZipEntry(filename));
+          try {
+            zip.write(content);
+          } finally {
+            zip.closeEntry();
+          }
+        }
+
+        switch (type) {
+          case CERT:
+            ((CaCertstore.Certs) container).add((CaCertstore.Cert) entry);
+            break;
+          case CRL:
+            ((CaCertstore.Crls) container).add((CaCertstore.Crl) entry);
+            break;
+          case REQUEST:
+            ((CaCertstore.Requests) container).add((CaCertstore.Request) entry);
+            break;
+          case REQCERT:
+            ((CaCertstore.ReqCerts) container).add((CaCertstore.ReqCert) entry);
+            break;
+          default:
+            throw new IllegalStateException("unknown CaDbEntryType " + type);
+        }
+      }
+
+      numEntries++;
+      long id = entry.getId();
+      if (minId == -1 || minId > id) {
+        minId = id;
+      }
+
+      if (maxId == -1 || maxId < id) {
+        maxId = id;
+      }
+    } // method add
+
+    String finish(File entriesDir, long maxIdOfTable) throws IOException {
+      if (binaryWriter != null) {
+        binaryWriter.close();
+      } else {
+        finalizeZip(zip, "overview.json", container);
+      }
+
+      String filename = buildFilename(type.getDirName() + "_", bundleSuffix(),
+          minId, maxId, maxIdOfTable);
+      tmpFile.renameTo(new File(entriesDir, filename));
+      return filename;
+    } // method finish
+
+    void discard() {
+      IoUtil.closeQuietly(binaryWriter != null ? binaryWriter : zip);
+      tmpFile.delete();
+    }
+
+  } // class EntriesBundle
+
   private static final Logger LOG = LoggerFactory.getLogger(CaCertstoreDbExporter.class);
 
+  private static final String RANGE_FILE_SUFFIX = ".range";
+
   private final int numCertsInBundle;
 
   private final int numCertsPerSelect;
 
   private final boolean resume;
 
+  private final int numThreads;
+
+  private final boolean binary;
+
   CaCertstoreDbExporter(DataSourceWrapper datasource, String baseDir, int numCertsInBundle,
       int numCertsPerSelect, boolean resume, AtomicBoolean stopMe)
           throws DataAccessException {
+    this(datasource, baseDir, numCertsInBundle, numCertsPerSelect, resume, 1, false, stopMe);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param numThreads
+   *          Number of threads reading disjoint ID ranges concurrently, each on its own
+   *          database connection.
+   * @param binary
+   *          Whether the entries are written in compact binary containers
+   *          ({@link CaCertstoreBinaryBundle}) instead of ZIP files.
+   */
+  CaCertstoreDbExporter(DataSourceWrapper datasource, String baseDir, int numCertsInBundle,
+      int numCertsPerSelect, boolean resume, int numThreads, boolean binary,
+      AtomicBoolean stopMe) throws DataAccessException {
     super(datasource, baseDir, stopMe);
 
     this.numCertsInBundle = Args.positive(numCertsInBundle, "numCertsInBundle");
     this.numCertsPerSelect = Args.positive(numCertsPerSelect, "numCertsPerSelect");
     this.resume = resume;
+    this.numThreads = Args.range(numThreads, "numThreads", 1, 256);
+    this.binary = binary;
   } // constructor
 
   public void export() throws Exception {
@@ -167,7 +302,13 @@ class CaCertstoreDbExporter extends DbPorter {
     try {
       entriesFileOs = Files.newOutputStream(Paths.get(baseDir, type.getDirName() + ".mf"),
           StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-      exportEntries(type, certstore, processLogFile, entriesFileOs, idProcessedInLastProcess);
+      // ranges of an interrupted parallel export must be continued in parallel
+      if (numThreads > 1 || !listRangeFiles(type).isEmpty()) {
+        exportEntriesInParallel(type, certstore, processLogFile, entriesFileOs,
+            idProcessedInLastProcess);
+      } else {
+        exportEntries(type, certstore, processLogFile, entriesFileOs, idProcessedInLastProcess);
+      }
       return null;
     } catch (Exception ex) {
       // delete the temporary files
@@ -184,117 +325,245 @@ class CaCertstoreDbExporter extends DbPorter {
 
   private void exportEntries(CaDbEntryType type, CaCertstore certstore, File processLogFile,
       OutputStream filenameListOs, Long idProcessedInLastProcess) throws Exception {
+    final String tableName = type.getTableName();
+    final int numProcessedBefore = getCount(type, certstore);
+
+    Long minId = (idProcessedInLastProcess != null) ? idProcessedInLastProcess + 1
+        : min(tableName, "ID");
+
+    String tablesText = "table " + type.getTableName();
+    System.out.println("exporting " + tablesText + " from ID " + minId);
+
+    final long maxId = max(tableName, "ID");
+    long total = count(tableName) - numProcessedBefore;
+    if (total < 1) {
+      total = 1; // to avoid exception
+    }
+
+    final ProcessLog processLog = new ProcessLog(total);
+    processLog.printHeader();
+
+    final AtomicInteger sum = new AtomicInteger(0);
+    exportRange(type, connection, minId, maxId, maxId, null, (filename, numEntries, lastId) -> {
+      writeLine(filenameListOs, filename);
+      setCount(type, certstore, numProcessedBefore + sum.addAndGet(numEntries));
+      echoToFile(tableName + ":" + Long.toString(lastId), processLogFile);
+
+      processLog.addNumProcessed(numEntries);
+      processLog.printStatus();
+    });
+
+    processLog.printTrailer();
+    // all successful, delete the processLogFile
+    processLogFile.delete();
+    System.out.println(" exported " + sum.get() + " entries from " + tablesText);
+  } // method exportEntries
+
+  private void exportEntriesInParallel(CaDbEntryType type, CaCertstore certstore,
+      File processLogFile, OutputStream filenameListOs, Long idProcessedInLastProcess)
+      throws Exception {
+    final String tableName = type.getTableName();
+    final int numProcessedBefore = getCount(type, certstore);
+    final long maxId = max(tableName, "ID");
+
+    List<File> rangeFiles = listRangeFiles(type);
+    if (rangeFiles.isEmpty()) {
+      long minId = (idProcessedInLastProcess != null) ? idProcessedInLastProcess + 1
+          : min(tableName, "ID");
+      if (maxId > 0 && minId <= maxId) {
+        int numEntriesPerZip = Math.max(1, Math.round(type.getSqlBatchFactor() * numCertsInBundle));
+        for (long[] idRange : splitIdRange(minId, maxId, numThreads, numEntriesPerZip)) {
+          File rangeFile = new File(baseDir, buildFilename(type.getDirName() + "_",
+              RANGE_FILE_SUFFIX, idRange[0], idRange[1], maxId));
+          rangeFile.createNewFile();
+          rangeFiles.add(rangeFile);
+        }
+      }
+      echoToFile(tableName + ":" + Long.toString(minId - 1), processLogFile);
+    }
+
+    String tablesText = "table " + tableName;
+    System.out.println("exporting " + tablesText + " in " + rangeFiles.size()
+        + " ID ranges with " + numThreads + " threads");
+
+    // the bundles exported in the last process
+    long[] resumeIds = new long[rangeFiles.size()];
+    int numExportedBefore = 0;
+    for (int i = 0; i < rangeFiles.size(); i++) {
+      long[] range = parseIdRange(rangeFiles.get(i).getName());
+      resumeIds[i] = range[0];
+      for (String line : Files.readAllLines(rangeFiles.get(i).toPath())) {
+        if (StringUtil.isNotBlank(line)) {
+          int idx = line.lastIndexOf(',');
+          numExportedBefore += Integer.parseInt(line.substring(idx + 1).trim());
+          resumeIds[i] = parseIdRange(line.substring(0, idx))[1] + 1;
+        }
+      }
+    }
+
+    long total = count(tableName) - numProcessedBefore - numExportedBefore;
+    if (total < 1) {
+      total = 1; // to avoid exception
+    }
+
+    final ProcessLog processLog = new ProcessLog(total);
+    processLog.printHeader();
+
+    final AtomicBoolean cancelled = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Void>> futures = new ArrayList<>(rangeFiles.size());
+    for (int i = 0; i < rangeFiles.size(); i++) {
+      final File rangeFile = rangeFiles.get(i);
+      final long fromId = resumeIds[i];
+      final long toId = parseIdRange(rangeFile.getName())[1];
+      if (fromId > toId) {
+        continue;
+      }
+
+      futures.add(executor.submit(() -> {
+        Connection conn = datasource.getConnection();
+        try {
+          exportRange(type, conn, fromId, toId, maxId, cancelled, (filename, num, lastId) -> {
+            Files.write(rangeFile.toPath(), StringUtil.toUtf8Bytes(filename + "," + num + "\n"),
+                StandardOpenOption.APPEND);
+            processLog.addNumProcessed(num);
+            synchronized (processLog) {
+              processLog.printStatus();
+            }
+          });
+        } catch (Exception ex) {
+          cancelled.set(true);
+          throw ex;
+        } finally {
+          datasource.returnConnection(conn);
+        }
+        return null;
+      }));
+    }
+
+    Exception exception = null;
+    try {
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (exception == null || exception instanceof InterruptedException) {
+            exception = (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+
+    // merge the bundles of all ranges in the order of ID
+    int sum = 0;
+    StringBuilder sb = new StringBuilder();
+    for (File rangeFile : rangeFiles) {
+      for (String line : Files.readAllLines(rangeFile.toPath())) {
+        if (StringUtil.isNotBlank(line)) {
+          int idx = line.lastIndexOf(',');
+          sb.append(line.substring(0, idx)).append('\n');
+          sum += Integer.parseInt(line.substring(idx + 1).trim());
+        }
+      }
+    }
+
+    filenameListOs.write(StringUtil.toUtf8Bytes(sb.toString()));
+    filenameListOs.flush();
+    setCount(type, certstore, numProcessedBefore + sum);
+    for (File rangeFile : rangeFiles) {
+      rangeFile.delete();
+    }
+
+    processLog.printTrailer();
+    // all successful, delete the processLogFile
+    processLogFile.delete();
+    System.out.println(" exported " + sum + " entries from " + tablesText);
+  } // method exportEntriesInParallel
+
+  /**
+   * Exports the entries with ID within [fromId, toId] in bundles of {@code numCertsInBundle}
+   * entries.
+   */
+  private void exportRange(CaDbEntryType type, Connection conn, long fromId, long toId,
+      long maxId, AtomicBoolean cancelled, BundleListener listener) throws Exception {
     // CHECKSTYLE:SKIP
     int numEntriesPerSelect = Math.max(1, Math.round(type.getSqlBatchFactor() * numCertsPerSelect));
     int numEntriesPerZip = Math.max(1, Math.round(type.getSqlBatchFactor() * numCertsInBundle));
     File entriesDir = new File(baseDir, type.getDirName());
-    String tableName = type.getTableName();
 
-    int numProcessedBefore;
     String coreSql;
-
     switch (type) {
       case CERT:
-        numProcessedBefore = certstore.getCountCerts();
         coreSql = "ID,SN,CA_ID,PID,RID,RTYPE,TID,UID,EE,LUPDATE,REV,RR,RT,RIT,FP_RS,"
-            + "REQ_SUBJECT,CRL_SCOPE,CERT FROM CERT WHERE ID>=?";
+            + "REQ_SUBJECT,CRL_SCOPE,CERT FROM CERT WHERE ID>=? AND ID<=?";
         break;
       case CRL:
-        numProcessedBefore = certstore.getCountCrls();
-        coreSql = "ID,CA_ID,CRL_SCOPE,CRL FROM CRL WHERE ID>=?";
+        coreSql = "ID,CA_ID,CRL_SCOPE,CRL FROM CRL WHERE ID>=? AND ID<=?";
         break;
       case REQUEST:
-        numProcessedBefore = certstore.getCountRequests();
-        coreSql = "ID,LUPDATE,DATA FROM REQUEST WHERE ID>=?";
+        coreSql = "ID,LUPDATE,DATA FROM REQUEST WHERE ID>=? AND ID<=?";
         break;
       case REQCERT:
-        numProcessedBefore = certstore.getCountReqCerts();
-        coreSql = "ID,RID,CID FROM REQCERT WHERE ID>=?";
+        coreSql = "ID,RID,CID FROM REQCERT WHERE ID>=? AND ID<=?";
         break;
       default:
         throw new IllegalStateException("unknown CaDbEntryType " + type);
     }
 
-    Long minId = (idProcessedInLastProcess != null) ? idProcessedInLastProcess + 1
-        : min(tableName, "ID");
-
-    String tablesText = "table " + type.getTableName();
-    System.out.println("exporting " + tablesText + " from ID " + minId);
-
-    final long maxId = max(tableName, "ID");
-    long total = count(tableName) - numProcessedBefore;
-    if (total < 1) {
-      total = 1; // to avoid exception
-    }
-
     String sql = datasource.buildSelectFirstSql(numEntriesPerSelect, "ID ASC", coreSql);
 
-    Object entriesInCurrentFile = createContainer(type);
-    PreparedStatement ps = prepareStatement(sql.toString());
-
-    int numEntriesInCurrentFile = 0;
-
-    int sum = 0;
-    File currentEntriesZipFile = new File(baseDir,
-        "tmp-" + type.getDirName() + "-" + System.currentTimeMillis() + ".zip");
-    ZipOutputStream currentEntriesZip = getZipOutputStream(currentEntriesZipFile);
-
-    long minIdOfCurrentFile = -1;
-    long maxIdOfCurrentFile = -1;
+    PreparedStatement ps;
+    try {
+      ps = conn.prepareStatement(sql);
+    } catch (SQLException ex) {
+      throw translate(sql, ex);
+    }
 
-    ProcessLog processLog = new ProcessLog(total);
-    processLog.printHeader();
+    EntriesBundle bundle = null;
 
     try {
-      Long id = null;
-      boolean interrupted = false;
-      long lastMaxId = minId - 1;
+      long lastMaxId = fromId - 1;
 
       while (true) {
         if (stopMe.get()) {
-          interrupted = true;
-          break;
+          throw new InterruptedException("interrupted by the user");
+        } else if (cancelled != null && cancelled.get()) {
+          throw new InterruptedException("cancelled due to error in other thread");
         }
 
         ps.setLong(1, lastMaxId + 1);
+        ps.setLong(2, toId);
 
         ResultSet rs = ps.executeQuery();
 
         // no entries anymore
         if (!rs.next()) {
+          rs.close();
           break;
         }
 
         do {
-          id = rs.getLong("ID");
+          long id = rs.getLong("ID");
           if (lastMaxId < id) {
             lastMaxId = id;
           }
 
-          if (minIdOfCurrentFile == -1) {
-            minIdOfCurrentFile = id;
-          } else if (minIdOfCurrentFile > id) {
-            minIdOfCurrentFile = id;
-          }
-
-          if (maxIdOfCurrentFile == -1) {
-            maxIdOfCurrentFile = id;
-          } else if (maxIdOfCurrentFile < id) {
-            maxIdOfCurrentFile = id;
+          if (bundle == null) {
+            bundle = new EntriesBundle(type, new File(baseDir, "tmp-" + type.getDirName() + "-"
+                + fromId + "-" + System.currentTimeMillis() + bundleSuffix()));
           }
 
           if (CaDbEntryType.CERT == type) {
             byte[] certBytes = Base64.decodeFast(rs.getString("CERT"));
 
-            String sha1 = HashAlgo.SHA1.hexHash(certBytes);
-            String certFileName = sha1 + ".der";
-            ZipEntry certZipEntry = new ZipEntry(certFileName);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(certBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
+            String certFileName = binary ? null : HashAlgo.SHA1.hexHash(certBytes) + ".der";
 
             CaCertstore.Cert cert = new CaCertstore.Cert();
             cert.setId(id);
@@ -339,7 +608,7 @@ class CaCertstoreDbExporter extends DbPorter {
             cert.setCrlScope(rs.getInt("CRL_SCOPE"));
 
             cert.validate();
-            ((CaCertstore.Certs) entriesInCurrentFile).add(cert);
+            bundle.add(cert, certFileName, certBytes);
           } else if (CaDbEntryType.CRL == type) {
             byte[] crlBytes = Base64.decodeFast(rs.getString("CRL"));
 
@@ -360,16 +629,8 @@ class CaCertstoreDbExporter extends DbPorter {
               LOG.warn("CRL without CRL number, ignore it");
               continue;
             }
-            String sha1 = HashAlgo.SHA1.hexHash(crlBytes);
 
-            final String crlFilename = sha1 + ".crl";
-            ZipEntry certZipEntry = new ZipEntry(crlFilename);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(crlBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
+            final String crlFilename = binary ? null : HashAlgo.SHA1.hexHash(crlBytes) + ".crl";
 
             CaCertstore.Crl crl = new CaCertstore.Crl();
             crl.setId(id);
@@ -382,18 +643,10 @@ class CaCertstoreDbExporter extends DbPorter {
             crl.setFile(crlFilename);
 
             crl.validate();
-            ((CaCertstore.Crls) entriesInCurrentFile).add(crl);
+            bundle.add(crl, crlFilename, crlBytes);
           } else if (CaDbEntryType.REQUEST == type) {
             byte[] dataBytes = Base64.decodeFast(rs.getString("DATA"));
-            String sha1 = HashAlgo.SHA1.hexHash(dataBytes);
-            final String dataFilename = sha1 + ".req";
-            ZipEntry certZipEntry = new ZipEntry(dataFilename);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(dataBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
+            final String dataFilename = binary ? null : HashAlgo.SHA1.hexHash(dataBytes) + ".req";
 
             CaCertstore.Request entry = new CaCertstore.Request();
             entry.setId(id);
@@ -401,7 +654,7 @@ class CaCertstoreDbExporter extends DbPorter {
             entry.setFile(dataFilename);
 
             entry.validate();
-            ((CaCertstore.Requests) entriesInCurrentFile).add(entry);
+            bundle.add(entry, dataFilename, dataBytes);
           } else if (CaDbEntryType.REQCERT == type) {
             CaCertstore.ReqCert entry = new CaCertstore.ReqCert();
             entry.setId(id);
@@ -409,76 +662,55 @@ class CaCertstoreDbExporter extends DbPorter {
             entry.setRid(rs.getLong("RID"));
 
             entry.validate();
-            ((CaCertstore.ReqCerts) entriesInCurrentFile).add(entry);
+            bundle.add(entry, null, null);
           } else {
             throw new IllegalStateException("unknown CaDbEntryType " + type);
           }
 
-          numEntriesInCurrentFile++;
-          sum++;
-
-          if (numEntriesInCurrentFile == numEntriesPerZip) {
-            String currentEntriesFilename = buildFilename(type.getDirName() + "_", ".zip",
-                minIdOfCurrentFile, maxIdOfCurrentFile, maxId);
-            finalizeZip(currentEntriesZip, "overview.json", entriesInCurrentFile);
-            currentEntriesZipFile.renameTo(new File(entriesDir, currentEntriesFilename));
-
-            writeLine(filenameListOs, currentEntriesFilename);
-            setCount(type, certstore, numProcessedBefore + sum);
-            echoToFile(tableName + ":" + Long.toString(id), processLogFile);
-
-            processLog.addNumProcessed(numEntriesInCurrentFile);
-            processLog.printStatus();
-
-            // reset
-            entriesInCurrentFile = createContainer(type);
-            numEntriesInCurrentFile = 0;
-            minIdOfCurrentFile = -1;
-            maxIdOfCurrentFile = -1;
-            currentEntriesZipFile = new File(baseDir, "tmp-" + type.getDirName() + "-"
-                + System.currentTimeMillis() + ".zip");
-            currentEntriesZip = getZipOutputStream(currentEntriesZipFile);
+          if (bundle.numEntries == numEntriesPerZip) {
+            String filename = bundle.finish(entriesDir, maxId);
+            bundle = null;
+            listener.bundleExported(filename, numEntriesPerZip, id);
           }
         } while (rs.next());
 
         rs.close();
       } // end for
 
-      if (interrupted) {
-        currentEntriesZip.close();
-        throw new InterruptedException("interrupted by the user");
-      }
-
-      if (numEntriesInCurrentFile > 0) {
-        finalizeZip(currentEntriesZip, "overview.json", entriesInCurrentFile);
-
-        String currentEntriesFilename = buildFilename(type.getDirName() + "_", ".zip",
-            minIdOfCurrentFile, maxIdOfCurrentFile, maxId);
-        currentEntriesZipFile.renameTo(new File(entriesDir, currentEntriesFilename));
-
-        writeLine(filenameListOs, currentEntriesFilename);
-        setCount(type, certstore, numProcessedBefore + sum);
-        if (id != null) {
-          echoToFile(Long.toString(id), processLogFile);
-        }
-
-        processLog.addNumProcessed(numEntriesInCurrentFile);
-      } else {
-        currentEntriesZip.close();
-        currentEntriesZipFile.delete();
+      if (bundle != null && bundle.numEntries > 0) {
+        int numEntries = bundle.numEntries;
+        long lastId = bundle.maxId;
+        String filename = bundle.finish(entriesDir, maxId);
+        bundle = null;
+        listener.bundleExported(filename, numEntries, lastId);
       }
-
     } catch (SQLException ex) {
       throw translate(null, ex);
     } finally {
+      if (bundle != null) {
+        bundle.discard();
+      }
       releaseResources(ps, null);
     } // end try
+  } // method exportRange
+
+  private List<File> listRangeFiles(CaDbEntryType type) {
+    final String prefix = type.getDirName() + "_";
+    File[] files = new File(baseDir).listFiles(
+        (dir, name) -> name.startsWith(prefix) && name.endsWith(RANGE_FILE_SUFFIX));
+
+    List<File> list = new ArrayList<>();
+    if (files != null) {
+      list.addAll(Arrays.asList(files));
+      list.sort((a, b) -> Long.compare(parseIdRange(a.getName())[0],
+          parseIdRange(b.getName())[0]));
+    }
+    return list;
+  } // method listRangeFiles
 
-    processLog.printTrailer();
-    // all successful, delete the processLogFile
-    processLogFile.delete();
-    System.out.println(" exported " + sum + " entries from " + tablesText);
-  } // method exportEntries
+  private String bundleSuffix() {
+    return binary ? CaCertstoreBinaryBundle.FILE_SUFFIX : ".zip";
+  }
 
   private void exportPublishQueue(CaCertstore certstore)
       throws DataAccessException, InvalidConfException {
@@ -585,6 +817,21 @@ class CaCertstoreDbExporter extends DbPorter {
     }
   } // method createContainer
 
+  private static int getCount(CaDbEntryType type, CaCertstore certstore) {
+    switch (type) {
+      case CERT:
+        return certstore.getCountCerts();
+      case CRL:
+        return certstore.getCountCrls();
+      case REQUEST:
+        return certstore.getCountRequests();
+      case REQCERT:
+        return certstore.getCountReqCerts();
+      default:
+        throw new IllegalStateException("unknown CaDbEntryType " + type);
+    }
+  } // method getCount
+
   private static void setCount(CaDbEntryType type, CaCertstore certstore, int num) {
     switch (type) {
       case CERT:
@@ -15,9 +15,12 @@
  * limitations under the License.
  */
 
+
 package org.xipki.ca.mgmt.db.port;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
@@ -27,10 +30,12 @@ import java.security.cert.CertificateException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.zip.ZipEntry;
+import java.util.function.Function;
 import java.util.zip.ZipFile;
 
 import org.bouncycastle.asn1.ASN1Encodable;
@@ -43,6 +48,7 @@ import org.bouncycastle.asn1.x509.TBSCertificate;
 import org.bouncycastle.cert.X509CRLHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.ca.mgmt.db.port.DbPortImportPipeline.Range;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.security.FpIdCalculator;
@@ -64,6 +70,100 @@ import com.alibaba.fastjson.JSON;
 
 class CaCertstoreDbImporter extends DbPorter {
 
+  /**
+   * Entries of one bundle file, read in the order of ID.
+   */
+  private abstract static class EntrySource implements Closeable {
+
+    /**
+     * Returns the next entry.
+     *
+     * @return the next entry, or {@code null} if there is no more entry.
+     */
+    abstract IdentifidDbObject next() throws IOException;
+
+    /**
+     * Returns the DER encoded content of the entry returned by the last {@link #next()}.
+     */
+    abstract byte[] getContent() throws IOException;
+
+  } // class EntrySource
+
+  private static class ZipEntrySource extends EntrySource {
+
+    private final ZipFile zipFile;
+
+    private final Iterator<? extends IdentifidDbObject> entries;
+
+    private final Function<IdentifidDbObject, String> filenameGetter;
+
+    private IdentifidDbObject entry;
+
+    ZipEntrySource(ZipFile zipFile, List<? extends IdentifidDbObject> entries,
+        Function<IdentifidDbObject, String> filenameGetter) {
+      this.zipFile = zipFile;
+      this.entries = entries.iterator();
+      this.filenameGetter = filenameGetter;
+    }
+
+    @Override
+    IdentifidDbObject next() {
+      entry = entries.hasNext() ? entries.next() : null;
+      return entry;
+    }
+
+    @Override
+    byte[] getContent() throws IOException {
+      String filename = filenameGetter.apply(entry);
+      return filename == null ? null
+          : IoUtil.read(zipFile.getInputStream(zipFile.getEntry(filename)));
+    }
+
+    @Override
+    public void close() throws IOException {
+      zipFile.close();
+    }
+
+  } // class ZipEntrySource
+
+  private static class BinaryEntrySource extends EntrySource {
+
+    private final CaCertstoreBinaryBundle.Reader reader;
+
+    BinaryEntrySource(CaCertstoreBinaryBundle.Reader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    IdentifidDbObject next() throws IOException {
+      return reader.next();
+    }
+
+    @Override
+    byte[] getContent() {
+      return reader.getContent();
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+
+  } // class BinaryEntrySource
+
+  private static class EntryWithContent {
+
+    private final IdentifidDbObject entry;
+
+    private final byte[] content;
+
+    EntryWithContent(IdentifidDbObject entry, byte[] content) {
+      this.entry = entry;
+      this.content = content;
+    }
+
+  } // class EntryWithContent
+
   private static final Logger LOG = LoggerFactory.getLogger(CaCertstoreDbImporter.class);
 
   private static final String SQL_ADD_CERT =
@@ -80,13 +180,51 @@ class CaCertstoreDbImporter extends DbPorter {
 
   private static final String SQL_ADD_REQCERT = "INSERT INTO REQCERT (ID,RID,CID) VALUES (?,?,?)";
 
+  /**
+   * Indexes which can be created after the bulk load: table, index name, columns.
+   */
+  private static final String[][] DEFERRABLE_INDEXES = {
+      {"CERT", "IDX_CA_FPK", "CA_ID", "FP_K"},
+      {"CERT", "IDX_CA_FPS", "CA_ID", "FP_S"},
+      {"CERT", "IDX_CA_FPRS", "CA_ID", "FP_RS"}};
+
+  /**
+   * Unique constraints which can be created after the bulk load: table, constraint name,
+   * columns.
+   */
+  private static final String[][] DEFERRABLE_UNIQUE_CONSTRAINTS = {
+      {"CERT", "CONST_CA_SN", "CA_ID", "SN"},
+      {"CRL", "CONST_CA_CRLNO", "CA_ID", "CRL_NO"}};
+
   private final int numCertsPerCommit;
 
+  private final int numThreads;
+
+  private final boolean deferIndexes;
+
   CaCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, int numCertsPerCommit,
       boolean resume, AtomicBoolean stopMe) throws Exception {
+    this(datasource, srcDir, numCertsPerCommit, resume, 1, false, stopMe);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param numThreads
+   *          Number of writer threads, each inserting a disjoint ID range on its own
+   *          database connection.
+   * @param deferIndexes
+   *          Whether the secondary indexes and unique constraints are dropped before and
+   *          created after the bulk load.
+   */
+  CaCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, int numCertsPerCommit,
+      boolean resume, int numThreads, boolean deferIndexes, AtomicBoolean stopMe)
+      throws Exception {
     super(datasource, srcDir, stopMe);
 
     this.numCertsPerCommit = Args.positive(numCertsPerCommit, "numCertsPerCommit");
+    this.numThreads = Args.range(numThreads, "numThreads", 1, 256);
+    this.deferIndexes = deferIndexes;
 
     File processLogFile = new File(baseDir, DbPorter.IMPORT_PROCESS_LOG_FILENAME);
     if (resume) {
@@ -119,6 +257,7 @@ class CaCertstoreDbImporter extends DbPorter {
       CaDbEntryType typeProcessedInLastProcess = null;
       Integer numProcessedInLastProcess = null;
       Long idProcessedInLastProcess = null;
+      List<Range> rangesInLastProcess = null;
       if (processLogFile.exists()) {
         byte[] content = IoUtil.read(processLogFile);
         if (content != null && content.length > 5) {
@@ -126,8 +265,11 @@ class CaCertstoreDbImporter extends DbPorter {
           StringTokenizer st = new StringTokenizer(str, ":");
           String type = st.nextToken();
           typeProcessedInLastProcess = CaDbEntryType.valueOf(type);
-          numProcessedInLastProcess = Integer.parseInt(st.nextToken());
-          idProcessedInLastProcess = Long.parseLong(st.nextToken());
+          rangesInLastProcess = DbPortImportPipeline.parseRanges(str, type + ":");
+          if (rangesInLastProcess == null) {
+            numProcessedInLastProcess = Integer.parseInt(st.nextToken());
+            idProcessedInLastProcess = Long.parseLong(st.nextToken().trim());
+          }
         }
       }
 
@@ -158,14 +300,19 @@ class CaCertstoreDbImporter extends DbPorter {
       }
 
       if (!entriesFinished) {
+        if (deferIndexes) {
+          dropIndexes(DEFERRABLE_INDEXES, DEFERRABLE_UNIQUE_CONSTRAINTS);
+        }
+
         Exception exception = null;
         if (CaDbEntryType.CRL == typeProcessedInLastProcess
             || typeProcessedInLastProcess == null) {
           exception = importEntries(CaDbEntryType.CRL, certstore, processLogFile,
-              numProcessedInLastProcess, idProcessedInLastProcess);
+              numProcessedInLastProcess, idProcessedInLastProcess, rangesInLastProcess);
           typeProcessedInLastProcess = null;
           numProcessedInLastProcess = null;
           idProcessedInLastProcess = null;
+          rangesInLastProcess = null;
         }
 
         CaDbEntryType[] types = {CaDbEntryType.CERT, CaDbEntryType.REQUEST, CaDbEntryType.REQCERT};
@@ -174,7 +321,11 @@ class CaCertstoreDbImporter extends DbPorter {
           if (exception == null
               && (type == typeProcessedInLastProcess || typeProcessedInLastProcess == null)) {
             exception = importEntries(type, certstore, processLogFile,
-                numProcessedInLastProcess, idProcessedInLastProcess);
+                numProcessedInLastProcess, idProcessedInLastProcess, rangesInLastProcess);
+            typeProcessedInLastProcess = null;
+            numProcessedInLastProcess = null;
+            idProcessedInLastProcess = null;
+            rangesInLastProcess = null;
           }
         }
 
@@ -183,6 +334,10 @@ class CaCertstoreDbImporter extends DbPorter {
         }
       }
 
+      if (deferIndexes) {
+        createIndexes(DEFERRABLE_INDEXES, DEFERRABLE_UNIQUE_CONSTRAINTS);
+      }
+
       importPublishQueue(certstore.getPublishQueue());
       importDeltaCrlCache(certstore.getDeltaCrlCache());
 
@@ -248,7 +403,8 @@ class CaCertstoreDbImporter extends DbPorter {
   } // method importDeltaCRLCache
 
   private Exception importEntries(CaDbEntryType type, CaCertstore certstore,
-      File processLogFile, Integer numProcessedInLastProcess, Long idProcessedInLastProcess) {
+      File processLogFile, Integer numProcessedInLastProcess, Long idProcessedInLastProcess,
+      List<Range> rangesInLastProcess) {
     String tablesText = "table " + type.getTableName();
 
     try {
@@ -259,8 +415,6 @@ class CaCertstoreDbImporter extends DbPorter {
         numProcessedBefore = numProcessedInLastProcess;
       }
 
-      deleteFromTableWithLargerId(type.getTableName(), "ID", minId - 1, LOG);
-
       final long total;
       String sql;
 
@@ -285,6 +439,16 @@ class CaCertstoreDbImporter extends DbPorter {
           throw new IllegalStateException("unsupported DbEntryType " + type);
       }
 
+      String entriesDir = baseDir + File.separator + type.getDirName();
+      String mfFile = entriesDir + ".mf";
+
+      if (numThreads > 1 || rangesInLastProcess != null) {
+        return importEntriesInParallel(type, total, sql, mfFile, processLogFile,
+            numProcessedBefore, minId, rangesInLastProcess);
+      }
+
+      deleteFromTableWithLargerId(type.getTableName(), "ID", minId - 1, LOG);
+
       final long remainingTotal = total - numProcessedBefore;
       final ProcessLog processLog = new ProcessLog(remainingTotal);
 
@@ -295,21 +459,19 @@ class CaCertstoreDbImporter extends DbPorter {
       PreparedStatement stmt = null;
 
       try {
-        entriesFileIterator = new DbPortFileNameIterator(
-            baseDir + File.separator + type.getDirName() + ".mf");
+        entriesFileIterator = new DbPortFileNameIterator(mfFile);
 
         stmt = prepareStatement(sql);
 
         while (entriesFileIterator.hasNext()) {
-          String entriesFile = baseDir + File.separator + type.getDirName()
-              + File.separator + entriesFileIterator.next();
+          String entriesFile = entriesDir + File.separator + entriesFileIterator.next();
 
           // extract the toId from the filename
-          int fromIdx = entriesFile.indexOf('-');
-          int toIdx = entriesFile.indexOf(".zip");
-          if (fromIdx != -1 && toIdx != -1) {
+          int fromIdx = entriesFile.lastIndexOf('-');
+          int toIdx = entriesFile.lastIndexOf('.');
+          if (fromIdx != -1 && toIdx > fromIdx) {
             try {
-              long toId = Integer.parseInt(entriesFile.substring(fromIdx + 1, toIdx));
+              long toId = Long.parseLong(entriesFile.substring(fromIdx + 1, toIdx));
               if (toId < minId) {
                 // try next file
                 continue;
@@ -321,29 +483,9 @@ class CaCertstoreDbImporter extends DbPorter {
             LOG.warn("invalid file name '{}', but will still be processed", entriesFile);
           }
 
-          try {
-            long lastId;
-            switch (type) {
-              case CERT:
-                lastId = importCerts(entriesFile, minId, processLogFile,
-                    processLog, numProcessedBefore, stmt, sql);
-                break;
-              case CRL:
-                lastId = importCrls(entriesFile, minId, processLogFile,
-                    processLog, numProcessedBefore, stmt, sql);
-                break;
-              case REQUEST:
-                lastId = importRequests(entriesFile, minId, processLogFile,
-                    processLog, numProcessedBefore, stmt, sql);
-                break;
-              case REQCERT:
-                lastId = importReqCerts(entriesFile, minId, processLogFile,
-                    processLog, numProcessedBefore, stmt, sql);
-                break;
-              default:
-                throw new IllegalStateException("unknown CaDbEntryType " + type);
-            }
-
+          try (EntrySource source = openEntrySource(type, entriesFile, minId)) {
+            long lastId = importEntries(type, source, minId, processLogFile,
+                processLog, numProcessedBefore, stmt, sql);
             minId = lastId + 1;
           } catch (Exception ex) {
             System.err.println("\ncould not import entries from file "
@@ -373,497 +515,351 @@ class CaCertstoreDbImporter extends DbPorter {
     }
   } // method importEntries
 
-  private long importCerts(String entriesZipFile, long minId,
-      File processLogFile, ProcessLog processLog, int numProcessedInLastProcess,
-      PreparedStatement stmt, String sql) throws Exception {
-    final CaDbEntryType type = CaDbEntryType.CERT;
-    final int numEntriesPerCommit = Math.max(1,
-        Math.round(type.getSqlBatchFactor() * numCertsPerCommit));
-
-    ZipFile zipFile = new ZipFile(new File(entriesZipFile));
-    ZipEntry entriesEntry = zipFile.getEntry("overview.json");
-
-    CaCertstore.Certs certs;
-    try {
-      certs = JSON.parseObject(zipFile.getInputStream(entriesEntry), CaCertstore.Certs.class);
-    } catch (Exception ex) {
-      try {
-        zipFile.close();
-      } catch (Exception e2) {
-        LOG.error("could not close ZIP file {}: {}", entriesZipFile, e2.getMessage());
-        LOG.debug("could not close ZIP file " + entriesZipFile, e2);
+  private Exception importEntriesInParallel(CaDbEntryType type, long total, String sql,
+      String mfFile, File processLogFile, int numProcessedBefore, long minId,
+      List<Range> rangesInLastProcess) throws Exception {
+    List<String> bundleFiles = new ArrayList<>();
+    try (DbPortFileNameIterator it = new DbPortFileNameIterator(mfFile)) {
+      while (it.hasNext()) {
+        bundleFiles.add(it.next());
       }
-      throw ex;
     }
-    certs.validate();
 
-    disableAutoCommit();
-
-    try {
-      int numEntriesInBatch = 0;
-      long lastSuccessfulEntryId = 0;
-
-      List<CaCertstore.Cert> list = certs.getCerts();
-      final int n = list.size();
-
-      for (int i = 0; i < n; i++) {
-        CaCertstore.Cert cert = list.get(i);
-
-        if (stopMe.get()) {
-          throw new InterruptedException("interrupted by the user");
-        }
-
-        long id = cert.getId();
-        if (id < minId) {
-          continue;
-        }
-
-        numEntriesInBatch++;
-
-        String filename = cert.getFile();
-        // rawcert
-        ZipEntry certZipEnty = zipFile.getEntry(filename);
-        // rawcert
-        byte[] encodedCert = IoUtil.read(zipFile.getInputStream(certZipEnty));
-
-        TBSCertificate tbsCert;
-        try {
-          Certificate cc = Certificate.getInstance(encodedCert);
-          tbsCert = cc.getTBSCertificate();
-        } catch (RuntimeException ex) {
-          LOG.error("could not parse certificate in file {}", filename);
-          LOG.debug("could not parse certificate in file " + filename, ex);
-          throw new CertificateException(ex.getMessage(), ex);
-        }
-
-        byte[] encodedKey = tbsCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
-
-        String b64Sha1FpCert = HashAlgo.SHA1.base64Hash(encodedCert);
-
-        // cert
-        String subjectText = X509Util.cutX500Name(tbsCert.getSubject(), maxX500nameLen);
-
-        try {
-          int idx = 1;
-
-          stmt.setLong(idx++, id);
-          stmt.setLong(idx++, cert.getUpdate());
-          stmt.setString(idx++, tbsCert.getSerialNumber().getPositiveValue().toString(16));
-
-          stmt.setString(idx++, subjectText);
-          long fpSubject = X509Util.fpCanonicalizedName(tbsCert.getSubject());
-          stmt.setLong(idx++, fpSubject);
+    List<Range> ranges;
+    if (rangesInLastProcess == null) {
+      ranges = DbPortImportPipeline.splitRanges(bundleFiles, numThreads,
+          numProcessedBefore, minId - 1);
+    } else {
+      ranges = rangesInLastProcess;
+      DbPortImportPipeline.assignBundles(ranges, bundleFiles);
+    }
 
-          if (cert.getFpRs() != null) {
-            stmt.setLong(idx++, cert.getFpRs());
-          } else {
-            stmt.setNull(idx++, Types.BIGINT);
-          }
+    long numProcessed = 0;
+    for (Range range : ranges) {
+      numProcessed += range.getNumProcessed();
+    }
 
-          stmt.setLong(idx++, tbsCert.getStartDate().getDate().getTime() / 1000);
-          stmt.setLong(idx++, tbsCert.getEndDate().getDate().getTime() / 1000);
-          setInt(stmt, idx++, cert.getRev());
-          setInt(stmt, idx++, cert.getRr());
-          setLong(stmt, idx++, cert.getRt());
-          setLong(stmt, idx++, cert.getRit());
-          setInt(stmt, idx++, cert.getPid());
-          setInt(stmt, idx++, cert.getCaId());
-
-          setInt(stmt, idx++, cert.getRid());
-          setInt(stmt, idx++, cert.getUid());
-          stmt.setLong(idx++, FpIdCalculator.hash(encodedKey));
-          Extension extension = tbsCert.getExtensions().getExtension(Extension.basicConstraints);
-          boolean ee = true;
-          if (extension != null) {
-            ASN1Encodable asn1 = extension.getParsedValue();
-            ee = !BasicConstraints.getInstance(asn1).isCA();
-          }
+    String tablesText = "table " + type.getTableName();
+    final ProcessLog processLog = new ProcessLog(Math.max(1, total - numProcessed));
+    System.out.println("importing entries to " + tablesText + " in " + ranges.size()
+        + " ID ranges");
+    processLog.printHeader();
 
-          stmt.setInt(idx++, ee ? 1 : 0);
-          stmt.setInt(idx++, cert.getReqType());
-          String tidS = null;
-          if (cert.getTid() != null) {
-            tidS = cert.getTid();
-          }
-          stmt.setString(idx++, tidS);
-          stmt.setString(idx++, b64Sha1FpCert);
-          stmt.setString(idx++, cert.getRs());
-          stmt.setInt(idx++, cert.getCrlScope());
-          stmt.setString(idx++, Base64.encodeToString(encodedCert));
-          stmt.addBatch();
-        } catch (SQLException ex) {
-          throw translate(sql, ex);
-        }
+    String entriesDir = new File(mfFile).getParent() + File.separator + type.getDirName();
+    final int numEntriesPerCommit = Math.max(1,
+        Math.round(type.getSqlBatchFactor() * numCertsPerCommit));
 
-        boolean isLastBlock = i == n - 1;
-        if (numEntriesInBatch > 0
-            && (numEntriesInBatch % numEntriesPerCommit == 0 || isLastBlock)) {
-          try {
-            stmt.executeBatch();
-            commit("(commit import to CA)");
-          } catch (Throwable th) {
-            rollback();
-            deleteFromTableWithLargerId(type.getTableName(), "ID", id, LOG);
-            if (th instanceof SQLException) {
-              throw translate(sql, (SQLException) th);
-            } else if (th instanceof Exception) {
-              throw (Exception) th;
-            } else {
-              throw new Exception(th);
+    DbPortImportPipeline<EntryWithContent> pipeline = new DbPortImportPipeline<>(datasource,
+        type.getTableName(), sql, numEntriesPerCommit, entry -> entry.entry.getId(),
+        (bundleFile, fromId, consumer) -> {
+          try (EntrySource source = openEntrySource(type,
+              entriesDir + File.separator + bundleFile, fromId)) {
+            IdentifidDbObject entry;
+            while ((entry = source.next()) != null) {
+              if (entry.getId() >= fromId) {
+                consumer.accept(new EntryWithContent(entry, source.getContent()));
+              }
             }
           }
+        },
+        (ps, entry) -> bind(type, ps, entry.entry, entry.content),
+        stopMe);
 
-          lastSuccessfulEntryId = id;
-          processLog.addNumProcessed(numEntriesInBatch);
-          numEntriesInBatch = 0;
-          echoToFile(type + ":" + (numProcessedInLastProcess + processLog.numProcessed())
-              + ":" + lastSuccessfulEntryId, processLogFile);
-          processLog.printStatus();
-        }
-
-      } // end while
+    pipeline.run(ranges, processLog, processLogFile, type + ":");
 
-      return lastSuccessfulEntryId;
-    } finally {
-      recoverAutoCommit();
-      zipFile.close();
+    numProcessed = 0;
+    for (Range range : ranges) {
+      numProcessed += range.getNumProcessed();
     }
-  } // method importCerts
 
-  private long importCrls(String entriesZipFile, long minId,
+    processLog.printTrailer();
+    echoToFile(type + ":" + numProcessed + ":-1", processLogFile);
+
+    System.out.println(" imported " + processLog.numProcessed() + " entries");
+    return null;
+  } // method importEntriesInParallel
+
+  private long importEntries(CaDbEntryType type, EntrySource source, long minId,
       File processLogFile, ProcessLog processLog, int numProcessedInLastProcess,
       PreparedStatement stmt, String sql) throws Exception {
-    final CaDbEntryType type = CaDbEntryType.CRL;
     final int numEntriesPerCommit = Math.max(1,
         Math.round(type.getSqlBatchFactor() * numCertsPerCommit));
 
-    ZipFile zipFile = new ZipFile(new File(entriesZipFile));
-    ZipEntry entriesEntry = zipFile.getEntry("overview.json");
-
-    CaCertstore.Crls crls;
-    try {
-      crls = JSON.parseObject(zipFile.getInputStream(entriesEntry), CaCertstore.Crls.class);
-    } catch (Exception ex) {
-      try {
-        zipFile.close();
-      } catch (Exception e2) {
-        LOG.error("could not close ZIP file {}: {}", entriesZipFile, e2.getMessage());
-        LOG.debug("could not close ZIP file " + entriesZipFile, e2);
-      }
-      throw ex;
-    }
-    crls.validate();
-
     disableAutoCommit();
 
     try {
       int numEntriesInBatch = 0;
-      long lastSuccessfulEntryId = 0;
+      long lastSuccessfulEntryId = minId - 1;
+      long id = lastSuccessfulEntryId;
 
-      List<CaCertstore.Crl> list = crls.getCrls();
-      final int n = list.size();
-
-      for (int i = 0; i < n; i++) {
-        CaCertstore.Crl crl = list.get(i);
+      IdentifidDbObject entry;
+      while ((entry = source.next()) != null) {
+        if (stopMe.get()) {
+          throw new InterruptedException("interrupted by the user");
+        }
 
-        long id = crl.getId();
+        id = entry.getId();
         if (id < minId) {
           continue;
         }
 
-        numEntriesInBatch++;
-
-        String filename = crl.getFile();
-
-        // CRL
-        ZipEntry zipEnty = zipFile.getEntry(filename);
-
-        // rawcert
-        byte[] encodedCrl = IoUtil.read(zipFile.getInputStream(zipEnty));
-
-        X509CRLHolder x509crl = null;
-        try {
-          x509crl = X509Util.parseCrl(encodedCrl);
-        } catch (Exception ex) {
-          LOG.error("could not parse CRL in file {}", filename);
-          LOG.debug("could not parse CRL in file " + filename, ex);
-          if (ex instanceof CRLException) {
-            throw (CRLException) ex;
-          } else {
-            throw new CRLException(ex.getMessage(), ex);
-          }
-        }
-
+        boolean add;
         try {
-          Extensions extns = x509crl.getExtensions();
-          byte[] extnValue = X509Util.getCoreExtValue(extns, Extension.cRLNumber);
-          if (extnValue == null) {
-            LOG.warn("CRL without CRL number, ignore it");
-            continue;
-          }
-          // CHECKSTYLE:SKIP
-          BigInteger crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-
-          BigInteger baseCrlNumber = null;
-          extnValue = X509Util.getCoreExtValue(extns, Extension.deltaCRLIndicator);
-          if (extnValue != null) {
-            baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-          }
-
-          int idx = 1;
-          stmt.setLong(idx++, crl.getId());
-          stmt.setInt(idx++, crl.getCaId());
-          stmt.setLong(idx++, crlNumber.longValue());
-          stmt.setLong(idx++, x509crl.getThisUpdate().getTime() / 1000);
-          if (x509crl.getNextUpdate() != null) {
-            stmt.setLong(idx++, x509crl.getNextUpdate().getTime() / 1000);
-          } else {
-            stmt.setNull(idx++, Types.INTEGER);
-          }
-
-          if (baseCrlNumber == null) {
-            setBoolean(stmt, idx++, false);
-            stmt.setNull(idx++, Types.BIGINT);
-          } else {
-            setBoolean(stmt, idx++, true);
-            stmt.setLong(idx++, baseCrlNumber.longValue());
-          }
-
-          stmt.setInt(idx++, crl.getCrlScope());
-          stmt.setString(idx++, Base64.encodeToString(encodedCrl));
-
-          stmt.addBatch();
+          add = bind(type, stmt, entry, source.getContent());
         } catch (SQLException ex) {
-          System.err.println("could not import CRL with ID=" + crl.getId()
+          System.err.println("could not import " + type.getTableName() + " with ID=" + id
               + ", message: " + ex.getMessage());
-          throw ex;
+          throw translate(sql, ex);
         }
 
-        boolean isLastBlock = i == n - 1;
-        if (numEntriesInBatch > 0
-            && (numEntriesInBatch % numEntriesPerCommit == 0 || isLastBlock)) {
-          try {
-            stmt.executeBatch();
-            commit("(commit import to CA)");
-          } catch (Throwable th) {
-            rollback();
-            deleteFromTableWithLargerId(type.getTableName(), "ID", id, LOG);
-            if (th instanceof SQLException) {
-              throw translate(sql, (SQLException) th);
-            } else if (th instanceof Exception) {
-              throw (Exception) th;
-            } else {
-              throw new Exception(th);
-            }
-          }
+        if (add) {
+          stmt.addBatch();
+          numEntriesInBatch++;
+        }
 
+        if (numEntriesInBatch == numEntriesPerCommit) {
+          commitBatch(type, stmt, sql, id, numEntriesInBatch, processLogFile, processLog,
+              numProcessedInLastProcess);
           lastSuccessfulEntryId = id;
-          processLog.addNumProcessed(numEntriesInBatch);
           numEntriesInBatch = 0;
-          echoToFile(type + ":" + (numProcessedInLastProcess + processLog.numProcessed()) + ":"
-              + lastSuccessfulEntryId, processLogFile);
-          processLog.printStatus();
         }
-
       } // end while
 
+      if (numEntriesInBatch > 0) {
+        commitBatch(type, stmt, sql, id, numEntriesInBatch, processLogFile, processLog,
+            numProcessedInLastProcess);
+        lastSuccessfulEntryId = id;
+      }
+
       return lastSuccessfulEntryId;
     } finally {
       recoverAutoCommit();
-      zipFile.close();
     }
-  } // method importCrls
+  } // method importEntries
 
-  private long importRequests(String entriesZipFile, long minId,
-      File processLogFile, ProcessLog processLog, int numProcessedInLastProcess,
-      PreparedStatement stmt, String sql) throws Exception {
-    final CaDbEntryType type = CaDbEntryType.REQUEST;
-    final int numEntriesPerCommit = Math.max(1,
-        Math.round(type.getSqlBatchFactor() * numCertsPerCommit));
+  /**
+   * Sets the parameters of the insert statement.
+   *
+   * @return whether the entry should be inserted.
+   */
+  private boolean bind(CaDbEntryType type, PreparedStatement stmt, IdentifidDbObject entry,
+      byte[] content) throws SQLException, CertificateException, CRLException {
+    switch (type) {
+      case CERT:
+        return bindCert(stmt, (CaCertstore.Cert) entry, content);
+      case CRL:
+        return bindCrl(stmt, (CaCertstore.Crl) entry, content);
+      case REQUEST:
+        CaCertstore.Request request = (CaCertstore.Request) entry;
+        int idx = 1;
+        stmt.setLong(idx++, request.getId());
+        stmt.setLong(idx++, request.getUpdate());
+        stmt.setString(idx++, Base64.encodeToString(content));
+        return true;
+      case REQCERT:
+        CaCertstore.ReqCert reqCert = (CaCertstore.ReqCert) entry;
+        idx = 1;
+        stmt.setLong(idx++, reqCert.getId());
+        stmt.setLong(idx++, reqCert.getRid());
+        stmt.setLong(idx++, reqCert.getCid());
+        return true;
+      default:
+        throw new IllegalStateException("unknown CaDbEntryType " + type);
+    }
+  } // method bind
 
-    ZipFile zipFile = new ZipFile(new File(entriesZipFile));
-    ZipEntry entriesEntry = zipFile.getEntry("overview.json");
+  private boolean bindCert(PreparedStatement stmt, CaCertstore.Cert cert, byte[] encodedCert)
+      throws SQLException, CertificateException {
+    long id = cert.getId();
 
-    CaCertstore.Requests requests;
+    TBSCertificate tbsCert;
     try {
-      requests = JSON.parseObject(zipFile.getInputStream(entriesEntry), CaCertstore.Requests.class);
-    } catch (Exception ex) {
-      try {
-        zipFile.close();
-      } catch (Exception e2) {
-        LOG.error("could not close ZIP file {}: {}", entriesZipFile, e2.getMessage());
-        LOG.debug("could not close ZIP file " + entriesZipFile, e2);
-      }
-      throw ex;
+      Certificate cc = Certificate.getInstance(encodedCert);
+      tbsCert = cc.getTBSCertificate();
+    } catch (RuntimeException ex) {
+      LOG.error("could not parse certificate with ID {}", id);
+      LOG.debug("could not parse certificate with ID " + id, ex);
+      throw new CertificateException(ex.getMessage(), ex);
     }
-    requests.validate();
 
-    disableAutoCommit();
+    byte[] encodedKey = tbsCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
 
-    try {
-      int numEntriesInBatch = 0;
-      long lastSuccessfulEntryId = 0;
+    String b64Sha1FpCert = HashAlgo.SHA1.base64Hash(encodedCert);
 
-      List<CaCertstore.Request> list = requests.getRequests();
-      final int n = list.size();
+    // cert
+    String subjectText = X509Util.cutX500Name(tbsCert.getSubject(), maxX500nameLen);
 
-      for (int i = 0; i < n; i++) {
-        CaCertstore.Request request = list.get(i);
+    int idx = 1;
 
-        if (stopMe.get()) {
-          throw new InterruptedException("interrupted by the user");
-        }
+    stmt.setLong(idx++, id);
+    stmt.setLong(idx++, cert.getUpdate());
+    stmt.setString(idx++, tbsCert.getSerialNumber().getPositiveValue().toString(16));
 
-        long id = request.getId();
-        if (id < minId) {
-          continue;
-        }
-
-        numEntriesInBatch++;
+    stmt.setString(idx++, subjectText);
+    long fpSubject = X509Util.fpCanonicalizedName(tbsCert.getSubject());
+    stmt.setLong(idx++, fpSubject);
 
-        String filename = request.getFile();
+    if (cert.getFpRs() != null) {
+      stmt.setLong(idx++, cert.getFpRs());
+    } else {
+      stmt.setNull(idx++, Types.BIGINT);
+    }
 
-        ZipEntry zipEnty = zipFile.getEntry(filename);
-        byte[] encodedRequest = IoUtil.read(zipFile.getInputStream(zipEnty));
+    stmt.setLong(idx++, tbsCert.getStartDate().getDate().getTime() / 1000);
+    stmt.setLong(idx++, tbsCert.getEndDate().getDate().getTime() / 1000);
+    setInt(stmt, idx++, cert.getRev());
+    setInt(stmt, idx++, cert.getRr());
+    setLong(stmt, idx++, cert.getRt());
+    setLong(stmt, idx++, cert.getRit());
+    setInt(stmt, idx++, cert.getPid());
+    setInt(stmt, idx++, cert.getCaId());
+
+    setInt(stmt, idx++, cert.getRid());
+    setInt(stmt, idx++, cert.getUid());
+    stmt.setLong(idx++, FpIdCalculator.hash(encodedKey));
+    Extension extension = tbsCert.getExtensions().getExtension(Extension.basicConstraints);
+    boolean ee = true;
+    if (extension != null) {
+      ASN1Encodable asn1 = extension.getParsedValue();
+      ee = !BasicConstraints.getInstance(asn1).isCA();
+    }
 
-        try {
-          int idx = 1;
-          stmt.setLong(idx++, request.getId());
-          stmt.setLong(idx++, request.getUpdate());
-          stmt.setString(idx++, Base64.encodeToString(encodedRequest));
-          stmt.addBatch();
-        } catch (SQLException ex) {
-          System.err.println("could not import REQUEST with ID=" + request.getId()
-              + ", message: " + ex.getMessage());
-          throw ex;
-        }
+    stmt.setInt(idx++, ee ? 1 : 0);
+    stmt.setInt(idx++, cert.getReqType());
+    String tidS = null;
+    if (cert.getTid() != null) {
+      tidS = cert.getTid();
+    }
+    stmt.setString(idx++, tidS);
+    stmt.setString(idx++, b64Sha1FpCert);
+    stmt.setString(idx++, cert.getRs());
+    stmt.setInt(idx++, cert.getCrlScope());
+    stmt.setString(idx++, Base64.encodeToString(encodedCert));
+    return true;
+  } // method bindCert
+
+  private boolean bindCrl(PreparedStatement stmt, CaCertstore.Crl crl, byte[] encodedCrl)
+      throws SQLException, CRLException {
+    X509CRLHolder x509crl = null;
+    try {
+      x509crl = X509Util.parseCrl(encodedCrl);
+    } catch (Exception ex) {
+      LOG.error("could not parse CRL with ID {}", crl.getId());
+      LOG.debug("could not parse CRL with ID " + crl.getId(), ex);
+      if (ex instanceof CRLException) {
+        throw (CRLException) ex;
+      } else {
+        throw new CRLException(ex.getMessage(), ex);
+      }
+    }
 
-        boolean isLastBlock = i == n - 1;
-        if (numEntriesInBatch > 0
-            && (numEntriesInBatch % numEntriesPerCommit == 0 || isLastBlock)) {
-          try {
-            stmt.executeBatch();
-            commit("(commit import to CA)");
-          } catch (Throwable th) {
-            rollback();
-            deleteFromTableWithLargerId(type.getTableName(), "ID", id, LOG);
-            if (th instanceof SQLException) {
-              throw translate(sql, (SQLException) th);
-            } else if (th instanceof Exception) {
-              throw (Exception) th;
-            } else {
-              throw new Exception(th);
-            }
-          }
+    Extensions extns = x509crl.getExtensions();
+    byte[] extnValue = X509Util.getCoreExtValue(extns, Extension.cRLNumber);
+    if (extnValue == null) {
+      LOG.warn("CRL without CRL number, ignore it");
+      return false;
+    }
+    // CHECKSTYLE:SKIP
+    BigInteger crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
 
-          lastSuccessfulEntryId = id;
-          processLog.addNumProcessed(numEntriesInBatch);
-          numEntriesInBatch = 0;
-          echoToFile(type + ":" + (numProcessedInLastProcess + processLog.numProcessed()) + ":"
-              + lastSuccessfulEntryId, processLogFile);
-          processLog.printStatus();
-        }
+    BigInteger baseCrlNumber = null;
+    extnValue = X509Util.getCoreExtValue(extns, Extension.deltaCRLIndicator);
+    if (extnValue != null) {
+      baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
+    }
 
-      } // end while
+    int idx = 1;
+    stmt.setLong(idx++, crl.getId());
+    stmt.setInt(idx++, crl.getCaId());
+    stmt.setLong(idx++, crlNumber.longValue());
+    stmt.setLong(idx++, x509crl.getThisUpdate().getTime() / 1000);
+    if (x509crl.getNextUpdate() != null) {
+      stmt.setLong(idx++, x509crl.getNextUpdate().getTime() / 1000);
+    } else {
+      stmt.setNull(idx++, Types.INTEGER);
+    }
 
-      return lastSuccessfulEntryId;
-    } finally {
-      recoverAutoCommit();
-      zipFile.close();
+    if (baseCrlNumber == null) {
+      setBoolean(stmt, idx++, false);
+      stmt.setNull(idx++, Types.BIGINT);
+    } else {
+      setBoolean(stmt, idx++, true);
+      stmt.setLong(idx++, baseCrlNumber.longValue());
     }
-  } // method importRequests
 
-  private long importReqCerts(String entriesZipFile, long minId,
-      File processLogFile, ProcessLog processLog, int numProcessedInLastProcess,
-      PreparedStatement stmt, String sql) throws Exception {
-    final CaDbEntryType type = CaDbEntryType.REQCERT;
-    final int numEntriesPerCommit = Math.max(1,
-        Math.round(type.getSqlBatchFactor() * numCertsPerCommit));
+    stmt.setInt(idx++, crl.getCrlScope());
+    stmt.setString(idx++, Base64.encodeToString(encodedCrl));
+    return true;
+  } // method bindCrl
+
+  private void commitBatch(CaDbEntryType type, PreparedStatement stmt, String sql, long lastId,
+      int numEntriesInBatch, File processLogFile, ProcessLog processLog,
+      int numProcessedInLastProcess) throws Exception {
+    try {
+      stmt.executeBatch();
+      commit("(commit import to CA)");
+    } catch (Throwable th) {
+      rollback();
+      deleteFromTableWithLargerId(type.getTableName(), "ID", lastId, LOG);
+      if (th instanceof SQLException) {
+        throw translate(sql, (SQLException) th);
+      } else if (th instanceof Exception) {
+        throw (Exception) th;
+      } else {
+        throw new Exception(th);
+      }
+    }
 
-    ZipFile zipFile = new ZipFile(new File(entriesZipFile));
-    ZipEntry entriesEntry = zipFile.getEntry("overview.json");
+    processLog.addNumProcessed(numEntriesInBatch);
+    echoToFile(type + ":" + (numProcessedInLastProcess + processLog.numProcessed()) + ":"
+        + lastId, processLogFile);
+    processLog.printStatus();
+  } // method commitBatch
+
+  private EntrySource openEntrySource(CaDbEntryType type, String entriesFile, long minId)
+      throws Exception {
+    if (entriesFile.endsWith(CaCertstoreBinaryBundle.FILE_SUFFIX)) {
+      CaCertstoreBinaryBundle.Reader reader =
+          new CaCertstoreBinaryBundle.Reader(new File(entriesFile), type);
+      reader.skipTo(minId);
+      return new BinaryEntrySource(reader);
+    }
 
-    CaCertstore.ReqCerts reqCerts;
+    ZipFile zipFile = new ZipFile(new File(entriesFile));
     try {
-      reqCerts = JSON.parseObject(zipFile.getInputStream(entriesEntry), CaCertstore.ReqCerts.class);
+      InputStream is = zipFile.getInputStream(zipFile.getEntry("overview.json"));
+      switch (type) {
+        case CERT:
+          CaCertstore.Certs certs = JSON.parseObject(is, CaCertstore.Certs.class);
+          certs.validate();
+          return new ZipEntrySource(zipFile, certs.getCerts(),
+              entry -> ((CaCertstore.Cert) entry).getFile());
+        case CRL:
+          CaCertstore.Crls crls = JSON.parseObject(is, CaCertstore.Crls.class);
+          crls.validate();
+          return new ZipEntrySource(zipFile, crls.getCrls(),
+              entry -> ((CaCertstore.Crl) entry).getFile());
+        case REQUEST:
+          CaCertstore.Requests requests = JSON.parseObject(is, CaCertstore.Requests.class);
+          requests.validate();
+          return new ZipEntrySource(zipFile, requests.getRequests(),
+              entry -> ((CaCertstore.Request) entry).getFile());
+        case REQCERT:
+          CaCertstore.ReqCerts reqCerts = JSON.parseObject(is, CaCertstore.ReqCerts.class);
+          reqCerts.validate();
+          return new ZipEntrySource(zipFile, reqCerts.getReqCerts(), entry -> null);
+        default:
+          throw new IllegalStateException("unknown CaDbEntryType " + type);
+      }
     } catch (Exception ex) {
       try {
         zipFile.close();
       } catch (Exception e2) {
-        LOG.error("could not close ZIP file {}: {}", entriesZipFile, e2.getMessage());
-        LOG.debug("could not close ZIP file " + entriesZipFile, e2);
+        LOG.error("could not close ZIP file {}: {}", entriesFile, e2.getMessage());
+        LOG.debug("could not close ZIP file " + entriesFile, e2);
       }
       throw ex;
     }
-    reqCerts.validate();
-
-    disableAutoCommit();
-
-    try {
-      int numEntriesInBatch = 0;
-      long lastSuccessfulEntryId = 0;
-
-      List<CaCertstore.ReqCert> list = reqCerts.getReqCerts();
-      final int n = list.size();
-
-      for (int i = 0; i < n; i++) {
-        CaCertstore.ReqCert reqCert = list.get(i);
-        if (stopMe.get()) {
-          throw new InterruptedException("interrupted by the user");
-        }
-
-        long id = reqCert.getId();
-        if (id < minId) {
-          continue;
-        }
-
-        numEntriesInBatch++;
-
-        try {
-          int idx = 1;
-          stmt.setLong(idx++, reqCert.getId());
-          stmt.setLong(idx++, reqCert.getRid());
-          stmt.setLong(idx++, reqCert.getCid());
-          stmt.addBatch();
-        } catch (SQLException ex) {
-          System.err.println("could not import REQUEST with ID=" + reqCert.getId()
-              + ", message: " + ex.getMessage());
-          throw ex;
-        }
-
-        boolean isLastBlock = i == n - 1;
-        if (numEntriesInBatch > 0
-            && (numEntriesInBatch % numEntriesPerCommit == 0 || isLastBlock)) {
-          try {
-            stmt.executeBatch();
-            commit("(commit import to CA)");
-          } catch (Throwable th) {
-            rollback();
-            deleteFromTableWithLargerId(type.getTableName(), "ID", id, LOG);
-            if (th instanceof SQLException) {
-              throw translate(sql, (SQLException) th);
-            } else if (th instanceof Exception) {
-              throw (Exception) th;
-            } else {
-              throw new Exception(th);
-            }
-          }
-
-          lastSuccessfulEntryId = id;
-          processLog.addNumProcessed(numEntriesInBatch);
-          numEntriesInBatch = 0;
-          echoToFile(type + ":" + (numProcessedInLastProcess + processLog.numProcessed()) + ":"
-              + lastSuccessfulEntryId, processLogFile);
-          processLog.printStatus();
-        }
-
-      } // end while
-
-      return lastSuccessfulEntryId;
-    } finally {
-      recoverAutoCommit();
-      zipFile.close();
-    }
-  } // method importReqCerts
+  } // method openEntrySource
 
 }
@@ -0,0 +1,520 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.mgmt.db.port;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ProcessLog;
+
+/**
+ * Producer/consumer pipeline to import the entries of one table. The bundles are split in
+ * disjoint ID ranges. The reader (the calling thread) decodes the bundles of all ranges in
+ * round-robin, and passes the entries to the writer of the range. Each writer inserts the
+ * entries on its own database connection and commits every {@code numEntriesPerCommit}
+ * entries.
+ *
+ * <p>The progress of all ranges is written to the process log file, one line per range
+ * {@code <prefix><numProcessed>:<lastId>:<fromId>:<toId>}, so that an interrupted import can
+ * be resumed per range.
+ *
+ * @param <T> type of the entries.
+ *
+ * @author Lijun Liao
+ */
+
+class DbPortImportPipeline<T> {
+
+  interface BundleReader<T> {
+
+    /**
+     * Reads the entries with ID not less than {@code minId} in the order of ID.
+     *
+     * @param bundleFile
+     *          Path of the bundle file.
+     * @param minId
+     *          The smallest ID to be read.
+     * @param consumer
+     *          Consumer of the entries.
+     * @throws Exception
+     *           if error occurs.
+     */
+    void read(String bundleFile, long minId, EntryConsumer<T> consumer) throws Exception;
+
+  } // class BundleReader
+
+  interface EntryConsumer<T> {
+
+    void accept(T entry) throws Exception;
+
+  } // class EntryConsumer
+
+  interface Binder<T> {
+
+    /**
+     * Sets the parameters of the insert statement.
+     *
+     * @param ps
+     *          The insert statement.
+     * @param entry
+     *          The entry.
+     * @return whether the entry should be inserted.
+     * @throws Exception
+     *           if error occurs.
+     */
+    boolean bind(PreparedStatement ps, T entry) throws Exception;
+
+  } // class Binder
+
+  static class Range {
+
+    private final long fromId;
+
+    private final long toId;
+
+    private final List<String> bundleFiles = new ArrayList<>();
+
+    private volatile long numProcessed;
+
+    private volatile long lastId;
+
+    Range(long fromId, long toId, long numProcessed, long lastId) {
+      this.fromId = fromId;
+      this.toId = toId;
+      this.numProcessed = numProcessed;
+      this.lastId = lastId;
+    }
+
+    long getFromId() {
+      return fromId;
+    }
+
+    long getToId() {
+      return toId;
+    }
+
+    long getNumProcessed() {
+      return numProcessed;
+    }
+
+    long getLastId() {
+      return lastId;
+    }
+
+    void addProcessed(long num, long lastId) {
+      this.numProcessed += num;
+      this.lastId = lastId;
+    }
+
+  } // class Range
+
+  private static final Logger LOG = LoggerFactory.getLogger(DbPortImportPipeline.class);
+
+  private static final int QUEUE_SIZE = 4;
+
+  private final List<T> end = Collections.emptyList();
+
+  private final DataSourceWrapper datasource;
+
+  private final String tableName;
+
+  private final String sql;
+
+  private final int numEntriesPerCommit;
+
+  private final ToLongFunction<T> idGetter;
+
+  private final BundleReader<T> reader;
+
+  private final Binder<T> binder;
+
+  private final AtomicBoolean stopMe;
+
+  private final AtomicBoolean failed = new AtomicBoolean(false);
+
+  DbPortImportPipeline(DataSourceWrapper datasource, String tableName, String sql,
+      int numEntriesPerCommit, ToLongFunction<T> idGetter, BundleReader<T> reader,
+      Binder<T> binder, AtomicBoolean stopMe) {
+    this.datasource = Args.notNull(datasource, "datasource");
+    this.tableName = Args.notBlank(tableName, "tableName");
+    this.sql = Args.notBlank(sql, "sql");
+    this.numEntriesPerCommit = Args.positive(numEntriesPerCommit, "numEntriesPerCommit");
+    this.idGetter = Args.notNull(idGetter, "idGetter");
+    this.reader = Args.notNull(reader, "reader");
+    this.binder = Args.notNull(binder, "binder");
+    this.stopMe = Args.notNull(stopMe, "stopMe");
+  } // constructor
+
+  /**
+   * Splits the bundles in at most {@code numRanges} ranges with nearly the same number of
+   * bundles.
+   *
+   * @param bundleFiles
+   *          Bundle files in the order of ID. The file names must contain the ID range.
+   * @param numRanges
+   *          Maximal number of ranges.
+   * @param numProcessed
+   *          Number of entries imported by the last sequential process.
+   * @param lastIdProcessed
+   *          The last ID imported by the last sequential process, 0 if there is none.
+   * @return the ranges.
+   */
+  static List<Range> splitRanges(List<String> bundleFiles, int numRanges, long numProcessed,
+      long lastIdProcessed) {
+    List<Range> ranges = new ArrayList<>(numRanges);
+    int numBundles = bundleFiles.size();
+    numRanges = Math.max(1, Math.min(numRanges, numBundles));
+    if (numBundles == 0) {
+      return ranges;
+    }
+
+    long[] fromIds = new long[numRanges];
+    for (int i = 0; i < numRanges; i++) {
+      fromIds[i] = DbPorter.parseIdRange(bundleFiles.get(i * numBundles / numRanges))[0];
+    }
+
+    long maxId = DbPorter.parseIdRange(bundleFiles.get(numBundles - 1))[1];
+    for (int i = 0; i < numRanges; i++) {
+      long toId = (i == numRanges - 1) ? maxId : fromIds[i + 1] - 1;
+      long lastId = Math.max(fromIds[i] - 1, Math.min(toId, lastIdProcessed));
+      ranges.add(new Range(fromIds[i], toId, (i == 0) ? numProcessed : 0, lastId));
+    }
+
+    assignBundles(ranges, bundleFiles);
+    return ranges;
+  } // method splitRanges
+
+  /**
+   * Assigns the bundles to the range containing the first ID of the bundle.
+   *
+   * @param ranges
+   *          The ranges.
+   * @param bundleFiles
+   *          Bundle files in the order of ID. The file names must contain the ID range.
+   */
+  static void assignBundles(List<Range> ranges, List<String> bundleFiles) {
+    for (String bundleFile : bundleFiles) {
+      long[] idRange = DbPorter.parseIdRange(bundleFile);
+      for (Range range : ranges) {
+        if (idRange[0] >= range.fromId && idRange[0] <= range.toId) {
+          // skip the bundles imported completely
+          if (idRange[1] > range.lastId) {
+            range.bundleFiles.add(bundleFile);
+          }
+          break;
+        }
+      }
+    }
+  } // method assignBundles
+
+  /**
+   * Parses the ranges written by {@link #formatRanges(List, String)}.
+   *
+   * @param content
+   *          Content of the process log file.
+   * @param prefix
+   *          Prefix of each line.
+   * @return the ranges, or {@code null} if the content does not contain ranges.
+   */
+  static List<Range> parseRanges(String content, String prefix) {
+    List<Range> ranges = new ArrayList<>();
+    StringTokenizer lines = new StringTokenizer(content, "\r\n");
+    while (lines.hasMoreTokens()) {
+      String line = lines.nextToken().trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+
+      if (!line.startsWith(prefix)) {
+        return null;
+      }
+
+      StringTokenizer st = new StringTokenizer(line.substring(prefix.length()), ":");
+      if (st.countTokens() != 4) {
+        return null;
+      }
+
+      long numProcessed = Long.parseLong(st.nextToken());
+      long lastId = Long.parseLong(st.nextToken());
+      long fromId = Long.parseLong(st.nextToken());
+      long toId = Long.parseLong(st.nextToken());
+      ranges.add(new Range(fromId, toId, numProcessed, lastId));
+    }
+
+    return ranges.isEmpty() ? null : ranges;
+  } // method parseRanges
+
+  static String formatRanges(List<Range> ranges, String prefix) {
+    StringBuilder sb = new StringBuilder();
+    for (Range range : ranges) {
+      sb.append(prefix).append(range.numProcessed).append(':').append(range.lastId)
+        .append(':').append(range.fromId).append(':').append(range.toId).append('\n');
+    }
+    return sb.toString();
+  } // method formatRanges
+
+  /**
+   * Imports the bundles of the ranges, each range in its own writer thread.
+   *
+   * @param ranges
+   *          The ranges with assigned bundles.
+   * @param processLog
+   *          The process log.
+   * @param processLogFile
+   *          File to which the progress of the ranges is written.
+   * @param prefix
+   *          Prefix of each line in the process log file.
+   * @throws Exception
+   *           if error occurs.
+   */
+  void run(List<Range> ranges, ProcessLog processLog, File processLogFile, String prefix)
+      throws Exception {
+    // remove the entries of the last process which have not been recorded
+    deleteUncommittedEntries(ranges);
+
+    final int n = ranges.size();
+    List<BlockingQueue<List<T>>> queues = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      queues.add(new ArrayBlockingQueue<>(QUEUE_SIZE));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(n);
+    List<Future<Void>> futures = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      final Range range = ranges.get(i);
+      final BlockingQueue<List<T>> queue = queues.get(i);
+      futures.add(executor.submit(() -> {
+        try {
+          write(range, queue, ranges, processLog, processLogFile, prefix);
+        } catch (Exception ex) {
+          failed.set(true);
+          throw ex;
+        }
+        return null;
+      }));
+    }
+
+    Exception exception = null;
+    try {
+      read(ranges, queues);
+    } catch (Exception ex) {
+      failed.set(true);
+      exception = ex;
+    } finally {
+      executor.shutdown();
+    }
+
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (exception == null || exception instanceof InterruptedException) {
+          exception = (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+        }
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+  } // method run
+
+  private void read(List<Range> ranges, List<BlockingQueue<List<T>>> queues)
+      throws Exception {
+    final int n = ranges.size();
+    int[] nextBundles = new int[n];
+    long[] minIds = new long[n];
+    for (int i = 0; i < n; i++) {
+      minIds[i] = ranges.get(i).lastId + 1;
+    }
+
+    boolean hasMore = true;
+    while (hasMore) {
+      hasMore = false;
+      for (int i = 0; i < n; i++) {
+        Range range = ranges.get(i);
+        if (nextBundles[i] > range.bundleFiles.size()) {
+          // end has been sent
+          continue;
+        }
+
+        BlockingQueue<List<T>> queue = queues.get(i);
+        if (nextBundles[i] == range.bundleFiles.size()) {
+          put(queue, end);
+          nextBundles[i]++;
+          continue;
+        }
+
+        hasMore = true;
+        String bundleFile = range.bundleFiles.get(nextBundles[i]++);
+        final List<List<T>> chunk = new ArrayList<>(1);
+        chunk.add(new ArrayList<>(numEntriesPerCommit));
+        reader.read(bundleFile, minIds[i], entry -> {
+          List<T> entries = chunk.get(0);
+          entries.add(entry);
+          if (entries.size() == numEntriesPerCommit) {
+            put(queue, entries);
+            chunk.set(0, new ArrayList<>(numEntriesPerCommit));
+          }
+        });
+
+        if (!chunk.get(0).isEmpty()) {
+          put(queue, chunk.get(0));
+        }
+      }
+    }
+  } // method read
+
+  private void put(BlockingQueue<List<T>> queue, List<T> entries) throws InterruptedException {
+    while (!queue.offer(entries, 100, TimeUnit.MILLISECONDS)) {
+      checkCancelled();
+    }
+  }
+
+  private void checkCancelled() throws InterruptedException {
+    if (stopMe.get()) {
+      throw new InterruptedException("interrupted by the user");
+    } else if (failed.get()) {
+      throw new InterruptedException("cancelled due to error in other thread");
+    }
+  }
+
+  private void write(Range range, BlockingQueue<List<T>> queue, List<Range> ranges,
+      ProcessLog processLog, File processLogFile, String prefix) throws Exception {
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    boolean autoCommit = true;
+    try {
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+      ps = conn.prepareStatement(sql);
+
+      int numEntriesInBatch = 0;
+      long lastId = range.lastId;
+
+      while (true) {
+        List<T> entries = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (entries == null) {
+          checkCancelled();
+          continue;
+        } else if (entries == end) {
+          break;
+        }
+
+        for (T entry : entries) {
+          if (binder.bind(ps, entry)) {
+            ps.addBatch();
+            numEntriesInBatch++;
+          }
+          lastId = idGetter.applyAsLong(entry);
+
+          if (numEntriesInBatch == numEntriesPerCommit) {
+            commit(conn, ps, range, numEntriesInBatch, lastId, ranges, processLog,
+                processLogFile, prefix);
+            numEntriesInBatch = 0;
+          }
+        }
+      }
+
+      if (numEntriesInBatch > 0 || lastId != range.lastId) {
+        commit(conn, ps, range, numEntriesInBatch, lastId, ranges, processLog,
+            processLogFile, prefix);
+      }
+    } catch (SQLException ex) {
+      rollback(conn);
+      throw datasource.translate(sql, ex);
+    } catch (Exception ex) {
+      rollback(conn);
+      throw ex;
+    } finally {
+      datasource.releaseResources(ps, null, false);
+      try {
+        conn.setAutoCommit(autoCommit);
+      } catch (SQLException ex) {
+        LogUtil.warn(LOG, ex, "could not recover the auto-commit");
+      }
+      datasource.returnConnection(conn);
+    }
+  } // method write
+
+  private void commit(Connection conn, PreparedStatement ps, Range range,
+      int numEntriesInBatch, long lastId, List<Range> ranges, ProcessLog processLog,
+      File processLogFile, String prefix) throws Exception {
+    if (numEntriesInBatch > 0) {
+      ps.executeBatch();
+    }
+    conn.commit();
+
+    synchronized (ranges) {
+      range.addProcessed(numEntriesInBatch, lastId);
+      DbPorter.echoToFile(formatRanges(ranges, prefix), processLogFile);
+      processLog.addNumProcessed(numEntriesInBatch);
+      processLog.printStatus();
+    }
+  } // method commit
+
+  private void deleteUncommittedEntries(List<Range> ranges) throws DataAccessException {
+    String deleteSql = "DELETE FROM " + tableName + " WHERE ID>? AND ID<=?";
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    try {
+      ps = conn.prepareStatement(deleteSql);
+      for (Range range : ranges) {
+        ps.setLong(1, range.lastId);
+        ps.setLong(2, range.toId);
+        ps.executeUpdate();
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(deleteSql, ex);
+    } finally {
+      datasource.releaseResources(ps, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method deleteUncommittedEntries
+
+  private static void rollback(Connection conn) {
+    try {
+      conn.rollback();
+    } catch (SQLException ex) {
+      LogUtil.warn(LOG, ex, "could not rollback");
+    }
+  }
+
+}
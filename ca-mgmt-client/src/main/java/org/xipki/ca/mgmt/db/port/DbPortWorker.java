@@ -87,13 +87,26 @@ public abstract class DbPortWorker implements Runnable {
 
     private final int batchEntriesPerCommit;
 
+    private final int numThreads;
+
+    private final boolean deferIndexes;
+
     public ImportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
         String dbConfFile, boolean resume, String srcFolder, int batchEntriesPerCommit)
         throws PasswordResolverException, IOException {
+      this(datasourceFactory, passwordResolver, dbConfFile, resume, srcFolder,
+          batchEntriesPerCommit, 1, false);
+    }
+
+    public ImportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
+        String dbConfFile, boolean resume, String srcFolder, int batchEntriesPerCommit,
+        int numThreads, boolean deferIndexes) throws PasswordResolverException, IOException {
       super(datasourceFactory, passwordResolver, dbConfFile);
       this.resume = resume;
       this.srcFolder = IoUtil.expandFilepath(srcFolder);
       this.batchEntriesPerCommit = batchEntriesPerCommit;
+      this.numThreads = numThreads;
+      this.deferIndexes = deferIndexes;
     }
 
     @Override
@@ -121,7 +134,7 @@ public abstract class DbPortWorker implements Runnable {
 
         // CertStore
         CaCertstoreDbImporter certStoreImporter = new CaCertstoreDbImporter(datasource,
-            srcFolder, batchEntriesPerCommit, resume, stopMe);
+            srcFolder, batchEntriesPerCommit, resume, numThreads, deferIndexes, stopMe);
         certStoreImporter.importToDb();
         certStoreImporter.close();
       } finally {
@@ -147,14 +160,28 @@ public abstract class DbPortWorker implements Runnable {
 
     private final int numCertsPerSelect;
 
+    private final int numThreads;
+
+    private final boolean binary;
+
     public ExportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
         String dbConfFile, String destFolder, boolean resume, int numCertsInBundle,
         int numCertsPerSelect) throws PasswordResolverException, IOException {
+      this(datasourceFactory, passwordResolver, dbConfFile, destFolder, resume, numCertsInBundle,
+          numCertsPerSelect, 1, false);
+    }
+
+    public ExportCaDb(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
+        String dbConfFile, String destFolder, boolean resume, int numCertsInBundle,
+        int numCertsPerSelect, int numThreads, boolean binary)
+        throws PasswordResolverException, IOException {
       super(datasourceFactory, passwordResolver, dbConfFile);
       this.destFolder = IoUtil.expandFilepath(destFolder);
       this.resume = resume;
       this.numCertsInBundle = numCertsInBundle;
       this.numCertsPerSelect = numCertsPerSelect;
+      this.numThreads = numThreads;
+      this.binary = binary;
       checkDestFolder();
     }
 
@@ -198,7 +225,7 @@ public abstract class DbPortWorker implements Runnable {
 
         // CertStore
         CaCertstoreDbExporter certStoreExporter = new CaCertstoreDbExporter(datasource, destFolder,
-            numCertsInBundle, numCertsPerSelect, resume, stopMe);
+            numCertsInBundle, numCertsPerSelect, resume, numThreads, binary, stopMe);
         certStoreExporter.export();
         certStoreExporter.close();
       } finally {
@@ -285,13 +312,27 @@ public abstract class DbPortWorker implements Runnable {
 
     private final int batchEntriesPerCommit;
 
+    private final int numThreads;
+
+    private final boolean deferIndexes;
+
     public ImportOcspDb(DataSourceFactory datasourceFactory,
         PasswordResolver passwordResolver, String dbConfFile, boolean resume, String srcFolder,
         int batchEntriesPerCommit) throws PasswordResolverException, IOException {
+      this(datasourceFactory, passwordResolver, dbConfFile, resume, srcFolder,
+          batchEntriesPerCommit, 1, false);
+    }
+
+    public ImportOcspDb(DataSourceFactory datasourceFactory,
+        PasswordResolver passwordResolver, String dbConfFile, boolean resume, String srcFolder,
+        int batchEntriesPerCommit, int numThreads, boolean deferIndexes)
+        throws PasswordResolverException, IOException {
       super(datasourceFactory, passwordResolver, dbConfFile);
       this.resume = resume;
       this.srcFolder = IoUtil.expandFilepath(srcFolder);
       this.batchEntriesPerCommit = batchEntriesPerCommit;
+      this.numThreads = numThreads;
+      this.deferIndexes = deferIndexes;
     }
 
     @Override
@@ -300,7 +341,7 @@ public abstract class DbPortWorker implements Runnable {
       // CertStore
       try {
         OcspCertstoreDbImporter certStoreImporter = new OcspCertstoreDbImporter(datasource,
-            srcFolder, batchEntriesPerCommit, resume, stopMe);
+            srcFolder, batchEntriesPerCommit, resume, numThreads, deferIndexes, stopMe);
         certStoreImporter.importToDb();
         certStoreImporter.close();
       } finally {
@@ -359,4 +400,75 @@ public abstract class DbPortWorker implements Runnable {
 
   } // class ImportOcspFromCaDb
 
+  public static class SyncOcspFromCaDb extends DbPortWorker {
+
+    private final DataSourceWrapper caDatasource;
+
+    private final String publisherName;
+
+    private final String stateFolder;
+
+    private final int numThreads;
+
+    private final int numCertsPerSelect;
+
+    private final int numCertsPerCommit;
+
+    private final int maxCatchupRounds;
+
+    private final boolean resume;
+
+    public SyncOcspFromCaDb(DataSourceFactory datasourceFactory,
+        PasswordResolver passwordResolver, String caDbConfFile, String ocspDbConfFile,
+        String publisherName, String stateFolder, int numThreads, int numCertsPerSelect,
+        int numCertsPerCommit, int maxCatchupRounds, boolean resume)
+        throws PasswordResolverException, IOException {
+      super(datasourceFactory, passwordResolver, ocspDbConfFile);
+      Properties props = DbPorter.getDbConfProperties(
+          Files.newInputStream(Paths.get(IoUtil.expandFilepath(caDbConfFile))));
+      this.caDatasource = datasourceFactory.createDataSource("ds-" + caDbConfFile, props,
+          passwordResolver);
+      this.publisherName = publisherName;
+      this.stateFolder = IoUtil.expandFilepath(stateFolder);
+      this.numThreads = numThreads;
+      this.numCertsPerSelect = numCertsPerSelect;
+      this.numCertsPerCommit = numCertsPerCommit;
+      this.maxCatchupRounds = maxCatchupRounds;
+      this.resume = resume;
+
+      File file = new File(this.stateFolder);
+      if (!file.exists()) {
+        file.mkdirs();
+      } else if (!file.isDirectory()) {
+        throw new IOException(stateFolder + " is not a folder");
+      }
+    }
+
+    @Override
+    protected void run0() throws Exception {
+      long start = System.currentTimeMillis();
+      try {
+        OcspCertstoreFromCaDbSyncer syncer = new OcspCertstoreFromCaDbSyncer(caDatasource,
+            datasource, stateFolder, publisherName, numThreads, numCertsPerSelect,
+            numCertsPerCommit, maxCatchupRounds, resume, stopMe);
+        syncer.sync();
+        syncer.close();
+      } finally {
+        try {
+          datasource.close();
+        } catch (Throwable th) {
+          LOG.error("datasource.close()", th);
+        }
+        try {
+          caDatasource.close();
+        } catch (Throwable th) {
+          LOG.error("caDatasource.close()", th);
+        }
+        long end = System.currentTimeMillis();
+        System.out.println("finished in " + StringUtil.formatTime((end - start) / 1000, false));
+      }
+    }
+
+  } // class SyncOcspFromCaDb
+
 }
@@ -23,7 +23,17 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
@@ -160,7 +170,8 @@ public class DbPorter extends DbToolBase {
       String line;
       while ((line = reader.readLine()) != null) {
         line = line.trim();
-        if (StringUtil.isBlank(line) || line.startsWith("#") || !line.endsWith(".zip")) {
+        if (StringUtil.isBlank(line) || line.startsWith("#")
+            || !(line.endsWith(".zip") || line.endsWith(CaCertstoreBinaryBundle.FILE_SUFFIX))) {
           continue;
         }
         return line;
@@ -171,6 +182,8 @@ public class DbPorter extends DbToolBase {
 
   } // class DbPortFileNameIterator
 
+  private static final Logger LOG = LoggerFactory.getLogger(DbPorter.class);
+
   public static final String FILENAME_CA_CONFIGURATION = "ca-configuration.json";
 
   public static final String FILENAME_CA_CERTSTORE = "ca-certstore.json";
@@ -189,6 +202,8 @@ public class DbPorter extends DbToolBase {
 
   public static final String IMPORT_TO_OCSP_PROCESS_LOG_FILENAME = "import-to-ocsp.process";
 
+  public static final String SYNC_TO_OCSP_PROCESS_LOG_FILENAME = "sync-to-ocsp.process";
+
   public static final int VERSION = 1;
 
   protected final int dbSchemaVersion;
@@ -282,6 +297,160 @@ public class DbPorter extends DbToolBase {
     return new String(IoUtil.read(file), "UTF-8");
   } // method readContent
 
+  /**
+   * Parses the ID range from the file name built by
+   * {@link #buildFilename(String, String, long, long, long)}.
+   *
+   * @param filename
+   *          File name in the form {@code <prefix>_<fromId>-<toId>.<suffix>}.
+   * @return the first and last ID.
+   */
+  static long[] parseIdRange(String filename) {
+    int fromIdx = filename.lastIndexOf('_');
+    int toIdx = filename.lastIndexOf('-');
+    int suffixIdx = filename.lastIndexOf('.');
+    if (fromIdx == -1 || toIdx < fromIdx || suffixIdx < toIdx) {
+      throw new IllegalArgumentException("invalid file name " + filename);
+    }
+
+    return new long[]{Long.parseLong(filename.substring(fromIdx + 1, toIdx)),
+        Long.parseLong(filename.substring(toIdx + 1, suffixIdx))};
+  } // method parseIdRange
+
+  /**
+   * Drops the indexes and unique constraints, so that they can be created after the bulk load
+   * by {@link #createIndexes(String[][], String[][])}.
+   *
+   * @param indexes
+   *          Indexes, each in the form {table, indexName, column...}.
+   * @param uniqueConstraints
+   *          Unique constraints, each in the form {table, constraintName, column...}.
+   */
+  protected void dropIndexes(String[][] indexes, String[][] uniqueConstraints) {
+    System.out.println("dropping indexes");
+    for (String[] index : indexes) {
+      try {
+        datasource.dropIndex(connection, index[0], index[1]);
+      } catch (DataAccessException ex) {
+        // may have been dropped in the last process
+        LogUtil.warn(LOG, ex, "could not drop index " + index[1]);
+      }
+    }
+
+    for (String[] constraint : uniqueConstraints) {
+      try {
+        datasource.dropUniqueConstrain(connection, constraint[1], constraint[0]);
+      } catch (DataAccessException ex) {
+        // may have been dropped in the last process
+        LogUtil.warn(LOG, ex, "could not drop unique constraint " + constraint[1]);
+      }
+    }
+    System.out.println(" dropped indexes");
+  } // method dropIndexes
+
+  /**
+   * Creates the indexes and unique constraints dropped by
+   * {@link #dropIndexes(String[][], String[][])}. Indexes and constraints which already exist,
+   * e.g. created by an interrupted run, are tolerated.
+   *
+   * @param indexes
+   *          Indexes, each in the form {table, indexName, column...}.
+   * @param uniqueConstraints
+   *          Unique constraints, each in the form {table, constraintName, column...}.
+   * @throws DataAccessException
+   *          if an index or unique constraint could not be created, e.g. because of duplicated
+   *          values in the imported data.
+   */
+  protected void createIndexes(String[][] indexes, String[][] uniqueConstraints)
+      throws DataAccessException {
+    System.out.println("creating indexes");
+    for (String[] constraint : uniqueConstraints) {
+      String[] columns = Arrays.copyOfRange(constraint, 2, constraint.length);
+      try {
+        datasource.addUniqueConstrain(connection, constraint[1], constraint[0], columns);
+      } catch (DataAccessException ex) {
+        if (indexExists(constraint[0], constraint[1], true, columns)) {
+          // created in the last process
+          LOG.info("unique constraint {} exists already", constraint[1]);
+        } else {
+          throw indexCreationFailed("unique constraint " + constraint[1], ex);
+        }
+      }
+    }
+
+    for (String[] index : indexes) {
+      String[] columns = Arrays.copyOfRange(index, 2, index.length);
+      try {
+        datasource.createIndex(connection, index[1], index[0], columns);
+      } catch (DataAccessException ex) {
+        if (indexExists(index[0], index[1], false, columns)) {
+          // created in the last process
+          LOG.info("index {} exists already", index[1]);
+        } else {
+          throw indexCreationFailed("index " + index[1], ex);
+        }
+      }
+    }
+    System.out.println(" created indexes");
+  } // method createIndexes
+
+  private static DataAccessException indexCreationFailed(String desc, DataAccessException ex) {
+    String msg = "could not create " + desc + ": " + ex.getMessage()
+        + "\nplease fix the data in the database and import again with the option '--resume'";
+    System.err.println(msg);
+    LogUtil.error(LOG, ex, "could not create " + desc);
+    return new DataAccessException(ex.getReason(), msg, ex);
+  } // method indexCreationFailed
+
+  /**
+   * Checks whether the index exists. A unique constraint may be backed by an index with
+   * different name, hence it also exists if there is a unique index on exactly its columns.
+   */
+  private boolean indexExists(String table, String indexName, boolean unique, String[] columns) {
+    // the case of the table name in the metadata depends on the database
+    Set<String> tableNames = new LinkedHashSet<>(
+        Arrays.asList(table, table.toUpperCase(), table.toLowerCase()));
+
+    try {
+      DatabaseMetaData metaData = connection.getMetaData();
+      for (String tableName : tableNames) {
+        // index name to the columns ordered by their position
+        Map<String, Map<Short, String>> indexColumns = new HashMap<>();
+        try (ResultSet rs = metaData.getIndexInfo(null, null, tableName, unique, false)) {
+          while (rs.next()) {
+            String name = rs.getString("INDEX_NAME");
+            String column = rs.getString("COLUMN_NAME");
+            if (name != null && column != null) {
+              indexColumns.computeIfAbsent(name.toUpperCase(), k -> new TreeMap<>())
+                  .put(rs.getShort("ORDINAL_POSITION"), column.toUpperCase());
+            }
+          }
+        }
+
+        if (indexColumns.containsKey(indexName.toUpperCase())) {
+          return true;
+        }
+
+        if (unique) {
+          Set<String> expectedColumns = new HashSet<>();
+          for (String column : columns) {
+            expectedColumns.add(column.toUpperCase());
+          }
+
+          for (Map<Short, String> m : indexColumns.values()) {
+            if (expectedColumns.equals(new HashSet<>(m.values()))) {
+              return true;
+            }
+          }
+        }
+      }
+    } catch (SQLException ex) {
+      LogUtil.warn(LOG, ex, "could not read the indexes of table " + table);
+    }
+
+    return false;
+  } // method indexExists
+
   public static void echoToFile(String content, File file) throws IOException {
     Files.write(Args.notNull(file, "file").toPath(),
         StringUtil.toUtf8Bytes(Args.notNull(content, "content")));
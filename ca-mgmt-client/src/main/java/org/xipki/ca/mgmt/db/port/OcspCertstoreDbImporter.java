@@ -27,6 +27,7 @@ import java.security.cert.CertificateException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -36,6 +37,7 @@ import java.util.zip.ZipFile;
 import org.bouncycastle.asn1.x509.Certificate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.ca.mgmt.db.port.DbPortImportPipeline.Range;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.security.util.X509Util;
@@ -60,13 +62,47 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
 
   private final boolean resume;
 
+  /**
+   * Indexes which can be created after the bulk load: table, index name, columns.
+   */
+  private static final String[][] DEFERRABLE_INDEXES = {};
+
+  /**
+   * Unique constraints which can be created after the bulk load: table, constraint name,
+   * columns.
+   */
+  private static final String[][] DEFERRABLE_UNIQUE_CONSTRAINTS = {
+      {"CERT", "CONST_ISSUER_SN", "IID", "SN"}};
+
   private final int numCertsPerCommit;
 
+  private final int numThreads;
+
+  private final boolean deferIndexes;
+
   OcspCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, int numCertsPerCommit,
       boolean resume, AtomicBoolean stopMe) throws Exception {
+    this(datasource, srcDir, numCertsPerCommit, resume, 1, false, stopMe);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param numThreads
+   *          Number of writer threads, each inserting a disjoint ID range on its own
+   *          database connection.
+   * @param deferIndexes
+   *          Whether the unique constraints of the table CERT are dropped before and
+   *          created after the bulk load.
+   */
+  OcspCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, int numCertsPerCommit,
+      boolean resume, int numThreads, boolean deferIndexes, AtomicBoolean stopMe)
+      throws Exception {
     super(datasource, srcDir, stopMe);
 
     this.numCertsPerCommit = Args.positive(numCertsPerCommit, "numCertsPerCommit");
+    this.numThreads = Args.range(numThreads, "numThreads", 1, 256);
+    this.deferIndexes = deferIndexes;
     File processLogFile = new File(baseDir, DbPorter.IMPORT_PROCESS_LOG_FILENAME);
     if (resume) {
       if (!processLogFile.exists()) {
@@ -101,7 +137,15 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
         importCrlInfo(certstore.getCrlInfos());
         importIssuer(certstore.getIssuers());
       }
+      if (deferIndexes) {
+        dropIndexes(DEFERRABLE_INDEXES, DEFERRABLE_UNIQUE_CONSTRAINTS);
+      }
+
       importCert(certstore, processLogFile);
+
+      if (deferIndexes) {
+        createIndexes(DEFERRABLE_INDEXES, DEFERRABLE_UNIQUE_CONSTRAINTS);
+      }
       processLogFile.delete();
     } catch (Exception ex) {
       System.err.println("could not import OCSP certstore to database");
@@ -210,6 +254,7 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
   private void importCert(OcspCertstore certstore, File processLogFile) throws Exception {
     int numProcessedBefore = 0;
     long minId = 1;
+    List<Range> rangesInLastProcess = null;
     if (processLogFile.exists()) {
       byte[] content = IoUtil.read(processLogFile);
       if (content != null && content.length > 2) {
@@ -218,13 +263,22 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
           return;
         }
 
-        StringTokenizer st = new StringTokenizer(str, ":");
-        numProcessedBefore = Integer.parseInt(st.nextToken());
-        minId = Long.parseLong(st.nextToken());
-        minId++;
+        rangesInLastProcess = DbPortImportPipeline.parseRanges(str, "");
+        if (rangesInLastProcess == null) {
+          StringTokenizer st = new StringTokenizer(str, ":");
+          numProcessedBefore = Integer.parseInt(st.nextToken());
+          minId = Long.parseLong(st.nextToken().trim());
+          minId++;
+        }
       }
     }
 
+    if (numThreads > 1 || rangesInLastProcess != null) {
+      importCertInParallel(certstore, processLogFile, numProcessedBefore, minId,
+          rangesInLastProcess);
+      return;
+    }
+
     deleteCertGreatherThan(minId - 1, LOG);
 
     final long total = certstore.getCountCerts() - numProcessedBefore;
@@ -282,26 +336,80 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
     System.out.println(" imported " + processLog.numProcessed() + " certificates");
   } // method importCert
 
-  private long importCert0(PreparedStatement psCert, String certsZipFile, long minId,
-      File processLogFile, ProcessLog processLog, int numProcessedInLastProcess)
-      throws Exception {
-    ZipFile zipFile = new ZipFile(new File(certsZipFile));
-    ZipEntry certsEntry = zipFile.getEntry("certs.json");
+  private void importCertInParallel(OcspCertstore certstore, File processLogFile,
+      int numProcessedBefore, long minId, List<Range> rangesInLastProcess) throws Exception {
+    OcspDbEntryType type = OcspDbEntryType.CERT;
+    String certsDir = baseDir + File.separator + type.getDirName();
+
+    List<String> certsFiles = new ArrayList<>();
+    try (DbPortFileNameIterator it = new DbPortFileNameIterator(certsDir + ".mf")) {
+      while (it.hasNext()) {
+        certsFiles.add(it.next());
+      }
+    }
+
+    List<Range> ranges;
+    if (rangesInLastProcess == null) {
+      ranges = DbPortImportPipeline.splitRanges(certsFiles, numThreads,
+          numProcessedBefore, minId - 1);
+    } else {
+      ranges = rangesInLastProcess;
+      DbPortImportPipeline.assignBundles(ranges, certsFiles);
+    }
+
+    long numProcessed = 0;
+    for (Range range : ranges) {
+      numProcessed += range.getNumProcessed();
+    }
+
+    final ProcessLog processLog =
+        new ProcessLog(Math.max(1, certstore.getCountCerts() - numProcessed));
+    System.out.println("importing certificates in " + ranges.size() + " ID ranges");
+    processLog.printHeader();
+
+    DbPortImportPipeline<OcspCertstore.Cert> pipeline = new DbPortImportPipeline<>(datasource,
+        "CERT", SQL_ADD_CERT, numCertsPerCommit, OcspCertstore.Cert::getId,
+        (certsFile, fromId, consumer) -> {
+          for (OcspCertstore.Cert cert : readCerts(certsDir + File.separator + certsFile)) {
+            if (cert.getId() >= fromId) {
+              consumer.accept(cert);
+            }
+          }
+        },
+        (ps, cert) -> {
+          bindCert(ps, cert);
+          return true;
+        },
+        stopMe);
 
-    OcspCertstore.Certs certs;
     try {
-      certs = JSON.parseObject(zipFile.getInputStream(certsEntry), Charset.forName("UTF-8"),
-                OcspCertstore.Certs.class);
+      pipeline.run(ranges, processLog, processLogFile, "");
     } catch (Exception ex) {
-      try {
-        zipFile.close();
-      } catch (Exception e2) {
-        LOG.error("could not close ZIP file {}: {}", certsZipFile, e2.getMessage());
-        LOG.debug("could not close ZIP file " + certsZipFile, e2);
-      }
+      System.err.println("\ncould not import certificates.\n"
+          + "please continue with the option '--resume'");
+      LOG.error("Exception", ex);
       throw ex;
     }
-    certs.validate();
+
+    processLog.printTrailer();
+    echoToFile(MSG_CERTS_FINISHED, processLogFile);
+    System.out.println(" imported " + processLog.numProcessed() + " certificates");
+  } // method importCertInParallel
+
+  private static List<OcspCertstore.Cert> readCerts(String certsZipFile) throws Exception {
+    try (ZipFile zipFile = new ZipFile(new File(certsZipFile))) {
+      ZipEntry certsEntry = zipFile.getEntry("certs.json");
+      OcspCertstore.Certs certs = JSON.parseObject(zipFile.getInputStream(certsEntry),
+          Charset.forName("UTF-8"), OcspCertstore.Certs.class);
+      certs.validate();
+      return certs.getCerts();
+    }
+  } // method readCerts
+
+  private long importCert0(PreparedStatement psCert, String certsZipFile, long minId,
+      File processLogFile, ProcessLog processLog, int numProcessedInLastProcess)
+      throws Exception {
+    List<OcspCertstore.Cert> list = readCerts(certsZipFile);
 
     disableAutoCommit();
 
@@ -309,7 +417,6 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
       int numEntriesInBatch = 0;
       long lastSuccessfulCertId = 0;
 
-      List<OcspCertstore.Cert> list = certs.getCerts();
       final int n = list.size();
 
       for (int i = 0; i < n; i++) {
@@ -327,24 +434,7 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
 
         // cert
         try {
-          int idx = 1;
-          psCert.setLong(idx++, id);
-          psCert.setInt(idx++, cert.getIid());
-          psCert.setString(idx++, cert.getSn());
-          psCert.setLong(idx++, cert.getUpdate());
-          psCert.setLong(idx++, cert.getNbefore());
-          psCert.setLong(idx++, cert.getNafter());
-          setBoolean(psCert, idx++, cert.getRev().booleanValue());
-          setInt(psCert, idx++, cert.getRr());
-          setLong(psCert, idx++, cert.getRt());
-          setLong(psCert, idx++, cert.getRit());
-          psCert.setString(idx++, cert.getHash());
-          psCert.setString(idx++, cert.getSubject());
-          if (cert.getCrlId() == null) {
-            psCert.setNull(idx++, Types.INTEGER);
-          } else {
-            psCert.setInt(idx++, cert.getCrlId().intValue());
-          }
+          bindCert(psCert, cert);
           psCert.addBatch();
         } catch (SQLException ex) {
           throw translate(SQL_ADD_CERT, ex);
@@ -381,8 +471,29 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
       return lastSuccessfulCertId;
     } finally {
       recoverAutoCommit();
-      zipFile.close();
     }
   } // method importCert0
 
+  private void bindCert(PreparedStatement psCert, OcspCertstore.Cert cert)
+      throws SQLException {
+    int idx = 1;
+    psCert.setLong(idx++, cert.getId());
+    psCert.setInt(idx++, cert.getIid());
+    psCert.setString(idx++, cert.getSn());
+    psCert.setLong(idx++, cert.getUpdate());
+    psCert.setLong(idx++, cert.getNbefore());
+    psCert.setLong(idx++, cert.getNafter());
+    setBoolean(psCert, idx++, cert.getRev().booleanValue());
+    setInt(psCert, idx++, cert.getRr());
+    setLong(psCert, idx++, cert.getRt());
+    setLong(psCert, idx++, cert.getRit());
+    psCert.setString(idx++, cert.getHash());
+    psCert.setString(idx++, cert.getSubject());
+    if (cert.getCrlId() == null) {
+      psCert.setNull(idx++, Types.INTEGER);
+    } else {
+      psCert.setInt(idx++, cert.getCrlId().intValue());
+    }
+  } // method bindCert
+
 }
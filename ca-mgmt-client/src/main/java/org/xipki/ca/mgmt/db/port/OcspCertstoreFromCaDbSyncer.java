@@ -0,0 +1,673 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.ca.mgmt.db.port;
+
+import java.io.File;
+import java.security.cert.CertificateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bouncycastle.asn1.x509.Certificate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.mgmt.db.port.DbPortImportPipeline.Range;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.util.X509Util;
+import org.xipki.util.Args;
+import org.xipki.util.Base64;
+import org.xipki.util.ConfPairs;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ProcessLog;
+
+/**
+ * Synchronizes the OCSP CertStore directly from a (live) CA database, without exporting the
+ * CA database first.
+ *
+ * <p>In the bulk phase the table CERT of the CA database is read in disjoint ID ranges in
+ * parallel, each range on its own pair of connections. Only the columns required by the OCSP
+ * database are read. The certificate itself is only read and hashed if the OCSP database does
+ * not use SHA-1 as certificate hash algorithm. In the catch-up phase the certificates updated
+ * since the start of the synchronization (column LUPDATE) are copied again, round after round,
+ * until a round finds no updated certificate.
+ *
+ * @author Lijun Liao
+ */
+
+class OcspCertstoreFromCaDbSyncer extends AbstractOcspCertstoreDbImporter {
+
+  private interface CommitListener {
+
+    void committed(long numProcessed) throws Exception;
+
+  } // class CommitListener
+
+  private static final Logger LOG = LoggerFactory.getLogger(OcspCertstoreFromCaDbSyncer.class);
+
+  private static final String PREFIX_SINCE = "since:";
+
+  private static final String PREFIX_RANGE = "range:";
+
+  private static final String MSG_BULK_FINISHED = "bulk.finished";
+
+  private static final String SQL_DEL_CERT_BY_ID = "DELETE FROM CERT WHERE ID=?";
+
+  private static final String SQL_CORE_CERT =
+      "ID,CA_ID,SN,LUPDATE,NBEFORE,NAFTER,REV,RR,RT,RIT,SUBJECT,SHA1";
+
+  private final DataSourceWrapper caDatasource;
+
+  private final String publisherName;
+
+  private final int numThreads;
+
+  private final int numCertsPerSelect;
+
+  private final int numCertsPerCommit;
+
+  private final int maxCatchupRounds;
+
+  private final boolean resume;
+
+  private HashAlgo certhashAlgo;
+
+  private Set<Integer> caIds;
+
+  private boolean revokedOnly;
+
+  /**
+   * Constructor.
+   *
+   * @param caDatasource
+   *          Datasource of the CA database.
+   * @param datasource
+   *          Datasource of the OCSP database.
+   * @param stateDir
+   *          Directory of the process log file.
+   * @param publisherName
+   *          Name of the OCSP publisher in the CA database.
+   * @param numThreads
+   *          Number of threads copying disjoint ID ranges in the bulk phase.
+   * @param numCertsPerSelect
+   *          Number of certificates per SELECT.
+   * @param numCertsPerCommit
+   *          Number of certificates per commit.
+   * @param maxCatchupRounds
+   *          Maximal number of rounds of the catch-up phase.
+   * @param resume
+   *          Whether to resume from the last successful point.
+   * @param stopMe
+   *          Stop flag.
+   * @throws Exception
+   *           if error occurs.
+   */
+  OcspCertstoreFromCaDbSyncer(DataSourceWrapper caDatasource, DataSourceWrapper datasource,
+      String stateDir, String publisherName, int numThreads, int numCertsPerSelect,
+      int numCertsPerCommit, int maxCatchupRounds, boolean resume, AtomicBoolean stopMe)
+      throws Exception {
+    super(datasource, stateDir, stopMe);
+    this.caDatasource = Args.notNull(caDatasource, "caDatasource");
+    this.publisherName = Args.toNonBlankLower(publisherName, "publisherName");
+    this.numThreads = Args.range(numThreads, "numThreads", 1, 256);
+    this.numCertsPerSelect = Args.positive(numCertsPerSelect, "numCertsPerSelect");
+    this.numCertsPerCommit = Args.positive(numCertsPerCommit, "numCertsPerCommit");
+    this.maxCatchupRounds = Args.positive(maxCatchupRounds, "maxCatchupRounds");
+
+    File processLogFile = new File(baseDir, DbPorter.SYNC_TO_OCSP_PROCESS_LOG_FILENAME);
+    if (resume) {
+      if (!processLogFile.exists()) {
+        throw new Exception("could not process with '--resume' option");
+      }
+    } else {
+      if (processLogFile.exists()) {
+        throw new Exception("please either specify '--resume' or delete the file "
+            + processLogFile.getPath() + " first");
+      }
+    }
+    this.resume = resume;
+  } // constructor
+
+  public void sync() throws Exception {
+    File processLogFile = new File(baseDir, DbPorter.SYNC_TO_OCSP_PROCESS_LOG_FILENAME);
+    System.out.println("synchronizing CA database to OCSP database");
+    try {
+      String certhashAlgoStr = dbSchemaInfo.getVariableValue("CERTHASH_ALGO");
+      if (certhashAlgoStr == null) {
+        throw new DataAccessException(
+            "Column with NAME='CERTHASH_ALGO' is not defined in table DBSCHEMA");
+      }
+      certhashAlgo = HashAlgo.getNonNullInstance(certhashAlgoStr);
+
+      if (!initPublisher()) {
+        System.out.println("No CA has publisher " + publisherName);
+        return;
+      }
+
+      long since = -1;
+      boolean bulkFinished = false;
+      List<Range> ranges = null;
+      if (resume) {
+        StringBuilder rangeLines = new StringBuilder();
+        StringTokenizer lines = new StringTokenizer(new String(IoUtil.read(processLogFile)),
+            "\r\n");
+        while (lines.hasMoreTokens()) {
+          String line = lines.nextToken().trim();
+          if (line.startsWith(PREFIX_SINCE)) {
+            since = Long.parseLong(line.substring(PREFIX_SINCE.length()));
+          } else if (line.startsWith(PREFIX_RANGE)) {
+            rangeLines.append(line).append('\n');
+          } else if (MSG_BULK_FINISHED.equals(line)) {
+            bulkFinished = true;
+          }
+        }
+
+        if (since == -1) {
+          throw new Exception("invalid process log file " + processLogFile.getPath());
+        }
+        ranges = DbPortImportPipeline.parseRanges(rangeLines.toString(), PREFIX_RANGE);
+      } else {
+        syncIssuers();
+        // the certificates updated from now on will be copied in the catch-up phase
+        since = System.currentTimeMillis() / 1000;
+      }
+
+      if (!bulkFinished) {
+        if (ranges == null) {
+          ranges = splitRanges();
+        }
+        echoToFile(PREFIX_SINCE + since + "\n"
+            + DbPortImportPipeline.formatRanges(ranges, PREFIX_RANGE), processLogFile);
+
+        syncBulk(ranges, since, processLogFile);
+        echoToFile(PREFIX_SINCE + since + "\n" + MSG_BULK_FINISHED, processLogFile);
+      }
+
+      if (catchUp(since, processLogFile)) {
+        processLogFile.delete();
+      }
+    } catch (Exception ex) {
+      System.err.println("could not synchronize CA database to OCSP database, "
+          + "please continue with the option '--resume'");
+      throw ex;
+    }
+    System.out.println(" synchronized CA database to OCSP database");
+  } // method sync
+
+  private boolean initPublisher() throws Exception {
+    Connection caConn = caDatasource.getConnection();
+    PreparedStatement ps = null;
+    ResultSet rs = null;
+    try {
+      String sql = "SELECT ID,TYPE,CONF FROM PUBLISHER WHERE NAME=?";
+      ps = prepareStatement(caConn, sql);
+      ps.setString(1, publisherName);
+      rs = ps.executeQuery();
+      if (!rs.next()) {
+        throw new Exception("unknown publisher " + publisherName);
+      }
+
+      int publisherId = rs.getInt("ID");
+      String type = rs.getString("TYPE");
+      if (!"ocsp".equalsIgnoreCase(type)) {
+        throw new Exception("Unkwown publisher type " + type);
+      }
+
+      String str = new ConfPairs(rs.getString("CONF")).value("publish.goodcerts");
+      revokedOnly = (str != null) && !Boolean.parseBoolean(str);
+      caDatasource.releaseResources(ps, rs, false);
+      rs = null;
+
+      sql = "SELECT CA_ID FROM CA_HAS_PUBLISHER WHERE PUBLISHER_ID=?";
+      ps = prepareStatement(caConn, sql);
+      ps.setInt(1, publisherId);
+      rs = ps.executeQuery();
+      caIds = new HashSet<>();
+      while (rs.next()) {
+        caIds.add(rs.getInt("CA_ID"));
+      }
+      return !caIds.isEmpty();
+    } catch (SQLException ex) {
+      throw caDatasource.translate(null, ex);
+    } finally {
+      caDatasource.releaseResources(ps, rs, false);
+      caDatasource.returnConnection(caConn);
+    }
+  } // method initPublisher
+
+  private void syncIssuers() throws Exception {
+    System.out.println("importing table ISSUER");
+
+    Set<Integer> existingIds = new HashSet<>();
+    PreparedStatement ps = prepareStatement("SELECT ID FROM ISSUER");
+    ResultSet rs = null;
+    try {
+      rs = ps.executeQuery();
+      while (rs.next()) {
+        existingIds.add(rs.getInt("ID"));
+      }
+    } catch (SQLException ex) {
+      throw translate("SELECT ID FROM ISSUER", ex);
+    } finally {
+      releaseResources(ps, rs);
+    }
+
+    final String caSql = "SELECT CERT,REV_INFO FROM CA WHERE ID=?";
+    Connection caConn = caDatasource.getConnection();
+    PreparedStatement caPs = null;
+    ps = prepareStatement(SQL_ADD_ISSUER);
+    try {
+      caPs = prepareStatement(caConn, caSql);
+      for (Integer caId : caIds) {
+        if (existingIds.contains(caId)) {
+          continue;
+        }
+
+        caPs.setInt(1, caId);
+        ResultSet caRs = caPs.executeQuery();
+        String b64Cert;
+        String revInfo;
+        try {
+          if (!caRs.next()) {
+            continue;
+          }
+          b64Cert = caRs.getString("CERT");
+          revInfo = caRs.getString("REV_INFO");
+        } finally {
+          caRs.close();
+        }
+
+        byte[] encodedCert = Base64.decode(b64Cert);
+        Certificate cert;
+        try {
+          cert = Certificate.getInstance(encodedCert);
+        } catch (RuntimeException ex) {
+          String msg = "could not parse certificate of issuer " + caId;
+          LogUtil.error(LOG, ex, msg);
+          throw new CertificateException(ex.getMessage(), ex);
+        }
+
+        try {
+          int idx = 1;
+          ps.setInt(idx++, caId);
+          ps.setString(idx++, X509Util.cutX500Name(cert.getSubject(), maxX500nameLen));
+          ps.setLong(idx++, cert.getTBSCertificate().getStartDate().getDate().getTime() / 1000);
+          ps.setLong(idx++, cert.getTBSCertificate().getEndDate().getDate().getTime() / 1000);
+          ps.setString(idx++, HashAlgo.SHA1.base64Hash(encodedCert));
+          ps.setString(idx++, revInfo);
+          ps.setString(idx++, Base64.encodeToString(encodedCert));
+          ps.setNull(idx++, Types.INTEGER); // CRL_ID
+          ps.execute();
+        } catch (SQLException ex) {
+          System.err.println("could not import issuer with id=" + caId);
+          throw translate(SQL_ADD_ISSUER, ex);
+        }
+      }
+    } catch (SQLException ex) {
+      throw caDatasource.translate(caSql, ex);
+    } finally {
+      releaseResources(ps, null);
+      caDatasource.releaseResources(caPs, null, false);
+      caDatasource.returnConnection(caConn);
+    }
+
+    System.out.println(" imported table ISSUER");
+  } // method syncIssuers
+
+  private List<Range> splitRanges() throws DataAccessException {
+    Connection caConn = caDatasource.getConnection();
+    long minId;
+    long maxId;
+    try {
+      minId = caDatasource.getMin(caConn, "CERT", "ID");
+      maxId = caDatasource.getMax(caConn, "CERT", "ID");
+    } finally {
+      caDatasource.returnConnection(caConn);
+    }
+
+    List<Range> ranges = new ArrayList<>();
+    for (long[] idRange : splitIdRange(minId, maxId, numThreads, numCertsPerSelect)) {
+      ranges.add(new Range(idRange[0], idRange[1], 0, idRange[0] - 1));
+    }
+    return ranges;
+  } // method splitRanges
+
+  private void syncBulk(List<Range> ranges, long since, File processLogFile)
+      throws Exception {
+    // remove the certificates of the last process which have not been recorded
+    PreparedStatement ps = prepareStatement("DELETE FROM CERT WHERE ID>? AND ID<=?");
+    try {
+      for (Range range : ranges) {
+        ps.setLong(1, range.getLastId());
+        ps.setLong(2, range.getToId());
+        ps.executeUpdate();
+      }
+    } catch (SQLException ex) {
+      throw translate("DELETE FROM CERT WHERE ID>? AND ID<=?", ex);
+    } finally {
+      releaseResources(ps, null);
+    }
+
+    long total = 0;
+    for (Range range : ranges) {
+      total += range.getToId() - range.getLastId();
+    }
+
+    ProcessLog processLog = new ProcessLog(Math.max(1, total));
+    System.out.println("copying certificates in " + ranges.size() + " ID ranges");
+    processLog.printHeader();
+
+    String sql = caDatasource.buildSelectFirstSql(numCertsPerSelect, "ID ASC",
+        selectCoreSql() + " FROM CERT WHERE ID>? AND ID<=?");
+
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, ranges.size()));
+    List<Future<Void>> futures = new ArrayList<>(ranges.size());
+    for (Range range : ranges) {
+      futures.add(executor.submit(() -> {
+        try {
+          syncRange(sql, range, cancelled, numProcessed -> {
+            synchronized (ranges) {
+              echoToFile(PREFIX_SINCE + since + "\n"
+                  + DbPortImportPipeline.formatRanges(ranges, PREFIX_RANGE), processLogFile);
+              processLog.addNumProcessed(numProcessed);
+              processLog.printStatus();
+            }
+          });
+        } catch (Exception ex) {
+          cancelled.set(true);
+          throw ex;
+        }
+        return null;
+      }));
+    }
+
+    Exception exception = null;
+    try {
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (exception == null || exception instanceof InterruptedException) {
+            exception = (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+
+    processLog.printTrailer();
+    long numCopied = 0;
+    for (Range range : ranges) {
+      numCopied += range.getNumProcessed();
+    }
+    System.out.println(" copied " + numCopied + " certificates");
+  } // method syncBulk
+
+  private void syncRange(String sql, Range range, AtomicBoolean cancelled,
+      CommitListener listener) throws Exception {
+    Connection caConn = caDatasource.getConnection();
+    Connection ocspConn = datasource.getConnection();
+    PreparedStatement selectPs = null;
+    PreparedStatement insertPs = null;
+    boolean autoCommit = true;
+    try {
+      autoCommit = ocspConn.getAutoCommit();
+      ocspConn.setAutoCommit(false);
+      selectPs = prepareStatement(caConn, sql);
+      insertPs = ocspConn.prepareStatement(SQL_ADD_CERT);
+
+      long lastId = range.getLastId();
+      long lastCommittedId = lastId;
+      int numInBatch = 0;
+      while (true) {
+        if (stopMe.get()) {
+          throw new InterruptedException("interrupted by the user");
+        } else if (cancelled.get()) {
+          throw new InterruptedException("cancelled due to error in other thread");
+        }
+
+        selectPs.setLong(1, lastId);
+        selectPs.setLong(2, range.getToId());
+        int numRows = 0;
+        try (ResultSet rs = selectPs.executeQuery()) {
+          while (rs.next()) {
+            numRows++;
+            lastId = rs.getLong("ID");
+            if (bindCert(insertPs, rs)) {
+              insertPs.addBatch();
+              numInBatch++;
+            }
+          }
+        }
+
+        boolean finished = numRows < numCertsPerSelect;
+        if (numInBatch >= numCertsPerCommit || (finished && lastId != lastCommittedId)) {
+          if (numInBatch > 0) {
+            insertPs.executeBatch();
+          }
+          ocspConn.commit();
+          range.addProcessed(numInBatch, lastId);
+          lastCommittedId = lastId;
+          listener.committed(numInBatch);
+          numInBatch = 0;
+        }
+
+        if (finished) {
+          break;
+        }
+      }
+    } catch (SQLException ex) {
+      rollback(ocspConn);
+      throw translate(SQL_ADD_CERT, ex);
+    } catch (Exception ex) {
+      rollback(ocspConn);
+      throw ex;
+    } finally {
+      caDatasource.releaseResources(selectPs, null, false);
+      datasource.releaseResources(insertPs, null, false);
+      try {
+        ocspConn.setAutoCommit(autoCommit);
+      } catch (SQLException ex) {
+        LogUtil.warn(LOG, ex, "could not recover the auto-commit");
+      }
+      caDatasource.returnConnection(caConn);
+      datasource.returnConnection(ocspConn);
+    }
+  } // method syncRange
+
+  /**
+   * Copies the certificates updated since the given time until a round finds no updated
+   * certificate.
+   *
+   * @return whether the catch-up phase has converged.
+   */
+  private boolean catchUp(long since, File processLogFile) throws Exception {
+    String sql = caDatasource.buildSelectFirstSql(numCertsPerSelect, "ID ASC",
+        selectCoreSql() + " FROM CERT WHERE ID>? AND LUPDATE>=?");
+
+    Connection caConn = caDatasource.getConnection();
+    PreparedStatement selectPs = null;
+    PreparedStatement deletePs = null;
+    PreparedStatement insertPs = null;
+
+    disableAutoCommit();
+    try {
+      selectPs = prepareStatement(caConn, sql);
+      deletePs = prepareStatement(SQL_DEL_CERT_BY_ID);
+      insertPs = prepareStatement(SQL_ADD_CERT);
+
+      for (int round = 1; round <= maxCatchupRounds; round++) {
+        // LUPDATE has the precision of seconds: start each round in a new second, so that
+        // the certificates updated in the second the last round started are checked again,
+        // but not forever.
+        long roundStart = System.currentTimeMillis() / 1000;
+        while (roundStart <= since) {
+          Thread.sleep(100);
+          roundStart = System.currentTimeMillis() / 1000;
+        }
+        System.out.println("catch-up round " + round + ": copying certificates updated since "
+            + since);
+
+        long lastId = 0;
+        int numUpdated = 0;
+        int numInBatch = 0;
+        while (true) {
+          if (stopMe.get()) {
+            throw new InterruptedException("interrupted by the user");
+          }
+
+          selectPs.setLong(1, lastId);
+          selectPs.setLong(2, since);
+          int numRows = 0;
+          try (ResultSet rs = selectPs.executeQuery()) {
+            while (rs.next()) {
+              numRows++;
+              lastId = rs.getLong("ID");
+              deletePs.setLong(1, lastId);
+              deletePs.addBatch();
+              if (bindCert(insertPs, rs)) {
+                insertPs.addBatch();
+              }
+              numInBatch++;
+            }
+          }
+
+          numUpdated += numRows;
+          boolean finished = numRows < numCertsPerSelect;
+          if (numInBatch > 0 && (numInBatch >= numCertsPerCommit || finished)) {
+            try {
+              deletePs.executeBatch();
+              insertPs.executeBatch();
+              commit("(commit catch-up to OCSP)");
+            } catch (SQLException ex) {
+              rollback();
+              throw translate(SQL_ADD_CERT, ex);
+            }
+            numInBatch = 0;
+          }
+
+          if (finished) {
+            break;
+          }
+        }
+
+        System.out.println(" copied " + numUpdated + " updated certificates");
+        since = roundStart;
+        echoToFile(PREFIX_SINCE + since + "\n" + MSG_BULK_FINISHED, processLogFile);
+
+        if (numUpdated == 0) {
+          return true;
+        }
+      }
+    } catch (SQLException ex) {
+      throw caDatasource.translate(sql, ex);
+    } finally {
+      recoverAutoCommit();
+      caDatasource.releaseResources(selectPs, null, false);
+      caDatasource.returnConnection(caConn);
+      releaseResources(deletePs, null);
+      releaseResources(insertPs, null);
+    }
+
+    System.out.println("not converged after " + maxCatchupRounds + " catch-up rounds, "
+        + "please continue with the option '--resume'");
+    return false;
+  } // method catchUp
+
+  private String selectCoreSql() {
+    // the certificate is only required if its hash cannot be taken from the column SHA1
+    return (certhashAlgo == HashAlgo.SHA1) ? SQL_CORE_CERT : SQL_CORE_CERT + ",CERT";
+  }
+
+  /**
+   * Sets the parameters of the insert statement.
+   *
+   * @return whether the certificate should be published to the OCSP database.
+   */
+  private boolean bindCert(PreparedStatement ps, ResultSet rs) throws SQLException {
+    int caId = rs.getInt("CA_ID");
+    int rev = rs.getInt("REV");
+    if (!caIds.contains(caId) || (revokedOnly && rev != 1)) {
+      return false;
+    }
+
+    String certhash = (certhashAlgo == HashAlgo.SHA1) ? rs.getString("SHA1")
+        : certhashAlgo.base64Hash(Base64.decodeFast(rs.getString("CERT")));
+
+    int idx = 1;
+    ps.setLong(idx++, rs.getLong("ID"));
+    ps.setInt(idx++, caId);
+    ps.setString(idx++, rs.getString("SN"));
+    ps.setLong(idx++, rs.getLong("LUPDATE"));
+    ps.setLong(idx++, rs.getLong("NBEFORE"));
+    ps.setLong(idx++, rs.getLong("NAFTER"));
+    ps.setInt(idx++, rev);
+
+    int rr = rs.getInt("RR");
+    setInt(ps, idx++, rs.wasNull() ? null : rr);
+    long rt = rs.getLong("RT");
+    setLong(ps, idx++, rs.wasNull() ? null : rt);
+    long rit = rs.getLong("RIT");
+    setLong(ps, idx++, rs.wasNull() ? null : rit);
+
+    ps.setString(idx++, certhash);
+    ps.setString(idx++, X509Util.cutText(rs.getString("SUBJECT"), maxX500nameLen));
+    ps.setNull(idx++, Types.INTEGER);
+    return true;
+  } // method bindCert
+
+  private PreparedStatement prepareStatement(Connection conn, String sql)
+      throws DataAccessException {
+    try {
+      return conn.prepareStatement(sql);
+    } catch (SQLException ex) {
+      throw caDatasource.translate(sql, ex);
+    }
+  }
+
+  private static void rollback(Connection conn) {
+    try {
+      conn.rollback();
+    } catch (SQLException ex) {
+      LogUtil.warn(LOG, ex, "could not rollback");
+    }
+  }
+
+}
@@ -0,0 +1,244 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.mgmt.db.diffdb;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.BitSet;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.IoUtil;
+
+/**
+ * BucketDigestDiff test.
+ *
+ * @author Lijun Liao
+ */
+
+public class BucketDigestDiffTest {
+
+  private static final AtomicInteger DB_INDEX = new AtomicInteger();
+
+  private static final int NUM_CERTS = 500;
+
+  private DataSourceWrapper refDatasource;
+
+  private DataSourceWrapper targetDatasource;
+
+  private File reportDir;
+
+  @Before
+  public void setUp() throws Exception {
+    refDatasource = createDatasource("ref");
+    targetDatasource = createDatasource("target");
+    reportDir = Files.createTempDirectory("bucket-diff").toFile();
+
+    for (DataSourceWrapper datasource : new DataSourceWrapper[]{refDatasource, targetDatasource}) {
+      execute(datasource,
+          "CREATE TABLE DBSCHEMA (NAME VARCHAR(45) PRIMARY KEY, VALUE2 VARCHAR(100))",
+          "CREATE TABLE ISSUER (ID INT PRIMARY KEY, CERT VARCHAR(6000))",
+          "CREATE TABLE CERT (ID BIGINT PRIMARY KEY, IID INT, SN VARCHAR(128), REV SMALLINT,"
+              + " RR SMALLINT, RT BIGINT, RIT BIGINT, HASH VARCHAR(86))",
+          "INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES ('VERSION','4')",
+          "INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES ('CERTHASH_ALGO','SHA1')",
+          // the CA certificates are compared only as binary
+          "INSERT INTO ISSUER (ID,CERT) VALUES (1,'AQID')");
+
+      // IDs with gaps
+      for (int i = 1; i <= NUM_CERTS; i++) {
+        insertCert(datasource, i * 7, i);
+      }
+    }
+  } // method setUp
+
+  @After
+  public void tearDown() throws Exception {
+    try {
+      execute(refDatasource, "SHUTDOWN");
+      execute(targetDatasource, "SHUTDOWN");
+    } finally {
+      refDatasource.close();
+      targetDatasource.close();
+      deleteDir(reportDir);
+    }
+  }
+
+  @Test
+  public void testBucketOf() {
+    BitSet buckets = new BitSet();
+    int num = 1 << 18;
+    for (int i = 1; i <= num; i++) {
+      BigInteger serialNumber = BigInteger.valueOf(i);
+      int bucket = BucketDigestDiff.bucketOf(serialNumber);
+      Assert.assertTrue("bucket out of range: " + bucket, bucket >= 0 && bucket < (1 << 16));
+      Assert.assertEquals("bucket is not deterministic", bucket,
+          BucketDigestDiff.bucketOf(BigInteger.valueOf(i)));
+      buckets.set(bucket);
+    }
+
+    // the serial numbers assigned in sequence are spread over (almost) all buckets
+    Assert.assertTrue("too few buckets used: " + buckets.cardinality(),
+        buckets.cardinality() > 60000);
+  }
+
+  @Test
+  public void testIdenticalDatabases() throws Exception {
+    newDiff(false).diff();
+
+    assertOverview(NUM_CERTS, 0, 0, 0);
+    Assert.assertFalse("checkpoint file has not been deleted",
+        new File(reportDir, BucketDigestDiff.CHECKPOINT_FILENAME).exists());
+  }
+
+  @Test
+  public void testDifferentDatabases() throws Exception {
+    execute(targetDatasource,
+        "UPDATE CERT SET REV=1,RR=1,RT=1000 WHERE ID=7",
+        "DELETE FROM CERT WHERE ID=14");
+    insertCert(targetDatasource, (NUM_CERTS + 1) * 7, NUM_CERTS + 1);
+
+    newDiff(false).diff();
+
+    assertOverview(NUM_CERTS - 2, 1, 1, 1);
+    Assert.assertEquals("diff", "1", firstColumn(new File(caReportDir(), "diff")));
+    Assert.assertEquals("missing", "2", firstColumn(new File(caReportDir(), "missing")));
+    Assert.assertEquals("unexpected", Integer.toHexString(NUM_CERTS + 1),
+        firstColumn(new File(caReportDir(), "unexpected")));
+  }
+
+  @Test
+  public void testCheckpointRoundTrip() throws Exception {
+    File checkpointFile = new File(reportDir, BucketDigestDiff.CHECKPOINT_FILENAME);
+    BucketDigestDiff diff = newDiff(false);
+    diff.matchCas();
+    diff.initScan();
+    diff.scan(checkpointFile);
+    Assert.assertTrue("checkpoint file has not been written", checkpointFile.exists());
+
+    BucketDigestDiff resumedDiff = newDiff(true);
+    resumedDiff.matchCas();
+    resumedDiff.readCheckpoint(checkpointFile);
+    File checkpointFile2 = new File(reportDir, "checkpoint2");
+    resumedDiff.writeCheckpoint(checkpointFile2);
+    Assert.assertArrayEquals("checkpoint", IoUtil.read(checkpointFile),
+        IoUtil.read(checkpointFile2));
+    checkpointFile2.delete();
+
+    // the resumed diff uses the scanned buckets in the checkpoint file
+    execute(targetDatasource, "DELETE FROM CERT WHERE ID=7");
+    newDiff(true).diff();
+    assertOverview(NUM_CERTS, 0, 0, 0);
+    Assert.assertFalse("checkpoint file has not been deleted", checkpointFile.exists());
+  }
+
+  private BucketDigestDiff newDiff(boolean resume) throws Exception {
+    return new BucketDigestDiff(refDatasource, targetDatasource, reportDir.getPath(), false,
+        new AtomicBoolean(false), 30, 3, resume);
+  }
+
+  private File caReportDir() {
+    return new File(reportDir, "ca-unknown");
+  }
+
+  private void assertOverview(long good, long diff, long missing, long unexpected)
+      throws Exception {
+    String overview = new String(IoUtil.read(new File(caReportDir(), "overview.txt")), "UTF-8");
+    Assert.assertEquals("good", good, overviewValue(overview, "good"));
+    Assert.assertEquals("diff", diff, overviewValue(overview, "diff"));
+    Assert.assertEquals("missing", missing, overviewValue(overview, "missing"));
+    Assert.assertEquals("unexpected", unexpected, overviewValue(overview, "unexpected"));
+  }
+
+  private static long overviewValue(String overview, String name) {
+    for (String line : overview.split("\n")) {
+      String[] tokens = line.split(":", 2);
+      if (tokens.length == 2 && tokens[0].trim().equals(name)) {
+        return Long.parseLong(tokens[1].replaceAll("[^0-9]", ""));
+      }
+    }
+    throw new IllegalArgumentException("no " + name + " in overview");
+  }
+
+  private static String firstColumn(File file) throws Exception {
+    String content = new String(IoUtil.read(file), "UTF-8").trim();
+    return content.split("[\t\n]")[0];
+  }
+
+  private static void insertCert(DataSourceWrapper datasource, long id, long serialNumber)
+      throws Exception {
+    Connection conn = datasource.getConnection();
+    try (PreparedStatement ps = conn.prepareStatement(
+        "INSERT INTO CERT (ID,IID,SN,REV,HASH) VALUES (?,1,?,0,?)")) {
+      ps.setLong(1, id);
+      ps.setString(2, Long.toHexString(serialNumber));
+      ps.setString(3, "hash-" + serialNumber);
+      ps.executeUpdate();
+    } finally {
+      datasource.returnConnection(conn);
+    }
+  }
+
+  private static void execute(DataSourceWrapper datasource, String... sqls) throws Exception {
+    Connection conn = datasource.getConnection();
+    try (Statement stmt = conn.createStatement()) {
+      for (String sql : sqls) {
+        stmt.execute(sql);
+      }
+    } finally {
+      datasource.returnConnection(conn);
+    }
+  }
+
+  private static void deleteDir(File dir) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          deleteDir(child);
+        } else {
+          child.delete();
+        }
+      }
+    }
+    dir.delete();
+  }
+
+  private static DataSourceWrapper createDatasource(String name) throws Exception {
+    Properties props = new Properties();
+    props.setProperty("dataSourceClassName", "org.h2.jdbcx.JdbcDataSource");
+    props.setProperty("dataSource.url",
+        "jdbc:h2:mem:" + name + DB_INDEX.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+    props.setProperty("dataSource.user", "sa");
+    props.setProperty("dataSource.password", "");
+    props.setProperty("maximumPoolSize", "10");
+    return new DataSourceFactory().createDataSource(name, props, null);
+  }
+
+}
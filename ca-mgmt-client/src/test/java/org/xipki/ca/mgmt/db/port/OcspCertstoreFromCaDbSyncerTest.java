@@ -0,0 +1,213 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.mgmt.db.port;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.IoUtil;
+import org.xipki.util.StringUtil;
+
+/**
+ * OcspCertstoreFromCaDbSyncer test.
+ *
+ * @author Lijun Liao
+ */
+
+public class OcspCertstoreFromCaDbSyncerTest {
+
+  private static final AtomicInteger DB_INDEX = new AtomicInteger();
+
+  private static final int NUM_CERTS = 400;
+
+  private DataSourceWrapper caDatasource;
+
+  private DataSourceWrapper ocspDatasource;
+
+  private File stateDir;
+
+  @Before
+  public void setUp() throws Exception {
+    caDatasource = createDatasource("ca");
+    ocspDatasource = createDatasource("ocsp");
+    stateDir = Files.createTempDirectory("ocsp-sync").toFile();
+
+    execute(caDatasource,
+        "CREATE TABLE PUBLISHER (ID INT PRIMARY KEY, NAME VARCHAR(45), TYPE VARCHAR(100),"
+            + " CONF VARCHAR(1000))",
+        "CREATE TABLE CA_HAS_PUBLISHER (CA_ID INT, PUBLISHER_ID INT)",
+        "CREATE TABLE CA (ID INT PRIMARY KEY, CERT VARCHAR(6000), REV_INFO VARCHAR(200))",
+        "CREATE TABLE CERT (ID BIGINT PRIMARY KEY, CA_ID INT, SN VARCHAR(128), LUPDATE BIGINT,"
+            + " NBEFORE BIGINT, NAFTER BIGINT, REV SMALLINT, RR SMALLINT, RT BIGINT, RIT BIGINT,"
+            + " SUBJECT VARCHAR(350), SHA1 CHAR(28), CERT VARCHAR(6000))",
+        "INSERT INTO PUBLISHER (ID,NAME,TYPE,CONF) VALUES (1,'ocsp-publisher','ocsp',"
+            + "'publish.goodcerts=true')",
+        "INSERT INTO CA_HAS_PUBLISHER (CA_ID,PUBLISHER_ID) VALUES (1,1)");
+
+    execute(ocspDatasource,
+        "CREATE TABLE DBSCHEMA (NAME VARCHAR(45) PRIMARY KEY, VALUE2 VARCHAR(100))",
+        "CREATE TABLE ISSUER (ID INT PRIMARY KEY, SUBJECT VARCHAR(350), NBEFORE BIGINT,"
+            + " NAFTER BIGINT, S1C CHAR(28), REV_INFO VARCHAR(200), CERT VARCHAR(6000),"
+            + " CRL_ID INT)",
+        "CREATE TABLE CERT (ID BIGINT PRIMARY KEY, IID INT, SN VARCHAR(128), LUPDATE BIGINT,"
+            + " NBEFORE BIGINT, NAFTER BIGINT, REV SMALLINT, RR SMALLINT, RT BIGINT, RIT BIGINT,"
+            + " HASH VARCHAR(86), SUBJECT VARCHAR(350), CRL_ID INT)",
+        "INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES ('VERSION','4')",
+        "INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES ('X500NAME_MAXLEN','350')",
+        "INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES ('CERTHASH_ALGO','SHA1')",
+        // the issuer exists already, so that it is not read from the CA database
+        "INSERT INTO ISSUER (ID,SUBJECT,NBEFORE,NAFTER,S1C,CERT) VALUES (1,'CN=CA1',0,0,'s1c',"
+            + "'cert')");
+
+    // IDs with gaps, every 4th certificate is issued by a CA without the publisher
+    long lastUpdate = System.currentTimeMillis() / 1000 - 3600;
+    for (int i = 1; i <= NUM_CERTS; i++) {
+      insertCaCert(i * 3, (i % 4 == 0) ? 2 : 1, lastUpdate);
+    }
+  } // method setUp
+
+  @After
+  public void tearDown() throws Exception {
+    try {
+      execute(caDatasource, "SHUTDOWN");
+      execute(ocspDatasource, "SHUTDOWN");
+    } finally {
+      caDatasource.close();
+      ocspDatasource.close();
+      File[] files = stateDir.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      stateDir.delete();
+    }
+  }
+
+  @Test
+  public void testBulkSync() throws Exception {
+    sync(false);
+
+    Assert.assertEquals("number of certificates", NUM_CERTS * 3 / 4,
+        count("SELECT COUNT(*) FROM CERT"));
+    Assert.assertEquals("certificates of CA without publisher", 0,
+        count("SELECT COUNT(*) FROM CERT WHERE IID<>1"));
+    Assert.assertEquals("certificates with wrong hash", 0,
+        count("SELECT COUNT(*) FROM CERT WHERE HASH<>CONCAT('h', ID)"));
+    Assert.assertFalse("process log has not been deleted",
+        new File(stateDir, DbPorter.SYNC_TO_OCSP_PROCESS_LOG_FILENAME).exists());
+  }
+
+  @Test
+  public void testCatchupSync() throws Exception {
+    sync(false);
+
+    // certificates revoked and issued during the bulk phase
+    long since = System.currentTimeMillis() / 1000 - 60;
+    execute(caDatasource, "UPDATE CERT SET REV=1,RR=1,RT=" + since + ",LUPDATE=" + (since + 30)
+        + " WHERE ID IN (3,6,9)");
+    insertCaCert((NUM_CERTS + 1) * 3, 1, since + 30);
+
+    File processLogFile = new File(stateDir, DbPorter.SYNC_TO_OCSP_PROCESS_LOG_FILENAME);
+    IoUtil.save(processLogFile, StringUtil.toUtf8Bytes("since:" + since + "\nbulk.finished"));
+    sync(true);
+
+    Assert.assertEquals("revoked certificates", 3,
+        count("SELECT COUNT(*) FROM CERT WHERE REV=1 AND RR=1 AND ID IN (3,6,9)"));
+    Assert.assertEquals("certificates issued after bulk phase", 1,
+        count("SELECT COUNT(*) FROM CERT WHERE ID=" + ((NUM_CERTS + 1) * 3)));
+    Assert.assertEquals("number of certificates", NUM_CERTS * 3 / 4 + 1,
+        count("SELECT COUNT(*) FROM CERT"));
+    Assert.assertFalse("process log has not been deleted", processLogFile.exists());
+  }
+
+  private void sync(boolean resume) throws Exception {
+    OcspCertstoreFromCaDbSyncer syncer = new OcspCertstoreFromCaDbSyncer(caDatasource,
+        ocspDatasource, stateDir.getPath(), "ocsp-publisher", 3, 20, 50, 5, resume,
+        new AtomicBoolean(false));
+    try {
+      syncer.sync();
+    } finally {
+      syncer.close();
+    }
+  }
+
+  private void insertCaCert(long id, int caId, long lastUpdate) throws Exception {
+    Connection conn = caDatasource.getConnection();
+    try (PreparedStatement ps = conn.prepareStatement("INSERT INTO CERT (ID,CA_ID,SN,LUPDATE,"
+        + "NBEFORE,NAFTER,REV,SUBJECT,SHA1) VALUES (?,?,?,?,?,?,0,?,?)")) {
+      ps.setLong(1, id);
+      ps.setInt(2, caId);
+      ps.setString(3, Long.toHexString(id));
+      ps.setLong(4, lastUpdate);
+      ps.setLong(5, lastUpdate);
+      ps.setLong(6, lastUpdate + 86400);
+      ps.setString(7, "CN=cert-" + id);
+      ps.setString(8, "h" + id);
+      ps.executeUpdate();
+    } finally {
+      caDatasource.returnConnection(conn);
+    }
+  }
+
+  private int count(String sql) throws Exception {
+    Connection conn = ocspDatasource.getConnection();
+    try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      ocspDatasource.returnConnection(conn);
+    }
+  }
+
+  private static void execute(DataSourceWrapper datasource, String... sqls) throws Exception {
+    Connection conn = datasource.getConnection();
+    try (Statement stmt = conn.createStatement()) {
+      for (String sql : sqls) {
+        stmt.execute(sql);
+      }
+    } finally {
+      datasource.returnConnection(conn);
+    }
+  }
+
+  private static DataSourceWrapper createDatasource(String name) throws Exception {
+    Properties props = new Properties();
+    props.setProperty("dataSourceClassName", "org.h2.jdbcx.JdbcDataSource");
+    props.setProperty("dataSource.url",
+        "jdbc:h2:mem:" + name + DB_INDEX.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+    props.setProperty("dataSource.user", "sa");
+    props.setProperty("dataSource.password", "");
+    props.setProperty("maximumPoolSize", "10");
+    return new DataSourceFactory().createDataSource(name, props, null);
+  }
+
+}
@@ -40,8 +40,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -75,6 +78,7 @@ import org.xipki.ca.api.mgmt.CaManager;
 import org.xipki.ca.api.mgmt.CaMgmtException;
 import org.xipki.ca.api.mgmt.CaStatus;
 import org.xipki.ca.api.mgmt.CaSystemStatus;
+import org.xipki.ca.api.mgmt.CertListHandler;
 import org.xipki.ca.api.mgmt.CertListInfo;
 import org.xipki.ca.api.mgmt.CertListOrderBy;
 import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
@@ -89,6 +93,8 @@ import org.xipki.ca.api.publisher.CertPublisher;
 import org.xipki.ca.api.publisher.CertPublisherException;
 import org.xipki.ca.api.publisher.CertPublisherFactoryRegister;
 import org.xipki.ca.server.CaManagerQueryExecutor.SystemEvent;
+import org.xipki.ca.server.CaServerConf.IdAllocatorConf;
+import org.xipki.ca.server.CaServerConf.KeypairPoolConf;
 import org.xipki.ca.server.SelfSignedCertBuilder.GenerateSelfSignedResult;
 import org.xipki.ca.server.cmp.CmpResponder;
 import org.xipki.datasource.DataAccessException;
@@ -188,6 +194,35 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   } // class UnreferencedRequstCleaner
 
+  private class ShardIdRenewer implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        if (queryExecutor.renewShardId(reservedShardId, lockInstanceId)) {
+          return;
+        }
+
+        // The lease has been taken over, the IDs generated since then may collide with
+        // those of the other instance, which is rejected by the database.
+        LOG.error("reservation of shardId {} has been taken over by other instance",
+            reservedShardId);
+        int newShardId = queryExecutor.reserveShardId(lockInstanceId, reservedShardId,
+            caServerConf.getIdAllocator().getShardLeaseTime());
+        if (newShardId == -1) {
+          LOG.error("could not reserve any shardId, still use {}", reservedShardId);
+        } else {
+          reservedShardId = newShardId;
+          idGenerator.setShardId(newShardId);
+          LOG.info("reserved shardId {}", newShardId);
+        }
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not renew the reservation of shardId " + reservedShardId);
+      }
+    } // method run
+
+  } // class ShardIdRenewer
+
   private class CaRestarter implements Runnable {
 
     private boolean inProcess;
@@ -284,6 +319,10 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private CtLogPublicKeyFinder ctLogPublicKeyFinder;
 
+  private volatile KeypairPool keypairPool;
+
+  private ExecutorService enrollExecutor;
+
   private CaServerConf caServerConf;
 
   private boolean caSystemSetuped;
@@ -310,6 +349,10 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private CertStore certstore;
 
+  private UniqueIdGenerator idGenerator;
+
+  private volatile int reservedShardId = -1;
+
   private SecurityFactory securityFactory;
 
   private CaManagerQueryExecutor queryExecutor;
@@ -408,6 +451,29 @@ public class CaManagerImpl implements CaManager, Closeable {
       throw new CaMgmtException("could not load CtLogPublicKeyFinder: " + ex.getMessage(), ex);
     }
 
+    closeKeypairPool();
+
+    KeypairPoolConf keypairPoolConf = caServerConf.getKeypairPool();
+    if (keypairPoolConf != null && keypairPoolConf.isEnabled()) {
+      try {
+        keypairPool = new KeypairPool(keypairPoolConf);
+      } catch (RuntimeException ex) {
+        throw new CaMgmtException("could not initialize KeypairPool: " + ex.getMessage(), ex);
+      }
+    }
+
+    shutdownEnrollExecutor();
+    int enrollThreads = caServerConf.getEnrollThreads();
+    if (enrollThreads > 0) {
+      final AtomicInteger threadIndex = new AtomicInteger(0);
+      enrollExecutor = Executors.newFixedThreadPool(enrollThreads, runnable -> {
+        Thread thread = new Thread(runnable, "ca-enroll-" + threadIndex.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      LOG.info("ca.enrollThreads: {}", enrollThreads);
+    }
+
     if (this.datasourceNameConfFileMap == null) {
       this.datasourceNameConfFileMap = new ConcurrentHashMap<>();
       List<DataSourceConf> datasourceList = caServerConf.getDatasources();
@@ -432,11 +498,30 @@ public class CaManagerImpl implements CaManager, Closeable {
       queryExecutor.addRequestorIfNeeded(RequestorInfo.NAME_BY_USER);
     }
 
+    IdAllocatorConf idAllocatorConf = caServerConf.getIdAllocator();
+    RandomSerialNumberGenerator.getInstance().setThreadLocalRandom(
+        idAllocatorConf != null && idAllocatorConf.isThreadLocalRandom());
+
+    if (idAllocatorConf != null && idAllocatorConf.isReserveShardId()) {
+      int preferredShardId = (reservedShardId == -1) ? shardId : reservedShardId;
+      int newShardId = queryExecutor.reserveShardId(lockInstanceId, preferredShardId,
+          idAllocatorConf.getShardLeaseTime());
+      if (newShardId == -1) {
+        throw new CaMgmtException("could not reserve shardId, all are reserved by others");
+      }
+
+      reservedShardId = newShardId;
+      shardId = newShardId;
+      LOG.info("reserved shardId {}", shardId);
+    } else {
+      reservedShardId = -1;
+    }
+
     final long epoch = DateUtil.parseUtcTimeyyyyMMdd("20100101").getTime();
-    UniqueIdGenerator idGen = new UniqueIdGenerator(epoch, shardId);
+    idGenerator = new UniqueIdGenerator(epoch, shardId);
 
     try {
-      this.certstore = new CertStore(datasource, idGen);
+      this.certstore = new CertStore(datasource, idGenerator);
     } catch (DataAccessException ex) {
       throw new CaMgmtException(ex.getMessage(), ex);
     }
@@ -627,6 +712,12 @@ public class CaManagerImpl implements CaManager, Closeable {
       scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(10);
       scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
 
+      if (reservedShardId != -1) {
+        long interval = Math.max(20, caServerConf.getIdAllocator().getShardLeaseTime() / 3);
+        scheduledThreadPoolExecutor.scheduleAtFixedRate(
+            new ShardIdRenewer(), interval, interval, TimeUnit.SECONDS);
+      }
+
       List<String> startedCaNames = new LinkedList<>();
       List<String> failedCaNames = new LinkedList<>();
 
@@ -735,7 +826,9 @@ public class CaManagerImpl implements CaManager, Closeable {
           }
         }
       }
-      ctlogClient = new CtLogClient(ctlogControl.getServers(), ctxConf);
+      ctlogClient = new CtLogClient(ctlogControl.getServers(), ctxConf,
+          ctlogControl.getMinScts(), ctlogControl.getTimeout(),
+          ctlogControl.getMaxConnections());
     }
 
     X509Ca ca;
@@ -794,6 +887,19 @@ public class CaManagerImpl implements CaManager, Closeable {
       }
     }
 
+    closeKeypairPool();
+
+    shutdownEnrollExecutor();
+
+    if (reservedShardId != -1) {
+      try {
+        queryExecutor.releaseShardId(reservedShardId, lockInstanceId);
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not release shardId " + reservedShardId);
+      }
+      reservedShardId = -1;
+    }
+
     if (caLockedByMe) {
       try {
         unlockCa();
@@ -841,6 +947,28 @@ public class CaManagerImpl implements CaManager, Closeable {
     return scheduledThreadPoolExecutor;
   }
 
+  KeypairPool getKeypairPool() {
+    return keypairPool;
+  }
+
+  private void closeKeypairPool() {
+    // the CAs generate the keypairs inline once they see null
+    KeypairPool pool = keypairPool;
+    keypairPool = null;
+    if (pool != null) {
+      pool.close();
+    }
+  } // method closeKeypairPool
+
+  /**
+   * Returns the pool to process the certificate requests within one CMP message concurrently.
+   *
+   * @return the pool, or {@code null} if the requests are processed sequentially.
+   */
+  public ExecutorService getEnrollExecutor() {
+    return enrollExecutor;
+  }
+
   @Override
   public Set<String> getCertprofileNames() {
     return certprofileDbEntries.keySet();
@@ -2014,6 +2142,20 @@ public class CaManagerImpl implements CaManager, Closeable {
     ca.clearPublishQueue(publisherNames);
   } // method clearPublishQueue
 
+  private void shutdownEnrollExecutor() {
+    if (enrollExecutor == null) {
+      return;
+    }
+
+    enrollExecutor.shutdown();
+    try {
+      enrollExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      LOG.error("interrupted: {}", ex.getMessage());
+    }
+    enrollExecutor = null;
+  } // method shutdownEnrollExecutor
+
   private void shutdownScheduledThreadPoolExecutor() {
     if (scheduledThreadPoolExecutor == null) {
       return;
@@ -2516,7 +2658,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     try {
-      return certstore.getCertWithRevocationInfo(caId.getId(), serialNumber, idNameMap);
+      return certstore.getCertWithRevocationInfo(caId.getId(), serialNumber, idNameMap, true);
     } catch (OperationException ex) {
       throw new CaMgmtException(ex.getMessage(), ex);
     }
@@ -2547,6 +2689,21 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
   } // method listCertificates
 
+  @Override
+  public long streamCertificates(String caName, X500Name subjectPattern, Date validFrom,
+      Date validTo, long afterId, int numEntries, CertListHandler handler)
+      throws CaMgmtException {
+    caName = Args.toNonBlankLower(caName, "caName");
+    Args.positive(numEntries, "numEntries");
+    Args.notNull(handler, "handler");
+    X509Ca ca = getX509Ca(caName);
+    try {
+      return ca.streamCerts(subjectPattern, validFrom, validTo, afterId, numEntries, handler);
+    } catch (OperationException ex) {
+      throw new CaMgmtException(ex.getMessage(), ex);
+    }
+  } // method streamCertificates
+
   @Override
   public void refreshTokenForSignerType(String signerType) throws CaMgmtException {
     try {
@@ -156,6 +156,8 @@ class CaManagerQueryExecutor {
 
   private static final Logger LOG = LoggerFactory.getLogger(CaManagerQueryExecutor.class);
 
+  private static final String EVENT_SHARD_PREFIX = "SHARD_";
+
   private static final ColumnType INT = ColumnType.INT;
   private static final ColumnType BOOL = ColumnType.BOOL;
   private static final ColumnType STRING = ColumnType.STRING;
@@ -309,6 +311,123 @@ class CaManagerQueryExecutor {
     }
   } // method addSystemEvent
 
+  /**
+   * Reserves a shard id in the table SYSTEM_EVENT. The shard id reserved by the given owner
+   * before, or the preferred one, is reserved if possible.
+   * @param owner Owner of the reservation.
+   * @param preferredShardId Preferred shard id.
+   * @param leaseTime Lease time in seconds, the shard id whose reservation is older than it
+   *          can be taken over.
+   * @return the reserved shard id, or -1 if all shard ids are reserved by other owners.
+   * @throws CaMgmtException
+   *            If error occurs.
+   */
+  int reserveShardId(String owner, int preferredShardId, int leaseTime)
+      throws CaMgmtException {
+    if (tryReserveShardId(preferredShardId, owner, leaseTime)) {
+      return preferredShardId;
+    }
+
+    for (int i = 0; i < 128; i++) {
+      if (i != preferredShardId && tryReserveShardId(i, owner, leaseTime)) {
+        return i;
+      }
+    }
+    return -1;
+  } // method reserveShardId
+
+  private boolean tryReserveShardId(int shardId, String owner, int leaseTime)
+      throws CaMgmtException {
+    final String name = EVENT_SHARD_PREFIX + shardId;
+    SystemEvent event = getSystemEvent(name);
+    final long now = System.currentTimeMillis() / 1000;
+
+    if (event == null) {
+      final String sql =
+          "INSERT INTO SYSTEM_EVENT (NAME,EVENT_TIME,EVENT_TIME2,EVENT_OWNER) VALUES (?,?,?,?)";
+      PreparedStatement ps = null;
+      try {
+        ps = prepareStatement(sql);
+        ps.setString(1, name);
+        ps.setLong(2, now);
+        ps.setTimestamp(3, new Timestamp(now * 1000L));
+        ps.setString(4, owner);
+        return ps.executeUpdate() == 1;
+      } catch (SQLException ex) {
+        // reserved by another owner in the meantime
+        LOG.debug("could not insert system event {}: {}", name, ex.getMessage());
+        return false;
+      } finally {
+        datasource.releaseResources(ps, null);
+      }
+    }
+
+    if (!owner.equals(event.getOwner()) && event.getEventTime() + leaseTime > now) {
+      return false;
+    }
+
+    // take over the expired reservation, only if no one else did it in the meantime
+    final String sql = "UPDATE SYSTEM_EVENT SET EVENT_TIME=?,EVENT_TIME2=?,EVENT_OWNER=? "
+        + "WHERE NAME=? AND EVENT_OWNER=? AND EVENT_TIME=?";
+    PreparedStatement ps = null;
+    try {
+      ps = prepareStatement(sql);
+      ps.setLong(1, now);
+      ps.setTimestamp(2, new Timestamp(now * 1000L));
+      ps.setString(3, owner);
+      ps.setString(4, name);
+      ps.setString(5, event.getOwner());
+      ps.setLong(6, event.getEventTime());
+      return ps.executeUpdate() == 1;
+    } catch (SQLException ex) {
+      throw new CaMgmtException(datasource.translate(sql, ex));
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method tryReserveShardId
+
+  /**
+   * Renews the reservation of the shard id.
+   * @param shardId Shard id.
+   * @param owner Owner of the reservation.
+   * @return whether the reservation is still held by the owner.
+   * @throws CaMgmtException
+   *            If error occurs.
+   */
+  boolean renewShardId(int shardId, String owner) throws CaMgmtException {
+    final String sql =
+        "UPDATE SYSTEM_EVENT SET EVENT_TIME=?,EVENT_TIME2=? WHERE NAME=? AND EVENT_OWNER=?";
+    final long now = System.currentTimeMillis() / 1000;
+    PreparedStatement ps = null;
+    try {
+      ps = prepareStatement(sql);
+      ps.setLong(1, now);
+      ps.setTimestamp(2, new Timestamp(now * 1000L));
+      ps.setString(3, EVENT_SHARD_PREFIX + shardId);
+      ps.setString(4, owner);
+      return ps.executeUpdate() == 1;
+    } catch (SQLException ex) {
+      throw new CaMgmtException(datasource.translate(sql, ex));
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method renewShardId
+
+  void releaseShardId(int shardId, String owner) throws CaMgmtException {
+    final String sql = "DELETE FROM SYSTEM_EVENT WHERE NAME=? AND EVENT_OWNER=?";
+    PreparedStatement ps = null;
+    try {
+      ps = prepareStatement(sql);
+      ps.setString(1, EVENT_SHARD_PREFIX + shardId);
+      ps.setString(2, owner);
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw new CaMgmtException(datasource.translate(sql, ex));
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method releaseShardId
+
   void changeSystemEvent(SystemEvent systemEvent) throws CaMgmtException {
     deleteSystemEvent(systemEvent.getName());
     addSystemEvent(systemEvent);
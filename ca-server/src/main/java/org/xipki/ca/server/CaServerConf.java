@@ -126,6 +126,204 @@ public class CaServerConf extends ValidatableConf {
 
   }
 
+  public static class KeypairPoolConf extends ValidatableConf {
+
+    private boolean enabled;
+
+    /**
+     * Background generation for a keyspec starts once the number of pre-generated
+     * keypairs is not greater than this value.
+     */
+    private int lowWatermark = 5;
+
+    /**
+     * Background generation for a keyspec stops once the number of pre-generated
+     * keypairs reaches this value.
+     */
+    private int highWatermark = 20;
+
+    private int numThreads = 2;
+
+    /**
+     * Keyspecs whose pools are filled at startup, e.g. RSA/2048, RSA/3072/0x10001 and
+     * EC/secp256r1. Pools for other keyspecs are created on first use.
+     */
+    private List<String> keyspecs;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getLowWatermark() {
+      return lowWatermark;
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+      this.lowWatermark = lowWatermark;
+    }
+
+    public int getHighWatermark() {
+      return highWatermark;
+    }
+
+    public void setHighWatermark(int highWatermark) {
+      this.highWatermark = highWatermark;
+    }
+
+    public int getNumThreads() {
+      return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+      this.numThreads = numThreads;
+    }
+
+    public List<String> getKeyspecs() {
+      return keyspecs;
+    }
+
+    public void setKeyspecs(List<String> keyspecs) {
+      this.keyspecs = keyspecs;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (lowWatermark < 0) {
+        throw new InvalidConfException("lowWatermark must not be negative");
+      }
+
+      if (highWatermark <= lowWatermark) {
+        throw new InvalidConfException("highWatermark must be greater than lowWatermark");
+      }
+
+      if (numThreads < 1) {
+        throw new InvalidConfException("numThreads must be positive");
+      }
+    }
+
+  } // class KeypairPoolConf
+
+  public static class FpIndexConf extends ValidatableConf {
+
+    /**
+     * Names of the CAs whose fingerprint index is loaded in memory. If not set, the index
+     * is loaded for all CAs.
+     */
+    private List<String> cas;
+
+    /**
+     * Whether other CA instances write to the same database.
+     */
+    private boolean clustered;
+
+    /**
+     * Interval in seconds to synchronize the index with the database in clustered mode.
+     */
+    private int syncInterval = 60;
+
+    public List<String> getCas() {
+      return cas;
+    }
+
+    public void setCas(List<String> cas) {
+      this.cas = cas;
+    }
+
+    public boolean isClustered() {
+      return clustered;
+    }
+
+    public void setClustered(boolean clustered) {
+      this.clustered = clustered;
+    }
+
+    public int getSyncInterval() {
+      return syncInterval;
+    }
+
+    public void setSyncInterval(int syncInterval) {
+      this.syncInterval = syncInterval;
+    }
+
+    public boolean isEnabled(String caName) {
+      if (cas == null) {
+        return true;
+      }
+
+      for (String m : cas) {
+        if (m.equalsIgnoreCase(caName)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (syncInterval < 1) {
+        throw new InvalidConfException("syncInterval must be positive");
+      }
+    }
+
+  } // class FpIndexConf
+
+  public static class IdAllocatorConf extends ValidatableConf {
+
+    /**
+     * Whether each thread uses its own DRBG, seeded from the system source, to generate
+     * the random serial numbers. If false, all threads share one SecureRandom.
+     */
+    private boolean threadLocalRandom;
+
+    /**
+     * Whether the shard id is reserved in the database instead of using the configured
+     * shardId. The reservation is a lease which is renewed periodically.
+     */
+    private boolean reserveShardId;
+
+    /**
+     * Lease time in seconds of the reserved shard id. A shard id whose lease is not renewed
+     * within this time may be taken over by another CA instance.
+     */
+    private int shardLeaseTime = 600;
+
+    public boolean isThreadLocalRandom() {
+      return threadLocalRandom;
+    }
+
+    public void setThreadLocalRandom(boolean threadLocalRandom) {
+      this.threadLocalRandom = threadLocalRandom;
+    }
+
+    public boolean isReserveShardId() {
+      return reserveShardId;
+    }
+
+    public void setReserveShardId(boolean reserveShardId) {
+      this.reserveShardId = reserveShardId;
+    }
+
+    public int getShardLeaseTime() {
+      return shardLeaseTime;
+    }
+
+    public void setShardLeaseTime(int shardLeaseTime) {
+      this.shardLeaseTime = shardLeaseTime;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (shardLeaseTime < 60) {
+        throw new InvalidConfException("shardLeaseTime must be at least 60");
+      }
+    }
+
+  } // class IdAllocatorConf
+
   private AuditConf audit;
 
   private SecurityConf security;
@@ -143,12 +341,32 @@ public class CaServerConf extends ValidatableConf {
    */
   private int shardId = 0;
 
+  /**
+   * Number of threads shared by all CAs to process the certificate requests within one CMP
+   * message concurrently, the default 0 processes them sequentially.
+   */
+  private int enrollThreads = 0;
+
   private List<DataSourceConf> datasources;
 
   private List<SslContext> sslContexts;
 
   private CtLogConf ctLog;
 
+  private KeypairPoolConf keypairPool;
+
+  /**
+   * In-memory index of the public key and subject fingerprints to detect duplicated
+   * certificates, disabled if not set.
+   */
+  private FpIndexConf fpIndex;
+
+  /**
+   * Allocation of serial numbers and database IDs, the shared SecureRandom and the
+   * configured shardId are used if not set.
+   */
+  private IdAllocatorConf idAllocator;
+
   /**
    * list of classes that implement org.xipki.ca.api.profile.CertprofileFactory
    */
@@ -184,6 +402,14 @@ public class CaServerConf extends ValidatableConf {
     this.shardId = shardId;
   }
 
+  public int getEnrollThreads() {
+    return enrollThreads;
+  }
+
+  public void setEnrollThreads(int enrollThreads) {
+    this.enrollThreads = enrollThreads;
+  }
+
   public List<DataSourceConf> getDatasources() {
     return datasources;
   }
@@ -254,6 +480,30 @@ public class CaServerConf extends ValidatableConf {
     this.ctLog = ctLog;
   }
 
+  public KeypairPoolConf getKeypairPool() {
+    return keypairPool;
+  }
+
+  public void setKeypairPool(KeypairPoolConf keypairPool) {
+    this.keypairPool = keypairPool;
+  }
+
+  public FpIndexConf getFpIndex() {
+    return fpIndex;
+  }
+
+  public void setFpIndex(FpIndexConf fpIndex) {
+    this.fpIndex = fpIndex;
+  }
+
+  public IdAllocatorConf getIdAllocator() {
+    return idAllocator;
+  }
+
+  public void setIdAllocator(IdAllocatorConf idAllocator) {
+    this.idAllocator = idAllocator;
+  }
+
   public synchronized SslContextConf getSslContextConf(String name) {
     if (sslContexts == null || sslContexts.isEmpty()) {
       return null;
@@ -281,9 +531,16 @@ public class CaServerConf extends ValidatableConf {
       throw new InvalidConfException("shardId is not in [0, 127]");
     }
 
+    if (enrollThreads < 0) {
+      throw new InvalidConfException("enrollThreads must not be negative");
+    }
+
     notEmpty(datasources, "datasources");
     validate(remoteMgmt);
     validate(security);
+    validate(keypairPool);
+    validate(fpIndex);
+    validate(idAllocator);
   } // method validate
 
 }
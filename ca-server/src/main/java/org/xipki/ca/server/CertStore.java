@@ -58,6 +58,8 @@ import org.xipki.ca.api.CertificateInfo;
 import org.xipki.ca.api.NameId;
 import org.xipki.ca.api.OperationException;
 import org.xipki.ca.api.RequestType;
+import org.xipki.ca.api.mgmt.CaMgmtException;
+import org.xipki.ca.api.mgmt.CertListHandler;
 import org.xipki.ca.api.mgmt.CertListInfo;
 import org.xipki.ca.api.mgmt.CertListOrderBy;
 import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
@@ -74,6 +76,7 @@ import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.Base64;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LongHashSet;
 import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
 
@@ -218,6 +221,8 @@ public class CertStore {
   private static final String SQL_ADD_REQUEST =
       "INSERT INTO REQUEST (ID,LUPDATE,DATA) VALUES(?,?,?)";
 
+  private static final int STREAM_BLOCK_SIZE = 1000;
+
   private static final String SQL_ADD_REQCERT = "INSERT INTO REQCERT (ID,RID,CID) VALUES(?,?,?)";
 
   private final String sqlCaHasCrl;
@@ -272,6 +277,8 @@ public class CertStore {
 
   private final LruCache<Integer, String> cacheSqlSerialsRevoked = new LruCache<>(5);
 
+  private final LruCache<Integer, String> cacheSqlFingerprints = new LruCache<>(5);
+
   private final DataSourceWrapper datasource;
 
   @SuppressWarnings("unused")
@@ -1035,7 +1042,7 @@ public class CertStore {
 
     String sql = (crlNumber == null) ? sqlCrl : sqlCrlWithNo;
     ResultSet rs = null;
-    PreparedStatement ps = borrowPreparedStatement(sql);
+    PreparedStatement ps = borrowReadPreparedStatement(sql);
 
     String b64Crl = null;
     try {
@@ -1171,6 +1178,27 @@ public class CertStore {
 
   public CertWithRevocationInfo getCertWithRevocationInfo(int caId, BigInteger serial,
       CaIdNameMap idNameMap) throws OperationException {
+    return getCertWithRevocationInfo(caId, serial, idNameMap, false);
+  }
+
+  /**
+   * Retrieves the certificate and its revocation information.
+   *
+   * @param caId
+   *          CA identifier.
+   * @param serial
+   *          Serial number of the certificate. Must not be {@code null}.
+   * @param idNameMap
+   *          Map of the identifiers to the names. Must not be {@code null}.
+   * @param allowReplica
+   *          Whether the information may be read from a read replica of the database. Must be
+   *          {@code false} if the result is used to modify the certificate.
+   * @return the certificate with revocation information, or {@code null} if not found.
+   * @throws OperationException
+   *           if database error occurs.
+   */
+  public CertWithRevocationInfo getCertWithRevocationInfo(int caId, BigInteger serial,
+      CaIdNameMap idNameMap, boolean allowReplica) throws OperationException {
     Args.notNull(serial, "serial");
     Args.notNull(idNameMap, "idNameMap");
 
@@ -1185,7 +1213,8 @@ public class CertStore {
     int certprofileId = 0;
 
     ResultSet rs = null;
-    PreparedStatement ps = borrowPreparedStatement(sql);
+    PreparedStatement ps = allowReplica ? borrowReadPreparedStatement(sql)
+        : borrowPreparedStatement(sql);
 
     try {
       int idx = 1;
@@ -1451,24 +1480,7 @@ public class CertStore {
     if (subjectPattern != null) {
       idxSubject = idx++;
       sb.append(" AND SUBJECT LIKE ?");
-
-      StringBuilder buffer = new StringBuilder(100);
-      buffer.append("%");
-      RDN[] rdns = subjectPattern.getRDNs();
-      for (int i = 0; i < rdns.length; i++) {
-        X500Name rdnName = new X500Name(new RDN[]{rdns[i]});
-        String rdnStr = X509Util.getRfc4519Name(rdnName);
-        if (rdnStr.indexOf('%') != -1) {
-          throw new OperationException(BAD_REQUEST,
-              "the character '%' is not allowed in subjectPattern");
-        }
-        if (rdnStr.indexOf('*') != -1) {
-          rdnStr = rdnStr.replace('*', '%');
-        }
-        buffer.append(rdnStr);
-        buffer.append("%");
-      }
-      subjectLike = buffer.toString();
+      subjectLike = buildSubjectLike(subjectPattern);
     }
 
     String sortByStr = null;
@@ -1499,7 +1511,7 @@ public class CertStore {
 
     final String sql = datasource.buildSelectFirstSql(numEntries, sortByStr, sb.toString());
     ResultSet rs = null;
-    PreparedStatement ps = borrowPreparedStatement(sql);
+    PreparedStatement ps = borrowReadPreparedStatement(sql);
 
     try {
       ps.setInt(1, ca.getId());
@@ -1534,6 +1546,109 @@ public class CertStore {
     }
   } // method listCerts
 
+  /**
+   * Streams the certificates with ID greater than {@code afterId} in ascending order of ID.
+   * The certificates are read block-wise with keyset pagination on the column ID, so that
+   * at most one block is held in memory.
+   *
+   * @return the ID of the last handled certificate, or {@code afterId} if no certificate
+   *         is found.
+   */
+  public long streamCerts(NameId ca, X500Name subjectPattern, Date validFrom, Date validTo,
+      long afterId, int numEntries, CertListHandler handler)
+      throws OperationException, CaMgmtException {
+    Args.notNull(ca, "ca");
+    Args.positive(numEntries, "numEntries");
+    Args.notNull(handler, "handler");
+
+    StringBuilder sb = new StringBuilder(200);
+    sb.append("ID,SN,NBEFORE,NAFTER,SUBJECT FROM CERT WHERE ID>? AND CA_ID=?");
+    if (validFrom != null) {
+      sb.append(" AND NBEFORE<?");
+    }
+    if (validTo != null) {
+      sb.append(" AND NAFTER>?");
+    }
+
+    String subjectLike = null;
+    if (subjectPattern != null) {
+      sb.append(" AND SUBJECT LIKE ?");
+      subjectLike = buildSubjectLike(subjectPattern);
+    }
+
+    final int blockSize = Math.min(STREAM_BLOCK_SIZE, numEntries);
+    final String sql = datasource.buildSelectFirstSql(blockSize, "ID ASC", sb.toString());
+
+    long lastId = afterId;
+    int num = 0;
+    List<CertListInfo> block = new ArrayList<>(blockSize);
+    while (num < numEntries) {
+      block.clear();
+      int maxInBlock = Math.min(blockSize, numEntries - num);
+
+      ResultSet rs = null;
+      PreparedStatement ps = borrowReadPreparedStatement(sql);
+      try {
+        int idx = 1;
+        ps.setLong(idx++, lastId);
+        ps.setInt(idx++, ca.getId());
+        if (validFrom != null) {
+          ps.setLong(idx++, validFrom.getTime() / 1000 - 1);
+        }
+        if (validTo != null) {
+          ps.setLong(idx++, validTo.getTime() / 1000);
+        }
+        if (subjectLike != null) {
+          ps.setString(idx++, subjectLike);
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next() && block.size() < maxInBlock) {
+          block.add(new CertListInfo(rs.getLong("ID"), new BigInteger(rs.getString("SN"), 16),
+              rs.getString("SUBJECT"), new Date(rs.getLong("NBEFORE") * 1000),
+              new Date(rs.getLong("NAFTER") * 1000)));
+        }
+      } catch (SQLException ex) {
+        throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+      } finally {
+        datasource.releaseResources(ps, rs);
+      }
+
+      // the handler is called after the connection is released, since it may be slow.
+      for (CertListInfo info : block) {
+        handler.handle(info);
+        lastId = info.getId();
+      }
+      num += block.size();
+
+      if (block.size() < blockSize) {
+        break;
+      }
+    }
+
+    return lastId;
+  } // method streamCerts
+
+  private static String buildSubjectLike(X500Name subjectPattern) throws OperationException {
+    StringBuilder buffer = new StringBuilder(100);
+    buffer.append("%");
+    RDN[] rdns = subjectPattern.getRDNs();
+    for (int i = 0; i < rdns.length; i++) {
+      X500Name rdnName = new X500Name(new RDN[]{rdns[i]});
+      String rdnStr = X509Util.getRfc4519Name(rdnName);
+      if (rdnStr.indexOf('%') != -1) {
+        throw new OperationException(BAD_REQUEST,
+            "the character '%' is not allowed in subjectPattern");
+      }
+      if (rdnStr.indexOf('*') != -1) {
+        rdnStr = rdnStr.replace('*', '%');
+      }
+      buffer.append(rdnStr);
+      buffer.append("%");
+    }
+    return buffer.toString();
+  } // method buildSubjectLike
+
   public NameId authenticateUser(String user, byte[] password) throws OperationException {
     final String sql = sqlActiveUserInfoForName;
 
@@ -1821,6 +1936,60 @@ public class CertStore {
     }
   } // method isCertForSubjectIssued
 
+  /**
+   * Reads the FP_K and FP_S of the certificates with ID greater than {@code afterId}
+   * in ascending order of ID.
+   *
+   * @param ca
+   *          CA identifier.
+   * @param afterId
+   *          Only certificates with ID greater than this value are read.
+   * @param numEntries
+   *          Maximal number of certificates to be read.
+   * @param keyFps
+   *          Set to which the FP_K values are added.
+   * @param subjectFps
+   *          Set to which the FP_S values are added.
+   * @return the greatest ID of the read certificates, or {@code afterId} if no certificate
+   *         is found.
+   * @throws OperationException
+   *           if database error occurs.
+   */
+  public long readFingerprints(NameId ca, long afterId, int numEntries, LongHashSet keyFps,
+      LongHashSet subjectFps) throws OperationException {
+    Args.notNull(ca, "ca");
+    Args.positive(numEntries, "numEntries");
+
+    String sql = cacheSqlFingerprints.get(numEntries);
+    if (sql == null) {
+      sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
+          "ID,FP_K,FP_S FROM CERT WHERE ID>? AND CA_ID=?");
+      cacheSqlFingerprints.put(numEntries, sql);
+    }
+
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+
+    try {
+      ps.setLong(1, afterId);
+      ps.setInt(2, ca.getId());
+      rs = ps.executeQuery();
+
+      long maxId = afterId;
+      int num = 0;
+      while (rs.next() && num++ < numEntries) {
+        maxId = Math.max(maxId, rs.getLong("ID"));
+        keyFps.add(rs.getLong("FP_K"));
+        subjectFps.add(rs.getLong("FP_S"));
+      }
+      return maxId;
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method readFingerprints
+
   private String base64Fp(byte[] data) {
     return HashAlgo.SHA1.base64Hash(data);
   } // method base64Fp
@@ -1834,6 +2003,20 @@ public class CertStore {
     }
   } // method borrowPreparedStatement
 
+  /**
+   * Borrows the prepared statement for read-only queries which tolerate stale data. The read
+   * replica of the database is used if configured and healthy.
+   */
+  private PreparedStatement borrowReadPreparedStatement(String sqlQuery)
+      throws OperationException {
+    try {
+      return datasource.prepareReadStatement(sqlQuery);
+    } catch (DataAccessException ex) {
+      LOG.debug("DataAccessException", ex);
+      throw new OperationException(DATABASE_FAILURE, ex.getMessage());
+    }
+  } // method borrowReadPreparedStatement
+
   public boolean isHealthy() {
     final String sql = "SELECT ID FROM CA";
 
@@ -1945,6 +2128,33 @@ public class CertStore {
     }
   } // method addRequestCert
 
+  public void addRequestCerts(long requestId, List<Long> certIds) throws OperationException {
+    Args.notNull(certIds, "certIds");
+    if (certIds.isEmpty()) {
+      return;
+    } else if (certIds.size() == 1) {
+      addRequestCert(requestId, certIds.get(0));
+      return;
+    }
+
+    // all links in one round trip
+    final String sql = SQL_ADD_REQCERT;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      for (Long certId : certIds) {
+        ps.setLong(1, idGenerator.nextId());
+        ps.setLong(2, requestId);
+        ps.setLong(3, certId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method addRequestCerts
+
   private String getSqlCidFromPublishQueue(int numEntries) {
     String sql = cacheSqlCidFromPublishQueue.get(numEntries);
     if (sql == null) {
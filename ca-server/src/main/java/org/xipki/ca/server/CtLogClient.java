@@ -17,11 +17,11 @@
 
 package org.xipki.ca.server;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
@@ -29,6 +29,14 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -50,6 +58,7 @@ import org.xipki.util.Args;
 import org.xipki.util.Curl;
 import org.xipki.util.Curl.CurlResult;
 import org.xipki.util.DefaultCurl;
+import org.xipki.util.PooledCurl;
 import org.xipki.util.Hex;
 import org.xipki.util.StringUtil;
 import org.xipki.util.http.SslContextConf;
@@ -57,30 +66,96 @@ import org.xipki.util.http.SslContextConf;
 import com.alibaba.fastjson.JSON;
 
 /**
- * Certificate transparency (CT) log client.
+ * Certificate transparency (CT) log client. The pre-certificate is submitted to all
+ * CT Log servers concurrently, and the SCTs of the first <code>minScts</code> successful
+ * servers are returned.
  *
  * @author Lijun Liao
  */
-public class CtLogClient {
+public class CtLogClient implements Closeable {
 
   private static Logger LOG = LoggerFactory.getLogger(CtLogClient.class);
 
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+
   private final Curl curl;
 
   private final List<String> addPreChainUrls;
 
+  private final int minScts;
+
+  private final int timeout;
+
+  private final ExecutorService executor;
+
   public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf) {
+    this(serverUrls, sslContextConf, serverUrls.size(), 10000);
+  }
+
+  /**
+   * Constructor.
+   * @param serverUrls
+   *          URLs of the CT Log servers.
+   * @param sslContextConf
+   *          SSL context configuration, may be <code>null</code>.
+   * @param minScts
+   *          Minimal number of SCTs, between 1 and the number of servers.
+   * @param timeout
+   *          Timeout in milliseconds for each server.
+   */
+  public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf, int minScts,
+      int timeout) {
+    this(serverUrls, sslContextConf, minScts, timeout, 0);
+  }
+
+  /**
+   * Constructor.
+   * @param serverUrls
+   *          URLs of the CT Log servers.
+   * @param sslContextConf
+   *          SSL context configuration, may be <code>null</code>.
+   * @param minScts
+   *          Minimal number of SCTs, between 1 and the number of servers.
+   * @param timeout
+   *          Timeout in milliseconds for each server.
+   * @param maxConnections
+   *          Maximal number of pooled connections to each server, 0 to use the
+   *          {@link DefaultCurl}.
+   */
+  public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf, int minScts,
+      int timeout, int maxConnections) {
     Args.notEmpty(serverUrls, "serverUrls");
+    this.minScts = Args.range(minScts, "minScts", 1, serverUrls.size());
+    this.timeout = Args.positive(timeout, "timeout");
 
-    DefaultCurl dfltCurl  = new DefaultCurl();
-    dfltCurl.setSslContextConf(sslContextConf);
-    this.curl = dfltCurl;
+    if (Args.notNegative(maxConnections, "maxConnections") > 0) {
+      PooledCurl pooledCurl = new PooledCurl();
+      pooledCurl.setSslContextConf(sslContextConf);
+      pooledCurl.setConnectTimeout(timeout);
+      pooledCurl.setReadTimeout(timeout);
+      pooledCurl.setMaxConnectionsPerHost(maxConnections);
+      this.curl = pooledCurl;
+    } else {
+      DefaultCurl dfltCurl  = new DefaultCurl();
+      dfltCurl.setSslContextConf(sslContextConf);
+      dfltCurl.setConnectTimeout(timeout);
+      dfltCurl.setReadTimeout(timeout);
+      dfltCurl.setKeepAlive(true);
+      this.curl = dfltCurl;
+    }
     this.addPreChainUrls = new ArrayList<>(serverUrls.size());
     for (String m : serverUrls) {
       String addPreChainUrl = m.endsWith("/")
           ? m + "ct/v1/add-pre-chain" : m + "/ct/v1/add-pre-chain";
       this.addPreChainUrls.add(addPreChainUrl);
     }
+
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "ctlog-client-" + THREAD_INDEX.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    this.executor = Executors.newCachedThreadPool(threadFactory);
   } // constructor
 
   public SignedCertificateTimestampList getCtLogScts(
@@ -124,70 +199,126 @@ public class CtLogClient {
       LOG.debug("CTLog Request: {}", StringUtil.toUtf8String(content));
     }
 
-    List<SignedCertificateTimestamp> scts = new ArrayList<>(addPreChainUrls.size());
-    Map<String, String> headers = new HashMap<>();
-    headers.put("content-type", "application/json");
+    final int numServers = addPreChainUrls.size();
+    CompletionService<SignedCertificateTimestamp> completionService =
+        new ExecutorCompletionService<>(executor);
+    List<Future<SignedCertificateTimestamp>> futures = new ArrayList<>(numServers);
     for (String url : addPreChainUrls) {
-      CurlResult res;
-      try {
-        res = curl.curlPost(url, false, headers, null, content);
-      } catch (Exception ex) {
-        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-            "error while calling " + url + ": " + ex.getMessage());
-      }
-
-      byte[] respContent = res.getContent();
-      if (respContent == null) {
-        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-            "server does not return any content while responding " + url);
-      }
-
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("CTLog Response: {}", StringUtil.toUtf8String(respContent));
-      }
-
-      AddPreChainResponse resp = JSON.parseObject(respContent, AddPreChainResponse.class);
+      futures.add(completionService.submit(
+          () -> submit(url, content, issuerKeyHash, preCertTbsCert, publicKeyFinder)));
+    }
 
-      DigitallySigned ds = DigitallySigned.getInstance(resp.getSignature(), new AtomicInteger(0));
-      byte sctVersion = resp.getSct_version();
-      byte[] logId = resp.getId();
-      String hexLogId = Hex.encodeUpper(logId);
-      long timestamp = resp.getTimestamp();
-      byte[] extensions = resp.getExtensions();
+    List<SignedCertificateTimestamp> scts = new ArrayList<>(minScts);
+    List<String> errors = new LinkedList<>();
+    // the connect and read timeouts are applied per server, here some tolerance is added.
+    final long deadline = System.currentTimeMillis() + 2L * timeout + 1000;
 
-      PublicKey verifyKey = publicKeyFinder == null ? null : publicKeyFinder.getPublicKey(logId);
-      if (verifyKey == null) {
-        LOG.warn("could not find CtLog public key 0x{} to verify the SCT", hexLogId);
-      } else {
-        SignatureAndHashAlgorithm algorithm = ds.getAlgorithm();
-        String sigAlgo = getSignatureAlgo(algorithm);
+    try {
+      for (int i = 0; i < numServers; i++) {
+        if (scts.size() >= minScts || numServers - errors.size() < minScts) {
+          break;
+        }
 
-        boolean sigValid;
+        Future<SignedCertificateTimestamp> future;
         try {
-          Signature sig = Signature.getInstance(sigAlgo, "BC");
-          sig.initVerify(verifyKey);
-          CtLog.update(sig, sctVersion, timestamp, extensions, issuerKeyHash, preCertTbsCert);
-          sigValid = sig.verify(ds.getSignature());
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException
-            | SignatureException ex) {
-          throw new OperationException(ErrorCode.SYSTEM_FAILURE, "error verifying SCT signature");
+          future = completionService.poll(
+              Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+              "interrupted while waiting for SCTs");
         }
 
-        if (sigValid) {
-          LOG.info("verified SCT signature with logId {} and timestamp {}", hexLogId, timestamp);
-        } else {
-          throw new OperationException(ErrorCode.SYSTEM_FAILURE, "SCT signature is invalid");
+        if (future == null) {
+          errors.add("timeout");
+          break;
+        }
+
+        try {
+          scts.add(future.get());
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          errors.add(cause.getMessage());
+          LOG.warn("could not get SCT: {}", cause.getMessage());
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+              "interrupted while waiting for SCTs");
         }
       }
+    } finally {
+      for (Future<SignedCertificateTimestamp> future : futures) {
+        future.cancel(true);
+      }
+    }
 
-      SignedCertificateTimestamp sct = new SignedCertificateTimestamp(sctVersion,
-          logId, timestamp, extensions, ds);
-      scts.add(sct);
+    if (scts.size() < minScts) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "received only " + scts.size() + " of required " + minScts + " SCTs: " + errors);
     }
 
     return new SignedCertificateTimestampList(new SerializedSCT(scts));
   } // method getCtLogScts
 
+  private SignedCertificateTimestamp submit(String url, byte[] content, byte[] issuerKeyHash,
+      byte[] preCertTbsCert, CtLogPublicKeyFinder publicKeyFinder) throws OperationException {
+    Map<String, String> headers = new HashMap<>();
+    headers.put("content-type", "application/json");
+
+    CurlResult res;
+    try {
+      res = curl.curlPost(url, false, headers, null, content);
+    } catch (Exception ex) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "error while calling " + url + ": " + ex.getMessage());
+    }
+
+    byte[] respContent = res.getContent();
+    if (respContent == null) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "server does not return any content while responding " + url);
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("CTLog Response: {}", StringUtil.toUtf8String(respContent));
+    }
+
+    AddPreChainResponse resp = JSON.parseObject(respContent, AddPreChainResponse.class);
+
+    DigitallySigned ds = DigitallySigned.getInstance(resp.getSignature(), new AtomicInteger(0));
+    byte sctVersion = resp.getSct_version();
+    byte[] logId = resp.getId();
+    String hexLogId = Hex.encodeUpper(logId);
+    long timestamp = resp.getTimestamp();
+    byte[] extensions = resp.getExtensions();
+
+    if (publicKeyFinder == null || publicKeyFinder.getPublicKey(logId) == null) {
+      LOG.warn("could not find CtLog public key 0x{} to verify the SCT", hexLogId);
+    } else {
+      SignatureAndHashAlgorithm algorithm = ds.getAlgorithm();
+      String sigAlgo = getSignatureAlgo(algorithm);
+
+      boolean sigValid;
+      try {
+        Signature sig = publicKeyFinder.borrowVerifier(logId, sigAlgo);
+        CtLog.update(sig, sctVersion, timestamp, extensions, issuerKeyHash, preCertTbsCert);
+        sigValid = sig.verify(ds.getSignature());
+        publicKeyFinder.returnVerifier(logId, sigAlgo, sig);
+      } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException
+          | SignatureException ex) {
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE, "error verifying SCT signature");
+      }
+
+      if (sigValid) {
+        LOG.info("verified SCT signature with logId {} and timestamp {}", hexLogId, timestamp);
+      } else {
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE, "SCT signature is invalid");
+      }
+    }
+
+    return new SignedCertificateTimestamp(sctVersion, logId, timestamp, extensions, ds);
+  } // method submit
+
   private static String getSignatureAlgo(SignatureAndHashAlgorithm algorithm)
       throws OperationException {
     String hashName;
@@ -225,4 +356,12 @@ public class CtLogClient {
     return hashName + "WITH" + encAlgo;
   }
 
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    if (curl instanceof PooledCurl) {
+      ((PooledCurl) curl).close();
+    }
+  }
+
 }
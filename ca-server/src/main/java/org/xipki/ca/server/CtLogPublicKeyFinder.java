@@ -20,11 +20,19 @@ package org.xipki.ca.server;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
 import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.slf4j.Logger;
@@ -33,26 +41,38 @@ import org.xipki.ca.server.CaServerConf.CtLogConf;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.X509Util;
+import org.xipki.util.Hex;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 
 /**
- * CtLog public key finder.
+ * CtLog public key finder. For each known public key, initialized {@link Signature} objects
+ * are cached, so that the SCT verification requires neither the parsing of the key nor
+ * the initialization of the Signature.
  *
  * @author Lijun Liao
  */
 public class CtLogPublicKeyFinder {
 
-  private static final Logger LOG = LoggerFactory.getLogger(CtLogPublicKeyFinder.class);
+  private static class LogKey {
+
+    private final PublicKey publicKey;
+
+    private final Map<String, ConcurrentLinkedQueue<Signature>> verifiers =
+        new ConcurrentHashMap<>();
+
+    private LogKey(PublicKey publicKey) {
+      this.publicKey = publicKey;
+    }
 
-  private final byte[][] logIds;
+  } // class LogKey
 
-  private final PublicKey[] publicKeys;
+  private static final Logger LOG = LoggerFactory.getLogger(CtLogPublicKeyFinder.class);
 
-  private final boolean withPublicKeys;
+  private final Map<String, LogKey> logKeys;
 
   public CtLogPublicKeyFinder(CtLogConf conf) throws IOException {
-    String keydirName = conf.getKeydir();
+    String keydirName = conf == null ? null : conf.getKeydir();
     File[] keyFiles = null;
     if (keydirName != null && !keydirName.isEmpty()) {
       keydirName = IoUtil.expandFilepath(keydirName);
@@ -68,15 +88,11 @@ public class CtLogPublicKeyFinder {
     }
 
     if (keyFiles == null || keyFiles.length == 0) {
-      this.logIds = null;
-      this.publicKeys = null;
-      this.withPublicKeys = false;
+      this.logKeys = Collections.emptyMap();
       return;
     }
 
-    final int size = keyFiles.length;
-    List<byte[]> logIdList = new ArrayList<>(size);
-    List<PublicKey> publicKeyList = new ArrayList<>(size);
+    Map<String, LogKey> map = new HashMap<>();
 
     for (File m : keyFiles) {
       byte[] keyBytes = IoUtil.read(m);
@@ -86,30 +102,92 @@ public class CtLogPublicKeyFinder {
         byte[] logId = HashAlgo.SHA256.hash(spki.getEncoded());
         PublicKey key = KeyUtil.generatePublicKey(spki);
 
-        logIdList.add(logId);
-        publicKeyList.add(key);
+        LogKey logKey = new LogKey(key);
+        // RFC 6962 requires SHA-256 for the SCT signature
+        String sigAlgo = (key instanceof RSAPublicKey) ? "SHA256WITHRSA"
+            : (key instanceof ECPublicKey) ? "SHA256WITHECDSA" : null;
+        if (sigAlgo != null) {
+          try {
+            returnVerifier(logKey, sigAlgo, newVerifier(key, sigAlgo));
+          } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException ex) {
+            LogUtil.warn(LOG, ex, "could not initialize verifier for CtLog public key "
+                + m.getName());
+          }
+        }
+
+        map.put(Hex.encode(logId), logKey);
         LOG.info("loaded CtLog public key {}", m.getName());
       } catch (IOException | InvalidKeySpecException ex) {
         LogUtil.error(LOG, ex, "could not load CtLog public key " + m.getName());
       }
     }
 
-    this.logIds = logIdList.toArray(new byte[0][0]);
-    this.publicKeys = publicKeyList.toArray(new PublicKey[0]);
-    this.withPublicKeys = logIds != null && logIds.length > 0;
+    this.logKeys = Collections.unmodifiableMap(map);
+  } // constructor
 
+  public PublicKey getPublicKey(byte[] logId) {
+    LogKey logKey = logKeys.isEmpty() ? null : logKeys.get(Hex.encode(logId));
+    return logKey == null ? null : logKey.publicKey;
   }
 
-  public PublicKey getPublicKey(byte[] logId) {
-    if (withPublicKeys) {
-      for (int i = 0; i < logIds.length; i++) {
-        if (Arrays.equals(logId, logIds[i])) {
-          return publicKeys[i];
-        }
-      }
+  /**
+   * Borrows a {@link Signature} object initialized for the verification with the public key
+   * of the given CT Log. It must be returned via
+   * {@link #returnVerifier(byte[], String, Signature)} after the verification.
+   *
+   * @param logId
+   *          Identifier of the CT Log.
+   * @param sigAlgo
+   *          JCA name of the signature algorithm.
+   * @return the initialized Signature, or <code>null</code> if the public key is unknown.
+   * @throws NoSuchAlgorithmException
+   *           if the signature algorithm is not supported.
+   * @throws NoSuchProviderException
+   *           if the provider BC is not available.
+   * @throws InvalidKeyException
+   *           if the public key does not match the signature algorithm.
+   */
+  public Signature borrowVerifier(byte[] logId, String sigAlgo)
+      throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+    LogKey logKey = logKeys.isEmpty() ? null : logKeys.get(Hex.encode(logId));
+    if (logKey == null) {
+      return null;
     }
 
-    return null;
+    ConcurrentLinkedQueue<Signature> queue = logKey.verifiers.get(sigAlgo);
+    Signature sig = (queue == null) ? null : queue.poll();
+    return (sig != null) ? sig : newVerifier(logKey.publicKey, sigAlgo);
+  }
+
+  /**
+   * Returns the {@link Signature} borrowed via {@link #borrowVerifier(byte[], String)}.
+   * The signature must not be returned if the verification has been interrupted by an
+   * exception.
+   *
+   * @param logId
+   *          Identifier of the CT Log.
+   * @param sigAlgo
+   *          JCA name of the signature algorithm.
+   * @param verifier
+   *          The borrowed Signature.
+   */
+  public void returnVerifier(byte[] logId, String sigAlgo, Signature verifier) {
+    LogKey logKey = logKeys.isEmpty() ? null : logKeys.get(Hex.encode(logId));
+    if (logKey != null) {
+      returnVerifier(logKey, sigAlgo, verifier);
+    }
+  }
+
+  private static void returnVerifier(LogKey logKey, String sigAlgo, Signature verifier) {
+    // Signature.verify() resets the object to the state after initVerify()
+    logKey.verifiers.computeIfAbsent(sigAlgo, k -> new ConcurrentLinkedQueue<>()).add(verifier);
+  }
+
+  private static Signature newVerifier(PublicKey publicKey, String sigAlgo)
+      throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+    Signature sig = Signature.getInstance(sigAlgo, "BC");
+    sig.initVerify(publicKey);
+    return sig;
   }
 
 }
@@ -0,0 +1,120 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.util.Args;
+import org.xipki.util.LongHashSet;
+
+/**
+ * In-memory index of the public key fingerprints (FP_K) and subject fingerprints (FP_S)
+ * of the certificates issued by one CA.
+ *
+ * <p>The index answers whether a certificate with given fingerprint may have been issued.
+ * A negative answer is definitive once the index is loaded, a positive answer must be
+ * confirmed by the database, since the fingerprints of removed certificates remain in the
+ * index. If other CA instances write to the same database (clustered mode), the index is
+ * synchronized periodically and may miss certificates issued by other instances since the
+ * last synchronization.
+ *
+ * @author Lijun Liao
+ */
+
+class FpIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FpIndex.class);
+
+  private static final int BLOCK_SIZE = 10000;
+
+  // ID consists of timestamp in ms (shifted by 17 bits), offset and shard id.
+  // re-read the certificates added in the last 5 minutes to tolerate clock skews of
+  // other CA instances.
+  private static final long SYNC_OVERLAP_ID = (5L * 60 * 1000) << 17;
+
+  private final NameId ca;
+
+  private final CertStore certstore;
+
+  private final LongHashSet keyFps = new LongHashSet(1024);
+
+  private final LongHashSet subjectFps = new LongHashSet(1024);
+
+  private long maxId;
+
+  private volatile boolean loaded;
+
+  FpIndex(NameId ca, CertStore certstore) {
+    this.ca = Args.notNull(ca, "ca");
+    this.certstore = Args.notNull(certstore, "certstore");
+  }
+
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Loads the fingerprints of all certificates of the CA, and the fingerprints of the
+   * certificates added by other CA instances since the last call.
+   *
+   * @throws OperationException
+   *           if database error occurs.
+   */
+  synchronized void sync() throws OperationException {
+    long start = System.currentTimeMillis();
+    long id = loaded ? Math.max(0, maxId - SYNC_OVERLAP_ID) : 0;
+    while (true) {
+      long newId = certstore.readFingerprints(ca, id, BLOCK_SIZE, keyFps, subjectFps);
+      if (newId == id) {
+        break;
+      }
+      id = newId;
+    }
+
+    maxId = Math.max(maxId, id);
+    if (!loaded) {
+      loaded = true;
+      LOG.info("loaded fingerprint index of CA {} with {} public keys and {} subjects in {} ms",
+          ca.getName(), keyFps.size(), subjectFps.size(), System.currentTimeMillis() - start);
+    }
+  } // method sync
+
+  void add(long fpKey, long fpSubject) {
+    keyFps.add(fpKey);
+    subjectFps.add(fpSubject);
+  }
+
+  boolean mayContainKey(long fpKey) {
+    return !loaded || keyFps.contains(fpKey);
+  }
+
+  boolean mayContainSubject(long fpSubject) {
+    return !loaded || subjectFps.contains(fpSubject);
+  }
+
+  int getNumKeys() {
+    return keyFps.size();
+  }
+
+  int getNumSubjects() {
+    return subjectFps.size();
+  }
+
+}
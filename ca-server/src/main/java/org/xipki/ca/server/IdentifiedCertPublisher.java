@@ -32,6 +32,9 @@ import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.X509Cert;
 import org.xipki.util.Args;
 import org.xipki.util.FileOrValue;
+import org.xipki.util.metrics.Counter;
+import org.xipki.util.metrics.Histogram;
+import org.xipki.util.metrics.MetricsRegistry;
 
 /**
  * CertPublisher with identifier.
@@ -46,10 +49,26 @@ class IdentifiedCertPublisher implements Closeable {
 
   private final CertPublisher certPublisher;
 
+  private final Histogram metricPublish;
+
+  private final Counter metricQueued;
+
+  private final Counter metricDequeued;
+
   IdentifiedCertPublisher(MgmtEntry.Publisher entry, CertPublisher certPublisher) {
     this.entry = Args.notNull(entry, "entry");
     this.certPublisher = Args.notNull(certPublisher, "certPublisher");
-  }
+
+    String name = entry.getIdent().getName();
+    MetricsRegistry metrics = MetricsRegistry.getDefault();
+    this.metricPublish = metrics.histogram("xipki_ca_publish_seconds",
+        "Time to publish a certificate or its revocation", "publisher", name);
+    this.metricQueued = metrics.counter("xipki_ca_publish_queue_added_total",
+        "Number of entries added to the PublishQueue", "publisher", name);
+    this.metricDequeued = metrics.counter("xipki_ca_publish_queue_removed_total",
+        "Number of entries removed from the PublishQueue after being published",
+        "publisher", name);
+  } // constructor
 
   public void initialize(PasswordResolver passwordResolver,
       Map<String, FileOrValue> datasourceConfs)
@@ -62,12 +81,22 @@ class IdentifiedCertPublisher implements Closeable {
   }
 
   public boolean certificateAdded(CertificateInfo certInfo) {
-    return certPublisher.certificateAdded(certInfo);
+    long start = System.nanoTime();
+    try {
+      return certPublisher.certificateAdded(certInfo);
+    } finally {
+      metricPublish.observeSince(start);
+    }
   }
 
   public boolean certificateRevoked(X509Cert caCert, CertWithDbId cert, String certprofile,
       CertRevocationInfo revInfo) {
-    return certPublisher.certificateRevoked(caCert, cert, certprofile, revInfo);
+    long start = System.nanoTime();
+    try {
+      return certPublisher.certificateRevoked(caCert, cert, certprofile, revInfo);
+    } finally {
+      metricPublish.observeSince(start);
+    }
   }
 
   public boolean crlAdded(X509Cert caCert, X509CRLHolder crl) {
@@ -115,4 +144,12 @@ class IdentifiedCertPublisher implements Closeable {
     return certPublisher.publishsGoodCert();
   }
 
+  void countQueued() {
+    metricQueued.inc();
+  }
+
+  void countDequeued() {
+    metricDequeued.inc();
+  }
+
 }
@@ -0,0 +1,334 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.server.CaServerConf.KeypairPoolConf;
+import org.xipki.security.util.AlgorithmUtil;
+import org.xipki.security.util.KeyUtil;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+import org.xipki.util.StringUtil;
+import org.xipki.util.metrics.MetricsRegistry;
+
+/**
+ * Pool of pre-generated RSA and EC keypairs used for the CA-side key generation. For each
+ * keyspec (algorithm and keysize or curve) a queue is filled by background workers once its
+ * depth drops to the low watermark, until the high watermark is reached. If the queue is
+ * empty, the keypair is generated inline.
+ *
+ * @author Lijun Liao
+ */
+
+class KeypairPool implements Closeable {
+
+  private class Pool {
+
+    private final String keyspec;
+
+    private final int keysize;
+
+    private final BigInteger publicExponent;
+
+    private final ASN1ObjectIdentifier curveOid;
+
+    private final ConcurrentLinkedQueue<KeyPair> keypairs = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger depth = new AtomicInteger(0);
+
+    // number of pooled keypairs plus the keypairs being generated
+    private final AtomicInteger slots = new AtomicInteger(0);
+
+    private final AtomicInteger workers = new AtomicInteger(0);
+
+    private Pool(String keyspec, int keysize, BigInteger publicExponent) {
+      this.keyspec = keyspec;
+      this.keysize = keysize;
+      this.publicExponent = publicExponent;
+      this.curveOid = null;
+    }
+
+    private Pool(String keyspec, ASN1ObjectIdentifier curveOid) {
+      this.keyspec = keyspec;
+      this.keysize = 0;
+      this.publicExponent = null;
+      this.curveOid = curveOid;
+    }
+
+    private KeyPair generate(SecureRandom random)
+        throws NoSuchAlgorithmException, NoSuchProviderException,
+          InvalidAlgorithmParameterException {
+      return (curveOid == null)
+          ? KeyUtil.generateRSAKeypair(keysize, publicExponent, random)
+          : KeyUtil.generateECKeypair(curveOid, random);
+    }
+
+    private KeyPair poll() {
+      KeyPair kp = keypairs.poll();
+      if (kp != null) {
+        depth.decrementAndGet();
+        slots.decrementAndGet();
+      }
+
+      if (depth.get() <= lowWatermark) {
+        refill();
+      }
+      return kp;
+    }
+
+    private void refill() {
+      while (true) {
+        int num = workers.get();
+        if (num >= numThreads) {
+          return;
+        }
+
+        if (workers.compareAndSet(num, num + 1)) {
+          break;
+        }
+      }
+
+      try {
+        executor.execute(this::fill);
+      } catch (RejectedExecutionException ex) {
+        workers.decrementAndGet();
+      }
+    }
+
+    private void fill() {
+      try {
+        while (!closed && reserveSlot()) {
+          KeyPair kp;
+          try {
+            kp = generate(random);
+          } catch (GeneralSecurityException | RuntimeException ex) {
+            slots.decrementAndGet();
+            throw ex;
+          }
+          keypairs.add(kp);
+          depth.incrementAndGet();
+        }
+      } catch (GeneralSecurityException | RuntimeException ex) {
+        LogUtil.error(LOG, ex, "could not generate keypair for keyspec " + keyspec);
+      } finally {
+        workers.decrementAndGet();
+      }
+    } // method fill
+
+    /**
+     * Reserves the slot for one keypair, so that the concurrent workers do not generate more
+     * keypairs than the high watermark.
+     */
+    private boolean reserveSlot() {
+      while (true) {
+        int num = slots.get();
+        if (num >= highWatermark) {
+          return false;
+        }
+
+        if (slots.compareAndSet(num, num + 1)) {
+          return true;
+        }
+      }
+    } // method reserveSlot
+
+  } // class Pool
+
+  private static final Logger LOG = LoggerFactory.getLogger(KeypairPool.class);
+
+  private static final String METRIC_DEPTH = "xipki_ca_keypair_pool_depth";
+
+  private final ConcurrentHashMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final int lowWatermark;
+
+  private final int highWatermark;
+
+  private final int numThreads;
+
+  private final ExecutorService executor;
+
+  private volatile boolean closed;
+
+  KeypairPool(KeypairPoolConf conf) {
+    Args.notNull(conf, "conf");
+    this.lowWatermark = conf.getLowWatermark();
+    this.highWatermark = conf.getHighWatermark();
+    this.numThreads = conf.getNumThreads();
+
+    final AtomicInteger threadIndex = new AtomicInteger(0);
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "keypair-pool-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    };
+    this.executor = Executors.newFixedThreadPool(numThreads, threadFactory);
+
+    if (conf.getKeyspecs() != null) {
+      for (String keyspec : conf.getKeyspecs()) {
+        initKeyspec(keyspec);
+      }
+    }
+
+    MetricsRegistry.getDefault().statistics(METRIC_DEPTH,
+        "Number of pre-generated keypairs", "keyspec", this::getDepths);
+    LOG.info("initialized keypair pool (lowWatermark={}, highWatermark={}, numThreads={})",
+        lowWatermark, highWatermark, numThreads);
+  } // constructor
+
+  private void initKeyspec(String keyspec) {
+    String[] tokens = keyspec.trim().split("/");
+    if (tokens.length < 2 || tokens.length > 3) {
+      throw new IllegalArgumentException("invalid keyspec " + keyspec);
+    }
+
+    String algo = tokens[0].toUpperCase();
+    Pool pool;
+    if ("RSA".equals(algo)) {
+      int keysize = Integer.parseInt(tokens[1]);
+      BigInteger publicExponent = (tokens.length == 2) ? null
+          : StringUtil.startsWithIgnoreCase(tokens[2], "0x")
+            ? new BigInteger(tokens[2].substring(2), 16) : new BigInteger(tokens[2]);
+      pool = getRSAPool(keysize, publicExponent);
+    } else if ("EC".equals(algo) && tokens.length == 2) {
+      ASN1ObjectIdentifier curveOid = AlgorithmUtil.getCurveOidForCurveNameOrOid(tokens[1]);
+      if (curveOid == null) {
+        throw new IllegalArgumentException("unknown curve " + tokens[1]);
+      }
+      pool = getECPool(curveOid);
+    } else {
+      throw new IllegalArgumentException("invalid keyspec " + keyspec);
+    }
+
+    pool.refill();
+  } // method initKeyspec
+
+  private Pool getRSAPool(int keysize, BigInteger publicExponent) {
+    if (publicExponent == null) {
+      publicExponent = RSAKeyGenParameterSpec.F4;
+    }
+
+    final BigInteger exponent = publicExponent;
+    String keyspec = "RSA/" + keysize + "/0x" + exponent.toString(16);
+    return pools.computeIfAbsent(keyspec, k -> new Pool(k, keysize, exponent));
+  }
+
+  private Pool getECPool(ASN1ObjectIdentifier curveOid) {
+    String keyspec = "EC/" + curveOid.getId();
+    return pools.computeIfAbsent(keyspec, k -> new Pool(k, curveOid));
+  }
+
+  /**
+   * Takes a pre-generated RSA keypair from the pool, or generates it inline if the pool is
+   * empty.
+   *
+   * @param keysize
+   *          Key size in bit.
+   * @param publicExponent
+   *          Public exponent. If <code>null</code>, F4 (0x10001) will be used.
+   * @param random
+   *          Source of randomness for the inline generation.
+   * @return the keypair.
+   * @throws NoSuchAlgorithmException
+   *           if RSA is not supported.
+   * @throws NoSuchProviderException
+   *           if the provider is not available.
+   * @throws InvalidAlgorithmParameterException
+   *           if the parameters are invalid.
+   */
+  KeyPair takeRSAKeypair(int keysize, BigInteger publicExponent, SecureRandom random)
+      throws NoSuchAlgorithmException, NoSuchProviderException,
+        InvalidAlgorithmParameterException {
+    KeyPair kp = getRSAPool(keysize, publicExponent).poll();
+    return (kp != null) ? kp : KeyUtil.generateRSAKeypair(keysize, publicExponent, random);
+  }
+
+  /**
+   * Takes a pre-generated EC keypair from the pool, or generates it inline if the pool is
+   * empty.
+   *
+   * @param curveOid
+   *          Object identifier of the curve.
+   * @param random
+   *          Source of randomness for the inline generation.
+   * @return the keypair.
+   * @throws NoSuchAlgorithmException
+   *           if EC is not supported.
+   * @throws NoSuchProviderException
+   *           if the provider is not available.
+   * @throws InvalidAlgorithmParameterException
+   *           if the curve is not supported.
+   */
+  KeyPair takeECKeypair(ASN1ObjectIdentifier curveOid, SecureRandom random)
+      throws NoSuchAlgorithmException, NoSuchProviderException,
+        InvalidAlgorithmParameterException {
+    KeyPair kp = getECPool(curveOid).poll();
+    return (kp != null) ? kp : KeyUtil.generateECKeypair(curveOid, random);
+  }
+
+  /**
+   * Returns the number of pre-generated keypairs for each keyspec.
+   * @return map of keyspec to the pool depth.
+   */
+  Map<String, Integer> getDepths() {
+    Map<String, Integer> depths = new TreeMap<>();
+    for (Pool pool : pools.values()) {
+      depths.put(pool.keyspec, pool.depth.get());
+    }
+    return depths;
+  }
+
+  @Override
+  public void close() {
+    MetricsRegistry.getDefault().remove(METRIC_DEPTH);
+    closed = true;
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      LOG.error("interrupted: {}", ex.getMessage());
+    }
+    pools.clear();
+  }
+
+}
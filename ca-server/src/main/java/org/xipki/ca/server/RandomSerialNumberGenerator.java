@@ -18,25 +18,74 @@
 package org.xipki.ca.server;
 
 import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
 /**
  * Random serial number generator.
  *
+ * <p>The random bytes are drawn in blocks into a per-thread buffer, and the candidates
+ * are checked one after another in the buffer, so that the source of randomness is
+ * accessed once per block instead of once per candidate. The source is either a
+ * SecureRandom shared by all threads, or a DRBG per thread seeded from the shared one.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 class RandomSerialNumberGenerator {
 
+  private static final int BUFFER_SIZE = 1024;
+
+  // reseed the DRBG of a thread after 1 MB output
+  private static final long RESEED_INTERVAL = 1L << 20;
+
+  private final class Buffer {
+
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+
+    private int offset = BUFFER_SIZE;
+
+    private SecureRandom drbg;
+
+    private long numSinceReseed;
+
+    private void fill() {
+      if (threadLocalRandom) {
+        if (drbg == null || numSinceReseed >= RESEED_INTERVAL) {
+          drbg = newDrbg(drbg);
+          numSinceReseed = 0;
+        }
+        drbg.nextBytes(bytes);
+        numSinceReseed += bytes.length;
+      } else {
+        random.nextBytes(bytes);
+      }
+      offset = 0;
+    }
+
+  } // class Buffer
+
   private static RandomSerialNumberGenerator instance;
 
   private final SecureRandom random;
 
+  private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+  private volatile boolean threadLocalRandom;
+
   private RandomSerialNumberGenerator() {
     this.random = new SecureRandom();
   }
 
+  /**
+   * Sets whether each thread uses its own DRBG.
+   * @param threadLocalRandom true to use a DRBG per thread, false to share one SecureRandom.
+   */
+  public void setThreadLocalRandom(boolean threadLocalRandom) {
+    this.threadLocalRandom = threadLocalRandom;
+  }
+
   /**
    * Generate the next serial number.
    * @param byteLen byte length of the serial number.
@@ -45,9 +94,14 @@ class RandomSerialNumberGenerator {
   public BigInteger nextSerialNumber(int byteLen) {
     final byte[] rndBytes = new byte[byteLen];
     final int minWeight = byteLen * 2;
-
+    final Buffer buffer = buffers.get();
     while (true) {
-      random.nextBytes(rndBytes);
+      if (buffer.offset + byteLen > BUFFER_SIZE) {
+        buffer.fill();
+      }
+      System.arraycopy(buffer.bytes, buffer.offset, rndBytes, 0, byteLen);
+      buffer.offset += byteLen;
+
       // set the first bit to 0.
       rndBytes[0] &= 0x7F;
 
@@ -61,9 +115,28 @@ class RandomSerialNumberGenerator {
         return bi;
       }
     }
-
   } // method nextSerialNumber
 
+  private SecureRandom newDrbg(SecureRandom old) {
+    byte[] seed = new byte[32];
+    random.nextBytes(seed);
+    if (old != null) {
+      // SHA1PRNG mixes the new seed into its state
+      old.setSeed(seed);
+      return old;
+    }
+
+    SecureRandom drbg;
+    try {
+      drbg = SecureRandom.getInstance("SHA1PRNG");
+    } catch (NoSuchAlgorithmException ex) {
+      drbg = new SecureRandom();
+    }
+    // seeding before the first output replaces the self-seeding
+    drbg.setSeed(seed);
+    return drbg;
+  } // method newDrbg
+
   public static synchronized RandomSerialNumberGenerator getInstance() {
     if (instance == null) {
       instance = new RandomSerialNumberGenerator();
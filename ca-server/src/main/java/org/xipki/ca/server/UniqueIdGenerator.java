@@ -55,7 +55,7 @@ class UniqueIdGenerator {
 
   private final long epoch; // in milliseconds
 
-  private final int shardId; // 7 bits
+  private volatile int shardId; // 7 bits
 
   private final AtomicInteger offset = new AtomicInteger(0);
 
@@ -67,6 +67,14 @@ class UniqueIdGenerator {
     this.accumulatorFunction = new OffsetIncrement();
   } // constructor
 
+  public int getShardId() {
+    return shardId;
+  }
+
+  public void setShardId(int shardId) {
+    this.shardId = Args.range(shardId, "shardId", 0, 127);
+  }
+
   public long nextId() {
     long now = System.currentTimeMillis();
     long ret = now - epoch;
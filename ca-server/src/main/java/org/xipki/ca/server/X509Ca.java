@@ -50,12 +50,14 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -114,6 +116,7 @@ import org.xipki.ca.api.PublicCaInfo;
 import org.xipki.ca.api.RequestType;
 import org.xipki.ca.api.mgmt.CaMgmtException;
 import org.xipki.ca.api.mgmt.CaStatus;
+import org.xipki.ca.api.mgmt.CertListHandler;
 import org.xipki.ca.api.mgmt.CertListInfo;
 import org.xipki.ca.api.mgmt.CertListOrderBy;
 import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
@@ -129,6 +132,7 @@ import org.xipki.ca.api.profile.CertprofileException;
 import org.xipki.ca.api.profile.ExtensionValue;
 import org.xipki.ca.api.profile.ExtensionValues;
 import org.xipki.ca.api.profile.KeypairGenControl;
+import org.xipki.ca.server.CaServerConf.FpIndexConf;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.ConcurrentBagEntrySigner;
 import org.xipki.security.ConcurrentContentSigner;
@@ -153,6 +157,9 @@ import org.xipki.util.HealthCheckResult;
 import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
 import org.xipki.util.Validity;
+import org.xipki.util.metrics.Counter;
+import org.xipki.util.metrics.Histogram;
+import org.xipki.util.metrics.MetricsRegistry;
 
 /**
  * X509CA.
@@ -179,6 +186,8 @@ public class X509Ca implements Closeable {
     private X500Name grantedSubject;
     private String grantedSubjectText;
     private long fpSubject;
+    // time to create this template, will be added to the profile phase
+    private long profileNanos;
 
     public GrantedCertTemplate(Extensions extensions, IdentifiedCertprofile certprofile,
         Date grantedNotBefore, Date grantedNotAfter, X500Name requestedSubject,
@@ -404,6 +413,35 @@ public class X509Ca implements Closeable {
 
   private static final Logger LOG = LoggerFactory.getLogger(X509Ca.class);
 
+  private static final String METRIC_FP_INDEX = "xipki_ca_fp_index_entries";
+
+  private static final String METRIC_GEN_CERT = "xipki_ca_gen_cert_seconds";
+
+  private static final String METRIC_GEN_CERT_PHASE = "xipki_ca_gen_cert_phase_seconds";
+
+  private static final String METRIC_CERTS_ISSUED = "xipki_ca_certs_issued_total";
+
+  private static final String METRIC_CERT_FAILURES = "xipki_ca_cert_failures_total";
+
+  private static final String METRIC_GEN_CRL = "xipki_ca_gen_crl_seconds";
+
+  private static final String METRIC_CRL_FAILURES = "xipki_ca_crl_failures_total";
+
+  private static final String PHASE_PROFILE = "profile";
+
+  private static final String PHASE_DUPLICATE_CHECK = "duplicate_check";
+
+  private static final String PHASE_CTLOG = "ctlog";
+
+  private static final String PHASE_SIGN = "sign";
+
+  private static final String PHASE_DB_INSERT = "db_insert";
+
+  private static final String PHASE_PUBLISH = "publish";
+
+  private static final String[] GEN_CERT_PHASES = {PHASE_PROFILE, PHASE_DUPLICATE_CHECK,
+      PHASE_CTLOG, PHASE_SIGN, PHASE_DB_INSERT, PHASE_PUBLISH};
+
   private final CaInfo caInfo;
 
   private final NameId caIdent;
@@ -433,9 +471,35 @@ public class X509Ca implements Closeable {
 
   private ScheduledFuture<?> suspendedCertsRevoker;
 
-  private final ConcurrentSkipListSet<Long> publicKeyCertsInProcess = new ConcurrentSkipListSet<>();
+  private ScheduledFuture<?> fpIndexSynchronizer;
+
+  private final FpIndex fpIndex;
+
+  private final Set<Long> publicKeyCertsInProcess = ConcurrentHashMap.newKeySet();
+
+  private final Set<Long> subjectCertsInProcess = ConcurrentHashMap.newKeySet();
 
-  private final ConcurrentSkipListSet<Long> subjectCertsInProcess = new ConcurrentSkipListSet<>();
+  private final Histogram metricGenCert;
+
+  private final Counter metricCertsIssued;
+
+  private final Counter metricCertsFailed;
+
+  private final Histogram metricGenCrl;
+
+  private final Counter metricCrlFailures;
+
+  private final Histogram metricPhaseProfile;
+
+  private final Histogram metricPhaseDuplicateCheck;
+
+  private final Histogram metricPhaseCtlog;
+
+  private final Histogram metricPhaseSign;
+
+  private final Histogram metricPhaseDbInsert;
+
+  private final Histogram metricPhasePublish;
 
   public X509Ca(CaManagerImpl caManager, CaInfo caInfo, CertStore certstore,
       CtLogClient ctlogClient)
@@ -449,6 +513,25 @@ public class X509Ca implements Closeable {
     this.caCert = caInfo.getCert();
     this.certstore = Args.notNull(certstore, "certstore");
 
+    MetricsRegistry metrics = MetricsRegistry.getDefault();
+    String caName = caIdent.getName();
+    this.metricGenCert = metrics.histogram(METRIC_GEN_CERT,
+        "Time to generate a certificate", "ca", caName);
+    this.metricCertsIssued = metrics.counter(METRIC_CERTS_ISSUED,
+        "Number of issued certificates", "ca", caName);
+    this.metricCertsFailed = metrics.counter(METRIC_CERT_FAILURES,
+        "Number of failed certificate generations", "ca", caName);
+    this.metricGenCrl = metrics.histogram(METRIC_GEN_CRL,
+        "Time to generate a CRL", "ca", caName);
+    this.metricCrlFailures = metrics.counter(METRIC_CRL_FAILURES,
+        "Number of failed CRL generations", "ca", caName);
+    this.metricPhaseProfile = genCertPhaseMetric(caName, PHASE_PROFILE);
+    this.metricPhaseDuplicateCheck = genCertPhaseMetric(caName, PHASE_DUPLICATE_CHECK);
+    this.metricPhaseCtlog = genCertPhaseMetric(caName, PHASE_CTLOG);
+    this.metricPhaseSign = genCertPhaseMetric(caName, PHASE_SIGN);
+    this.metricPhaseDbInsert = genCertPhaseMetric(caName, PHASE_DB_INSERT);
+    this.metricPhasePublish = genCertPhaseMetric(caName, PHASE_PUBLISH);
+
     SubjectPublicKeyInfo caSpki = this.caCert.getSubjectPublicKeyInfo();
     ASN1ObjectIdentifier caSpkiAlgId = caSpki.getAlgorithm().getAlgorithm();
     if (caSpkiAlgId.equals(PKCSObjectIdentifiers.rsaEncryption)) {
@@ -507,6 +590,36 @@ public class X509Ca implements Closeable {
       }
     }
 
+    FpIndexConf fpIndexConf = caManager.getCaServerConf().getFpIndex();
+    if (fpIndexConf != null && fpIndexConf.isEnabled(caIdent.getName())) {
+      this.fpIndex = new FpIndex(caIdent, certstore);
+      metrics.statistics(METRIC_FP_INDEX, "Number of entries in the fingerprint index", "type",
+          () -> {
+            Map<String, Integer> sizes = new LinkedHashMap<>();
+            sizes.put("keys", fpIndex.getNumKeys());
+            sizes.put("subjects", fpIndex.getNumSubjects());
+            return sizes;
+          }, "ca", caName);
+      // the database is used for the duplicate check until the index is loaded
+      ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
+      Runnable synchronizer = () -> {
+        try {
+          fpIndex.sync();
+        } catch (Throwable th) {
+          LogUtil.error(LOG, th, "could not synchronize fingerprint index of CA " + caIdent);
+        }
+      };
+
+      if (fpIndexConf.isClustered()) {
+        this.fpIndexSynchronizer = executor.scheduleAtFixedRate(synchronizer, 0,
+            fpIndexConf.getSyncInterval(), TimeUnit.SECONDS);
+      } else {
+        executor.execute(synchronizer);
+      }
+    } else {
+      this.fpIndex = null;
+    }
+
     if (!masterMode) {
       return;
     }
@@ -570,7 +683,7 @@ public class X509Ca implements Closeable {
 
   public CertWithRevocationInfo getCertWithRevocationInfo(BigInteger serialNumber)
       throws CertificateException, OperationException {
-    return certstore.getCertWithRevocationInfo(caIdent.getId(), serialNumber, caIdNameMap);
+    return certstore.getCertWithRevocationInfo(caIdent.getId(), serialNumber, caIdNameMap, true);
   }
 
   public byte[] getCertRequest(BigInteger serialNumber) throws OperationException {
@@ -588,6 +701,12 @@ public class X509Ca implements Closeable {
     return certstore.listCerts(caIdent, subjectPattern, validFrom, validTo, orderBy, numEntries);
   }
 
+  public long streamCerts(X500Name subjectPattern, Date validFrom, Date validTo, long afterId,
+      int numEntries, CertListHandler handler) throws OperationException, CaMgmtException {
+    return certstore.streamCerts(caIdent, subjectPattern, validFrom, validTo, afterId,
+        numEntries, handler);
+  }
+
   public NameId authenticateUser(String user, byte[] password) throws OperationException {
     return certstore.authenticateUser(user.toLowerCase(), password);
   }
@@ -743,6 +862,7 @@ public class X509Ca implements Closeable {
 
   private X509CRLHolder generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
       String msgId) throws OperationException {
+    long start = System.nanoTime();
     boolean successful = false;
     AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_crl, msgId);
     try {
@@ -750,6 +870,10 @@ public class X509Ca implements Closeable {
       successful = true;
       return crl;
     } finally {
+      metricGenCrl.observeSince(start);
+      if (!successful) {
+        metricCrlFailures.inc();
+      }
       finish(event, successful);
     }
   }
@@ -1003,9 +1127,16 @@ public class X509Ca implements Closeable {
       return 0;
     }
 
+    long phaseStart = System.nanoTime();
     if (!certstore.addCert(certInfo)) {
       return 1;
     }
+    phaseStart = metricPhaseDbInsert.observeSince(phaseStart);
+
+    if (fpIndex != null) {
+      fpIndex.add(FpIdCalculator.hash(certInfo.getSubjectPublicKey()),
+          X509Util.fpCanonicalizedName(certInfo.getCert().getCert().getSubject()));
+    }
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
@@ -1025,13 +1156,14 @@ public class X509Ca implements Closeable {
 
       Long certId = certInfo.getCert().getCertId();
       try {
-        certstore.addToPublishQueue(publisher.getIdent(), certId.longValue(), caIdent);
+        addToPublishQueue(publisher, certId.longValue());
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not add entry to PublishQueue");
         return 2;
       }
     } // end for
 
+    metricPhasePublish.observeSince(phaseStart);
     return 0;
   } // method publishCert0
 
@@ -1183,6 +1315,7 @@ public class X509Ca implements Closeable {
 
         try {
           certstore.removeFromPublishQueue(publisher.getIdent(), certId);
+          publisher.countDequeued();
         } catch (OperationException ex) {
           LogUtil.warn(LOG, ex, "could not remove republished cert id=" + certId
               + " and publisher=" + publisher.getIdent().getName());
@@ -1194,6 +1327,12 @@ public class X509Ca implements Closeable {
     return true;
   } // method publishCertsInQueue
 
+  private void addToPublishQueue(IdentifiedCertPublisher publisher, long certId)
+      throws OperationException {
+    certstore.addToPublishQueue(publisher.getIdent(), certId, caIdent);
+    publisher.countQueued();
+  }
+
   private boolean publishCrl(X509CRLHolder crl) {
     try {
       certstore.addCrl(caIdent, crl);
@@ -1374,7 +1513,7 @@ public class X509Ca implements Closeable {
 
       Long certId = revokedCert.getCert().getCertId();
       try {
-        certstore.addToPublishQueue(publisher.getIdent(), certId.longValue(), caIdent);
+        addToPublishQueue(publisher, certId.longValue());
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not add entry to PublishQueue");
       }
@@ -1440,7 +1579,7 @@ public class X509Ca implements Closeable {
 
       Long certId = revokedCert.getCert().getCertId();
       try {
-        certstore.addToPublishQueue(publisher.getIdent(), certId.longValue(), caIdent);
+        addToPublishQueue(publisher, certId.longValue());
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not add entry to PublishQueue");
       }
@@ -1486,7 +1625,7 @@ public class X509Ca implements Closeable {
 
       Long certId = unrevokedCert.getCertId();
       try {
-        certstore.addToPublishQueue(publisher.getIdent(), certId.longValue(), caIdent);
+        addToPublishQueue(publisher, certId.longValue());
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not add entry to PublishQueue");
       }
@@ -1586,6 +1725,10 @@ public class X509Ca implements Closeable {
     certstore.addRequestCert(requestId, certId);
   }
 
+  public void addRequestCerts(long requestId, List<Long> certIds) throws OperationException {
+    certstore.addRequestCerts(requestId, certIds);
+  }
+
   private List<IdentifiedCertPublisher> publishers() {
     return caManager.getIdentifiedPublishersForCa(caIdent.getName());
   }
@@ -1606,7 +1749,9 @@ public class X509Ca implements Closeable {
     for (int i = 0; i < n; i++) {
       CertTemplateData certTemplate = certTemplates.get(i);
       try {
+        long start = System.nanoTime();
         GrantedCertTemplate gct = createGrantedCertTemplate(certTemplate, requestor, update);
+        gct.profileNanos = System.nanoTime() - start;
         gcts.add(gct);
       } catch (OperationException ex) {
         LOG.error("     FAILED createGrantedCertTemplate: CA={}, profile={}, subject='{}'",
@@ -1684,12 +1829,15 @@ public class X509Ca implements Closeable {
       RequestType reqType, byte[] transactionId, String msgId) throws OperationException {
     AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_cert, msgId);
 
+    long start = System.nanoTime();
     boolean successful = false;
     try {
       CertificateInfo ret = generateCert0(gct, requestor, reqType, transactionId, event);
       successful = (ret != null);
       return ret;
     } finally {
+      metricGenCert.observeSince(start);
+      (successful ? metricCertsIssued : metricCertsFailed).inc();
       finish(event, successful);
     }
   }
@@ -1706,6 +1854,7 @@ public class X509Ca implements Closeable {
     event.addEventData(CaAuditConstants.NAME_not_after,
         DateUtil.toUtcTimeyyyyMMddhhmmss(gct.grantedNotAfter));
 
+    long phaseStart = System.nanoTime();
     adaptGrantedSubejct(gct);
 
     IdentifiedCertprofile certprofile = gct.certprofile;
@@ -1730,6 +1879,7 @@ public class X509Ca implements Closeable {
             "certificate with the given subject " + gct.grantedSubjectText + " already in process");
       }
     }
+    phaseStart = metricPhaseDuplicateCheck.observeSince(phaseStart);
 
     ExtensionControl extnSctCtrl = certprofile.getExtensionControls().get(Extn.id_SCTs);
     boolean ctlogEnabled = caInfo.getCtlogControl() != null && caInfo.getCtlogControl().isEnabled();
@@ -1764,6 +1914,10 @@ public class X509Ca implements Closeable {
           }
         }
 
+        long now = System.nanoTime();
+        metricPhaseProfile.observe(gct.profileNanos + now - phaseStart);
+        phaseStart = now;
+
         boolean addCtlog = ctlogEnabled && extnSctCtrl != null;
 
         if (addCtlog) {
@@ -1798,6 +1952,7 @@ public class X509Ca implements Closeable {
           }
           certBuilder.addExtension(
               new Extension(Extn.id_SCTs, extnSctCtrl.isCritical(), extnValue));
+          phaseStart = metricPhaseCtlog.observeSince(phaseStart);
         }
 
         ConcurrentBagEntrySigner signer0;
@@ -1813,6 +1968,7 @@ public class X509Ca implements Closeable {
         } finally {
           gct.signer.requiteSigner(signer0);
         }
+        metricPhaseSign.observeSince(phaseStart);
 
         byte[] encodedCert = bcCert.getEncoded();
         int maxCertSize = gct.certprofile.getMaxCertSize();
@@ -1863,6 +2019,21 @@ public class X509Ca implements Closeable {
     }
   } // method generateCertificate0
 
+  private boolean isCertForSubjectIssued(long fpSubject) throws OperationException {
+    // the index may report false positives, but no false negatives
+    if (fpIndex != null && !fpIndex.mayContainSubject(fpSubject)) {
+      return false;
+    }
+    return certstore.isCertForSubjectIssued(caIdent, fpSubject);
+  }
+
+  private boolean isCertForKeyIssued(long fpPublicKey) throws OperationException {
+    if (fpIndex != null && !fpIndex.mayContainKey(fpPublicKey)) {
+      return false;
+    }
+    return certstore.isCertForKeyIssued(caIdent, fpPublicKey);
+  }
+
   private void adaptGrantedSubejct(GrantedCertTemplate gct) throws OperationException {
     if (caInfo.isDuplicateSubjectPermitted()) {
       return;
@@ -1872,7 +2043,7 @@ public class X509Ca implements Closeable {
     String grantedSubjectText = X509Util.getRfc4519Name(gct.grantedSubject);
 
     final boolean incSerial = gct.certprofile.incSerialNumberIfSubjectExists();
-    final boolean certIssued = certstore.isCertForSubjectIssued(caIdent, fpSubject);
+    final boolean certIssued = isCertForSubjectIssued(fpSubject);
     if (certIssued && !incSerial) {
       throw new OperationException(ALREADY_ISSUED,
           "certificate for the given subject " + grantedSubjectText + " already issued");
@@ -1906,8 +2077,7 @@ public class X509Ca implements Closeable {
         throw new OperationException(SYSTEM_FAILURE, ex);
       }
 
-      foundUniqueSubject = !certstore.isCertForSubjectIssued(caIdent,
-          X509Util.fpCanonicalizedName(subject));
+      foundUniqueSubject = !isCertForSubjectIssued(X509Util.fpCanonicalizedName(subject));
       if (foundUniqueSubject) {
         break;
       }
@@ -2039,7 +2209,10 @@ public class X509Ca implements Closeable {
 
           BigInteger publicExponent = tkg.getPublicExponent();
 
-          KeyPair kp = KeyUtil.generateRSAKeypair(keysize, publicExponent, random);
+          KeypairPool keypairPool = caManager.getKeypairPool();
+          KeyPair kp = (keypairPool == null)
+              ? KeyUtil.generateRSAKeypair(keysize, publicExponent, random)
+              : keypairPool.takeRSAKeypair(keysize, publicExponent, random);
           java.security.interfaces.RSAPublicKey rsaPubKey =
               (java.security.interfaces.RSAPublicKey) kp.getPublic();
 
@@ -2072,7 +2245,9 @@ public class X509Ca implements Closeable {
         } else if (kg instanceof KeypairGenControl.ECKeypairGenControl) {
           KeypairGenControl.ECKeypairGenControl tkg = (KeypairGenControl.ECKeypairGenControl) kg;
           ASN1ObjectIdentifier curveOid = tkg.getCurveOid();
-          KeyPair kp = KeyUtil.generateECKeypair(curveOid, random);
+          KeypairPool keypairPool = caManager.getKeypairPool();
+          KeyPair kp = (keypairPool == null) ? KeyUtil.generateECKeypair(curveOid, random)
+              : keypairPool.takeECKeypair(curveOid, random);
           ECPublicKey pub = (ECPublicKey) kp.getPublic();
           int orderBitLength = pub.getParams().getOrder().bitLength();
 
@@ -2179,7 +2354,7 @@ public class X509Ca implements Closeable {
       }
     } else {
       if (!duplicateKeyPermitted) {
-        if (certstore.isCertForKeyIssued(caIdent, fpPublicKey)) {
+        if (isCertForKeyIssued(fpPublicKey)) {
           throw new OperationException(ALREADY_ISSUED,
               "certificate for the given public key already issued");
         }
@@ -2524,6 +2699,26 @@ public class X509Ca implements Closeable {
       result.addChildCheck(publisherHealth);
     }
 
+    if (fpIndex != null) {
+      HealthCheckResult fpIndexHealth = new HealthCheckResult();
+      fpIndexHealth.setName("FpIndex");
+      fpIndexHealth.setHealthy(true);
+      fpIndexHealth.getStatuses().put("loaded", fpIndex.isLoaded());
+      fpIndexHealth.getStatuses().put("keys", fpIndex.getNumKeys());
+      fpIndexHealth.getStatuses().put("subjects", fpIndex.getNumSubjects());
+      result.addChildCheck(fpIndexHealth);
+    }
+
+    KeypairPool keypairPool = caManager.getKeypairPool();
+    if (keypairPool != null) {
+      // pool depth per keyspec, an empty pool does not affect the health
+      HealthCheckResult keypairPoolHealth = new HealthCheckResult();
+      keypairPoolHealth.setName("KeypairPool");
+      keypairPoolHealth.setHealthy(true);
+      keypairPoolHealth.getStatuses().putAll(keypairPool.getDepths());
+      result.addChildCheck(keypairPoolHealth);
+    }
+
     result.setHealthy(healthy);
 
     return result;
@@ -2573,6 +2768,18 @@ public class X509Ca implements Closeable {
 
   @Override
   public void close() {
+    MetricsRegistry metrics = MetricsRegistry.getDefault();
+    String caName = caIdent.getName();
+    metrics.remove(METRIC_FP_INDEX, "ca", caName);
+    metrics.remove(METRIC_GEN_CERT, "ca", caName);
+    metrics.remove(METRIC_CERTS_ISSUED, "ca", caName);
+    metrics.remove(METRIC_CERT_FAILURES, "ca", caName);
+    metrics.remove(METRIC_GEN_CRL, "ca", caName);
+    metrics.remove(METRIC_CRL_FAILURES, "ca", caName);
+    for (String phase : GEN_CERT_PHASES) {
+      metrics.remove(METRIC_GEN_CERT_PHASE, "ca", caName, "phase", phase);
+    }
+
     if (crlGenerationService != null) {
       crlGenerationService.cancel(false);
       crlGenerationService = null;
@@ -2588,10 +2795,24 @@ public class X509Ca implements Closeable {
       suspendedCertsRevoker = null;
     }
 
+    if (fpIndexSynchronizer != null) {
+      fpIndexSynchronizer.cancel(false);
+      fpIndexSynchronizer = null;
+    }
+
     ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     if (executor != null) {
       executor.purge();
     }
+
+    if (ctlogClient != null) {
+      ctlogClient.close();
+    }
+  }
+
+  private static Histogram genCertPhaseMetric(String caName, String phase) {
+    return MetricsRegistry.getDefault().histogram(METRIC_GEN_CERT_PHASE,
+        "Time of the phases to generate a certificate", "ca", caName, "phase", phase);
   }
 
   private static Extension createReasonExtension(int reasonCode) {
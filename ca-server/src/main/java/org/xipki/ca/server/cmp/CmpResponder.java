@@ -35,6 +35,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Cipher;
@@ -509,10 +516,27 @@ public class CmpResponder extends BaseCmpResponder {
     final int n = certReqMsgs.length;
 
     List<CertTemplateData> certTemplateDatas = new ArrayList<>(n);
+    // indexes of certTemplateDatas in certReqMsgs
+    Set<Integer> templateIndexes = new HashSet<>();
     List<CertResponse> certResponses = new ArrayList<>(1);
 
     boolean kup = (request.getBody().getType() == PKIBody.TYPE_KEY_UPDATE_REQ);
 
+    // verify the POPs concurrently. For the key update requests the POP is verified
+    // sequentially since the public key may be taken from the old certificate.
+    ExecutorService executor = (n > 1 && !kup && !cmpControl.isGroupEnroll())
+        ? caManager.getEnrollExecutor() : null;
+    List<Future<Boolean>> popoResults = null;
+    if (executor != null) {
+      popoResults = new ArrayList<>(n);
+      for (CertReqMsg reqMsg : certReqMsgs) {
+        CertificateRequestMessage req = new CertificateRequestMessage(reqMsg);
+        SubjectPublicKeyInfo publicKey = req.getCertTemplate().getPublicKey();
+        popoResults.add((publicKey == null || !req.hasProofOfPossession()) ? null
+            : submit(executor, () -> verifyPopo(req, publicKey, tmpRequestor.isRa())));
+      }
+    }
+
     // pre-process requests
     for (int i = 0; i < n; i++) {
       if (cmpControl.isGroupEnroll() && certTemplateDatas.size() != i) {
@@ -682,7 +706,22 @@ public class CmpResponder extends BaseCmpResponder {
           continue;
         }
 
-        if (!verifyPopo(req, publicKey, tmpRequestor.isRa())) {
+        boolean popoValid;
+        if (popoResults != null && popoResults.get(i) != null) {
+          try {
+            popoValid = popoResults.get(i).get();
+          } catch (ExecutionException ex) {
+            LogUtil.error(LOG, ex.getCause(), "could not verify POP");
+            popoValid = false;
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            popoValid = false;
+          }
+        } else {
+          popoValid = verifyPopo(req, publicKey, tmpRequestor.isRa());
+        }
+
+        if (!popoValid) {
           LOG.warn("could not validate POP for request {}", certReqId.getValue());
           certResponses.add(buildErrorCertResponse(certReqId, PKIFailureInfo.badPOP,
               "invalid POP"));
@@ -723,6 +762,7 @@ public class CmpResponder extends BaseCmpResponder {
       CertTemplateData certTempData = new CertTemplateData(subject, publicKey, notBefore, notAfter,
           extensions, certprofileName, certReqId, caGenerateKeypair);
       certTemplateDatas.add(certTempData);
+      templateIndexes.add(i);
     } // end for
 
     if (certResponses.size() == n) {
@@ -741,7 +781,7 @@ public class CmpResponder extends BaseCmpResponder {
       int lastFailureIndex = certTemplateDatas.size();
       BigInteger failCertReqId =
           certReqMsgs[lastFailureIndex].getCertReq().getCertReqId().getValue();
-      CertResponse failCertResp = certResponses.get(lastFailureIndex);
+      CertResponse failCertResp = certResponses.get(0);
       PKIStatus failStatus = PKIStatus.getInstance(
           new ASN1Integer(failCertResp.getStatus().getStatus()));
       PKIFailureInfo failureInfo = new PKIFailureInfo(failCertResp.getStatus().getFailInfo());
@@ -754,7 +794,7 @@ public class CmpResponder extends BaseCmpResponder {
           continue;
         }
 
-        ASN1Integer certReqId = certResps[i].getCertReqId();
+        ASN1Integer certReqId = certReqMsgs[i].getCertReq().getCertReqId();
         String msg = "error in certReq " + failCertReqId;
         PKIStatusInfo tmpStatus = generateRejectionStatus(failStatus, failureInfo.intValue(), msg);
         certResps[i] = new CertResponse(certReqId, tmpStatus);
@@ -766,15 +806,13 @@ public class CmpResponder extends BaseCmpResponder {
     List<CertResponse> generateCertResponses = generateCertificates(certTemplateDatas, tmpRequestor,
         tid, kup, request, cmpControl, msgId, event);
 
+    // keep the order of the requests
     CertResponse[] certResps = new CertResponse[n];
-    int index = 0;
-    for (CertResponse errorResp : certResponses) {
-      // error single CertResponse
-      certResps[index++] = errorResp;
-    }
-
-    for (CertResponse certResp : generateCertResponses) {
-      certResps[index++] = certResp;
+    int errorIndex = 0;
+    int generatedIndex = 0;
+    for (int i = 0; i < n; i++) {
+      certResps[i] = templateIndexes.contains(i) ? generateCertResponses.get(generatedIndex++)
+          : certResponses.get(errorIndex++);
     }
 
     CMPCertificate[] caPubs = null;
@@ -926,13 +964,16 @@ public class CmpResponder extends BaseCmpResponder {
           }
         }
 
+        List<Long> certIds = new ArrayList<>(n);
         for (int i = 0; i < n; i++) {
           CertificateInfo certInfo = certInfos.get(i);
           ret.add(postProcessCertInfo(certTemplates.get(i).getCertReqId(), requestor, certInfo, tid,
               cmpControl));
-          if (reqDbId != null) {
-            ca.addRequestCert(reqDbId, certInfo.getCert().getCertId());
-          }
+          certIds.add(certInfo.getCert().getCertId());
+        }
+
+        if (reqDbId != null) {
+          ca.addRequestCerts(reqDbId, certIds);
         }
       } catch (OperationException ex) {
         if (certInfos != null) {
@@ -952,52 +993,89 @@ public class CmpResponder extends BaseCmpResponder {
         }
       }
     } else {
-      Long reqDbId = null;
-      boolean savingRequestFailed = false;
+      // with the enroll pool the certificates are generated concurrently
+      ExecutorService executor = (n > 1) ? caManager.getEnrollExecutor() : null;
+      List<Future<CertificateInfo>> futures = new ArrayList<>(n);
+      for (CertTemplateData certTemplate : certTemplates) {
+        Callable<CertificateInfo> task = () -> kup
+            ? ca.regenerateCert(certTemplate, requestor, RequestType.CMP, tid.getOctets(), msgId)
+            : ca.generateCert(certTemplate, requestor, RequestType.CMP, tid.getOctets(), msgId);
+        futures.add(executor == null ? runTask(task) : submit(executor, task));
+      }
 
+      CertificateInfo[] certInfos = new CertificateInfo[n];
+      OperationException[] exceptions = new OperationException[n];
+      List<Long> certIds = new ArrayList<>(n);
+      boolean interrupted = false;
       for (int i = 0; i < n; i++) {
-        CertTemplateData certTemplate = certTemplates.get(i);
-        ASN1Integer certReqId = certTemplate.getCertReqId();
-
-        CertificateInfo certInfo;
-        try {
-          if (kup) {
-            certInfo = ca.regenerateCert(certTemplate, requestor, RequestType.CMP,
-                tid.getOctets(), msgId);
-          } else {
-            certInfo = ca.generateCert(certTemplate, requestor, RequestType.CMP,
-                tid.getOctets(), msgId);
-          }
-
-          if (ca.getCaInfo().isSaveRequest()) {
-            if (reqDbId == null && !savingRequestFailed) {
-              try {
-                byte[] encodedRequest = request.getEncoded();
-                reqDbId = ca.addRequest(encodedRequest);
-              } catch (Exception ex) {
-                savingRequestFailed = true;
-                LOG.warn("could not save request");
-              }
-            }
-
-            if (reqDbId != null) {
-              ca.addRequestCert(reqDbId, certInfo.getCert().getCertId());
+        Future<CertificateInfo> future = futures.get(i);
+        while (true) {
+          try {
+            certInfos[i] = future.get();
+            certIds.add(certInfos[i].getCert().getCertId());
+          } catch (CancellationException ex) {
+            exceptions[i] = new OperationException(ErrorCode.SYSTEM_FAILURE, "interrupted");
+          } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            exceptions[i] = (cause instanceof OperationException) ? (OperationException) cause
+                : new OperationException(ErrorCode.SYSTEM_FAILURE, cause);
+          } catch (InterruptedException ex) {
+            // cancel the tasks which have not been started. The running tasks may still issue
+            // certificates, wait for them so that they are returned and linked to the request.
+            interrupted = true;
+            for (int j = i; j < n; j++) {
+              futures.get(j).cancel(false);
             }
+            continue;
           }
+          break;
+        }
+      }
+
+      if (ca.getCaInfo().isSaveRequest() && !certIds.isEmpty()) {
+        // save the request once and link all generated certificates in one batch
+        try {
+          long reqDbId = ca.addRequest(request.getEncoded());
+          ca.addRequestCerts(reqDbId, certIds);
+        } catch (Exception ex) {
+          LogUtil.warn(LOG, ex, "could not save request");
+        }
+      }
 
-          CertResponse certResponse =
-              postProcessCertInfo(certReqId, requestor, certInfo, tid, cmpControl);
-          ret.add(certResponse);
-        } catch (OperationException ex) {
+      for (int i = 0; i < n; i++) {
+        ASN1Integer certReqId = certTemplates.get(i).getCertReqId();
+        if (exceptions[i] == null) {
+          ret.add(postProcessCertInfo(certReqId, requestor, certInfos[i], tid, cmpControl));
+        } else {
           event.setStatus(AuditStatus.FAILED);
-          ret.add(postProcessException(certReqId, ex));
+          ret.add(postProcessException(certReqId, exceptions[i]));
         }
       }
+
+      if (interrupted) {
+        // restore the interrupt status after the certificates have been linked to the request
+        Thread.currentThread().interrupt();
+      }
     }
 
     return ret;
   } // method generateCertificates
 
+  private static <T> Future<T> submit(ExecutorService executor, Callable<T> task) {
+    try {
+      return executor.submit(task);
+    } catch (RejectedExecutionException ex) {
+      // the pool is being shutdown
+      return runTask(task);
+    }
+  } // method submit
+
+  private static <T> Future<T> runTask(Callable<T> task) {
+    FutureTask<T> future = new FutureTask<>(task);
+    future.run();
+    return future;
+  } // method runTask
+
   private CertResponse postProcessCertInfo(ASN1Integer certReqId, CmpRequestorInfo requestor,
       CertificateInfo certInfo, ASN1OctetString tid, CmpControl cmpControl) {
     if (cmpControl.isConfirmCert()) {
@@ -0,0 +1,101 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.Arrays;
+
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ca.server.CaServerConf.KeypairPoolConf;
+
+/**
+ * KeypairPool test.
+ *
+ * @author Lijun Liao
+ */
+
+public class KeypairPoolTest {
+
+  private static final String KEYSPEC = "EC/" + X9ObjectIdentifiers.prime256v1.getId();
+
+  private static final int LOW_WATERMARK = 2;
+
+  private static final int HIGH_WATERMARK = 5;
+
+  @Before
+  public void addBouncyCastleProvider() {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+
+  @Test
+  public void testHighWatermark() throws Exception {
+    KeypairPoolConf conf = new KeypairPoolConf();
+    conf.setEnabled(true);
+    conf.setLowWatermark(LOW_WATERMARK);
+    conf.setHighWatermark(HIGH_WATERMARK);
+    conf.setNumThreads(4);
+    conf.setKeyspecs(Arrays.asList("EC/secp256r1"));
+
+    KeypairPool pool = new KeypairPool(conf);
+    try {
+      waitForRefill(pool);
+
+      for (int round = 0; round < 5; round++) {
+        // each take below the low watermark starts one more worker, so that several workers
+        // refill the pool concurrently
+        for (int i = 0; i < HIGH_WATERMARK; i++) {
+          KeyPair kp = pool.takeECKeypair(X9ObjectIdentifiers.prime256v1, null);
+          Assert.assertNotNull("keypair", kp);
+        }
+        waitForRefill(pool);
+      }
+    } finally {
+      pool.close();
+    }
+  } // method testHighWatermark
+
+  private static void waitForRefill(KeypairPool pool) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30000;
+    while (getDepth(pool) <= LOW_WATERMARK && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    // wait until the running workers have finished
+    int maxDepth = 0;
+    for (int i = 0; i < 50; i++) {
+      maxDepth = Math.max(maxDepth, getDepth(pool));
+      Thread.sleep(10);
+    }
+
+    Assert.assertTrue("pool has not been refilled", getDepth(pool) > LOW_WATERMARK);
+    Assert.assertTrue("depth " + maxDepth + " exceeds the high watermark",
+        maxDepth <= HIGH_WATERMARK);
+  } // method waitForRefill
+
+  private static int getDepth(KeypairPool pool) {
+    return pool.getDepths().get(KEYSPEC);
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the throughput of the serial number generation with one SecureRandom accessed
+ * per candidate (as before), with the shared SecureRandom accessed per block, and with
+ * the DRBG per thread.
+ *
+ * <p>Usage: SerialNumberGeneratorBenchmark [threads] [serials per thread] [byte length]
+ *
+ * @author Lijun Liao
+ */
+
+public class SerialNumberGeneratorBenchmark {
+
+  private static final SecureRandom LEGACY_RANDOM = new SecureRandom();
+
+  public static void main(String[] args) throws Exception {
+    int numThreads = args.length > 0 ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors() * 2;
+    int numPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    int byteLen = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+    System.out.println("threads: " + numThreads + ", serials per thread: " + numPerThread
+        + ", byte length: " + byteLen);
+
+    RandomSerialNumberGenerator generator = RandomSerialNumberGenerator.getInstance();
+    for (int round = 0; round < 2; round++) {
+      // the first round is the warm-up
+      boolean print = round == 1;
+
+      run("legacy", numThreads, numPerThread, byteLen,
+          SerialNumberGeneratorBenchmark::legacyNextSerialNumber, print);
+
+      generator.setThreadLocalRandom(false);
+      run("shared, block", numThreads, numPerThread, byteLen,
+          generator::nextSerialNumber, print);
+
+      generator.setThreadLocalRandom(true);
+      run("thread-local", numThreads, numPerThread, byteLen,
+          generator::nextSerialNumber, print);
+    }
+  } // method main
+
+  private static void run(String name, int numThreads, final int numPerThread,
+      final int byteLen, final IntFunction<BigInteger> generator, boolean print)
+      throws InterruptedException {
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch endLatch = new CountDownLatch(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          startLatch.await();
+          for (int j = 0; j < numPerThread; j++) {
+            generator.apply(byteLen);
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } finally {
+          endLatch.countDown();
+        }
+      });
+      thread.start();
+    }
+
+    long start = System.nanoTime();
+    startLatch.countDown();
+    endLatch.await();
+    long duration = System.nanoTime() - start;
+
+    if (print) {
+      long total = (long) numThreads * numPerThread;
+      System.out.printf("%-14s %,12d serials/s%n", name, total * 1000_000_000L / duration);
+    }
+  } // method run
+
+  // copy of RandomSerialNumberGenerator.nextSerialNumber() before the block-wise generation
+  private static BigInteger legacyNextSerialNumber(int byteLen) {
+    final byte[] rndBytes = new byte[byteLen];
+    final int minWeight = byteLen * 2;
+    while (true) {
+      LEGACY_RANDOM.nextBytes(rndBytes);
+      rndBytes[0] &= 0x7F;
+
+      BigInteger bi = new BigInteger(rndBytes);
+      BigInteger threeBi = bi.shiftLeft(1).add(bi);
+      BigInteger diff = threeBi.xor(bi);
+      if (diff.bitCount() >= minWeight) {
+        return bi;
+      }
+    }
+  } // method legacyNextSerialNumber
+
+}
@@ -69,6 +69,8 @@ public class CaServletFilter implements Filter {
 
   private static final String DFLT_SYSLOG_AUDIT_CFG = "etc/ca/audit.syslog.cfg";
 
+  private static final String DFLT_FILE_AUDIT_CFG = "etc/ca/audit.file.cfg";
+
   private Securities securities;
 
   private CaManagerImpl caManager;
@@ -87,6 +89,8 @@ public class CaServletFilter implements Filter {
 
   private HttpMgmtServlet mgmtServlet;
 
+  private MetricsServlet metricsServlet;
+
   @Override
   public void init(FilterConfig filterConfig) throws ServletException {
     XipkiBaseDir.init();
@@ -103,6 +107,12 @@ public class CaServletFilter implements Filter {
     logReqResp = Boolean.parseBoolean(str);
     LOG.info("logReqResp: {}", logReqResp);
 
+    boolean exportMetrics = Boolean.parseBoolean(filterConfig.getInitParameter("exportMetrics"));
+    LOG.info("exportMetrics: {}", exportMetrics);
+    if (exportMetrics) {
+      this.metricsServlet = new MetricsServlet();
+    }
+
     AuditConf audit = conf.getAudit();
     String auditType = audit.getType();
     if (StringUtil.isBlank(auditType)) {
@@ -112,9 +122,11 @@ public class CaServletFilter implements Filter {
     String auditConf = audit.getConf();
     if ("syslog".equalsIgnoreCase(auditType) && auditConf == null) {
       auditConf = DFLT_SYSLOG_AUDIT_CFG;
+    } else if ("file".equalsIgnoreCase(auditType) && auditConf == null) {
+      auditConf = DFLT_FILE_AUDIT_CFG;
     }
 
-    Audits.init(auditType, auditConf);
+    Audits.init(auditType, auditConf, audit.getAsync());
 
     securities = new Securities();
     try {
@@ -197,6 +209,12 @@ public class CaServletFilter implements Filter {
     if (caManager != null) {
       caManager.close();
     }
+
+    try {
+      Audits.close();
+    } catch (RuntimeException ex) {
+      LogUtil.warn(LOG, ex, "could not close the AuditService");
+    }
   } // method destroy
 
   @Override
@@ -229,6 +247,12 @@ public class CaServletFilter implements Filter {
       } else {
         sendError(res, HttpServletResponse.SC_FORBIDDEN);
       }
+    } else if (path.equals("/metrics")) {
+      if (metricsServlet != null) {
+        metricsServlet.service(req, res);
+      } else {
+        sendError(res, HttpServletResponse.SC_NOT_FOUND);
+      }
     } else {
       sendError(res, HttpServletResponse.SC_NOT_FOUND);
     }
@@ -20,6 +20,7 @@ package org.xipki.ca.servlet;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.cert.CertificateException;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.mgmt.CaManager;
 import org.xipki.ca.api.mgmt.CaMgmtException;
 import org.xipki.ca.api.mgmt.CaSystemStatus;
+import org.xipki.ca.api.mgmt.CertListHandler;
 import org.xipki.ca.api.mgmt.CertListInfo;
 import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
 import org.xipki.ca.api.mgmt.MgmtEntry;
@@ -621,6 +623,16 @@ public class HttpMgmtServlet extends HttpServlet {
           resp = null;
           break;
         }
+        case streamCertificates: {
+          MgmtRequest.StreamCertificates req = parse(in, MgmtRequest.StreamCertificates.class);
+          X500Name subjectPattern = req.getEncodedSubjectDnPattern() == null ? null
+              : X500Name.getInstance(req.getEncodedSubjectDnPattern());
+          CertListStreamer streamer = new CertListStreamer(response);
+          caManager.streamCertificates(req.getCaName(), subjectPattern, req.getValidFrom(),
+              req.getValidTo(), req.getAfterId(), req.getNumEntries(), streamer);
+          streamer.finish();
+          return;
+        }
         case unlockCa: {
           caManager.unlockCa();
           resp = null;
@@ -658,16 +670,68 @@ public class HttpMgmtServlet extends HttpServlet {
       response.sendError(ex.getStatus());
     } catch (CaMgmtException ex) {
       LOG.error("CaMgmtException", ex);
-      response.setHeader(HttpConstants.HEADER_XIPKI_ERROR, ex.getMessage());
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      // streamed response: the client detects the incomplete JSON array
+      if (!response.isCommitted()) {
+        response.setHeader(HttpConstants.HEADER_XIPKI_ERROR, ex.getMessage());
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
     } catch (Throwable th) {
       LOG.error("Throwable thrown, this should not happen!", th);
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      if (!response.isCommitted()) {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
     } finally {
       response.flushBuffer();
     }
   } // method doPost
 
+  /**
+   * Writes the certificate list entries as elements of a JSON array directly to the
+   * response, without Content-Length (chunked transfer encoding). The response is committed
+   * with the first entry, errors before it are reported as usual.
+   */
+  private static class CertListStreamer implements CertListHandler {
+
+    private final HttpServletResponse response;
+
+    private OutputStream out;
+
+    CertListStreamer(HttpServletResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public void handle(CertListInfo info) throws CaMgmtException {
+      try {
+        if (out == null) {
+          start();
+          out.write('[');
+        } else {
+          out.write(',');
+        }
+        out.write(JSON.toJSONBytes(info));
+      } catch (IOException ex) {
+        throw new CaMgmtException("could not write the certificate list: " + ex.getMessage(), ex);
+      }
+    } // method handle
+
+    void finish() throws IOException {
+      if (out == null) {
+        start();
+        out.write('[');
+      }
+      out.write(']');
+      out.flush();
+    }
+
+    private void start() throws IOException {
+      response.setContentType(CT_RESPONSE);
+      response.setStatus(HttpServletResponse.SC_OK);
+      out = response.getOutputStream();
+    }
+
+  } // class CertListStreamer
+
   private static MgmtResponse.ByteArray toByteArray(MgmtAction action, X509Cert cert)
       throws MyException {
     if (cert == null) {
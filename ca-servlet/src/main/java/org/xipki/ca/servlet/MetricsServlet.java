@@ -0,0 +1,69 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.ca.servlet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.LogUtil;
+import org.xipki.util.metrics.MetricsRegistry;
+
+/**
+ * Servlet to export the metrics in the Prometheus text format.
+ *
+ * @author Lijun Liao
+ */
+
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsServlet.class);
+
+  @Override
+  protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+      throws ServletException, IOException {
+    try {
+      byte[] respBytes = MetricsRegistry.getDefault().toPrometheusText()
+          .getBytes(StandardCharsets.UTF_8);
+      resp.setStatus(HttpServletResponse.SC_OK);
+      resp.setContentLength(respBytes.length);
+      resp.setContentType(MetricsRegistry.CONTENT_TYPE);
+      resp.getOutputStream().write(respBytes);
+    } catch (Throwable th) {
+      if (th instanceof EOFException) {
+        LogUtil.warn(LOG, th, "connection reset by peer");
+      } else {
+        LOG.error("Throwable thrown, this should not happen!", th);
+      }
+      resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      resp.setContentLength(0);
+    } finally {
+      resp.flushBuffer();
+    }
+  } // method doGet
+
+}
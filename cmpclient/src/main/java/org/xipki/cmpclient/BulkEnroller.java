@@ -0,0 +1,221 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.cmpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bouncycastle.asn1.cmp.PKIFailureInfo;
+import org.bouncycastle.asn1.cmp.PKIStatus;
+import org.xipki.cmpclient.EnrollCertResult.CertifiedKeyPairOrError;
+import org.xipki.security.X509Cert;
+import org.xipki.security.cmp.PkiStatusInfo;
+import org.xipki.util.Args;
+import org.xipki.util.ReqRespDebug;
+
+/**
+ * Enrolls large number of certificates. The request is split into PKI messages of balanced size,
+ * and at most maxInFlight of them are sent concurrently via
+ * {@link CmpClient#enrollCertsAsync(String, EnrollCertRequest, ReqRespDebug)}. The certificates
+ * are confirmed by the underlying client.
+ *
+ * <p>A failed PKI message does not abort the others: each of its entries gets the error in the
+ * merged result.
+ *
+ * @author Lijun Liao
+ */
+
+public class BulkEnroller {
+
+  private final CmpClient client;
+
+  private final int maxEntriesPerMessage;
+
+  private final int maxInFlight;
+
+  /**
+   * Constructor.
+   *
+   * @param client
+   *          CMP client. Must not be {@code null}.
+   * @param maxEntriesPerMessage
+   *          Maximal number of CertReqMsg in one PKI message.
+   * @param maxInFlight
+   *          Maximal number of PKI messages being processed concurrently. Messages beyond the
+   *          maxConnections of the CA are queued by the CMP client.
+   */
+  public BulkEnroller(CmpClient client, int maxEntriesPerMessage, int maxInFlight) {
+    this.client = Args.notNull(client, "client");
+    this.maxEntriesPerMessage = Args.positive(maxEntriesPerMessage, "maxEntriesPerMessage");
+    this.maxInFlight = Args.positive(maxInFlight, "maxInFlight");
+  }
+
+  /**
+   * Enrolls the certificates and waits until all PKI messages have been processed.
+   *
+   * @param caName
+   *          CA name. Could be {@code null}.
+   * @param request
+   *          Request. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control, shared by the concurrent PKI messages. Could be
+   *          {@code null}.
+   * @return the merged enrolling result, {@code null} if the request has no entries.
+   * @throws CmpClientException
+   *          if client error occurs.
+   */
+  public EnrollCertResult enroll(String caName, EnrollCertRequest request, ReqRespDebug debug)
+      throws CmpClientException {
+    try {
+      return enrollAsync(caName, request, debug).get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new CmpClientException("interrupted", ex);
+    } catch (ExecutionException ex) {
+      throw new CmpClientException(ex.getCause());
+    }
+  } // method enroll
+
+  /**
+   * Enrolls the certificates without blocking the caller.
+   *
+   * @param caName
+   *          CA name. Could be {@code null}.
+   * @param request
+   *          Request. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control, shared by the concurrent PKI messages. Could be
+   *          {@code null}.
+   * @return future of the merged enrolling result.
+   */
+  public CompletableFuture<EnrollCertResult> enrollAsync(String caName,
+      EnrollCertRequest request, ReqRespDebug debug) {
+    List<EnrollCertRequest> chunks = split(Args.notNull(request, "request"));
+    if (chunks.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    Map<String, CertifiedKeyPairOrError> certsOrErrors = new ConcurrentHashMap<>();
+    AtomicReference<X509Cert> caCert = new AtomicReference<>();
+    AtomicInteger nextChunk = new AtomicInteger(0);
+
+    // each lane sends the next PKI message once the previous one has been processed
+    int numLanes = Math.min(maxInFlight, chunks.size());
+    CompletableFuture<?>[] lanes = new CompletableFuture<?>[numLanes];
+    for (int i = 0; i < numLanes; i++) {
+      lanes[i] = runLane(caName, chunks, nextChunk, debug, certsOrErrors, caCert);
+    }
+
+    return CompletableFuture.allOf(lanes).thenApply(v ->
+      certsOrErrors.isEmpty() ? null : new EnrollCertResult(caCert.get(), certsOrErrors));
+  } // method enrollAsync
+
+  private CompletableFuture<Void> runLane(String caName, List<EnrollCertRequest> chunks,
+      AtomicInteger nextChunk, ReqRespDebug debug,
+      Map<String, CertifiedKeyPairOrError> certsOrErrors, AtomicReference<X509Cert> caCert) {
+    while (true) {
+      int idx = nextChunk.getAndIncrement();
+      if (idx >= chunks.size()) {
+        return CompletableFuture.completedFuture(null);
+      }
+
+      EnrollCertRequest chunk = chunks.get(idx);
+      CompletableFuture<EnrollCertResult> future;
+      try {
+        future = client.enrollCertsAsync(caName, chunk, debug);
+      } catch (RuntimeException ex) {
+        future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+      }
+
+      CompletableFuture<Void> handled = future.handle((result, th) -> {
+        if (th != null) {
+          PkiStatusInfo error = toPkiStatusInfo(th);
+          for (EnrollCertRequest.Entry entry : chunk.getRequestEntries()) {
+            certsOrErrors.put(entry.getId(), new CertifiedKeyPairOrError(error));
+          }
+        } else if (result != null) {
+          if (result.getCaCert() != null) {
+            caCert.compareAndSet(null, result.getCaCert());
+          }
+          for (String id : result.getAllIds()) {
+            certsOrErrors.put(id, result.getCertOrError(id));
+          }
+        }
+        return null;
+      });
+
+      if (!handled.isDone()) {
+        return handled.thenCompose(
+            v -> runLane(caName, chunks, nextChunk, debug, certsOrErrors, caCert));
+      }
+      // completed immediately, send the next message in this loop to avoid deep recursion
+    }
+  } // method runLane
+
+  private List<EnrollCertRequest> split(EnrollCertRequest request) {
+    List<EnrollCertRequest.Entry> entries = request.getRequestEntries();
+    int size = entries.size();
+    List<EnrollCertRequest> chunks = new ArrayList<>();
+    if (size == 0) {
+      return chunks;
+    }
+
+    // as few PKI messages as possible, but enough to keep maxInFlight messages busy
+    int numChunks = Math.max((size + maxEntriesPerMessage - 1) / maxEntriesPerMessage,
+        Math.min(size, maxInFlight));
+    int chunkSize = size / numChunks;
+    int remainder = size % numChunks;
+
+    int offset = 0;
+    for (int i = 0; i < numChunks; i++) {
+      int end = offset + chunkSize + (i < remainder ? 1 : 0);
+      EnrollCertRequest chunk = new EnrollCertRequest(request.getType());
+      for (EnrollCertRequest.Entry entry : entries.subList(offset, end)) {
+        chunk.addRequestEntry(entry);
+      }
+      chunks.add(chunk);
+      offset = end;
+    }
+    return chunks;
+  } // method split
+
+  private static PkiStatusInfo toPkiStatusInfo(Throwable th) {
+    Throwable cause = th;
+    while (cause instanceof CompletionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+
+    if (cause instanceof PkiErrorException) {
+      PkiErrorException ex = (PkiErrorException) cause;
+      return new PkiStatusInfo(ex.getStatus(), ex.getPkiFailureInfo(), ex.getStatusMessage());
+    } else {
+      return new PkiStatusInfo(PKIStatus.REJECTION, PKIFailureInfo.systemFailure,
+          cause.getClass().getSimpleName() + ": " + cause.getMessage());
+    }
+  } // method toPkiStatusInfo
+
+}
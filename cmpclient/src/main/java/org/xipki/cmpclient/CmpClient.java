@@ -23,6 +23,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.bouncycastle.asn1.pkcs.CertificationRequest;
 import org.bouncycastle.asn1.x500.X500Name;
@@ -98,6 +99,25 @@ public interface CmpClient extends Closeable {
   EnrollCertResult enrollCerts(String caName, EnrollCertRequest request, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException;
 
+  /**
+   * Enrolls a set of certificates without blocking the caller. The transport is
+   * thread-per-request: each message in flight occupies one thread of a pool with maxConnections
+   * threads (one thread if maxConnections is not set), further messages are queued. A POST which
+   * has been sent completely is never repeated, so a certificate is not issued twice by a retry.
+   *
+   * @param caName
+   *          CA name. Could be {@code null}.
+   * @param request
+   *          Request. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control. Could be {@code null}.
+   * @return future of the enrolling result. It is completed exceptionally with
+   *          {@link PkiErrorException} if the response returns none-success status, and with
+   *          {@link CmpClientException} if client error occurs.
+   */
+  CompletableFuture<EnrollCertResult> enrollCertsAsync(String caName, EnrollCertRequest request,
+      ReqRespDebug debug);
+
   /**
    * Revokes a certificate.
    * @param caName
@@ -44,6 +44,23 @@ public class CmpClientConf extends ValidatableConf {
 
     private String ssl;
 
+    /**
+     * Maximal number of pooled keep-alive connections to the CA, 0 to open a new connection
+     * for each request.
+     */
+    private int maxConnections;
+
+    /**
+     * Timeout in milliseconds to connect to the CA and to wait for a pooled connection,
+     * 0 for infinite timeout.
+     */
+    private int connectTimeout = 10000;
+
+    /**
+     * Timeout in milliseconds to read the response of the CA, 0 for infinite timeout.
+     */
+    private int readTimeout = 60000;
+
     private String requestor;
 
     private String responder;
@@ -88,6 +105,30 @@ public class CmpClientConf extends ValidatableConf {
       this.ssl = ssl;
     }
 
+    public int getMaxConnections() {
+      return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+    }
+
+    public int getConnectTimeout() {
+      return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+      this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+      return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+      this.readTimeout = readTimeout;
+    }
+
     public String getRequestor() {
       return requestor;
     }
@@ -127,6 +127,12 @@ class CaConf {
 
   private HostnameVerifier hostnameVerifier;
 
+  private int maxConnections;
+
+  private int connectTimeout;
+
+  private int readTimeout;
+
   private Map<String, CertprofileInfo> profiles = Collections.emptyMap();
 
   private List<X509Cert> dhpocs;
@@ -287,4 +293,28 @@ class CaConf {
     this.hostnameVerifier = hostnameVerifier;
   }
 
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
 }
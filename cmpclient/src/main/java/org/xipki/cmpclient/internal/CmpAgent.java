@@ -42,6 +42,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -166,6 +173,7 @@ import org.xipki.util.DateUtil;
 import org.xipki.util.Hex;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
+import org.xipki.util.PooledCurl;
 import org.xipki.util.ReqRespDebug;
 import org.xipki.util.ReqRespDebug.ReqRespPair;
 
@@ -182,6 +190,20 @@ import com.alibaba.fastjson.JSONObject;
 
 class CmpAgent {
 
+  private static class ParsedEnrollCertResponse {
+
+    private final EnrollCertResponse result;
+
+    // null if the certificates need not be confirmed
+    private final PKIMessage confirmRequest;
+
+    ParsedEnrollCertResponse(EnrollCertResponse result, PKIMessage confirmRequest) {
+      this.result = result;
+      this.confirmRequest = confirmRequest;
+    }
+
+  } // class ParsedEnrollCertResponse
+
   private static final Logger LOG = LoggerFactory.getLogger(CmpAgent.class);
 
   private static final String CMP_REQUEST_MIMETYPE = "application/pkixcmp";
@@ -196,6 +218,8 @@ class CmpAgent {
 
   private static final BigInteger MINUS_ONE = BigInteger.valueOf(-1);
 
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+
   /**
    * Intern status to indicate that there are errors in the response.
    */
@@ -223,6 +247,16 @@ class CmpAgent {
 
   private final HostnameVerifier hostnameVerifier;
 
+  private PooledCurl curl;
+
+  private int maxConnections;
+
+  private int connectTimeout;
+
+  private int readTimeout;
+
+  private ExecutorService asyncExecutor;
+
   CmpAgent(Requestor requestor, Responder responder,
       String serverUrl, SecurityFactory securityFactory,
       SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
@@ -251,9 +285,84 @@ class CmpAgent {
     }
   } // constructor
 
+  /**
+   * Sets the timeouts of the connections to the CA.
+   * @param connectTimeout
+   *          Timeout in milliseconds to connect and to wait for a pooled connection, 0 for
+   *          infinite timeout.
+   * @param readTimeout
+   *          Timeout in milliseconds to read the response, 0 for infinite timeout.
+   */
+  synchronized void setTimeouts(int connectTimeout, int readTimeout) {
+    this.connectTimeout = Args.notNegative(connectTimeout, "connectTimeout");
+    this.readTimeout = Args.notNegative(readTimeout, "readTimeout");
+    if (curl != null) {
+      curl.setConnectTimeout(connectTimeout);
+      curl.setReadTimeout(readTimeout);
+    }
+  } // method setTimeouts
+
+  /**
+   * Sets the maximal number of pooled keep-alive connections to the CA.
+   * @param maxConnections
+   *          Maximal number of connections, 0 to open a new connection for each request.
+   */
+  synchronized void setMaxConnections(int maxConnections) {
+    close();
+    this.maxConnections = Args.notNegative(maxConnections, "maxConnections");
+    if (maxConnections > 0) {
+      PooledCurl pooledCurl = new PooledCurl();
+      pooledCurl.setSsl(sslSocketFactory, hostnameVerifier);
+      pooledCurl.setMaxConnectionsPerHost(maxConnections);
+      pooledCurl.setConnectTimeout(connectTimeout);
+      pooledCurl.setReadTimeout(readTimeout);
+      this.curl = pooledCurl;
+    }
+  } // method setMaxConnections
+
+  synchronized void close() {
+    if (curl != null) {
+      curl.close();
+      curl = null;
+    }
+
+    if (asyncExecutor != null) {
+      asyncExecutor.shutdown();
+      asyncExecutor = null;
+    }
+  } // method close
+
+  /**
+   * Returns the executor for the asynchronous requests. The transport is blocking, each request
+   * in flight occupies one of its maxConnections threads (one thread without pooled connections),
+   * further requests are queued.
+   */
+  private synchronized ExecutorService getAsyncExecutor() {
+    if (asyncExecutor == null) {
+      int threads = Math.max(1, maxConnections);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "cmp-agent-" + THREAD_INDEX.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      asyncExecutor = executor;
+    }
+    return asyncExecutor;
+  } // method getAsyncExecutor
+
   private byte[] send(byte[] request) throws IOException {
     Args.notNull(request, "request");
+    PooledCurl pooledCurl = curl;
+    if (pooledCurl != null) {
+      return pooledCurl.post(serverUrl.toString(), CMP_REQUEST_MIMETYPE, request,
+          CMP_RESPONSE_MIMETYPE);
+    }
+
     HttpURLConnection httpUrlConnection = IoUtil.openHttpConn(serverUrl);
+    httpUrlConnection.setConnectTimeout(connectTimeout);
+    httpUrlConnection.setReadTimeout(readTimeout);
     if (httpUrlConnection instanceof HttpsURLConnection) {
       if (sslSocketFactory != null) {
         ((HttpsURLConnection) httpUrlConnection).setSSLSocketFactory(sslSocketFactory);
@@ -299,6 +408,16 @@ class CmpAgent {
     return IoUtil.read(inputStream);
   } // method send
 
+  private CompletableFuture<byte[]> sendAsync(byte[] request) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return send(request);
+      } catch (IOException ex) {
+        throw new CompletionException(ex);
+      }
+    }, getAsyncExecutor());
+  } // method sendAsync
+
   private PKIMessage sign(PKIMessage request) throws CmpClientException {
     Args.notNull(request, "request");
     if (requestor == null) {
@@ -328,23 +447,8 @@ class CmpAgent {
       throws CmpClientException {
     Args.notNull(request, "request");
     PKIMessage tmpRequest = requestor.signRequest() ? sign(request) : request;
-
-    byte[] encodedRequest;
-    try {
-      encodedRequest = tmpRequest.getEncoded();
-    } catch (IOException ex) {
-      LOG.error("could not encode the PKI request {}", tmpRequest);
-      throw new CmpClientException(ex.getMessage(), ex);
-    }
-
-    ReqRespPair reqResp = null;
-    if (debug != null) {
-      reqResp = new ReqRespPair();
-      debug.add(reqResp);
-      if (debug.saveRequest()) {
-        reqResp.setRequest(encodedRequest);
-      }
-    }
+    byte[] encodedRequest = encode(tmpRequest);
+    ReqRespPair reqResp = newReqRespPair(debug, encodedRequest);
 
     byte[] encodedResponse;
     try {
@@ -358,6 +462,74 @@ class CmpAgent {
       reqResp.setResponse(encodedResponse);
     }
 
+    return verifyResponse(request, encodedResponse);
+  } // method signAndSend
+
+  private CompletableFuture<VerifiedPkiMessage> signAndSendAsync(PKIMessage request,
+      ReqRespDebug debug) {
+    final byte[] encodedRequest;
+    try {
+      Args.notNull(request, "request");
+      PKIMessage tmpRequest = requestor.signRequest() ? sign(request) : request;
+      encodedRequest = encode(tmpRequest);
+    } catch (CmpClientException | RuntimeException ex) {
+      return failedFuture(ex);
+    }
+
+    ReqRespPair reqResp = newReqRespPair(debug, encodedRequest);
+    CompletableFuture<VerifiedPkiMessage> ret = new CompletableFuture<>();
+    sendAsync(encodedRequest).whenComplete((encodedResponse, th) -> {
+      if (th != null) {
+        Throwable cause = (th instanceof CompletionException && th.getCause() != null)
+            ? th.getCause() : th;
+        LOG.error("could not send the PKI request {} to server", request.getHeader());
+        ret.completeExceptionally(new CmpClientException("TRANSPORT_ERROR", cause));
+        return;
+      }
+
+      if (reqResp != null && debug.saveResponse()) {
+        reqResp.setResponse(encodedResponse);
+      }
+
+      try {
+        ret.complete(verifyResponse(request, encodedResponse));
+      } catch (CmpClientException | RuntimeException ex) {
+        ret.completeExceptionally(ex);
+      }
+    });
+    return ret;
+  } // method signAndSendAsync
+
+  private static byte[] encode(PKIMessage request) throws CmpClientException {
+    try {
+      return request.getEncoded();
+    } catch (IOException ex) {
+      LOG.error("could not encode the PKI request {}", request);
+      throw new CmpClientException(ex.getMessage(), ex);
+    }
+  } // method encode
+
+  private static ReqRespPair newReqRespPair(ReqRespDebug debug, byte[] encodedRequest) {
+    if (debug == null) {
+      return null;
+    }
+
+    ReqRespPair reqResp = new ReqRespPair();
+    debug.add(reqResp);
+    if (debug.saveRequest()) {
+      reqResp.setRequest(encodedRequest);
+    }
+    return reqResp;
+  } // method newReqRespPair
+
+  private static <T> CompletableFuture<T> failedFuture(Throwable th) {
+    CompletableFuture<T> ret = new CompletableFuture<>();
+    ret.completeExceptionally(th);
+    return ret;
+  }
+
+  private VerifiedPkiMessage verifyResponse(PKIMessage request, byte[] encodedResponse)
+      throws CmpClientException {
     GeneralPKIMessage response;
     try {
       response = new GeneralPKIMessage(encodedResponse);
@@ -407,7 +579,7 @@ class CmpAgent {
     }
 
     return ret;
-  } // method signAndSend
+  } // method verifyResponse
 
   private ASN1Encodable extractGeneralRepContent(VerifiedPkiMessage response, String expectedType,
       boolean requireProtectionCheck) throws CmpClientException, PkiErrorException {
@@ -1078,31 +1250,93 @@ class CmpAgent {
       reqIdIdMap.put(reqEntry.getCertReq().getCertReqId().getValue(), reqEntry.getId());
     }
 
-    int exptectedBodyType;
-    switch (req.getType()) {
+    return requestCertificate0(request, reqIdIdMap, getExpectedBodyType(req.getType()), debug);
+  } // method requestCertificate
+
+  private static int getExpectedBodyType(EnrollCertRequest.EnrollType type) {
+    switch (type) {
       case INIT_REQ:
-        exptectedBodyType = PKIBody.TYPE_INIT_REP;
-        break;
+        return PKIBody.TYPE_INIT_REP;
       case CERT_REQ:
-        exptectedBodyType = PKIBody.TYPE_CERT_REP;
-        break;
+        return PKIBody.TYPE_CERT_REP;
       case KEY_UPDATE:
-        exptectedBodyType = PKIBody.TYPE_KEY_UPDATE_REP;
-        break;
+        return PKIBody.TYPE_KEY_UPDATE_REP;
       case CROSS_CERT_REQ:
-        exptectedBodyType = PKIBody.TYPE_CROSS_CERT_REP;
-        break;
+        return PKIBody.TYPE_CROSS_CERT_REP;
       default:
-        throw new IllegalStateException("unknown EnrollCertRequest.Type " + req.getType());
+        throw new IllegalStateException("unknown EnrollCertRequest.Type " + type);
     }
-
-    return requestCertificate0(request, reqIdIdMap, exptectedBodyType, debug);
-  } // method requestCertificate
+  } // method getExpectedBodyType
 
   private EnrollCertResponse requestCertificate0(PKIMessage reqMessage,
       Map<BigInteger, String> reqIdIdMap, int expectedBodyType, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException {
     VerifiedPkiMessage response = signAndSend(reqMessage, debug);
+    ParsedEnrollCertResponse parsed =
+        parseEnrollCertResponse(response, reqIdIdMap, expectedBodyType);
+    if (parsed.confirmRequest == null) {
+      return parsed.result;
+    }
+
+    response = signAndSend(parsed.confirmRequest, debug);
+    checkProtection(response);
+
+    return parsed.result;
+  } // method requestCertificate0
+
+  /**
+   * Enrolls certificates without blocking the caller. The certificates are confirmed
+   * automatically if the CA requires the explicit confirmation.
+   *
+   * @param req
+   *          Request. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control. Could be {@code null}.
+   * @return future of the response. It is completed exceptionally with
+   *          {@link CmpClientException} if client error occurs and with
+   *          {@link PkiErrorException} if the response returns none-success status.
+   */
+  public CompletableFuture<EnrollCertResponse> requestCertificateAsync(EnrollCertRequest req,
+      ReqRespDebug debug) {
+    final PKIMessage request;
+    final Map<BigInteger, String> reqIdIdMap = new HashMap<>();
+    final int expectedBodyType;
+    try {
+      request = buildPkiMessage(Args.notNull(req, "req"));
+      for (EnrollCertRequest.Entry reqEntry : req.getRequestEntries()) {
+        reqIdIdMap.put(reqEntry.getCertReq().getCertReqId().getValue(), reqEntry.getId());
+      }
+      expectedBodyType = getExpectedBodyType(req.getType());
+    } catch (RuntimeException ex) {
+      return failedFuture(ex);
+    }
+
+    return signAndSendAsync(request, debug).thenCompose(response -> {
+      ParsedEnrollCertResponse parsed;
+      try {
+        parsed = parseEnrollCertResponse(response, reqIdIdMap, expectedBodyType);
+      } catch (CmpClientException | PkiErrorException ex) {
+        throw new CompletionException(ex);
+      }
+
+      if (parsed.confirmRequest == null) {
+        return CompletableFuture.completedFuture(parsed.result);
+      }
+
+      return signAndSendAsync(parsed.confirmRequest, debug).thenApply(confirmResponse -> {
+        try {
+          checkProtection(confirmResponse);
+        } catch (PkiErrorException ex) {
+          throw new CompletionException(ex);
+        }
+        return parsed.result;
+      });
+    });
+  } // method requestCertificateAsync
+
+  private ParsedEnrollCertResponse parseEnrollCertResponse(VerifiedPkiMessage response,
+      Map<BigInteger, String> reqIdIdMap, int expectedBodyType)
+      throws CmpClientException, PkiErrorException {
     checkProtection(response);
 
     PKIBody respBody = response.getPkiMessage().getBody();
@@ -1159,12 +1393,12 @@ class CmpAgent {
       if (status == PKIStatus.GRANTED || status == PKIStatus.GRANTED_WITH_MODS) {
         CertifiedKeyPair cvk = certResp.getCertifiedKeyPair();
         if (cvk == null) {
-          return null;
+          return new ParsedEnrollCertResponse(null, null);
         }
 
         CMPCertificate cmpCert = cvk.getCertOrEncCert().getCertificate();
         if (cmpCert == null) {
-          return null;
+          return new ParsedEnrollCertResponse(null, null);
         }
 
         if (requestor == null) {
@@ -1225,17 +1459,13 @@ class CmpAgent {
     }
 
     if (!requireConfirm) {
-      return result;
+      return new ParsedEnrollCertResponse(result, null);
     }
 
     PKIMessage confirmRequest = buildCertConfirmRequest(
         response.getPkiMessage().getHeader().getTransactionID(), certConfirmBuilder);
-
-    response = signAndSend(confirmRequest, debug);
-    checkProtection(response);
-
-    return result;
-  } // method requestCertificate0
+    return new ParsedEnrollCertResponse(result, confirmRequest);
+  } // method parseEnrollCertResponse
 
   private PKIMessage buildCertConfirmRequest(ASN1OctetString tid,
       CertificateConfirmationContentBuilder certConfirmBuilder) throws CmpClientException {
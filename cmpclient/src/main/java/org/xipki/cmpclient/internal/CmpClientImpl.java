@@ -48,6 +48,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -381,6 +383,9 @@ public final class CmpClientImpl implements CmpClient {
 
         CaConf ca = new CaConf(caName, caType.getUrl(), caType.getHealthUrl(),
             caType.getRequestor(), responder, sslSocketFactory, hostnameVerifier);
+        ca.setMaxConnections(caType.getMaxConnections());
+        ca.setConnectTimeout(caType.getConnectTimeout());
+        ca.setReadTimeout(caType.getReadTimeout());
 
         // CA certchain
         Certs caCertchain = caType.getCaCertchain();
@@ -549,6 +554,8 @@ public final class CmpClientImpl implements CmpClient {
       if (requestors.containsKey(requestorName)) {
         CmpAgent agent = new CmpAgent(requestors.get(requestorName), ca.getResponder(), ca.getUrl(),
             securityFactory, ca.getSslSocketFactory(), ca.getHostnameVerifier());
+        agent.setTimeouts(ca.getConnectTimeout(), ca.getReadTimeout());
+        agent.setMaxConnections(ca.getMaxConnections());
         ca.setAgent(agent);
       } else {
         LOG.error("could not find requestor named {} for CA {}", requestorName, ca.getName());
@@ -601,6 +608,12 @@ public final class CmpClientImpl implements CmpClient {
       }
       scheduledThreadPoolExecutor = null;
     }
+
+    for (CaConf ca : casMap.values()) {
+      if (ca.getAgent() != null) {
+        ca.getAgent().close();
+      }
+    }
   } // method close
 
   @Override
@@ -643,6 +656,40 @@ public final class CmpClientImpl implements CmpClient {
       return null;
     }
 
+    CaConf ca = getCaForEnroll(caName, request);
+    EnrollCertResponse result = ca.getAgent().requestCertificate(request, debug);
+    return parseEnrollCertResult(result);
+  } // method enrollCerts
+
+  @Override
+  public CompletableFuture<EnrollCertResult> enrollCertsAsync(String caName,
+      EnrollCertRequest request, ReqRespDebug debug) {
+    CaConf ca;
+    try {
+      List<EnrollCertRequest.Entry> requestEntries =
+          Args.notNull(request, "request").getRequestEntries();
+      if (CollectionUtil.isEmpty(requestEntries)) {
+        return CompletableFuture.completedFuture(null);
+      }
+      ca = getCaForEnroll(caName, request);
+    } catch (CmpClientException | RuntimeException ex) {
+      CompletableFuture<EnrollCertResult> ret = new CompletableFuture<>();
+      ret.completeExceptionally(ex);
+      return ret;
+    }
+
+    return ca.getAgent().requestCertificateAsync(request, debug).thenApply(result -> {
+      try {
+        return parseEnrollCertResult(result);
+      } catch (CmpClientException ex) {
+        throw new CompletionException(ex);
+      }
+    });
+  } // method enrollCertsAsync
+
+  private CaConf getCaForEnroll(String caName, EnrollCertRequest request)
+      throws CmpClientException {
+    List<EnrollCertRequest.Entry> requestEntries = request.getRequestEntries();
     initIfNotInitialized();
 
     boolean bo = (caName != null);
@@ -671,10 +718,8 @@ public final class CmpClientImpl implements CmpClient {
     if (ca == null) {
       throw new CmpClientException("could not find CA named " + caName);
     }
-
-    EnrollCertResponse result = ca.getAgent().requestCertificate(request, debug);
-    return parseEnrollCertResult(result);
-  } // method enrollCerts
+    return ca;
+  } // method getCaForEnroll
 
   private void checkCertprofileSupportInCa(String certprofile, String caName)
       throws CmpClientException {
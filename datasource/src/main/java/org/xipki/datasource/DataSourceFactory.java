@@ -113,6 +113,17 @@ public class DataSourceFactory {
       conf.setProperty("dataSource.password", password);
     }
 
+    // passwords of the read replicas, e.g. xipki.replica.r1.password
+    for (String key : conf.stringPropertyNames()) {
+      if (key.startsWith(DataSourceReplicas.PROP_REPLICA_PREFIX)
+          && (key.endsWith(".password") || key.endsWith(".dataSource.password"))) {
+        password = conf.getProperty(key);
+        if (passwordResolver != null) {
+          conf.setProperty(key, new String(passwordResolver.resolvePassword(password)));
+        }
+      }
+    }
+
     /*
      * Expand the file path like
      *   dataSource.url = jdbc:h2:~/xipki/db/h2/ocspcrl
@@ -0,0 +1,331 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.datasource;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Read replicas of a datasource. The replicas are checked periodically, a replica is used only
+ * if it is reachable and its replication lag does not exceed the configured maximum.
+ *
+ * <p>Configuration in the properties of the primary datasource:
+ * <pre>
+ * # names of the replicas
+ * xipki.replicas = r1,r2
+ * # properties of the replica override the ones of the primary
+ * xipki.replica.r1.jdbcUrl = jdbc:postgresql://replica1:5432/ocsp
+ * xipki.replica.r2.jdbcUrl = jdbc:postgresql://replica2:5432/ocsp
+ * # maximal accepted replication lag in seconds, default 30
+ * xipki.replicaMaxLag = 30
+ * # interval of the health check in seconds, default 10
+ * xipki.replicaCheckInterval = 10
+ * # SQL to query the replication lag in seconds, default depends on the database type
+ * xipki.replicaLagSql = ...
+ * </pre>
+ *
+ * @author Lijun Liao
+ */
+
+class DataSourceReplicas implements Closeable {
+
+  private static class Replica {
+
+    private final String name;
+
+    private final HikariDataSource service;
+
+    private volatile boolean healthy;
+
+    private boolean checked;
+
+    private volatile long lagSeconds = -1;
+
+    Replica(String name, HikariDataSource service) {
+      this.name = name;
+      this.service = service;
+    }
+
+  } // class Replica
+
+  static final String PROP_REPLICAS = "xipki.replicas";
+
+  static final String PROP_REPLICA_PREFIX = "xipki.replica.";
+
+  static final String PROP_MAX_LAG = "xipki.replicaMaxLag";
+
+  static final String PROP_CHECK_INTERVAL = "xipki.replicaCheckInterval";
+
+  static final String PROP_LAG_SQL = "xipki.replicaLagSql";
+
+  private static final Logger LOG = LoggerFactory.getLogger(DataSourceReplicas.class);
+
+  private static final String COLUMN_MYSQL_LAG = "Seconds_Behind_Master";
+
+  private final String name;
+
+  private final List<Replica> replicas;
+
+  private final long maxLagSeconds;
+
+  private final String lagSql;
+
+  private final AtomicInteger nextIndex = new AtomicInteger();
+
+  private final ScheduledExecutorService checker;
+
+  private DataSourceReplicas(String name, List<Replica> replicas, long maxLagSeconds,
+      String lagSql, int checkInterval) {
+    this.name = name;
+    this.replicas = replicas;
+    this.maxLagSeconds = maxLagSeconds;
+    this.lagSql = lagSql;
+
+    checkReplicas();
+
+    this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "datasource-replica-checker-" + name);
+      thread.setDaemon(true);
+      return thread;
+    });
+    checker.scheduleWithFixedDelay(this::checkReplicas, checkInterval, checkInterval,
+        TimeUnit.SECONDS);
+  } // constructor
+
+  /**
+   * Creates the replicas configured in the given properties, and removes the replica
+   * properties from {@code props}.
+   *
+   * @param name
+   *          Name of the datasource. Must not be {@code null}.
+   * @param props
+   *          Properties of the primary datasource. Must not be {@code null}.
+   * @param databaseType
+   *          Database type. Must not be {@code null}.
+   * @return the replicas, or {@code null} if no replica is configured.
+   */
+  static DataSourceReplicas create(String name, Properties props, DatabaseType databaseType) {
+    Args.notNull(props, "props");
+    String names = (String) props.remove(PROP_REPLICAS);
+    String str = (String) props.remove(PROP_MAX_LAG);
+    long maxLag = (str == null) ? 30 : Long.parseLong(str.trim());
+    str = (String) props.remove(PROP_CHECK_INTERVAL);
+    int checkInterval = (str == null) ? 10 : Integer.parseInt(str.trim());
+    String lagSql = (String) props.remove(PROP_LAG_SQL);
+
+    Map<String, Properties> overrides = new LinkedHashMap<>();
+    for (String key : props.stringPropertyNames()) {
+      if (!key.startsWith(PROP_REPLICA_PREFIX)) {
+        continue;
+      }
+
+      String str2 = key.substring(PROP_REPLICA_PREFIX.length());
+      int idx = str2.indexOf('.');
+      if (idx < 1) {
+        throw new IllegalArgumentException("invalid property " + key);
+      }
+
+      overrides.computeIfAbsent(str2.substring(0, idx), k -> new Properties())
+        .setProperty(str2.substring(idx + 1), props.getProperty(key));
+      props.remove(key);
+    }
+
+    if (names == null || names.trim().isEmpty()) {
+      if (!overrides.isEmpty()) {
+        LOG.warn("ignore the properties of replicas {}, {} is not set", overrides.keySet(),
+            PROP_REPLICAS);
+      }
+      return null;
+    }
+
+    Args.positive(checkInterval, PROP_CHECK_INTERVAL);
+    if (lagSql == null) {
+      lagSql = defaultLagSql(Args.notNull(databaseType, "databaseType"));
+    }
+
+    List<Replica> replicas = new ArrayList<>();
+    try {
+      for (String replicaName : names.split(",")) {
+        replicaName = replicaName.trim();
+        Properties replicaProps = new Properties();
+        // copy the remaining (HikariCP) properties of the primary
+        for (String key : props.stringPropertyNames()) {
+          if (!key.startsWith("xipki.")) {
+            replicaProps.setProperty(key, props.getProperty(key));
+          }
+        }
+        replicaProps.setProperty("readOnly", "true");
+        // an unreachable replica shall not prevent the start, it is marked as unhealthy
+        replicaProps.setProperty("initializationFailTimeout", "-1");
+        replicaProps.setProperty("poolName", name + "-" + replicaName);
+
+        Properties override = overrides.get(replicaName);
+        if (override != null) {
+          replicaProps.putAll(override);
+        }
+
+        HikariDataSource service = new HikariDataSource(new HikariConfig(replicaProps));
+        replicas.add(new Replica(replicaName, service));
+      }
+    } catch (RuntimeException ex) {
+      for (Replica replica : replicas) {
+        replica.service.close();
+      }
+      throw ex;
+    }
+
+    LOG.info("datasource {}: replicas={}, maxLag={}s, checkInterval={}s, lagSql={}",
+        name, names, maxLag, checkInterval, lagSql);
+    return new DataSourceReplicas(name, replicas, maxLag, lagSql, checkInterval);
+  } // method create
+
+  private static String defaultLagSql(DatabaseType databaseType) {
+    switch (databaseType) {
+      case POSTGRES:
+        return "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)"
+            + " END";
+      case MYSQL:
+      case MARIADB:
+        return "SHOW SLAVE STATUS";
+      default:
+        // only the connectivity is checked
+        return null;
+    }
+  } // method defaultLagSql
+
+  /**
+   * Borrows a connection from a healthy replica, round-robin.
+   *
+   * @return the connection, or {@code null} if no replica is healthy.
+   */
+  Connection getConnection() {
+    final int n = replicas.size();
+    int start = nextIndex.getAndIncrement() & Integer.MAX_VALUE;
+    for (int i = 0; i < n; i++) {
+      Replica replica = replicas.get((start + i) % n);
+      if (!replica.healthy) {
+        continue;
+      }
+
+      try {
+        return replica.service.getConnection();
+      } catch (SQLException | RuntimeException ex) {
+        replica.healthy = false;
+        LogUtil.warn(LOG, ex, "could not borrow connection from replica " + replica.name
+            + " of datasource " + name + ", mark it as unhealthy");
+      }
+    }
+    return null;
+  } // method getConnection
+
+  /**
+   * Returns the replication lag in seconds of each replica, -1 if the replica is unhealthy.
+   *
+   * @return the replication lag of the replicas.
+   */
+  Map<String, Long> getLags() {
+    Map<String, Long> lags = new LinkedHashMap<>();
+    for (Replica replica : replicas) {
+      lags.put(replica.name, replica.healthy ? replica.lagSeconds : -1);
+    }
+    return lags;
+  }
+
+  private void checkReplicas() {
+    for (Replica replica : replicas) {
+      boolean healthy = false;
+      long lag = -1;
+      try (Connection conn = replica.service.getConnection()) {
+        if (lagSql == null) {
+          healthy = conn.isValid(5);
+          lag = 0;
+        } else {
+          lag = queryLag(conn);
+          healthy = lag >= 0 && lag <= maxLagSeconds;
+        }
+      } catch (SQLException | RuntimeException ex) {
+        String msg = "could not check replica " + replica.name + " of datasource " + name;
+        if (replica.healthy || !replica.checked) {
+          LogUtil.warn(LOG, ex, msg);
+        } else {
+          LOG.debug(msg, ex);
+        }
+      }
+
+      if (replica.healthy != healthy) {
+        LOG.info("replica {} of datasource {} is {} (lag={}s)", replica.name, name,
+            healthy ? "healthy" : "unhealthy", lag);
+      }
+      replica.lagSeconds = lag;
+      replica.healthy = healthy;
+      replica.checked = true;
+    }
+  } // method checkReplicas
+
+  private long queryLag(Connection conn) throws SQLException {
+    try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(lagSql)) {
+      if (!rs.next()) {
+        // e.g. SHOW SLAVE STATUS on a server which is not a replica
+        return -1;
+      }
+
+      if (lagSql.regionMatches(true, 0, "SHOW", 0, 4)) {
+        long lag = rs.getLong(COLUMN_MYSQL_LAG);
+        // NULL if the replication is not running
+        return rs.wasNull() ? -1 : lag;
+      } else {
+        return (long) Math.ceil(rs.getDouble(1));
+      }
+    }
+  } // method queryLag
+
+  @Override
+  public void close() {
+    checker.shutdownNow();
+    for (Replica replica : replicas) {
+      try {
+        replica.service.close();
+      } catch (RuntimeException ex) {
+        LOG.warn("could not close replica {}: {}", replica.name, ex.getMessage());
+      }
+    }
+  } // method close
+
+}
@@ -25,8 +25,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,9 +40,12 @@ import org.xipki.util.Args;
 import org.xipki.util.LogUtil;
 import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
+import org.xipki.util.metrics.Histogram;
+import org.xipki.util.metrics.MetricsRegistry;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 /**
  * A wrapper of {@link HikariDataSource}.
@@ -365,8 +373,60 @@ public abstract class DataSourceWrapper implements Closeable {
 
   } // class HSQL
 
+  /**
+   * Statement borrowed via {@link DataSourceWrapper#prepareStatement(String)}.
+   */
+  private static class BorrowedStatement {
+
+    private final String sql;
+
+    // borrowed (pooled) connection, null if the statement is not cached.
+    private final Connection conn;
+
+    // physical connection, null if the statement is not cached.
+    private final Connection physicalConn;
+
+    private final long startNanos;
+
+    BorrowedStatement(String sql, Connection conn, Connection physicalConn) {
+      this.sql = sql;
+      this.conn = conn;
+      this.physicalConn = physicalConn;
+      this.startNanos = System.nanoTime();
+    }
+
+  } // class BorrowedStatement
+
+  /**
+   * Property to specify the number of cached prepared statements per connection,
+   * 0 to disable the cache. Default to 0.
+   */
+  public static final String PROP_STATEMENT_CACHE_SIZE = "xipki.statementCacheSize";
+
+  /**
+   * Property to specify whether the execution count and time of each SQL are measured and
+   * exported as metrics (xipki_datasource_sql_*), e.g. {@code xipki.sqlStatistics = true}. The
+   * measurement costs two clock reads and a map lookup per statement. Default to false.
+   */
+  public static final String PROP_SQL_STATISTICS = "xipki.sqlStatistics";
+
   private static final Logger LOG = LoggerFactory.getLogger(DataSourceWrapper.class);
 
+  // maximal number of distinct SQLs in the statistics.
+  private static final int MAX_SQL_STATISTICS = 1000;
+
+  private static final String METRIC_CONNECTION_WAIT = "xipki_datasource_connection_wait_seconds";
+
+  private static final String METRIC_POOL = "xipki_datasource_pool_connections";
+
+  private static final String METRIC_SQL_COUNT = "xipki_datasource_sql_count";
+
+  private static final String METRIC_SQL_NANOS = "xipki_datasource_sql_nanos";
+
+  private static final String METRIC_SQL_MAX_NANOS = "xipki_datasource_sql_max_nanos";
+
+  private static final String METRIC_REPLICA_LAG = "xipki_datasource_replica_lag_seconds";
+
   /**
    * References the real data source implementation this class acts as pure
    * proxy for. Derived classes must set this field at construction time.
@@ -387,6 +447,19 @@ public abstract class DataSourceWrapper implements Closeable {
 
   private final LruCache<String, String> cacheSeqNameSqls;
 
+  private final String metricsLabel;
+
+  private final Histogram metricConnectionWait;
+
+  private final ConcurrentHashMap<Statement, BorrowedStatement> borrowedStatements =
+      new ConcurrentHashMap<>();
+
+  private PreparedStatementCache statementCache;
+
+  private ConcurrentHashMap<String, SqlStatistics> sqlStatistics;
+
+  private DataSourceReplicas replicas;
+
   private DataSourceWrapper(String name, HikariDataSource service, DatabaseType dbType) {
     this.service = Args.notNull(service, "service");
     this.databaseType = Args.notNull(dbType, "dbType");
@@ -394,7 +467,42 @@ public abstract class DataSourceWrapper implements Closeable {
     this.sqlErrorCodes = SqlErrorCodes.newInstance(dbType);
     this.sqlStateCodes = SqlStateCodes.newInstance(dbType);
     this.cacheSeqNameSqls = new LruCache<>(100);
-  }
+
+    this.metricsLabel = (name == null) ? "default" : name;
+    MetricsRegistry metrics = MetricsRegistry.getDefault();
+    this.metricConnectionWait = metrics.histogram(METRIC_CONNECTION_WAIT,
+        "Time to borrow a connection from the pool", "datasource", metricsLabel);
+    metrics.statistics(METRIC_POOL, "Number of connections in the pool", "state",
+        this::getPoolStatistics, "datasource", metricsLabel);
+  } // constructor
+
+  private void configure(int statementCacheSize, boolean measureSql,
+      DataSourceReplicas replicas) {
+    if (replicas != null) {
+      this.replicas = replicas;
+      MetricsRegistry.getDefault().statistics(METRIC_REPLICA_LAG,
+          "Replication lag of the read replicas, -1 if unhealthy", "replica", replicas::getLags,
+          "datasource", metricsLabel);
+    }
+
+    if (statementCacheSize > 0) {
+      this.statementCache = new PreparedStatementCache(statementCacheSize);
+    }
+
+    if (measureSql) {
+      this.sqlStatistics = new ConcurrentHashMap<>();
+      MetricsRegistry metrics = MetricsRegistry.getDefault();
+      metrics.statistics(METRIC_SQL_COUNT, "Number of executions of the SQL", "sql",
+          () -> getSqlStatistics(SqlStatistics::getCount), "datasource", metricsLabel);
+      metrics.statistics(METRIC_SQL_NANOS, "Accumulated execution time of the SQL in nanoseconds",
+          "sql", () -> getSqlStatistics(SqlStatistics::getTotalNanos), "datasource", metricsLabel);
+      metrics.statistics(METRIC_SQL_MAX_NANOS, "Maximal execution time of the SQL in nanoseconds",
+          "sql", () -> getSqlStatistics(SqlStatistics::getMaxNanos), "datasource", metricsLabel);
+    }
+
+    LOG.info("datasource {}: statementCacheSize={}, sqlStatistics={}", metricsLabel,
+        statementCacheSize, measureSql);
+  } // method configure
 
   public final String getName() {
     return name;
@@ -409,8 +517,11 @@ public abstract class DataSourceWrapper implements Closeable {
   }
 
   public final Connection getConnection() throws DataAccessException {
+    long start = System.nanoTime();
     try {
-      return service.getConnection();
+      Connection conn = service.getConnection();
+      metricConnectionWait.observeSince(start);
+      return conn;
     } catch (Exception ex) {
       Throwable cause = ex.getCause();
       if (cause instanceof SQLException) {
@@ -426,6 +537,37 @@ public abstract class DataSourceWrapper implements Closeable {
     }
   } // method getConnection
 
+  /**
+   * Borrows a connection for read-only queries which tolerate data that is a few seconds old.
+   * The connection is borrowed from a healthy read replica if configured, otherwise from the
+   * primary database.
+   *
+   * @return the connection.
+   * @throws DataAccessException
+   *           if database error occurs.
+   */
+  public final Connection getReadConnection() throws DataAccessException {
+    if (replicas != null) {
+      long start = System.nanoTime();
+      Connection conn = replicas.getConnection();
+      if (conn != null) {
+        metricConnectionWait.observeSince(start);
+        return conn;
+      }
+    }
+
+    return getConnection();
+  } // method getReadConnection
+
+  /**
+   * Whether read replicas are configured.
+   *
+   * @return whether read replicas are configured.
+   */
+  public boolean hasReplicas() {
+    return replicas != null;
+  }
+
   public void returnConnection(Connection conn) {
     if (conn == null) {
       return;
@@ -442,8 +584,75 @@ public abstract class DataSourceWrapper implements Closeable {
     }
   } // method returnConnection
 
+  /**
+   * Returns the number of active, idle and total connections, and the number of threads
+   * waiting for a connection.
+   *
+   * @return the statistics of the connection pool.
+   */
+  public Map<String, Long> getPoolStatistics() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    HikariPoolMXBean pool = service.getHikariPoolMXBean();
+    if (pool != null) {
+      stats.put("active", (long) pool.getActiveConnections());
+      stats.put("idle", (long) pool.getIdleConnections());
+      stats.put("total", (long) pool.getTotalConnections());
+      stats.put("pending", (long) pool.getThreadsAwaitingConnection());
+    }
+    return stats;
+  } // method getPoolStatistics
+
+  /**
+   * Returns the execution statistics of the SQLs prepared via {@link #prepareStatement(String)}.
+   * The time is measured from preparing the statement till releasing it via
+   * {@link #releaseResources(Statement, ResultSet, boolean)}.
+   *
+   * @return map of the SQL to its statistics, empty if the statistics are disabled.
+   */
+  public Map<String, SqlStatistics> getSqlStatistics() {
+    return sqlStatistics == null ? Collections.emptyMap()
+        : Collections.unmodifiableMap(sqlStatistics);
+  }
+
+  private Map<String, Long> getSqlStatistics(ToLongFunction<SqlStatistics> func) {
+    Map<String, Long> map = new TreeMap<>();
+    for (Map.Entry<String, SqlStatistics> entry : sqlStatistics.entrySet()) {
+      map.put(entry.getKey(), func.applyAsLong(entry.getValue()));
+    }
+    return map;
+  }
+
+  /**
+   * Returns the number of cached prepared statements.
+   *
+   * @return the number of cached prepared statements, 0 if the cache is disabled.
+   */
+  public int getNumCachedStatements() {
+    return statementCache == null ? 0 : statementCache.size();
+  }
+
   @Override
   public void close() {
+    MetricsRegistry metrics = MetricsRegistry.getDefault();
+    metrics.remove(METRIC_POOL, "datasource", metricsLabel);
+    if (sqlStatistics != null) {
+      metrics.remove(METRIC_SQL_COUNT, "datasource", metricsLabel);
+      metrics.remove(METRIC_SQL_NANOS, "datasource", metricsLabel);
+      metrics.remove(METRIC_SQL_MAX_NANOS, "datasource", metricsLabel);
+    }
+
+    if (replicas != null) {
+      metrics.remove(METRIC_REPLICA_LAG, "datasource", metricsLabel);
+    }
+
+    if (statementCache != null) {
+      statementCache.close();
+    }
+
+    if (replicas != null) {
+      replicas.close();
+    }
+
     try {
       service.close();
     } catch (RuntimeException ex) {
@@ -491,12 +700,52 @@ public abstract class DataSourceWrapper implements Closeable {
     }
   } // method prepareStatement
 
+  /**
+   * Borrows a connection and prepares the statement. The statement must be released via
+   * {@link #releaseResources(Statement, ResultSet)} or
+   * {@link #releaseResources(Statement, ResultSet, boolean)}, and must not be closed directly.
+   *
+   * @param sqlQuery
+   *          The SQL. Must not be {@code null}.
+   * @return the prepared statement.
+   * @throws DataAccessException
+   *           if database error occurs.
+   */
   public PreparedStatement prepareStatement(String sqlQuery) throws DataAccessException {
-    Connection conn = getConnection();
+    return prepareStatement0(getConnection(), sqlQuery);
+  }
+
+  /**
+   * Like {@link #prepareStatement(String)}, but the connection is borrowed via
+   * {@link #getReadConnection()}. Only for read-only queries which tolerate stale data.
+   *
+   * @param sqlQuery
+   *          The SQL. Must not be {@code null}.
+   * @return the prepared statement.
+   * @throws DataAccessException
+   *           if database error occurs.
+   */
+  public PreparedStatement prepareReadStatement(String sqlQuery) throws DataAccessException {
+    return prepareStatement0(getReadConnection(), sqlQuery);
+  }
 
+  private PreparedStatement prepareStatement0(Connection conn, String sqlQuery)
+      throws DataAccessException {
     boolean succ = false;
     try {
-      PreparedStatement ps = conn.prepareStatement(sqlQuery);
+      PreparedStatement ps;
+      if (statementCache != null) {
+        // the statements of the pooled connection are closed while returning the connection,
+        // so the statements are prepared on the physical connection.
+        Connection physicalConn = conn.unwrap(Connection.class);
+        ps = statementCache.take(physicalConn, sqlQuery);
+        borrowedStatements.put(ps, new BorrowedStatement(sqlQuery, conn, physicalConn));
+      } else {
+        ps = conn.prepareStatement(sqlQuery);
+        if (sqlStatistics != null) {
+          borrowedStatements.put(ps, new BorrowedStatement(sqlQuery, null, null));
+        }
+      }
       succ = true;
       return ps;
     } catch (SQLException ex) {
@@ -523,7 +772,26 @@ public abstract class DataSourceWrapper implements Closeable {
 
     if (ps == null) {
       return;
-    } else if (returnConnection) {
+    }
+
+    BorrowedStatement borrowed = borrowedStatements.isEmpty() ? null
+        : borrowedStatements.remove(ps);
+    if (borrowed != null) {
+      if (sqlStatistics != null) {
+        recordSqlStatistics(borrowed.sql, System.nanoTime() - borrowed.startNanos);
+      }
+
+      if (borrowed.physicalConn != null) {
+        // cached statement
+        statementCache.release(borrowed.physicalConn, borrowed.sql, (PreparedStatement) ps);
+        if (returnConnection) {
+          returnConnection(borrowed.conn);
+        }
+        return;
+      }
+    }
+
+    if (returnConnection) {
       Connection conn = null;
       try {
         conn = ps.getConnection();
@@ -549,6 +817,17 @@ public abstract class DataSourceWrapper implements Closeable {
     }
   } // method releaseResources
 
+  private void recordSqlStatistics(String sql, long nanos) {
+    SqlStatistics stats = sqlStatistics.get(sql);
+    if (stats == null) {
+      if (sqlStatistics.size() >= MAX_SQL_STATISTICS) {
+        return;
+      }
+      stats = sqlStatistics.computeIfAbsent(sql, k -> new SqlStatistics());
+    }
+    stats.record(nanos);
+  } // method recordSqlStatistics
+
   public String buildSelectFirstSql(int rows, String coreSql) {
     return buildSelectFirstSql(rows, null, coreSql);
   }
@@ -1169,24 +1448,50 @@ public abstract class DataSourceWrapper implements Closeable {
         || databaseType == DatabaseType.HSQL || databaseType == DatabaseType.MYSQL
         || databaseType == DatabaseType.MARIADB || databaseType == DatabaseType.ORACLE
         || databaseType == DatabaseType.POSTGRES) {
-      HikariConfig conf = new HikariConfig(props);
-      HikariDataSource service = new HikariDataSource(conf);
+      // properties of xipki, will not be passed to the HikariCP
+      String str = (String) props.remove(PROP_STATEMENT_CACHE_SIZE);
+      int statementCacheSize = (str == null) ? 0 : Integer.parseInt(str.trim());
+      str = (String) props.remove(PROP_SQL_STATISTICS);
+      boolean measureSql = (str != null) && Boolean.parseBoolean(str.trim());
+      // the replicas inherit the properties of the primary database
+      DataSourceReplicas replicas = DataSourceReplicas.create(name, props, databaseType);
+
+      HikariDataSource service;
+      try {
+        service = new HikariDataSource(new HikariConfig(props));
+      } catch (RuntimeException ex) {
+        if (replicas != null) {
+          replicas.close();
+        }
+        throw ex;
+      }
+
+      DataSourceWrapper ds;
       switch (databaseType) {
         case DB2:
-          return new DB2(name, service);
+          ds = new DB2(name, service);
+          break;
         case H2:
-          return new H2(name, service);
+          ds = new H2(name, service);
+          break;
         case HSQL:
-          return new HSQL(name, service);
+          ds = new HSQL(name, service);
+          break;
         case MYSQL:
-          return new MySQL(name, service);
+          ds = new MySQL(name, service);
+          break;
         case MARIADB:
-          return new MariaDB(name, service);
+          ds = new MariaDB(name, service);
+          break;
         case ORACLE:
-          return new Oracle(name, service);
+          ds = new Oracle(name, service);
+          break;
         default: // POSTGRESQL:
-          return new PostgreSQL(name, service);
+          ds = new PostgreSQL(name, service);
+          break;
       }
+      ds.configure(statementCacheSize, measureSql, replicas);
+      return ds;
     } else {
       throw new IllegalArgumentException("unknown datasource type " + databaseType);
     }
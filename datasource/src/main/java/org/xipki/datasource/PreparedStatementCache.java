@@ -0,0 +1,202 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.datasource;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+
+/**
+ * LRU cache of the prepared statements per physical connection. A connection is used by only
+ * one thread at the same time, and a cached statement is removed from the cache while it is
+ * being used, so that the same SQL can be prepared more than once on a connection.
+ *
+ * @author Lijun Liao
+ */
+
+class PreparedStatementCache implements Closeable {
+
+  private static class ConnectionCache extends LinkedHashMap<String, PreparedStatement> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    ConnectionCache(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+      if (size() <= maxSize) {
+        return false;
+      }
+
+      closeStatement(eldest.getValue());
+      return true;
+    }
+
+  } // class ConnectionCache
+
+  private static final Logger LOG = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+  private final int maxSize;
+
+  private final ConcurrentHashMap<Connection, ConnectionCache> caches = new ConcurrentHashMap<>();
+
+  PreparedStatementCache(int maxSize) {
+    this.maxSize = Args.positive(maxSize, "maxSize");
+  }
+
+  /**
+   * Takes the cached statement for the given SQL from the cache, or prepares a new one.
+   *
+   * @param conn
+   *          The physical connection. Must not be {@code null}.
+   * @param sql
+   *          The SQL. Must not be {@code null}.
+   * @return the prepared statement.
+   * @throws SQLException
+   *           if the statement could not be prepared.
+   */
+  PreparedStatement take(Connection conn, String sql) throws SQLException {
+    ConnectionCache cache = caches.get(conn);
+    if (cache == null) {
+      removeClosedConnections();
+      cache = caches.computeIfAbsent(conn, k -> new ConnectionCache(maxSize));
+    }
+
+    PreparedStatement ps;
+    synchronized (cache) {
+      ps = cache.remove(sql);
+    }
+
+    if (ps != null && !ps.isClosed()) {
+      return ps;
+    }
+
+    return conn.prepareStatement(sql);
+  } // method take
+
+  /**
+   * Returns the statement to the cache.
+   *
+   * @param conn
+   *          The physical connection. Must not be {@code null}.
+   * @param sql
+   *          The SQL. Must not be {@code null}.
+   * @param ps
+   *          The prepared statement. Must not be {@code null}.
+   */
+  void release(Connection conn, String sql, PreparedStatement ps) {
+    try {
+      if (ps.isClosed()) {
+        return;
+      }
+      ps.clearParameters();
+    } catch (SQLException ex) {
+      closeStatement(ps);
+      return;
+    }
+
+    ConnectionCache cache = caches.get(conn);
+    PreparedStatement replaced = null;
+    if (cache != null) {
+      synchronized (cache) {
+        replaced = cache.put(sql, ps);
+      }
+    } else {
+      replaced = ps;
+    }
+
+    if (replaced != null && replaced != ps) {
+      // the same SQL has been prepared more than once on this connection
+      closeStatement(replaced);
+    }
+  } // method release
+
+  /**
+   * Returns the number of cached statements.
+   *
+   * @return the number of cached statements.
+   */
+  int size() {
+    int size = 0;
+    for (ConnectionCache cache : caches.values()) {
+      synchronized (cache) {
+        size += cache.size();
+      }
+    }
+    return size;
+  }
+
+  private void removeClosedConnections() {
+    Iterator<Map.Entry<Connection, ConnectionCache>> it = caches.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Connection, ConnectionCache> entry = it.next();
+      boolean closed;
+      try {
+        closed = entry.getKey().isClosed();
+      } catch (SQLException ex) {
+        closed = true;
+      }
+
+      if (closed) {
+        it.remove();
+        closeStatements(entry.getValue());
+      }
+    }
+  } // method removeClosedConnections
+
+  @Override
+  public void close() {
+    for (ConnectionCache cache : caches.values()) {
+      closeStatements(cache);
+    }
+    caches.clear();
+  }
+
+  private static void closeStatements(ConnectionCache cache) {
+    synchronized (cache) {
+      for (PreparedStatement ps : cache.values()) {
+        closeStatement(ps);
+      }
+      cache.clear();
+    }
+  }
+
+  private static void closeStatement(PreparedStatement ps) {
+    try {
+      ps.close();
+    } catch (Throwable th) {
+      LOG.debug("could not close cached statement", th);
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.datasource;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution statistics of an SQL, measured from preparing the statement till releasing it.
+ *
+ * @author Lijun Liao
+ */
+
+public class SqlStatistics {
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder totalNanos = new LongAdder();
+
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  void record(long nanos) {
+    count.increment();
+    totalNanos.add(nanos);
+    if (nanos > maxNanos.get()) {
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+}
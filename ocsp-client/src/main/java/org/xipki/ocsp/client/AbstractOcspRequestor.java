@@ -28,6 +28,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -74,6 +81,8 @@ import org.xipki.util.StringUtil;
 
 public abstract class AbstractOcspRequestor implements OcspRequestor {
 
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+
   private SecurityFactory securityFactory;
 
   private final Object signerLock = new Object();
@@ -88,9 +97,71 @@ public abstract class AbstractOcspRequestor implements OcspRequestor {
 
   private SecureRandom random = new SecureRandom();
 
+  private int asyncThreads = 10;
+
+  private ExecutorService asyncExecutor;
+
+  private boolean ownAsyncExecutor;
+
   protected AbstractOcspRequestor() {
   }
 
+  /**
+   * Sets the number of threads of the executor created for the asynchronous requests if no
+   * executor is set via {@link #setAsyncExecutor(ExecutorService)}. Default to 10.
+   * @param asyncThreads
+   *          Number of threads.
+   */
+  public synchronized void setAsyncThreads(int asyncThreads) {
+    this.asyncThreads = Args.positive(asyncThreads, "asyncThreads");
+  }
+
+  /**
+   * Sets the executor in which the asynchronous requests are sent. The transport is
+   * thread-per-request: each request in flight occupies one thread of the executor until its
+   * response has been received, further requests are queued. If not set, an executor with
+   * {@code asyncThreads} threads is created.
+   * @param executor
+   *          Executor, {@code null} to use the created one. It will not be shutdown by this
+   *          requestor.
+   */
+  public synchronized void setAsyncExecutor(ExecutorService executor) {
+    shutdownAsyncExecutor();
+    this.asyncExecutor = executor;
+  }
+
+  /**
+   * Returns the executor for the asynchronous requests.
+   * @return the executor, never {@code null}.
+   */
+  protected synchronized ExecutorService getAsyncExecutor() {
+    if (asyncExecutor == null) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            String name = "ocsp-requestor-" + THREAD_INDEX.incrementAndGet();
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      asyncExecutor = executor;
+      ownAsyncExecutor = true;
+    }
+    return asyncExecutor;
+  } // method getAsyncExecutor
+
+  /**
+   * Shuts down the executor for the asynchronous requests if it has been created by this
+   * requestor.
+   */
+  protected synchronized void shutdownAsyncExecutor() {
+    if (ownAsyncExecutor) {
+      asyncExecutor.shutdown();
+      ownAsyncExecutor = false;
+    }
+    asyncExecutor = null;
+  } // method shutdownAsyncExecutor
+
   /**
    * Sends the request to the OCSP responder.
    * @param request
@@ -106,6 +177,30 @@ public abstract class AbstractOcspRequestor implements OcspRequestor {
   protected abstract byte[] send(byte[] request, URL responderUrl, RequestOptions requestOptions)
       throws IOException;
 
+  /**
+   * Sends the request to the OCSP responder asynchronously. This implementation calls
+   * {@link #send(byte[], URL, RequestOptions)} in the executor returned by
+   * {@link #getAsyncExecutor()}.
+   * @param request
+   *          Request. Must not be {@code null}.
+   * @param responderUrl
+   *          Responder URL. Must not be {@code null}.
+   * @param requestOptions
+   *           Request options. Must not be {@code null}.
+   * @return future of the received response, completed exceptionally with
+   *           {@link IOException} if the transmission failed.
+   */
+  protected CompletableFuture<byte[]> sendAsync(byte[] request, URL responderUrl,
+      RequestOptions requestOptions) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return send(request, responderUrl, requestOptions);
+      } catch (IOException ex) {
+        throw new CompletionException(ex);
+      }
+    }, getAsyncExecutor());
+  } // method sendAsync
+
   @Override
   public OCSPResp ask(X509Cert issuerCert, X509Cert cert,
       URL responderUrl, RequestOptions requestOptions, ReqRespDebug debug)
@@ -171,21 +266,8 @@ public abstract class AbstractOcspRequestor implements OcspRequestor {
     }
 
     OCSPRequest ocspReq = buildRequest(issuerCert, serialNumbers, nonce, requestOptions);
-    byte[] encodedReq;
-    try {
-      encodedReq = ocspReq.getEncoded();
-    } catch (IOException ex) {
-      throw new OcspRequestorException("could not encode OCSP request: " + ex.getMessage(), ex);
-    }
-
-    ReqRespPair msgPair = null;
-    if (debug != null) {
-      msgPair = new ReqRespPair();
-      debug.add(msgPair);
-      if (debug.saveRequest()) {
-        msgPair.setRequest(encodedReq);
-      }
-    }
+    byte[] encodedReq = encodeRequest(ocspReq);
+    ReqRespPair msgPair = newReqRespPair(debug, encodedReq);
 
     byte[] encodedResp;
     try {
@@ -198,6 +280,79 @@ public abstract class AbstractOcspRequestor implements OcspRequestor {
       msgPair.setResponse(encodedResp);
     }
 
+    return verifyResponse(ocspReq, serialNumbers, nonce, requestOptions, encodedResp);
+  } // method ask
+
+  @Override
+  public CompletableFuture<OCSPResp> askAsync(X509Cert issuerCert, BigInteger[] serialNumbers,
+      URL responderUrl, RequestOptions requestOptions, ReqRespDebug debug) {
+    CompletableFuture<OCSPResp> ret = new CompletableFuture<>();
+
+    final byte[] nonce;
+    final OCSPRequest ocspReq;
+    final byte[] encodedReq;
+    try {
+      Args.notNull(issuerCert, "issuerCert");
+      Args.notNull(requestOptions, "requestOptions");
+      Args.notNull(responderUrl, "responderUrl");
+
+      nonce = requestOptions.isUseNonce() ? nextNonce(requestOptions.getNonceLen()) : null;
+      ocspReq = buildRequest(issuerCert, serialNumbers, nonce, requestOptions);
+      encodedReq = encodeRequest(ocspReq);
+    } catch (OcspRequestorException | RuntimeException ex) {
+      ret.completeExceptionally(ex);
+      return ret;
+    }
+
+    ReqRespPair msgPair = newReqRespPair(debug, encodedReq);
+
+    sendAsync(encodedReq, responderUrl, requestOptions).whenComplete((encodedResp, th) -> {
+      if (th != null) {
+        Throwable cause = (th instanceof CompletionException && th.getCause() != null)
+            ? th.getCause() : th;
+        ret.completeExceptionally(new OcspResponseException.ResponderUnreachable(
+            cause.getClass().getSimpleName() + ": " + cause.getMessage(), cause));
+        return;
+      }
+
+      if (msgPair != null && debug.saveResponse()) {
+        msgPair.setResponse(encodedResp);
+      }
+
+      try {
+        ret.complete(verifyResponse(ocspReq, serialNumbers, nonce, requestOptions, encodedResp));
+      } catch (OcspResponseException | RuntimeException ex) {
+        ret.completeExceptionally(ex);
+      }
+    });
+
+    return ret;
+  } // method askAsync
+
+  private static byte[] encodeRequest(OCSPRequest ocspReq) throws OcspRequestorException {
+    try {
+      return ocspReq.getEncoded();
+    } catch (IOException ex) {
+      throw new OcspRequestorException("could not encode OCSP request: " + ex.getMessage(), ex);
+    }
+  } // method encodeRequest
+
+  private static ReqRespPair newReqRespPair(ReqRespDebug debug, byte[] encodedReq) {
+    if (debug == null) {
+      return null;
+    }
+
+    ReqRespPair msgPair = new ReqRespPair();
+    debug.add(msgPair);
+    if (debug.saveRequest()) {
+      msgPair.setRequest(encodedReq);
+    }
+    return msgPair;
+  } // method newReqRespPair
+
+  private static OCSPResp verifyResponse(OCSPRequest ocspReq, BigInteger[] serialNumbers,
+      byte[] nonce, RequestOptions requestOptions, byte[] encodedResp)
+      throws OcspResponseException {
     OCSPResp ocspResp;
     try {
       ocspResp = new OCSPResp(encodedResp);
@@ -305,7 +460,7 @@ public abstract class AbstractOcspRequestor implements OcspRequestor {
     } // end if
 
     return ocspResp;
-  } // method ask
+  } // method verifyResponse
 
   private OCSPRequest buildRequest(X509Cert caCert, BigInteger[] serialNumbers,
       byte[] nonce, RequestOptions requestOptions) throws OcspRequestorException {
@@ -0,0 +1,358 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.ocsp.client;
+
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.X509Cert;
+import org.xipki.util.Args;
+
+/**
+ * Non-blocking front-end of an {@link OcspRequestor}. The concurrent requests for certificates
+ * of the same issuer to the same responder are coalesced into one OCSP request with multiple
+ * CertIDs, which is sent if it contains {@code maxBatchSize} certificates or
+ * {@code lingerMillis} milliseconds after its first certificate has been added.
+ *
+ * <p>The successful responses are cached per certificate until the nextUpdate of its
+ * SingleResponse. Responses without nextUpdate are not cached. Since a cached response cannot
+ * contain the nonce of a new request, the cache is only used for requests without nonce.
+ *
+ * <p>The returned {@link OCSPResp} may contain SingleResponses for other certificates which
+ * have been requested in the same batch, the caller has to select the SingleResponse with its
+ * serial number.
+ *
+ * @author Lijun Liao
+ */
+
+public class BatchingOcspRequestor implements Closeable {
+
+  private static class BatchKey {
+
+    private final URL responderUrl;
+
+    private final String issuerFp;
+
+    private final RequestOptions requestOptions;
+
+    BatchKey(URL responderUrl, String issuerFp, RequestOptions requestOptions) {
+      this.responderUrl = responderUrl;
+      this.issuerFp = issuerFp;
+      this.requestOptions = requestOptions;
+    }
+
+    @Override
+    public int hashCode() {
+      return responderUrl.toString().hashCode() * 31 + issuerFp.hashCode()
+          + System.identityHashCode(requestOptions);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BatchKey)) {
+        return false;
+      }
+
+      BatchKey other = (BatchKey) obj;
+      return responderUrl.toString().equals(other.responderUrl.toString())
+          && issuerFp.equals(other.issuerFp) && requestOptions == other.requestOptions;
+    }
+
+  } // class BatchKey
+
+  private static class Batch {
+
+    private final X509Cert issuerCert;
+
+    private final Map<BigInteger, List<CompletableFuture<OCSPResp>>> futures =
+        new LinkedHashMap<>();
+
+    Batch(X509Cert issuerCert) {
+      this.issuerCert = issuerCert;
+    }
+
+  } // class Batch
+
+  private static class CacheEntry {
+
+    private final OCSPResp response;
+
+    private final long expiresAt;
+
+    CacheEntry(OCSPResp response, long expiresAt) {
+      this.response = response;
+      this.expiresAt = expiresAt;
+    }
+
+  } // class CacheEntry
+
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+
+  private final OcspRequestor requestor;
+
+  private final int maxBatchSize;
+
+  private final long lingerMillis;
+
+  private final int maxCacheSize;
+
+  private final Map<BatchKey, Batch> batches = new HashMap<>();
+
+  private final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService scheduler;
+
+  private final LongAdder countRequests = new LongAdder();
+
+  private final LongAdder countCacheHits = new LongAdder();
+
+  private final LongAdder countSent = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param requestor
+   *          The underlying requestor. Must not be {@code null}.
+   * @param maxBatchSize
+   *          Maximal number of certificates in one OCSP request.
+   * @param lingerMillis
+   *          Maximal time in milliseconds to wait for further certificates before an
+   *          incomplete batch is sent, 0 to send each batch immediately.
+   * @param maxCacheSize
+   *          Maximal number of cached responses, 0 to disable the cache.
+   */
+  public BatchingOcspRequestor(OcspRequestor requestor, int maxBatchSize, long lingerMillis,
+      int maxCacheSize) {
+    this.requestor = Args.notNull(requestor, "requestor");
+    this.maxBatchSize = Args.positive(maxBatchSize, "maxBatchSize");
+    this.lingerMillis = Args.notNegative(lingerMillis, "lingerMillis");
+    this.maxCacheSize = Args.notNegative(maxCacheSize, "maxCacheSize");
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ocsp-batch-" + THREAD_INDEX.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  } // constructor
+
+  /**
+   * Asks for the status of the given certificate.
+   *
+   * @param issuerCert
+   *          Issuer certificate. Must not be {@code null}.
+   * @param serialNumber
+   *          Serial number of the target certificate. Must not be {@code null}.
+   * @param responderUrl
+   *          Responder URL. Must not be {@code null}.
+   * @param requestOptions
+   *          Request options. Must not be {@code null}. Only requests with the same instance
+   *          of requestOptions are coalesced.
+   * @return future of the OCSP response, completed exceptionally as the one returned by
+   *         {@link OcspRequestor}.askAsync().
+   */
+  public CompletableFuture<OCSPResp> ask(X509Cert issuerCert, BigInteger serialNumber,
+      URL responderUrl, RequestOptions requestOptions) {
+    Args.notNull(issuerCert, "issuerCert");
+    Args.notNull(serialNumber, "serialNumber");
+    Args.notNull(responderUrl, "responderUrl");
+    Args.notNull(requestOptions, "requestOptions");
+    countRequests.increment();
+
+    String issuerFp = HashAlgo.SHA1.hexHash(issuerCert.getEncoded());
+
+    boolean useCache = maxCacheSize > 0 && !requestOptions.isUseNonce();
+    String cacheKey = null;
+    if (useCache) {
+      cacheKey = responderUrl + "|" + issuerFp + "|" + serialNumber.toString(16);
+      CacheEntry entry = cache.get(cacheKey);
+      if (entry != null) {
+        if (entry.expiresAt > System.currentTimeMillis()) {
+          countCacheHits.increment();
+          return CompletableFuture.completedFuture(entry.response);
+        }
+        cache.remove(cacheKey, entry);
+      }
+    }
+
+    CompletableFuture<OCSPResp> future = new CompletableFuture<>();
+    BatchKey key = new BatchKey(responderUrl, issuerFp, requestOptions);
+    Batch toSend = null;
+    synchronized (batches) {
+      Batch batch = batches.get(key);
+      boolean newBatch = batch == null;
+      if (newBatch) {
+        batch = new Batch(issuerCert);
+        batches.put(key, batch);
+      }
+
+      batch.futures.computeIfAbsent(serialNumber, k -> new ArrayList<>(1)).add(future);
+      if (batch.futures.size() >= maxBatchSize || lingerMillis == 0) {
+        batches.remove(key);
+        toSend = batch;
+      } else if (newBatch) {
+        final Batch lingerBatch = batch;
+        scheduler.schedule(() -> {
+          synchronized (batches) {
+            // the batch may have been sent since it is full
+            if (batches.get(key) != lingerBatch) {
+              return;
+            }
+            batches.remove(key);
+          }
+          send(key, lingerBatch);
+        }, lingerMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    if (toSend != null) {
+      send(key, toSend);
+    }
+
+    if (useCache) {
+      final String ck = cacheKey;
+      future.thenAccept(resp -> cache(ck, serialNumber, resp));
+    }
+    return future;
+  } // method ask
+
+  private void send(BatchKey key, Batch batch) {
+    countSent.increment();
+    BigInteger[] serialNumbers = batch.futures.keySet().toArray(new BigInteger[0]);
+    requestor.askAsync(batch.issuerCert, serialNumbers, key.responderUrl, key.requestOptions,
+        null).whenComplete((resp, th) -> {
+          for (List<CompletableFuture<OCSPResp>> futures : batch.futures.values()) {
+            for (CompletableFuture<OCSPResp> future : futures) {
+              if (th != null) {
+                future.completeExceptionally(th);
+              } else {
+                future.complete(resp);
+              }
+            }
+          }
+        });
+  } // method send
+
+  private void cache(String cacheKey, BigInteger serialNumber, OCSPResp resp) {
+    if (resp.getStatus() != OCSPResp.SUCCESSFUL) {
+      return;
+    }
+
+    BasicOCSPResp basicResp;
+    try {
+      Object respObject = resp.getResponseObject();
+      if (!(respObject instanceof BasicOCSPResp)) {
+        return;
+      }
+      basicResp = (BasicOCSPResp) respObject;
+    } catch (OCSPException ex) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    for (SingleResp singleResp : basicResp.getResponses()) {
+      if (!serialNumber.equals(singleResp.getCertID().getSerialNumber())) {
+        continue;
+      }
+
+      Date thisUpdate = singleResp.getThisUpdate();
+      Date nextUpdate = singleResp.getNextUpdate();
+      if (nextUpdate == null || thisUpdate == null || thisUpdate.getTime() > now
+          || nextUpdate.getTime() <= now) {
+        return;
+      }
+
+      if (cache.size() >= maxCacheSize) {
+        removeExpiredEntries(now);
+        if (cache.size() >= maxCacheSize) {
+          return;
+        }
+      }
+
+      cache.put(cacheKey, new CacheEntry(resp, nextUpdate.getTime()));
+      return;
+    }
+  } // method cache
+
+  private void removeExpiredEntries(long now) {
+    Iterator<CacheEntry> it = cache.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().expiresAt <= now) {
+        it.remove();
+      }
+    }
+  } // method removeExpiredEntries
+
+  /**
+   * Removes all cached responses.
+   */
+  public void clearCache() {
+    cache.clear();
+  }
+
+  /**
+   * Returns the statistics of the requests.
+   *
+   * @return the statistics.
+   */
+  public Map<String, Long> getStatistics() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("requests", countRequests.sum());
+    stats.put("cacheHits", countCacheHits.sum());
+    stats.put("cacheSize", (long) cache.size());
+    stats.put("sentRequests", countSent.sum());
+    return stats;
+  } // method getStatistics
+
+  /**
+   * Sends the pending batches and stops the scheduler.
+   */
+  @Override
+  public void close() {
+    List<Map.Entry<BatchKey, Batch>> pending;
+    synchronized (batches) {
+      pending = new ArrayList<>(batches.entrySet());
+      batches.clear();
+    }
+
+    for (Map.Entry<BatchKey, Batch> entry : pending) {
+      send(entry.getKey(), entry.getValue());
+    }
+    scheduler.shutdownNow();
+  } // method close
+
+}
@@ -23,10 +23,16 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.xipki.util.Args;
 import org.xipki.util.Base64;
+import org.xipki.util.Curl.CurlResult;
 import org.xipki.util.IoUtil;
+import org.xipki.util.PooledCurl;
 import org.xipki.util.StringUtil;
 
 /**
@@ -45,9 +51,68 @@ public class HttpOcspRequestor extends AbstractOcspRequestor {
 
   private static final String CT_RESPONSE = "application/ocsp-response";
 
+  private PooledCurl curl;
+
+  private int connectTimeout = 10000;
+
+  private int readTimeout = 30000;
+
   public HttpOcspRequestor() {
   }
 
+  /**
+   * Sets the timeout to connect to the OCSP responder, and to wait for a pooled connection.
+   * Default to 10 seconds.
+   * @param connectTimeout
+   *          Timeout in milliseconds, 0 for infinite timeout.
+   */
+  public synchronized void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = Args.notNegative(connectTimeout, "connectTimeout");
+    if (curl != null) {
+      curl.setConnectTimeout(connectTimeout);
+    }
+  }
+
+  /**
+   * Sets the timeout to read the response from the OCSP responder. Default to 30 seconds.
+   * @param readTimeout
+   *          Timeout in milliseconds, 0 for infinite timeout.
+   */
+  public synchronized void setReadTimeout(int readTimeout) {
+    this.readTimeout = Args.notNegative(readTimeout, "readTimeout");
+    if (curl != null) {
+      curl.setReadTimeout(readTimeout);
+    }
+  }
+
+  /**
+   * Sets the maximal number of pooled keep-alive connections to each OCSP responder.
+   * @param maxConnections
+   *          Maximal number of connections, 0 to open a new connection for each request.
+   */
+  public synchronized void setMaxConnections(int maxConnections) {
+    Args.notNegative(maxConnections, "maxConnections");
+    if (curl != null) {
+      curl.close();
+      curl = null;
+    }
+
+    if (maxConnections > 0) {
+      curl = new PooledCurl();
+      curl.setMaxConnectionsPerHost(maxConnections);
+      curl.setConnectTimeout(connectTimeout);
+      curl.setReadTimeout(readTimeout);
+    }
+  } // method setMaxConnections
+
+  public synchronized void close() {
+    if (curl != null) {
+      curl.close();
+      curl = null;
+    }
+    shutdownAsyncExecutor();
+  }
+
   @Override
   protected byte[] send(byte[] request, URL responderUrl, RequestOptions requestOptions)
       throws IOException {
@@ -56,6 +121,11 @@ public class HttpOcspRequestor extends AbstractOcspRequestor {
     Args.notNull(requestOptions, "requestOptions");
 
     int size = request.length;
+    PooledCurl pooledCurl = curl;
+    if (pooledCurl != null && !(size <= MAX_LEN_GET && requestOptions.isUseHttpGetForRequest())) {
+      return pooledCurl.post(responderUrl.toString(), CT_REQUEST, request, CT_RESPONSE);
+    }
+
     HttpURLConnection httpUrlConnection;
     if (size <= MAX_LEN_GET && requestOptions.isUseHttpGetForRequest()) {
       String b64Request = Base64.encodeToString(request);
@@ -65,9 +135,13 @@ public class HttpOcspRequestor extends AbstractOcspRequestor {
 
       URL newUrl = new URL(url);
       httpUrlConnection = IoUtil.openHttpConn(newUrl);
+      httpUrlConnection.setConnectTimeout(connectTimeout);
+      httpUrlConnection.setReadTimeout(readTimeout);
       httpUrlConnection.setRequestMethod("GET");
     } else {
       httpUrlConnection = IoUtil.openHttpConn(responderUrl);
+      httpUrlConnection.setConnectTimeout(connectTimeout);
+      httpUrlConnection.setReadTimeout(readTimeout);
       httpUrlConnection.setDoOutput(true);
       httpUrlConnection.setUseCaches(false);
 
@@ -100,4 +174,46 @@ public class HttpOcspRequestor extends AbstractOcspRequestor {
     return IoUtil.read(inputstream);
   } // method send
 
+  @Override
+  protected CompletableFuture<byte[]> sendAsync(byte[] request, URL responderUrl,
+      RequestOptions requestOptions) {
+    PooledCurl pooledCurl = curl;
+    if (pooledCurl == null) {
+      return super.sendAsync(request, responderUrl, requestOptions);
+    }
+
+    // the pooled connections are blocking, each request occupies one thread of the executor
+    CompletableFuture<CurlResult> future = CompletableFuture.supplyAsync(() -> {
+      try {
+        if (request.length <= MAX_LEN_GET && requestOptions.isUseHttpGetForRequest()) {
+          String urlEncodedReq = URLEncoder.encode(Base64.encodeToString(request), "UTF-8");
+          String baseUrl = responderUrl.toString();
+          String url =
+              StringUtil.concat(baseUrl, (baseUrl.endsWith("/") ? "" : "/"), urlEncodedReq);
+          return pooledCurl.curlGet(url, false, null, null);
+        } else {
+          Map<String, String> headers = new HashMap<>();
+          headers.put("Content-Type", CT_REQUEST);
+          return pooledCurl.curlPost(responderUrl.toString(), false, headers, null, request);
+        }
+      } catch (Exception ex) {
+        throw new CompletionException(ex);
+      }
+    }, getAsyncExecutor());
+
+    return future.thenApply(result -> {
+      if (result.getStatusCode() != HttpURLConnection.HTTP_OK) {
+        throw new CompletionException(
+            new IOException("bad response: code=" + result.getStatusCode()));
+      }
+
+      if (!CT_RESPONSE.equalsIgnoreCase(result.getContentType())) {
+        throw new CompletionException(new IOException("bad response: mime type "
+            + result.getContentType() + " not supported!"));
+      }
+
+      return result.getContent();
+    });
+  } // method sendAsync
+
 }
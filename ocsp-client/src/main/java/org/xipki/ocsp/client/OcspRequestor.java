@@ -19,6 +19,7 @@ package org.xipki.ocsp.client;
 
 import java.math.BigInteger;
 import java.net.URL;
+import java.util.concurrent.CompletableFuture;
 
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.xipki.security.X509Cert;
@@ -129,4 +130,27 @@ public interface OcspRequestor {
       RequestOptions requestOptions, ReqRespDebug debug)
       throws OcspResponseException, OcspRequestorException;
 
+  /**
+   * Asks for the status of the given certificates without blocking the caller. The transport
+   * is thread-per-request: the request is sent in a bounded executor, and occupies one of its
+   * threads until the response has been received.
+   *
+   * @param issuerCert
+   *          Issuer certificate. Must not be {@code null}.
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param responderUrl
+   *          Responder URL. Must not be {@code null}.
+   * @param requestOptions
+   *          Request options. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control. Could be {@code null}.
+   * @return future of the OCSP response. It is completed exceptionally with
+   *         {@link OcspRequestorException} if cannot build the OCSP request, and with
+   *         {@link OcspResponseException} if the OCSP responder cannot be reached or the
+   *         response does not match the requested certificates.
+   */
+  CompletableFuture<OCSPResp> askAsync(X509Cert issuerCert, BigInteger[] serialNumbers,
+      URL responderUrl, RequestOptions requestOptions, ReqRespDebug debug);
+
 }
@@ -109,9 +109,12 @@ import org.xipki.util.Hex;
 import org.xipki.util.InvalidConfException;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.ObjectCreationException;
 import org.xipki.util.StringUtil;
 import org.xipki.util.Validity;
+import org.xipki.util.metrics.Histogram;
+import org.xipki.util.metrics.MetricsRegistry;
 
 import com.alibaba.fastjson.JSON;
 
@@ -179,6 +182,21 @@ public class OcspServerImpl implements OcspServer {
 
   private static final Logger LOG = LoggerFactory.getLogger(OcspServerImpl.class);
 
+  private static final Histogram METRIC_ANSWER = MetricsRegistry.getDefault().histogram(
+      "xipki_ocsp_answer_seconds", "Time to answer an OCSP request");
+
+  private static final Histogram METRIC_PHASE_PARSE = answerPhaseMetric("parse");
+
+  private static final Histogram METRIC_PHASE_SIGNATURE = answerPhaseMetric("signature");
+
+  private static final Histogram METRIC_PHASE_CACHE_LOOKUP = answerPhaseMetric("cache_lookup");
+
+  private static final Histogram METRIC_PHASE_STORE = answerPhaseMetric("store");
+
+  private static final Histogram METRIC_PHASE_SIGN = answerPhaseMetric("sign");
+
+  private static final Histogram METRIC_PHASE_CACHE_STORE = answerPhaseMetric("cache_store");
+
   private static final Map<OcspResponseStatus, OcspRespWithCacheInfo> unsuccesfulOCSPRespMap;
 
   private static final byte[] encodedAcceptableResponses_Basic;
@@ -617,7 +635,17 @@ public class OcspServerImpl implements OcspServer {
 
   @Override
   public OcspRespWithCacheInfo answer(Responder responder2, byte[] request, boolean viaGet) {
-    ResponderImpl responder = (ResponderImpl) responder2;
+    long start = System.nanoTime();
+    try {
+      return answer0((ResponderImpl) responder2, request, viaGet, start);
+    } finally {
+      METRIC_ANSWER.observeSince(start);
+    }
+  } // method answer
+
+  private OcspRespWithCacheInfo answer0(ResponderImpl responder, byte[] request, boolean viaGet,
+      long start) {
+    long phaseStart = start;
     RequestOption reqOpt = responder.getRequestOption();
 
     int version;
@@ -640,6 +668,9 @@ public class OcspServerImpl implements OcspServer {
 
     try {
       Object reqOrRrrorResp = checkSignature(request, reqOpt);
+      if (reqOpt.isValidateSignature()) {
+        phaseStart = METRIC_PHASE_SIGNATURE.observeSince(phaseStart);
+      }
       if (reqOrRrrorResp instanceof OcspRespWithCacheInfo) {
         return (OcspRespWithCacheInfo) reqOrRrrorResp;
       }
@@ -767,6 +798,8 @@ public class OcspServerImpl implements OcspServer {
         concurrentSigner = signer.getFirstSigner();
       }
 
+      phaseStart = METRIC_PHASE_PARSE.observeSince(phaseStart);
+
       AlgorithmCode cacheDbSigAlgCode = null;
       BigInteger cacheDbSerialNumber = null;
       Integer cacheDbIssuerId = null;
@@ -792,6 +825,7 @@ public class OcspServerImpl implements OcspServer {
           OcspRespWithCacheInfo cachedResp = responseCacher.getOcspResponse(
               cacheDbIssuerId.intValue(), cacheDbSerialNumber, cacheDbSigAlgCode);
           if (cachedResp != null) {
+            METRIC_PHASE_CACHE_LOOKUP.observeSince(phaseStart);
             return cachedResp;
           }
         } else if (master) {
@@ -812,6 +846,7 @@ public class OcspServerImpl implements OcspServer {
         if (cacheDbIssuerId == null) {
           canCacheDb = false;
         }
+        phaseStart = METRIC_PHASE_CACHE_LOOKUP.observeSince(phaseStart);
       }
 
       ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
@@ -833,6 +868,8 @@ public class OcspServerImpl implements OcspServer {
         }
       }
 
+      phaseStart = METRIC_PHASE_STORE.observeSince(phaseStart);
+
       if (unknownAsRevoked && repControl.includeExtendedRevokeExtension) {
         respExtensions.add(extension_pkix_ocsp_extendedRevoke);
       }
@@ -861,6 +898,7 @@ public class OcspServerImpl implements OcspServer {
         LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
         return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
       }
+      phaseStart = METRIC_PHASE_SIGN.observeSince(phaseStart);
 
       // cache response in database
       if (canCacheDb && repControl.canCacheInfo) {
@@ -869,6 +907,7 @@ public class OcspServerImpl implements OcspServer {
         responseCacher.storeOcspResponse(cacheDbIssuerId.intValue(), cacheDbSerialNumber,
             repControl.cacheThisUpdate, repControl.cacheNextUpdate, cacheDbSigAlgCode,
             encodeOcspResponse);
+        METRIC_PHASE_CACHE_STORE.observeSince(phaseStart);
       }
 
       if (viaGet && repControl.canCacheInfo) {
@@ -884,7 +923,7 @@ public class OcspServerImpl implements OcspServer {
       LogUtil.error(LOG, th);
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
     }
-  } // method ask
+  } // method answer0
 
   private OcspRespWithCacheInfo processCertReq(AtomicBoolean unknownAsRevoked,
       CertID certId, OCSPRespBuilder builder,
@@ -1301,24 +1340,34 @@ public class OcspServerImpl implements OcspServer {
   private static boolean canBuildCertpath(X509Cert[] certsInReq,
       RequestOption requestOption, Date referenceTime) {
     X509Cert target = certsInReq[0];
-
-    Set<X509Cert> certstore = new HashSet<>();
     Set<X509Cert> trustAnchors = requestOption.getTrustAnchors();
-    for (X509Cert m : trustAnchors) {
-      certstore.add(m);
-    }
 
-    Set<X509Cert> configuredCerts = requestOption.getCerts();
-    if (CollectionUtil.isNotEmpty(configuredCerts)) {
-      certstore.addAll(requestOption.getCerts());
-    }
+    // only the certpaths ending with a trust anchor are cached
+    LruCache<String, X509Cert[]> cache = requestOption.getCertpathCache();
+    String fingerprint = HashAlgo.SHA256.base64Hash(target.getEncoded());
+    X509Cert[] certpath = cache.get(fingerprint);
+    if (certpath == null) {
+      Set<X509Cert> certstore = new HashSet<>();
+      for (X509Cert m : trustAnchors) {
+        certstore.add(m);
+      }
 
-    X509Cert[] certpath;
-    try {
-      certpath = X509Util.buildCertPath(target, certstore);
-    } catch (CertPathBuilderException ex) {
-      LogUtil.warn(LOG, ex);
-      return false;
+      Set<X509Cert> configuredCerts = requestOption.getCerts();
+      if (CollectionUtil.isNotEmpty(configuredCerts)) {
+        certstore.addAll(requestOption.getCerts());
+      }
+
+      try {
+        certpath = X509Util.buildCertPath(target, certstore);
+      } catch (CertPathBuilderException ex) {
+        LogUtil.warn(LOG, ex);
+        return false;
+      }
+
+      if (!containsTrustAnchor(certpath, trustAnchors)) {
+        return false;
+      }
+      cache.put(fingerprint, certpath);
     }
 
     CertpathValidationModel model = requestOption.getCertpathValidationModel();
@@ -1336,6 +1385,10 @@ public class OcspServerImpl implements OcspServer {
       throw new IllegalStateException("invalid CertpathValidationModel " + model.name());
     }
 
+    return true;
+  } // method canBuildCertpath
+
+  private static boolean containsTrustAnchor(X509Cert[] certpath, Set<X509Cert> trustAnchors) {
     for (int i = certpath.length - 1; i >= 0; i--) {
       X509Cert targetCert = certpath[i];
       for (X509Cert m : trustAnchors) {
@@ -1348,6 +1401,11 @@ public class OcspServerImpl implements OcspServer {
     return false;
   } // method canBuildCertpath
 
+  private static Histogram answerPhaseMetric(String phase) {
+    return MetricsRegistry.getDefault().histogram("xipki_ocsp_answer_phase_seconds",
+        "Time of the phases to answer an OCSP request", "phase", phase);
+  }
+
   private static boolean getBoolean(Boolean bo, boolean defaultValue) {
     return (bo == null) ? defaultValue : bo.booleanValue();
   }
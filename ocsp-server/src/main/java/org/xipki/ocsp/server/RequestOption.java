@@ -42,6 +42,7 @@ import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.InvalidConfException;
 import org.xipki.util.IoUtil;
+import org.xipki.util.LruCache;
 
 /**
  * OCSP request option.
@@ -92,6 +93,10 @@ public class RequestOption {
 
   private final CertpathValidationModel certpathValidationModel;
 
+  // certpaths of the request signers ending with a trust anchor, keyed by the SHA-256
+  // fingerprint of the signer's certificate
+  private final LruCache<String, X509Cert[]> certpathCache = new LruCache<>(1000);
+
   RequestOption(OcspServerConf.RequestOption conf) throws InvalidConfException {
     Args.notNull(conf, "conf");
 
@@ -231,6 +236,10 @@ public class RequestOption {
     return certs;
   }
 
+  LruCache<String, X509Cert[]> getCertpathCache() {
+    return certpathCache;
+  }
+
   private static Set<X509Cert> getCerts(OcspServerConf.CertCollection conf)
       throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
     Args.notNull(conf, "conf");
@@ -261,7 +261,8 @@ public class CaDbCertStatusStore extends OcspStore {
       long revTime = 0;
       long invalTime = 0;
 
-      PreparedStatement ps = datasource.prepareStatement(sql);
+      // the status may be read from a read replica of the database, if configured
+      PreparedStatement ps = datasource.prepareReadStatement(sql);
 
       try {
         ps.setInt(1, issuer.getId());
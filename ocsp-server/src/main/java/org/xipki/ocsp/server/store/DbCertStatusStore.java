@@ -332,7 +332,8 @@ public class DbCertStatusStore extends OcspStore {
       long invalTime = 0;
       int crlId = 0;
 
-      PreparedStatement ps = datasource.prepareStatement(sql);
+      // the status may be read from a read replica of the database, if configured
+      PreparedStatement ps = datasource.prepareReadStatement(sql);
 
       try {
         ps.setInt(1, issuer.getId());
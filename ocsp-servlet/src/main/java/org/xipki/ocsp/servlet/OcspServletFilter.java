@@ -73,6 +73,8 @@ public class OcspServletFilter implements Filter {
 
   private HttpMgmtServlet mgmtServlet;
 
+  private MetricsServlet metricsServlet;
+
   @Override
   public void init(FilterConfig filterConfig) throws ServletException {
     XipkiBaseDir.init();
@@ -90,6 +92,12 @@ public class OcspServletFilter implements Filter {
     logReqResp = Boolean.parseBoolean(str);
     LOG.info("logReqResp: {}", logReqResp);
 
+    boolean exportMetrics = Boolean.parseBoolean(filterConfig.getInitParameter("exportMetrics"));
+    LOG.info("exportMetrics: {}", exportMetrics);
+    if (exportMetrics) {
+      this.metricsServlet = new MetricsServlet();
+    }
+
     securities = new Securities();
     try {
       securities.init(conf.getSecurity());
@@ -195,6 +203,8 @@ public class OcspServletFilter implements Filter {
       } else {
         resp.sendError(HttpServletResponse.SC_FORBIDDEN);
       }
+    } else if (metricsServlet != null && path.equals("/metrics")) {
+      metricsServlet.service(req, resp);
     } else {
       req.setAttribute(HttpConstants.ATTR_XIPKI_PATH, path);
       ocspServlet.service(req, resp);
@@ -28,6 +28,8 @@ import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.concurrent.TimeUnit;
 
@@ -42,6 +44,7 @@ import org.xipki.util.concurrent.CountLatch;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
@@ -55,6 +58,7 @@ import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.ssl.OpenSsl;
 import io.netty.handler.ssl.SslContext;
@@ -211,7 +215,16 @@ public class BenchmarkHttpClient {
 
   public static interface ResponseHandler {
 
-    void onComplete(FullHttpResponse response);
+    /**
+     * Called when the response has been received.
+     *
+     * @param response
+     *          The response.
+     * @param startNanos
+     *          Start time of the request as passed to
+     *          {@link BenchmarkHttpClient#send(FullHttpRequest, long)}.
+     */
+    void onComplete(FullHttpResponse response, long startNanos);
 
     void onError();
 
@@ -260,19 +273,27 @@ public class BenchmarkHttpClient {
     @Override
     public void channelRead0(ChannelHandlerContext ctx, FullHttpResponse resp) {
       try {
-        decrementPendingRequests();
-        responseHandler.onComplete(resp);
+        long startNanos = decrementPendingRequests();
+        responseHandler.onComplete(resp, startNanos);
       } catch (Throwable th) {
         LOG.error("unexpected error", th);
       }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      // the requests without response will never be answered
+      if (ctx.channel() == channel) {
+        failPendingRequests();
+      }
+      super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-      decrementPendingRequests();
-      ctx.close();
       LOG.warn("error", cause);
-      responseHandler.onError();
+      // the pending requests are failed in channelInactive()
+      ctx.close();
     }
   } // method HttpClientHandler
 
@@ -288,12 +309,19 @@ public class BenchmarkHttpClient {
 
   private EventLoopGroup workerGroup;
 
-  private Channel channel;
+  private final boolean sharedWorkerGroup;
+
+  private Bootstrap bootstrap;
+
+  private volatile Channel channel;
 
   private SslContext sslContext;
 
   private int pendingRequests = 0;
 
+  // start times of the pending requests, the responses are received in the order of requests.
+  private final Deque<Long> startTimes = new ArrayDeque<>();
+
   private String host;
 
   private int port;
@@ -335,69 +363,111 @@ public class BenchmarkHttpClient {
 
   public BenchmarkHttpClient(String host, int port, SslContext sslContext,
       ResponseHandler responseHandler, int queueSize) {
+    this(host, port, sslContext, responseHandler, queueSize, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param host
+   *          Host of the server.
+   * @param port
+   *          Port of the server.
+   * @param sslContext
+   *          SSL context, {@code null} for HTTP.
+   * @param responseHandler
+   *          Handler of the responses. Must not be {@code null}.
+   * @param queueSize
+   *          Maximal number of requests sent without response (pipelined), 0 for default.
+   * @param workerGroup
+   *          Event loop group shared by several clients, see {@link #newEventLoopGroup(int)}.
+   *          It will not be shut down by this client. {@code null} to use an own event loop
+   *          with one thread.
+   */
+  public BenchmarkHttpClient(String host, int port, SslContext sslContext,
+      ResponseHandler responseHandler, int queueSize, EventLoopGroup workerGroup) {
     this.sslContext = sslContext;
     if (queueSize > 0) {
       this.queueSize = queueSize;
     }
     this.responseHandler = Args.notNull(responseHandler, "responseHandler");
-    this.workerGroup = new NioEventLoopGroup(1);
+    this.workerGroup = workerGroup;
+    this.sharedWorkerGroup = workerGroup != null;
     this.host = host;
     this.port = port;
     this.hostHeader = host + ":" + port;
-  }
-
-  @SuppressWarnings("unchecked")
-  public void start() {
-    Class<? extends SocketChannel> channelClass = NioSocketChannel.class;
-
-    final int numThreads = 1;
-
-    ClassLoader loader = getClass().getClassLoader();
+  } // constructor
+
+  /**
+   * Creates an event loop group with Epoll or KQueue transport if available, and NIO
+   * transport otherwise.
+   *
+   * @param numThreads
+   *          Number of threads.
+   * @return the event loop group.
+   */
+  public static EventLoopGroup newEventLoopGroup(int numThreads) {
+    ClassLoader loader = BenchmarkHttpClient.class.getClassLoader();
     if (epollAvailable != null && epollAvailable.booleanValue()) {
       try {
-        channelClass = (Class<? extends SocketChannel>)
-            Class.forName("io.netty.channel.epoll.EpollSocketChannel", false, loader);
-
         Class<?> clazz = Class.forName("io.netty.channel.epoll.EpollEventLoopGroup", true, loader);
         Constructor<?> constructor = clazz.getConstructor(int.class);
-        this.workerGroup = (EventLoopGroup) constructor.newInstance(numThreads);
+        EventLoopGroup group = (EventLoopGroup) constructor.newInstance(numThreads);
         LOG.info("use Epoll Transport");
+        return group;
       } catch (Throwable th) {
         if (th instanceof ClassNotFoundException) {
           LOG.info("epoll linux is not in classpath");
         } else {
           LogUtil.warn(LOG, th, "could not use Epoll transport");
         }
-        channelClass = null;
-        this.workerGroup = null;
       }
     } else if (kqueueAvailable != null && kqueueAvailable.booleanValue()) {
       try {
-        channelClass = (Class<? extends SocketChannel>)
-                Class.forName("io.netty.channel.kqueue.KQueueSocketChannel", false, loader);
-
         Class<?> clazz = Class.forName("io.netty.channel.kqueue.KQueueEventLoopGroup",
                     true, loader);
         Constructor<?> constructor = clazz.getConstructor(int.class);
-        this.workerGroup = (EventLoopGroup) constructor.newInstance(numThreads);
+        EventLoopGroup group = (EventLoopGroup) constructor.newInstance(numThreads);
         LOG.info("Use KQueue Transport");
+        return group;
       } catch (Exception ex) {
         LogUtil.warn(LOG, ex, "could not use KQueue transport");
-        channelClass = null;
-        this.workerGroup = null;
       }
     }
 
-    if (this.workerGroup == null) {
-      channelClass = NioSocketChannel.class;
-      this.workerGroup = new NioEventLoopGroup(numThreads);
+    return new NioEventLoopGroup(numThreads);
+  } // method newEventLoopGroup
+
+  @SuppressWarnings("unchecked")
+  private static Class<? extends SocketChannel> getChannelClass(EventLoopGroup group) {
+    String name = group.getClass().getName();
+    String channelClassName;
+    if ("io.netty.channel.epoll.EpollEventLoopGroup".equals(name)) {
+      channelClassName = "io.netty.channel.epoll.EpollSocketChannel";
+    } else if ("io.netty.channel.kqueue.KQueueEventLoopGroup".equals(name)) {
+      channelClassName = "io.netty.channel.kqueue.KQueueSocketChannel";
+    } else {
+      return NioSocketChannel.class;
+    }
+
+    try {
+      return (Class<? extends SocketChannel>) Class.forName(channelClassName, false,
+          group.getClass().getClassLoader());
+    } catch (ClassNotFoundException ex) {
+      throw new IllegalStateException("could not load class " + channelClassName, ex);
+    }
+  } // method getChannelClass
+
+  public void start() {
+    if (workerGroup == null) {
+      workerGroup = newEventLoopGroup(1);
     }
 
-    Bootstrap bootstrap = new Bootstrap();
+    this.bootstrap = new Bootstrap();
     bootstrap.group(workerGroup)
       .option(ChannelOption.SO_KEEPALIVE, true)
       .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 60000)
-      .channel(channelClass)
+      .channel(getChannelClass(workerGroup))
       .handler(new HttpClientInitializer(sslContext));
 
     // Make the connection attempt.
@@ -405,9 +475,30 @@ public class BenchmarkHttpClient {
   } // method start
 
   public void send(FullHttpRequest request) throws HttpClientException {
-    request.headers().add(HttpHeaderNames.HOST, hostHeader);
-    if (!channel.isActive()) {
-      throw new HttpClientException("channel is not active");
+    send(request, System.nanoTime());
+  }
+
+  /**
+   * Sends the request.
+   *
+   * @param request
+   *          The request.
+   * @param startNanos
+   *          Start time of the request, as returned by {@link System#nanoTime()}. It will be
+   *          passed to {@link ResponseHandler#onComplete(FullHttpResponse, long)}.
+   * @throws HttpClientException
+   *           if the request could not be sent.
+   */
+  public void send(FullHttpRequest request, long startNanos) throws HttpClientException {
+    request.headers().add(HttpHeaderNames.HOST, hostHeader)
+      .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+    Channel ch = channel;
+    if (ch == null) {
+      throw new HttpClientException("client is not started");
+    }
+
+    if (!ch.isActive()) {
+      ch = reconnect();
     }
 
     try {
@@ -415,20 +506,52 @@ public class BenchmarkHttpClient {
     } catch (InterruptedException ex) {
       throw new HttpClientException("sending poll is full");
     }
-    incrementPendingRequests();
-    ChannelFuture future = this.channel.writeAndFlush(request);
-    future.awaitUninterruptibly();
-  }
+    incrementPendingRequests(startNanos);
+    // do not wait for the completion, so that the requests are pipelined. If the request
+    // could not be written, the channel will be closed and the pending requests failed.
+    ch.writeAndFlush(request).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+  } // method send
+
+  private Channel reconnect() throws HttpClientException {
+    // the requests sent via the old connection will never be answered
+    failPendingRequests();
+
+    LOG.info("reconnect to {}", hostHeader);
+    ChannelFuture future = bootstrap.connect(host, port).awaitUninterruptibly();
+    if (!future.isSuccess()) {
+      throw new HttpClientException("could not connect to " + hostHeader, future.cause());
+    }
+    this.channel = future.channel();
+    return channel;
+  } // method reconnect
 
   public void shutdown() {
-    if (channel != null) {
-      channel = null;
+    Channel ch = channel;
+    channel = null;
+    if (ch != null) {
+      ch.close();
     }
-    this.workerGroup.shutdownGracefully();
-  }
 
-  private void incrementPendingRequests() {
+    if (!sharedWorkerGroup && workerGroup != null) {
+      this.workerGroup.shutdownGracefully();
+    }
+  } // method shutdown
+
+  private void failPendingRequests() {
+    while (true) {
+      synchronized (latch) {
+        if (pendingRequests < 1) {
+          return;
+        }
+        decrementPendingRequests();
+      }
+      responseHandler.onError();
+    }
+  } // method failPendingRequests
+
+  private void incrementPendingRequests(long startNanos) {
     synchronized (latch) {
+      startTimes.addLast(startNanos);
       if (++pendingRequests >= queueSize) {
         if (latch.getCount() == 0) {
           latch.countUp();
@@ -437,8 +560,9 @@ public class BenchmarkHttpClient {
     }
   }
 
-  private void decrementPendingRequests() {
+  private long decrementPendingRequests() {
     synchronized (latch) {
+      Long startNanos = startTimes.pollFirst();
       if (--pendingRequests < queueSize) {
         final int count = (int) latch.getCount();
         if (count > 0) {
@@ -451,6 +575,8 @@ public class BenchmarkHttpClient {
           }
         }
       }
+
+      return startNanos == null ? System.nanoTime() : startNanos;
     }
   } // method decrementPendingRequests
 
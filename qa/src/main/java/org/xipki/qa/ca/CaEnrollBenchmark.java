@@ -177,13 +177,14 @@ public class CaEnrollBenchmark extends BenchmarkExecutor implements ResponseHand
     @Override
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
+        long start = nextStartNanos();
         try {
           PKIMessage certReq = nextCertRequest();
           if (certReq == null) {
             break;
           }
 
-          testNext(certReq);
+          testNext(certReq, start);
         } catch (HttpClientException | CertificateException | IOException ex) {
           LOG.warn("exception", ex);
           account(1, 1);
@@ -200,14 +201,15 @@ public class CaEnrollBenchmark extends BenchmarkExecutor implements ResponseHand
       }
     }
 
-    private void testNext(PKIMessage certReq) throws HttpClientException, IOException {
+    private void testNext(PKIMessage certReq, long startNanos)
+        throws HttpClientException, IOException {
       byte[] encoded = certReq.getEncoded();
       ByteBuf content = Unpooled.wrappedBuffer(encoded);
       FullHttpRequest httpReq = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
           HttpMethod.POST, conf.caUrl, content);
       httpReq.headers().addInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes())
         .add(HttpHeaderNames.CONTENT_TYPE, REQUEST_MIMETYPE);
-      httpClient.send(httpReq);
+      httpClient.send(httpReq, startNanos);
     } // method testNext
 
   } // class Testor
@@ -335,7 +337,7 @@ public class CaEnrollBenchmark extends BenchmarkExecutor implements ResponseHand
   } // method nextCertRequest
 
   @Override
-  public void onComplete(FullHttpResponse response) {
+  public void onComplete(FullHttpResponse response, long startNanos) {
     boolean success;
     try {
       success = onComplete0(response);
@@ -344,7 +346,11 @@ public class CaEnrollBenchmark extends BenchmarkExecutor implements ResponseHand
       success = false;
     }
 
-    account(1, success ? 0 : 1);
+    if (success) {
+      account(1, 0, System.nanoTime() - startNanos);
+    } else {
+      account(1, 1);
+    }
   } // method onComplete
 
   private boolean onComplete0(FullHttpResponse response) {
@@ -56,6 +56,7 @@ import org.xipki.util.StringUtil;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpMethod;
@@ -97,6 +98,12 @@ class OcspBenchRequestor {
   public void init(ResponseHandler responseHandler, String responderUrl, X509Cert issuerCert,
       RequestOptions requestOptions, int queueSize)
           throws OcspRequestorException, IOException, URISyntaxException {
+    init(responseHandler, responderUrl, issuerCert, requestOptions, queueSize, null);
+  }
+
+  public void init(ResponseHandler responseHandler, String responderUrl, X509Cert issuerCert,
+      RequestOptions requestOptions, int queueSize, EventLoopGroup workerGroup)
+          throws OcspRequestorException, IOException, URISyntaxException {
     Args.notNull(issuerCert, "issuerCert");
     Args.notNull(responseHandler, "responseHandler");
     this.requestOptions = Args.notNull(requestOptions, "requestOptions");
@@ -154,8 +161,8 @@ class OcspBenchRequestor {
       }
     }
 
-    this.httpClient = new BenchmarkHttpClient(uri.getHost(), uri.getPort(), null,
-        responseHandler, queueSize);
+    this.httpClient = new BenchmarkHttpClient(uri.getHost(), port, null,
+        responseHandler, queueSize, workerGroup);
     this.httpClient.start();
   } // method init
 
@@ -164,34 +171,58 @@ class OcspBenchRequestor {
   }
 
   public void ask(BigInteger[] serialNumbers) throws OcspRequestorException, HttpClientException {
+    ask(serialNumbers, System.nanoTime());
+  }
+
+  public void ask(BigInteger[] serialNumbers, long startNanos)
+      throws OcspRequestorException, HttpClientException {
     byte[] ocspReq = buildRequest(serialNumbers);
-    int size = ocspReq.length;
+    if (ocspReq.length <= MAX_LEN_GET && requestOptions.isUseHttpGetForRequest()) {
+      sendGet(getHttpGetPath(ocspReq), startNanos);
+    } else {
+      sendPost(ocspReq, startNanos);
+    }
+  } // method ask
 
-    FullHttpRequest request;
+  /**
+   * Returns the raw path of the HTTP GET request.
+   *
+   * @param ocspReq
+   *          Encoded OCSP request.
+   * @return the raw path, or {@code null} if the request is too long for HTTP GET.
+   * @throws OcspRequestorException
+   *           if the request could not be encoded.
+   */
+  String getHttpGetPath(byte[] ocspReq) throws OcspRequestorException {
+    if (ocspReq.length > MAX_LEN_GET) {
+      return null;
+    }
 
-    if (size <= MAX_LEN_GET && requestOptions.isUseHttpGetForRequest()) {
-      String b64Request = Base64.encodeToString(ocspReq);
-      String urlEncodedReq;
-      try {
-        urlEncodedReq = URLEncoder.encode(b64Request, "UTF-8");
-      } catch (UnsupportedEncodingException ex) {
-        throw new OcspRequestorException(ex.getMessage());
-      }
-      String newRawpath = StringUtil.concat(responderRawPathGet, urlEncodedReq);
-      request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
-          HttpMethod.GET, newRawpath);
-    } else {
-      ByteBuf content = Unpooled.wrappedBuffer(ocspReq);
-      request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
-          HttpMethod.POST, responderRawPathPost, content);
-      request.headers().addInt("Content-Length", content.readableBytes());
+    String b64Request = Base64.encodeToString(ocspReq);
+    try {
+      return StringUtil.concat(responderRawPathGet, URLEncoder.encode(b64Request, "UTF-8"));
+    } catch (UnsupportedEncodingException ex) {
+      throw new OcspRequestorException(ex.getMessage());
     }
+  } // method getHttpGetPath
+
+  void sendGet(String rawPath, long startNanos) throws HttpClientException {
+    FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+        HttpMethod.GET, rawPath);
     request.headers().add("Content-Type", "application/ocsp-request");
+    httpClient.send(request, startNanos);
+  }
 
-    httpClient.send(request);
-  } // method ask
+  void sendPost(byte[] ocspReq, long startNanos) throws HttpClientException {
+    ByteBuf content = Unpooled.wrappedBuffer(ocspReq);
+    FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+        HttpMethod.POST, responderRawPathPost, content);
+    request.headers().addInt("Content-Length", content.readableBytes())
+      .add("Content-Type", "application/ocsp-request");
+    httpClient.send(request, startNanos);
+  }
 
-  private byte[] buildRequest(BigInteger[] serialNumbers) throws OcspRequestorException {
+  byte[] buildRequest(BigInteger[] serialNumbers) throws OcspRequestorException {
     boolean canCache = (serialNumbers.length == 1) && !requestOptions.isUseNonce();
     if (canCache) {
       byte[] request = requests.get(serialNumbers[0]);
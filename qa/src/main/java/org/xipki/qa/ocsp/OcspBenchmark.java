@@ -59,13 +59,14 @@ public class OcspBenchmark extends BenchmarkExecutor implements ResponseHandler
     @Override
     public void run() {
       while (!stop()) {
+        long start = nextStartNanos();
         BigInteger sn = nextSerialNumber();
         if (sn == null) {
           break;
         }
 
         try {
-          requestor.ask(new BigInteger[]{sn});
+          requestor.ask(new BigInteger[]{sn}, start);
         } catch (Throwable th) {
           LOG.warn("{}: {}", th.getClass().getName(), th.getMessage());
           account(1, 1);
@@ -130,16 +131,20 @@ public class OcspBenchmark extends BenchmarkExecutor implements ResponseHandler
   }
 
   @Override
-  public void onComplete(FullHttpResponse response) {
+  public void onComplete(FullHttpResponse response, long startNanos) {
     boolean success;
     try {
-      success = onComplete0(response);
+      success = checkResponse(response);
     } catch (Throwable th) {
       LOG.warn("unexpected exception", th);
       success = false;
     }
 
-    account(1, success ? 0 : 1);
+    if (success) {
+      account(1, 0, System.nanoTime() - startNanos);
+    } else {
+      account(1, 1);
+    }
   }
 
   @Override
@@ -147,7 +152,7 @@ public class OcspBenchmark extends BenchmarkExecutor implements ResponseHandler
     account(1, 1);
   }
 
-  private boolean onComplete0(FullHttpResponse response) {
+  static boolean checkResponse(FullHttpResponse response) {
     if (response == null) {
       LOG.warn("bad response: response is null");
       return false;
@@ -207,6 +212,6 @@ public class OcspBenchmark extends BenchmarkExecutor implements ResponseHandler
     }
 
     return true;
-  } // method onComplete0
+  } // method checkResponse
 
 }
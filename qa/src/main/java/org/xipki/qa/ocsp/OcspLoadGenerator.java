@@ -0,0 +1,335 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.qa.ocsp;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.client.RequestOptions;
+import org.xipki.qa.BenchmarkHttpClient;
+import org.xipki.qa.BenchmarkHttpClient.ResponseHandler;
+import org.xipki.security.X509Cert;
+import org.xipki.util.Args;
+import org.xipki.util.BenchmarkExecutor;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.FullHttpResponse;
+
+/**
+ * OCSP load generator. Each thread drives one keep-alive connection with up to queueSize
+ * pipelined requests in flight, and all connections share one event loop group. The OCSP
+ * requests are encoded before the benchmark starts (unless nonce is used), so that the
+ * threads only pick a request and send it.
+ *
+ * <p>The serial numbers are selected round-robin, or Zipf-distributed to model the cache hit
+ * ratio of a real-world responder: the first serial number is requested most frequently.
+ *
+ * @author Lijun Liao
+ */
+
+public class OcspLoadGenerator extends BenchmarkExecutor implements ResponseHandler {
+
+  final class Testor implements Runnable {
+
+    private final OcspBenchRequestor requestor;
+
+    Testor() throws Exception {
+      this.requestor = new OcspBenchRequestor();
+      this.requestor.init(OcspLoadGenerator.this, responderUrl, issuerCert, requestOptions,
+          queueSize, workerGroup);
+      prepareRequests(requestor);
+    }
+
+    @Override
+    public void run() {
+      while (!stop()) {
+        long start = nextStartNanos();
+        if (maxRequests > 0 && sentRequests.getAndIncrement() >= maxRequests) {
+          break;
+        }
+
+        int index = nextIndex();
+        try {
+          if (postRequests == null) {
+            // nonce is used
+            requestor.ask(new BigInteger[]{serials[index]}, start);
+          } else if (getPaths[index] != null && !nextIsPost()) {
+            requestor.sendGet(getPaths[index], start);
+          } else {
+            requestor.sendPost(postRequests[index], start);
+          }
+        } catch (Throwable th) {
+          LOG.warn("{}: {}", th.getClass().getName(), th.getMessage());
+          account(1, 1);
+        }
+      }
+
+      try {
+        requestor.shutdown();
+      } catch (Exception ex) {
+        LOG.warn("got exception in requestor.shutdown()", ex);
+      }
+    } // method run
+
+  } // class Testor
+
+  /**
+   * Sampler of ranks 0 to n-1 with Zipf distribution, via binary search in the cumulative
+   * distribution.
+   */
+  private static class ZipfSampler {
+
+    private final double[] cdf;
+
+    ZipfSampler(int n, double exponent) {
+      cdf = new double[n];
+      double sum = 0;
+      for (int i = 0; i < n; i++) {
+        sum += 1 / Math.pow(i + 1, exponent);
+        cdf[i] = sum;
+      }
+
+      for (int i = 0; i < n; i++) {
+        cdf[i] /= sum;
+      }
+    } // constructor
+
+    int next() {
+      double value = ThreadLocalRandom.current().nextDouble();
+      int low = 0;
+      int high = cdf.length - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (cdf[mid] < value) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    } // method next
+
+  } // class ZipfSampler
+
+  private static final Logger LOG = LoggerFactory.getLogger(OcspLoadGenerator.class);
+
+  private final X509Cert issuerCert;
+
+  private final String responderUrl;
+
+  private final RequestOptions requestOptions;
+
+  private final Iterator<BigInteger> serialIterator;
+
+  private final int maxSerials;
+
+  private final int maxRequests;
+
+  private final int queueSize;
+
+  private final AtomicLong sentRequests = new AtomicLong(0);
+
+  private final AtomicLong nextSerialIndex = new AtomicLong(0);
+
+  private int ioThreads;
+
+  private int postPercent = -1;
+
+  private double zipfExponent;
+
+  private EventLoopGroup workerGroup;
+
+  private BigInteger[] serials;
+
+  private byte[][] postRequests;
+
+  private String[] getPaths;
+
+  private ZipfSampler zipfSampler;
+
+  /**
+   * Constructor.
+   *
+   * @param issuerCert
+   *          Issuer certificate. Must not be {@code null}.
+   * @param responderUrl
+   *          URL of the OCSP responder. Must not be {@code null}.
+   * @param requestOptions
+   *          Request options. Must not be {@code null}.
+   * @param serials
+   *          Serial numbers. Must not be {@code null}.
+   * @param maxSerials
+   *          Maximal number of serial numbers read from {@code serials}.
+   * @param maxRequests
+   *          Maximal number of requests, 0 for unlimited.
+   * @param queueSize
+   *          Maximal number of requests in flight per connection, 0 for default.
+   * @param description
+   *          Description of the benchmark.
+   */
+  public OcspLoadGenerator(X509Cert issuerCert, String responderUrl,
+      RequestOptions requestOptions, Iterator<BigInteger> serials, int maxSerials,
+      int maxRequests, int queueSize, String description) {
+    super(description);
+    this.issuerCert = Args.notNull(issuerCert, "issuerCert");
+    this.responderUrl = Args.notNull(responderUrl, "responderUrl");
+    this.requestOptions = Args.notNull(requestOptions, "requestOptions");
+    this.serialIterator = Args.notNull(serials, "serials");
+    this.maxSerials = Args.positive(maxSerials, "maxSerials");
+    this.maxRequests = maxRequests;
+    this.queueSize = queueSize;
+  } // constructor
+
+  /**
+   * Sets the number of event loop threads shared by all connections.
+   *
+   * @param ioThreads
+   *          Number of event loop threads, 0 for the smaller of the number of connections and
+   *          of the available processors.
+   */
+  public void setIoThreads(int ioThreads) {
+    this.ioThreads = Args.notNegative(ioThreads, "ioThreads");
+  }
+
+  /**
+   * Sets the percentage of the requests sent via HTTP POST. Requests longer than
+   * {@link OcspBenchRequestor#MAX_LEN_GET} are always sent via HTTP POST.
+   *
+   * @param postPercent
+   *          Percentage between 0 and 100, -1 to use HTTP GET if configured in the request
+   *          options, and HTTP POST otherwise.
+   */
+  public void setPostPercent(int postPercent) {
+    this.postPercent = Args.range(postPercent, "postPercent", -1, 100);
+  }
+
+  /**
+   * Sets the exponent of the Zipf distribution to select the serial numbers.
+   *
+   * @param zipfExponent
+   *          Exponent, 0 to select the serial numbers round-robin.
+   */
+  public void setZipfExponent(double zipfExponent) {
+    if (zipfExponent < 0) {
+      throw new IllegalArgumentException("zipfExponent must not be negative: " + zipfExponent);
+    }
+    this.zipfExponent = zipfExponent;
+  }
+
+  @Override
+  protected Runnable getTestor() throws Exception {
+    synchronized (this) {
+      if (workerGroup == null) {
+        int num = ioThreads > 0 ? ioThreads
+            : Math.min(getThreads(), Runtime.getRuntime().availableProcessors());
+        workerGroup = BenchmarkHttpClient.newEventLoopGroup(num);
+      }
+    }
+    return new Testor();
+  }
+
+  @Override
+  public void close() {
+    if (workerGroup != null) {
+      workerGroup.shutdownGracefully();
+      workerGroup = null;
+    }
+  }
+
+  private synchronized void prepareRequests(OcspBenchRequestor requestor) throws Exception {
+    if (serials != null) {
+      return;
+    }
+
+    List<BigInteger> list = new ArrayList<>();
+    while (list.size() < maxSerials && serialIterator.hasNext()) {
+      BigInteger serial = serialIterator.next();
+      if (serial == null) {
+        break;
+      }
+      list.add(serial);
+    }
+
+    if (list.isEmpty()) {
+      throw new IllegalArgumentException("no serial number is specified");
+    }
+
+    BigInteger[] tmpSerials = list.toArray(new BigInteger[0]);
+    if (!requestOptions.isUseNonce()) {
+      int num = tmpSerials.length;
+      byte[][] tmpPostRequests = new byte[num][];
+      String[] tmpGetPaths = new String[num];
+      for (int i = 0; i < num; i++) {
+        tmpPostRequests[i] = requestor.buildRequest(new BigInteger[]{tmpSerials[i]});
+        if (postPercent == -1 ? requestOptions.isUseHttpGetForRequest() : postPercent < 100) {
+          tmpGetPaths[i] = requestor.getHttpGetPath(tmpPostRequests[i]);
+        }
+      }
+      this.postRequests = tmpPostRequests;
+      this.getPaths = tmpGetPaths;
+    }
+
+    if (zipfExponent > 0) {
+      this.zipfSampler = new ZipfSampler(tmpSerials.length, zipfExponent);
+    }
+    this.serials = tmpSerials;
+    System.out.println("prepared requests for " + tmpSerials.length + " serial numbers");
+  } // method prepareRequests
+
+  private int nextIndex() {
+    if (zipfSampler != null) {
+      return zipfSampler.next();
+    }
+    return (int) (nextSerialIndex.getAndIncrement() % serials.length);
+  }
+
+  private boolean nextIsPost() {
+    // postPercent -1: the GET paths are only prepared if HTTP GET is configured
+    return postPercent > 0 && ThreadLocalRandom.current().nextInt(100) < postPercent;
+  }
+
+  @Override
+  public void onComplete(FullHttpResponse response, long startNanos) {
+    boolean success;
+    try {
+      success = OcspBenchmark.checkResponse(response);
+    } catch (Throwable th) {
+      LOG.warn("unexpected exception", th);
+      success = false;
+    }
+
+    if (success) {
+      account(1, 0, System.nanoTime() - startNanos);
+    } else {
+      account(1, 1);
+    }
+  } // method onComplete
+
+  @Override
+  public void onError() {
+    account(1, 1);
+  }
+
+}
@@ -119,9 +119,10 @@ public abstract class P11KeyGenSpeed extends BenchmarkExecutor {
     @Override
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
+        long start = nextStartNanos();
         try {
           genKeypair();
-          account(1, 0);
+          account(1, 0, System.nanoTime() - start);
         } catch (Exception ex) {
           LOG.error("P11KeyGenSpeed.Testor.run()", ex);
           account(1, 1);
@@ -106,9 +106,10 @@ public abstract class P12KeyGenSpeed extends BenchmarkExecutor {
     @Override
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
+        long start = nextStartNanos();
         try {
           generateKeypair(securityFactory.getRandom4Key());
-          account(1, 0);
+          account(1, 0, System.nanoTime() - start);
         } catch (Exception ex) {
           LOG.error("P12KeyGenSpeed.Testor.run()", ex);
           account(1, 1);
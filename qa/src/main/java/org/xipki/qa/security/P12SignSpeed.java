@@ -237,9 +237,10 @@ public abstract class P12SignSpeed extends BenchmarkExecutor {
     @Override
     public void run() {
       while (!stop() && getErrorAccout() < 1) {
+        long start = nextStartNanos();
         try {
           signer.sign(data);
-          account(batch, 0);
+          account(batch, 0, System.nanoTime() - start);
         } catch (Exception ex) {
           LOG.error("P12SignSpeed.Testor.run()", ex);
           account(batch, batch);
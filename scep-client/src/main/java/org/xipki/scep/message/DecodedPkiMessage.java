@@ -57,9 +57,11 @@ import org.xipki.scep.transaction.Nonce;
 import org.xipki.scep.transaction.PkiStatus;
 import org.xipki.scep.transaction.TransactionId;
 import org.xipki.scep.util.ScepUtil;
+import org.xipki.security.HashAlgo;
 import org.xipki.security.X509Cert;
 import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
 
 /**
@@ -75,6 +77,10 @@ public class DecodedPkiMessage extends PkiMessage {
   private static final Set<ASN1ObjectIdentifier> SCEP_ATTR_TYPES
       = new HashSet<ASN1ObjectIdentifier>();
 
+  // the verifiers are thread-safe, keyed by the SHA-256 fingerprint of the signer certificate
+  private static final LruCache<String, SignerInformationVerifier> VERIFIER_CACHE =
+      new LruCache<>(1000);
+
   private X509Cert signatureCert;
 
   private ASN1ObjectIdentifier digestAlgorithm;
@@ -351,12 +357,18 @@ public class DecodedPkiMessage extends PkiMessage {
     } // end if
 
     X509CertificateHolder signerCert = (X509CertificateHolder) signedDataCerts.iterator().next();
-    ret.setSignatureCert(new X509Cert(signerCert));
+    X509Cert tmpSignerCert = new X509Cert(signerCert);
+    ret.setSignatureCert(tmpSignerCert);
 
     // validate the signature
     SignerInformationVerifier verifier;
     try {
-      verifier = new JcaSimpleSignerInfoVerifierBuilder().build(signerCert);
+      String fingerprint = HashAlgo.SHA256.base64Hash(tmpSignerCert.getEncoded());
+      verifier = VERIFIER_CACHE.get(fingerprint);
+      if (verifier == null) {
+        verifier = new JcaSimpleSignerInfoVerifierBuilder().build(signerCert);
+        VERIFIER_CACHE.put(fingerprint, verifier);
+      }
     } catch (OperatorCreationException | CertificateException ex) {
       final String msg = "could not build signature verifier: " + ex.getMessage();
       LOG.error(msg);
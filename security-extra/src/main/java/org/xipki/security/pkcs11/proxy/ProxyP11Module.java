@@ -54,6 +54,7 @@ import org.xipki.util.ConfPairs;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.ObjectCreationException;
+import org.xipki.util.PooledCurl;
 import org.xipki.util.StringUtil;
 import org.xipki.util.http.HostnameVerifiers;
 import org.xipki.util.http.SSLContextBuilder;
@@ -85,6 +86,15 @@ public class ProxyP11Module extends P11Module {
 
   private static final String PROP_SSL_HOStNAMEVERIFIER = "ssl.hostnameVerifier";
 
+  // maximal number of pooled keep-alive connections, 0 (default) for no pooling.
+  private static final String PROP_MAX_CONNECTIONS = "maxConnections";
+
+  // timeout in milliseconds to connect and to wait for a pooled connection, default 10000.
+  private static final String PROP_CONNECT_TIMEOUT = "connectTimeout";
+
+  // timeout in milliseconds to read the response, default 60000.
+  private static final String PROP_READ_TIMEOUT = "readTimeout";
+
   private static final Logger LOG = LoggerFactory.getLogger(ProxyP11Module.class);
 
   private static final String REQUEST_MIMETYPE = "application/x-xipki-pkcs11";
@@ -107,6 +117,12 @@ public class ProxyP11Module extends P11Module {
 
   private HostnameVerifier hostnameVerifier;
 
+  private PooledCurl curl;
+
+  private int connectTimeout;
+
+  private int readTimeout;
+
   private ProxyP11Module(P11ModuleConf moduleConf) throws P11TokenException {
     super(moduleConf);
 
@@ -185,9 +201,41 @@ public class ProxyP11Module extends P11Module {
       throw new P11TokenException("could not create HostnameVerifier", ex);
     }
 
+    int maxConnections = getNonNegativeInt(confPairs, PROP_MAX_CONNECTIONS, 0);
+    this.connectTimeout = getNonNegativeInt(confPairs, PROP_CONNECT_TIMEOUT, 10000);
+    this.readTimeout = getNonNegativeInt(confPairs, PROP_READ_TIMEOUT, 60000);
+
+    if (maxConnections > 0) {
+      curl = new PooledCurl();
+      curl.setSsl(sslSocketFactory, hostnameVerifier);
+      curl.setMaxConnectionsPerHost(maxConnections);
+      curl.setConnectTimeout(connectTimeout);
+      curl.setReadTimeout(readTimeout);
+    }
+
     refresh();
   } // constructor
 
+  private static int getNonNegativeInt(ConfPairs confPairs, String name, int defaultValue)
+      throws P11TokenException {
+    String str = confPairs.value(name);
+    if (str == null) {
+      return defaultValue;
+    }
+
+    int value;
+    try {
+      value = Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new P11TokenException("invalid " + name + ": " + str);
+    }
+
+    if (value < 0) {
+      throw new P11TokenException("invalid " + name + ": " + str);
+    }
+    return value;
+  } // method getNonNegativeInt
+
   public static P11Module getInstance(P11ModuleConf moduleConf) throws P11TokenException {
     Args.notNull(moduleConf, "moduleConf");
     return new ProxyP11Module(moduleConf);
@@ -265,11 +313,21 @@ public class ProxyP11Module extends P11Module {
         LogUtil.error(LOG, th, "could not close PKCS#11 slot " + slotId);
       }
     }
+
+    if (curl != null) {
+      curl.close();
+    }
   }
 
   protected byte[] send(byte[] request) throws IOException {
     Args.notNull(request, "request");
+    if (curl != null) {
+      return curl.post(serverUrl.toString(), REQUEST_MIMETYPE, request, RESPONSE_MIMETYPE);
+    }
+
     HttpURLConnection httpUrlConnection = IoUtil.openHttpConn(serverUrl);
+    httpUrlConnection.setConnectTimeout(connectTimeout);
+    httpUrlConnection.setReadTimeout(readTimeout);
 
     if (httpUrlConnection instanceof HttpsURLConnection) {
       if (sslSocketFactory != null) {
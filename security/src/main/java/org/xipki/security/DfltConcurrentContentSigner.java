@@ -37,6 +37,9 @@ import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.concurrent.ConcurrentBag;
+import org.xipki.util.metrics.Counter;
+import org.xipki.util.metrics.Histogram;
+import org.xipki.util.metrics.MetricsRegistry;
 
 /**
  * An implementation of {@link ConcurrentContentSigner}.
@@ -51,6 +54,12 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   private static final AtomicInteger NAME_INDEX = new AtomicInteger(1);
 
+  private static final Histogram METRIC_BORROW_WAIT = MetricsRegistry.getDefault().histogram(
+      "xipki_signer_borrow_wait_seconds", "Time to borrow a signer");
+
+  private static final Counter METRIC_BORROW_TIMEOUTS = MetricsRegistry.getDefault().counter(
+      "xipki_signer_borrow_timeouts_total", "Number of timeouts while borrowing a signer");
+
   private static int defaultSignServiceTimeout = 10000; // 10 seconds
 
   private final ConcurrentBag<ConcurrentBagEntrySigner> signers = new ConcurrentBag<>();
@@ -151,13 +160,16 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
    */
   @Override
   public ConcurrentBagEntrySigner borrowSigner(int soTimeout) throws NoIdleSignerException {
+    long start = System.nanoTime();
     ConcurrentBagEntrySigner signer = null;
     try {
       signer = signers.borrow(soTimeout, TimeUnit.MILLISECONDS);
     } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
     }
 
+    METRIC_BORROW_WAIT.observeSince(start);
     if (signer == null) {
+      METRIC_BORROW_TIMEOUTS.inc();
       throw new NoIdleSignerException("no idle signer available");
     }
 
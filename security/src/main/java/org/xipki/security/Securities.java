@@ -103,6 +103,12 @@ public class Securities implements Closeable {
 
     private int defaultSignerParallelism = 32;
 
+    /**
+     * Maximal number of cached verifiers of the request signers' certificates, 0 to disable
+     * the cache.
+     */
+    private int verifierCacheSize = 1000;
+
     private FileOrValue pkcs11Conf;
 
     private PasswordConf password;
@@ -142,6 +148,14 @@ public class Securities implements Closeable {
       this.defaultSignerParallelism = defaultSignerParallelism;
     }
 
+    public int getVerifierCacheSize() {
+      return verifierCacheSize;
+    }
+
+    public void setVerifierCacheSize(int verifierCacheSize) {
+      this.verifierCacheSize = verifierCacheSize;
+    }
+
     public FileOrValue getPkcs11Conf() {
       return pkcs11Conf;
     }
@@ -168,6 +182,9 @@ public class Securities implements Closeable {
 
     @Override
     public void validate() throws InvalidConfException {
+      if (verifierCacheSize < 0) {
+        throw new InvalidConfException("verifierCacheSize must not be negative");
+      }
       validate(password);
     }
 
@@ -277,6 +294,7 @@ public class Securities implements Closeable {
     securityFactory.setStrongRandom4SignEnabled(conf.isSignStrongrandomEnabled());
     securityFactory.setStrongRandom4KeyEnabled(conf.isKeyStrongrandomEnabled());
     securityFactory.setDefaultSignerParallelism(conf.getDefaultSignerParallelism());
+    securityFactory.setVerifierCacheSize(conf.getVerifierCacheSize());
 
     SignerFactoryRegisterImpl signerFactoryRegister = new SignerFactoryRegisterImpl();
     securityFactory.setSignerFactoryRegister(signerFactoryRegister);
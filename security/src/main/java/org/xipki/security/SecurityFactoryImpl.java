@@ -62,6 +62,8 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
 
   private int defaultSignerParallelism = 32;
 
+  private VerifierCache verifierCache = new VerifierCache(this, 1000);
+
   private PasswordResolver passwordResolver;
 
   private SignerFactoryRegister signerFactoryRegister;
@@ -112,6 +114,14 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
     return SignerUtil.getContentVerifierProvider(publicKey, ownerKeyAndCert);
   }
 
+  @Override
+  public ContentVerifierProvider getContentVerifierProvider(X509Cert cert)
+      throws InvalidKeyException {
+    VerifierCache cache = verifierCache;
+    return (cache == null) ? super.getContentVerifierProvider(cert)
+        : cache.getContentVerifierProvider(cert);
+  }
+
   @Override
   public PublicKey generatePublicKey(SubjectPublicKeyInfo subjectPublicKeyInfo)
       throws InvalidKeyException {
@@ -163,6 +173,17 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
         defaultSignerParallelism, "defaultSignerParallelism");
   }
 
+  /**
+   * Sets the maximal number of cached verifier providers of the certificates.
+   *
+   * @param verifierCacheSize
+   *          maximal number of cached providers, 0 to disable the cache.
+   */
+  public void setVerifierCacheSize(int verifierCacheSize) {
+    this.verifierCache = (Args.notNegative(verifierCacheSize, "verifierCacheSize") == 0)
+        ? null : new VerifierCache(this, verifierCacheSize);
+  }
+
   public void setSignerFactoryRegister(SignerFactoryRegister signerFactoryRegister) {
     this.signerFactoryRegister = signerFactoryRegister;
   }
@@ -0,0 +1,84 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.security;
+
+import java.security.InvalidKeyException;
+
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.xipki.util.Args;
+import org.xipki.util.LruCache;
+
+/**
+ * Bounded cache of {@link ContentVerifierProvider}s, keyed by the SHA-256 fingerprint of the
+ * certificate. The providers are thread-safe, and each call of
+ * {@link ContentVerifierProvider#get(org.bouncycastle.asn1.x509.AlgorithmIdentifier)} returns
+ * a new verifier, so that a cached provider can be used for all signature algorithms of the key.
+ *
+ * @author Lijun Liao
+ */
+
+public class VerifierCache {
+
+  private final SecurityFactory securityFactory;
+
+  private final LruCache<String, ContentVerifierProvider> cache;
+
+  /**
+   * Constructor.
+   *
+   * @param securityFactory
+   *          Security factory to create the providers. Must not be {@code null}.
+   * @param maxSize
+   *          Maximal number of cached providers.
+   */
+  public VerifierCache(SecurityFactory securityFactory, int maxSize) {
+    this.securityFactory = Args.notNull(securityFactory, "securityFactory");
+    this.cache = new LruCache<>(Args.positive(maxSize, "maxSize"));
+  }
+
+  /**
+   * Returns the verifier provider for the public key of the given certificate.
+   *
+   * @param cert
+   *          Certificate. Must not be {@code null}.
+   * @return the verifier provider.
+   * @throws InvalidKeyException
+   *           if the public key is not supported.
+   */
+  public ContentVerifierProvider getContentVerifierProvider(X509Cert cert)
+      throws InvalidKeyException {
+    String fingerprint = HashAlgo.SHA256.base64Hash(Args.notNull(cert, "cert").getEncoded());
+    ContentVerifierProvider provider = cache.get(fingerprint);
+    if (provider == null) {
+      // concurrent misses may build the provider twice, which is harmless
+      provider = securityFactory.getContentVerifierProvider(cert.getPublicKey(), null);
+      cache.put(fingerprint, provider);
+    }
+    return provider;
+  } // method getContentVerifierProvider
+
+  public int size() {
+    return cache.size();
+  }
+
+  public void clear() {
+    cache.evictAll();
+  }
+
+}
@@ -74,6 +74,8 @@ abstract class P11ContentSigner implements XiContentSigner {
 
   protected final byte[] encodedAlgorithmIdentifier;
 
+  private volatile P11SigningContext signingContext;
+
   P11ContentSigner(P11CryptService cryptService, P11IdentityId identityId,
       AlgorithmIdentifier signatureAlgId)
       throws XiSecurityException, P11TokenException {
@@ -87,6 +89,22 @@ abstract class P11ContentSigner implements XiContentSigner {
     }
   }
 
+  /**
+   * Signs the content with the signing context of the identity. The context is cached and
+   * created again only if the identity has been replaced by a refresh of the slot.
+   */
+  protected byte[] sign(long mechanism, P11Params parameters, byte[] content)
+      throws P11TokenException {
+    P11Identity identity = cryptService.getIdentity(identityId);
+    P11SigningContext context = signingContext;
+    if (context == null || context.getIdentity() != identity
+        || context.getMechanism() != mechanism || context.getParameters() != parameters) {
+      context = identity.getSigningContext(mechanism, parameters);
+      signingContext = context;
+    }
+    return context.sign(content);
+  } // method sign
+
   @Override
   public final AlgorithmIdentifier getAlgorithmIdentifier() {
     return algorithmIdentifier;
@@ -195,7 +213,7 @@ abstract class P11ContentSigner implements XiContentSigner {
         ((DigestOutputStream) outputStream).reset();
       }
 
-      return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+      return sign(mechanism, null, dataToSign);
     }
 
   } // class DSA
@@ -302,7 +320,7 @@ abstract class P11ContentSigner implements XiContentSigner {
         ((DigestOutputStream) outputStream).reset();
       }
 
-      return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+      return sign(mechanism, null, dataToSign);
     }
   } // method ECDSA
 
@@ -335,7 +353,7 @@ abstract class P11ContentSigner implements XiContentSigner {
       byte[] content = outputStream.toByteArray();
       outputStream.reset();
       try {
-        return cryptService.getIdentity(identityId).sign(PKCS11Constants.CKM_EDDSA, null, content);
+        return sign(PKCS11Constants.CKM_EDDSA, null, content);
       } catch (Throwable th) {
         LogUtil.warn(LOG, th);
         throw new RuntimeCryptoException(th.getClass().getName() + ": " + th.getMessage());
@@ -391,7 +409,7 @@ abstract class P11ContentSigner implements XiContentSigner {
       try {
         byte[] dataToSign = outputStream.toByteArray();
         outputStream.reset();
-        return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+        return sign(mechanism, null, dataToSign);
       } catch (P11TokenException ex) {
         LogUtil.warn(LOG, ex);
         throw new RuntimeCryptoException("P11TokenException: " + ex.getMessage());
@@ -513,7 +531,7 @@ abstract class P11ContentSigner implements XiContentSigner {
           dataToSign = SignerUtil.EMSA_PKCS1_v1_5_encoding(dataToSign, modulusBitLen);
         }
 
-        return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+        return sign(mechanism, null, dataToSign);
       } catch (XiSecurityException | P11TokenException ex) {
         LogUtil.error(LOG, ex, "could not sign");
         throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
@@ -674,7 +692,7 @@ abstract class P11ContentSigner implements XiContentSigner {
       }
 
       try {
-        return cryptService.getIdentity(identityId).sign(mechanism, parameters, dataToSign);
+        return sign(mechanism, parameters, dataToSign);
       } catch (P11TokenException ex) {
         LogUtil.warn(LOG, ex, "could not sign");
         throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
@@ -697,6 +715,9 @@ abstract class P11ContentSigner implements XiContentSigner {
     // CHECKSTYLE:SKIP
     private final byte[] z;
 
+    private final P11Params.P11ByteArrayParams defaultIdaParams =
+        new P11Params.P11ByteArrayParams(GMUtil.getDefaultIDA());
+
     static {
       sigAlgHashMap.put(GMObjectIdentifiers.sm2sign_with_sm3.getId(), HashAlgo.SM3);
       hashMechMap.put(HashAlgo.SM3, PKCS11Constants.CKM_VENDOR_SM2_SM3);
@@ -773,7 +794,7 @@ abstract class P11ContentSigner implements XiContentSigner {
       P11Params.P11ByteArrayParams params;
       if (outputStream instanceof ByteArrayOutputStream) {
         // dataToSign is the real message
-        params = new P11Params.P11ByteArrayParams(GMUtil.getDefaultIDA());
+        params = defaultIdaParams;
         dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
       } else {
         // dataToSign is Hash(Z||Real Message)
@@ -783,7 +804,7 @@ abstract class P11ContentSigner implements XiContentSigner {
 
       reset();
 
-      return cryptService.getIdentity(identityId).sign(mechanism, params, dataToSign);
+      return sign(mechanism, params, dataToSign);
     }
   } // class SM2
 
@@ -17,7 +17,12 @@
 
 package org.xipki.security.pkcs11;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +41,8 @@ public class P11CryptService {
 
   private static final Logger LOG = LoggerFactory.getLogger(P11CryptService.class);
 
+  private static final int MAX_REFRESH_THREADS = 8;
+
   private P11Module module;
 
   public P11CryptService(P11Module module) throws P11TokenException {
@@ -46,6 +53,7 @@ public class P11CryptService {
     LOG.info("refreshing PKCS#11 module {}", module.getName());
 
     List<P11SlotIdentifier> slotIds = module.getSlotIds();
+    List<P11Slot> slots = new ArrayList<>(slotIds.size());
     for (P11SlotIdentifier slotId : slotIds) {
       P11Slot slot;
       try {
@@ -58,7 +66,50 @@ public class P11CryptService {
         continue;
       }
 
-      slot.refresh();
+      slots.add(slot);
+    }
+
+    if (slots.size() < 2) {
+      for (P11Slot slot : slots) {
+        slot.refresh();
+      }
+    } else {
+      // refresh the slots in parallel
+      ExecutorService executor = Executors.newFixedThreadPool(
+          Math.min(slots.size(), MAX_REFRESH_THREADS), runnable -> {
+            Thread thread = new Thread(runnable, "p11-refresh-" + module.getName());
+            thread.setDaemon(true);
+            return thread;
+          });
+
+      List<Future<?>> futures = new ArrayList<>(slots.size());
+      for (P11Slot slot : slots) {
+        futures.add(executor.submit(() -> {
+          slot.refresh();
+          return null;
+        }));
+      }
+      executor.shutdown();
+
+      P11TokenException exception = null;
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new P11TokenException("interrupted while refreshing the slots", ex);
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (exception == null) {
+            exception = (cause instanceof P11TokenException) ? (P11TokenException) cause
+                : new P11TokenException(cause.getMessage(), cause);
+          }
+        }
+      }
+
+      if (exception != null) {
+        throw exception;
+      }
     }
 
     LOG.info("refreshed PKCS#11 module {}", module.getName());
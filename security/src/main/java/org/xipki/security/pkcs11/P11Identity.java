@@ -100,20 +100,59 @@ public abstract class P11Identity implements Comparable<P11Identity> {
 
   public byte[] sign(long mechanism, P11Params parameters, byte[] content)
       throws P11TokenException {
+    Args.notNull(content, "content");
+    assertSignSupported(mechanism, parameters);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("sign with mechanism {}", Functions.getMechanismDescription(mechanism));
+    }
+    return sign0(mechanism, parameters, content);
+  }
+
+  /**
+   * Returns the context to sign with the given mechanism and parameters repeatedly.
+   *
+   * @param mechanism
+   *          mechanism to sign the content.
+   * @param parameters
+   *          Parameters. Could be {@code null}.
+   * @return the signing context.
+   * @throws P11TokenException
+   *         if the mechanism is not supported or PKCS#11 token error occurs.
+   */
+  public P11SigningContext getSigningContext(long mechanism, P11Params parameters)
+      throws P11TokenException {
+    assertSignSupported(mechanism, parameters);
+    return newSigningContext(mechanism, parameters);
+  }
+
+  /**
+   * Creates the signing context, the mechanism has been verified. Overwrite it to
+   * pre-resolve the device specific objects.
+   *
+   * @param mechanism
+   *          mechanism to sign the content.
+   * @param parameters
+   *          Parameters. Could be {@code null}.
+   * @return the signing context.
+   * @throws P11TokenException
+   *         if PKCS#11 token error occurs.
+   */
+  protected P11SigningContext newSigningContext(long mechanism, P11Params parameters)
+      throws P11TokenException {
+    return new P11SigningContext(this, mechanism, parameters);
+  }
+
+  private void assertSignSupported(long mechanism, P11Params parameters)
+      throws P11TokenException {
     if (publicKey instanceof XDHKey) {
       throw new P11TokenException("this identity is not suitable for sign");
     }
 
-    Args.notNull(content, "content");
     slot.assertMechanismSupported(mechanism);
     if (!supportsMechanism(mechanism, parameters)) {
       throw new P11UnsupportedMechanismException(mechanism, id);
     }
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("sign with mechanism {}", Functions.getMechanismDescription(mechanism));
-    }
-    return sign0(mechanism, parameters, content);
-  }
+  } // method assertSignSupported
 
   /**
    * Signs the content.
@@ -0,0 +1,224 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.Hex;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+
+/**
+ * Persisted list of the identities (id, label and key type) of the slots of a PKCS#11 module.
+ * It is written after each full refresh of a slot and read at the next start, so that the
+ * slot can start without enumerating all objects, and the identities are resolved on demand.
+ *
+ * @author Lijun Liao
+ */
+
+public class P11IdentityManifest {
+
+  public static class Entry {
+
+    /**
+     * Hex encoded id.
+     */
+    private String id;
+
+    private String label;
+
+    private boolean secretKey;
+
+    public String getId() {
+      return id;
+    }
+
+    public void setId(String id) {
+      this.id = id;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    public void setLabel(String label) {
+      this.label = label;
+    }
+
+    public boolean isSecretKey() {
+      return secretKey;
+    }
+
+    public void setSecretKey(boolean secretKey) {
+      this.secretKey = secretKey;
+    }
+
+    public P11ObjectIdentifier toObjectId() {
+      return new P11ObjectIdentifier(Hex.decode(id), label);
+    }
+
+  } // class Entry
+
+  public static class Content {
+
+    /**
+     * Identities of the slots, the key is the &lt;slot index&gt;:&lt;slot id&gt;.
+     */
+    private Map<String, List<Entry>> slots;
+
+    public Map<String, List<Entry>> getSlots() {
+      return slots;
+    }
+
+    public void setSlots(Map<String, List<Entry>> slots) {
+      this.slots = slots;
+    }
+
+  } // class Content
+
+  private static final Logger LOG = LoggerFactory.getLogger(P11IdentityManifest.class);
+
+  private final File file;
+
+  private final Map<String, List<Entry>> slots = new ConcurrentHashMap<>();
+
+  public P11IdentityManifest(String file) {
+    this.file = IoUtil.expandFilepath(new File(Args.notBlank(file, "file")));
+    if (!this.file.exists()) {
+      LOG.info("identity manifest {} does not exist", this.file.getPath());
+      return;
+    }
+
+    try (InputStream is = Files.newInputStream(this.file.toPath())) {
+      Content content = JSON.parseObject(is, Content.class);
+      if (content != null && content.getSlots() != null) {
+        for (Map.Entry<String, List<Entry>> m : content.getSlots().entrySet()) {
+          if (m.getValue() != null) {
+            slots.put(m.getKey(), Collections.unmodifiableList(m.getValue()));
+          }
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      // the manifest is only a hint, ignore it.
+      LogUtil.warn(LOG, ex, "could not read the identity manifest " + this.file.getPath());
+      slots.clear();
+    }
+  } // constructor
+
+  public boolean hasEntries(P11SlotIdentifier slotId) {
+    List<Entry> entries = slots.get(key(slotId));
+    return entries != null && !entries.isEmpty();
+  }
+
+  /**
+   * Returns the entry of the given slot matching the {@code id} and {@code label}.
+   *
+   * @param slotId
+   *          Slot identifier. Must not be {@code null}.
+   * @param id
+   *          Id of the key. {@code null} to match any id.
+   * @param label
+   *          Label of the key. {@code null} to match any label.
+   * @return the matching entry, or {@code null} if none matches.
+   */
+  public Entry find(P11SlotIdentifier slotId, byte[] id, String label) {
+    if (id == null && label == null) {
+      return null;
+    }
+
+    List<Entry> entries = slots.get(key(slotId));
+    if (entries == null) {
+      return null;
+    }
+
+    String hexId = (id == null) ? null : Hex.encode(id);
+    for (Entry entry : entries) {
+      if (hexId != null && !hexId.equalsIgnoreCase(entry.getId())) {
+        continue;
+      }
+
+      if (label != null && !label.equals(entry.getLabel())) {
+        continue;
+      }
+
+      return entry;
+    }
+
+    return null;
+  } // method find
+
+  /**
+   * Replaces the entries of the given slot by the given identities and writes the manifest.
+   *
+   * @param slotId
+   *          Slot identifier. Must not be {@code null}.
+   * @param identities
+   *          All identities of the slot. Must not be {@code null}.
+   */
+  public synchronized void update(P11SlotIdentifier slotId, Collection<P11Identity> identities) {
+    List<Entry> entries = new ArrayList<>(identities.size());
+    for (P11Identity identity : identities) {
+      P11ObjectIdentifier keyId = identity.getId().getKeyId();
+      Entry entry = new Entry();
+      entry.setId(keyId.getIdHex());
+      entry.setLabel(keyId.getLabel());
+      entry.setSecretKey(identity.getPublicKey() == null);
+      entries.add(entry);
+    }
+
+    slots.put(key(slotId), Collections.unmodifiableList(entries));
+
+    Content content = new Content();
+    content.setSlots(new TreeMap<>(slots));
+
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try {
+      IoUtil.mkdirsParent(file.toPath());
+      Files.write(tmpFile.toPath(),
+          JSON.toJSONBytes(content, SerializerFeature.PrettyFormat));
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      LOG.info("wrote {} identities of slot {} to the identity manifest {}",
+          entries.size(), slotId, file.getPath());
+    } catch (IOException | RuntimeException ex) {
+      LogUtil.warn(LOG, ex, "could not write the identity manifest " + file.getPath());
+    }
+  } // method update
+
+  private static String key(P11SlotIdentifier slotId) {
+    return slotId.getIndex() + ":" + slotId.getId();
+  }
+
+}
@@ -305,6 +305,10 @@ public class P11ModuleConf {
 
   private final int maxMessageSize;
 
+  private final int numSessions;
+
+  private final String identityManifest;
+
   private final long userType;
 
   private final P11NewObjectConf newObjectConf;
@@ -341,6 +345,14 @@ public class P11ModuleConf {
       throw new InvalidConfException("invalid maxMessageSize (< 128): " + maxMessageSize);
     }
 
+    this.numSessions = moduleType.getNumSessions();
+    if (numSessions < 1) {
+      throw new InvalidConfException("invalid numSessions (< 1): " + numSessions);
+    }
+
+    this.identityManifest = StringUtil.isBlank(moduleType.getIdentityManifest())
+        ? null : moduleType.getIdentityManifest();
+
     // parse mechanismSets
     Map<String, Set<Long>> mechanismSetsMap = new HashMap<>(mechanismSets.size() * 3 / 2);
     for (Pkcs11conf.MechanismSet m : mechanismSets) {
@@ -471,6 +483,14 @@ public class P11ModuleConf {
     return maxMessageSize;
   }
 
+  public int getNumSessions() {
+    return numSessions;
+  }
+
+  public String getIdentityManifest() {
+    return identityManifest;
+  }
+
   public boolean isReadOnly() {
     return readOnly;
   }
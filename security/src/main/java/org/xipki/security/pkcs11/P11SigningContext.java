@@ -0,0 +1,71 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11;
+
+import org.xipki.util.Args;
+
+/**
+ * Immutable context to sign with a {@link P11Identity} using a fixed mechanism and
+ * parameters. Whether the mechanism is supported is verified once when the context is
+ * created, implementations may pre-resolve further device specific objects.
+ *
+ * <p>A context becomes stale if the identity is replaced by a refresh of the slot.
+ *
+ * @author Lijun Liao
+ */
+
+public class P11SigningContext {
+
+  protected final P11Identity identity;
+
+  protected final long mechanism;
+
+  protected final P11Params parameters;
+
+  protected P11SigningContext(P11Identity identity, long mechanism, P11Params parameters) {
+    this.identity = Args.notNull(identity, "identity");
+    this.mechanism = mechanism;
+    this.parameters = parameters;
+  }
+
+  public P11Identity getIdentity() {
+    return identity;
+  }
+
+  public long getMechanism() {
+    return mechanism;
+  }
+
+  public P11Params getParameters() {
+    return parameters;
+  }
+
+  /**
+   * Signs the content.
+   *
+   * @param content
+   *          Content to be signed. Must not be {@code null}.
+   * @return signature.
+   * @throws P11TokenException
+   *         if PKCS#11 token error occurs.
+   */
+  public byte[] sign(byte[] content) throws P11TokenException {
+    return identity.sign0(mechanism, parameters, content);
+  }
+
+}
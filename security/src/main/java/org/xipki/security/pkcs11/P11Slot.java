@@ -54,6 +54,7 @@ import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.Hex;
+import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
 
 import iaik.pkcs.pkcs11.wrapper.Functions;
@@ -74,6 +75,9 @@ public abstract class P11Slot implements Closeable {
 
     private final Map<P11ObjectIdentifier, X509Cert> certificates = new HashMap<>();
 
+    // hex encoded id to the identifier of the first certificate with this id
+    private final Map<String, P11ObjectIdentifier> certIdsByHexId = new HashMap<>();
+
     private final Set<Long> mechanisms = new HashSet<>();
 
     public P11SlotRefreshResult() {
@@ -104,6 +108,7 @@ public abstract class P11Slot implements Closeable {
       Args.notNull(objectId, "objectId");
       Args.notNull(certificate, "certificate");
       this.certificates.put(objectId, certificate);
+      this.certIdsByHexId.putIfAbsent(objectId.getIdHex(), objectId);
     }
 
     /**
@@ -113,12 +118,8 @@ public abstract class P11Slot implements Closeable {
      * @return the certificate of the given identifier.
      */
     public X509Cert getCertForId(byte[] id) {
-      for (P11ObjectIdentifier objId : certificates.keySet()) {
-        if (objId.matchesId(id)) {
-          return certificates.get(objId);
-        }
-      }
-      return null;
+      P11ObjectIdentifier objId = certIdsByHexId.get(Hex.encode(id));
+      return (objId == null) ? null : certificates.get(objId);
     }
 
     /**
@@ -128,12 +129,8 @@ public abstract class P11Slot implements Closeable {
      * @return the label.
      */
     public String getCertLabelForId(byte[] id) {
-      for (P11ObjectIdentifier objId : certificates.keySet()) {
-        if (objId.matchesId(id)) {
-          return objId.getLabel();
-        }
-      }
-      return null;
+      P11ObjectIdentifier objId = certIdsByHexId.get(Hex.encode(id));
+      return (objId == null) ? null : objId.getLabel();
     }
 
   } // class P11SlotRefreshResult
@@ -224,10 +221,12 @@ public abstract class P11Slot implements Closeable {
   private final ConcurrentHashMap<P11ObjectIdentifier, X509Cert> certificates =
       new ConcurrentHashMap<>();
 
-  private final Set<Long> mechanisms = new HashSet<>();
+  private final Set<Long> mechanisms = ConcurrentHashMap.newKeySet();
 
   private final P11MechanismFilter mechanismFilter;
 
+  private P11IdentityManifest identityManifest;
+
   protected P11Slot(String moduleName, P11SlotIdentifier slotId, boolean readOnly,
       P11MechanismFilter mechanismFilter) throws P11TokenException {
     this.mechanismFilter = Args.notNull(mechanismFilter, "mechanismFilter");
@@ -538,44 +537,24 @@ public abstract class P11Slot implements Closeable {
   public void refresh() throws P11TokenException {
     P11SlotRefreshResult res = refresh0(); // CHECKSTYLE:SKIP
 
-    mechanisms.clear();
-    certificates.clear();
-    identities.clear();
-
-    List<Long> ignoreMechs = new ArrayList<>();
+    List<Long> ignoreMechs = setMechanisms(res.getMechanisms());
 
-    for (Long mech : res.getMechanisms()) {
-      if (mechanismFilter.isMechanismPermitted(slotId, mech)) {
-        mechanisms.add(mech);
-      } else {
-        ignoreMechs.add(mech);
-      }
-    }
+    // replace the entries without clearing the maps, since they are still in use.
     certificates.putAll(res.getCertificates());
+    certificates.keySet().retainAll(res.getCertificates().keySet());
     identities.putAll(res.getIdentities());
+    identities.keySet().retainAll(res.getIdentities().keySet());
 
     updateCaCertsOfIdentities();
 
+    if (identityManifest != null) {
+      identityManifest.update(slotId, identities.values());
+    }
+
     if (LOG.isInfoEnabled()) {
       StringBuilder sb = new StringBuilder();
       sb.append("initialized module ").append(moduleName).append(", slot ").append(slotId);
-
-      sb.append("\nsupported mechanisms:\n");
-      List<Long> sortedMechs = new ArrayList<>(mechanisms);
-      Collections.sort(sortedMechs);
-      for (Long mech : sortedMechs) {
-        sb.append("\t").append(Functions.getMechanismDescription(mech)).append("\n");
-      }
-
-      sb.append("\nsupported by device but ignored mechanisms:\n");
-      if (ignoreMechs.isEmpty()) {
-        sb.append("\tNONE\n");
-      } else {
-        Collections.sort(ignoreMechs);
-        for (Long mech : ignoreMechs) {
-          sb.append("\t").append(Functions.getMechanismDescription(mech)).append("\n");
-        }
-      }
+      appendMechanisms(sb, ignoreMechs);
 
       List<P11ObjectIdentifier> ids = getSortedObjectIds(certificates.keySet());
       sb.append(ids.size()).append(" certificates:\n");
@@ -609,6 +588,117 @@ public abstract class P11Slot implements Closeable {
     }
   } // method refresh
 
+  /**
+   * Initializes the slot with the mechanisms only, the identities listed in the identity
+   * manifest are resolved on demand via {@link #resolveIdentity(P11IdentityManifest.Entry)}.
+   *
+   * @param mechanisms
+   *          Mechanisms supported by the device. Must not be {@code null}.
+   */
+  protected void refreshMechanisms(Set<Long> mechanisms) {
+    List<Long> ignoreMechs = setMechanisms(mechanisms);
+
+    if (LOG.isInfoEnabled()) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("initialized module ").append(moduleName).append(", slot ").append(slotId)
+        .append(" lazily, identities are resolved on demand");
+      appendMechanisms(sb, ignoreMechs);
+      LOG.info(sb.toString());
+    }
+  } // method refreshMechanisms
+
+  private List<Long> setMechanisms(Set<Long> newMechanisms) {
+    List<Long> ignoreMechs = new ArrayList<>();
+    Set<Long> permittedMechs = new HashSet<>();
+
+    for (Long mech : newMechanisms) {
+      if (mechanismFilter.isMechanismPermitted(slotId, mech)) {
+        permittedMechs.add(mech);
+      } else {
+        ignoreMechs.add(mech);
+      }
+    }
+
+    mechanisms.addAll(permittedMechs);
+    mechanisms.retainAll(permittedMechs);
+    return ignoreMechs;
+  } // method setMechanisms
+
+  private void appendMechanisms(StringBuilder sb, List<Long> ignoreMechs) {
+    sb.append("\nsupported mechanisms:\n");
+    List<Long> sortedMechs = new ArrayList<>(mechanisms);
+    Collections.sort(sortedMechs);
+    for (Long mech : sortedMechs) {
+      sb.append("\t").append(Functions.getMechanismDescription(mech)).append("\n");
+    }
+
+    sb.append("\nsupported by device but ignored mechanisms:\n");
+    if (ignoreMechs.isEmpty()) {
+      sb.append("\tNONE\n");
+    } else {
+      Collections.sort(ignoreMechs);
+      for (Long mech : ignoreMechs) {
+        sb.append("\t").append(Functions.getMechanismDescription(mech)).append("\n");
+      }
+    }
+  } // method appendMechanisms
+
+  public P11IdentityManifest getIdentityManifest() {
+    return identityManifest;
+  }
+
+  protected void setIdentityManifest(P11IdentityManifest identityManifest) {
+    this.identityManifest = identityManifest;
+  }
+
+  /**
+   * Resolves the identity of the given manifest entry from the device. Slots which do not
+   * support the lazy resolution return {@code null}.
+   *
+   * @param entry
+   *          Entry in the identity manifest. Must not be {@code null}.
+   * @return the identity, or {@code null} if it could not be found.
+   * @throws P11TokenException
+   *         if PKCS#11 token exception occurs.
+   */
+  protected P11Identity resolveIdentity(P11IdentityManifest.Entry entry)
+      throws P11TokenException {
+    return null;
+  }
+
+  private P11Identity resolveIdentityInManifest(byte[] id, String label) {
+    if (identityManifest == null) {
+      return null;
+    }
+
+    P11IdentityManifest.Entry entry = identityManifest.find(slotId, id, label);
+    if (entry == null) {
+      return null;
+    }
+
+    P11Identity identity;
+    try {
+      identity = resolveIdentity(entry);
+    } catch (P11TokenException | RuntimeException ex) {
+      LogUtil.warn(LOG, ex, "could not resolve identity with "
+          + getDescription(Hex.decode(entry.getId()), entry.getLabel()));
+      return null;
+    }
+
+    if (identity == null) {
+      return null;
+    }
+
+    P11Identity prevIdentity = identities.putIfAbsent(identity.getId().getKeyId(), identity);
+    if (prevIdentity != null) {
+      return prevIdentity;
+    }
+
+    updateCaCertsOfIdentity(identity);
+    LOG.info("resolved identity {} on demand", identity.getId().getKeyId());
+    return identity;
+  } // method resolveIdentityInManifest
+
   protected void addIdentity(P11Identity identity) throws P11DuplicateEntityException {
     if (!slotId.equals(identity.getId().getSlotId())) {
       throw new IllegalArgumentException("invalid identity");
@@ -665,7 +755,10 @@ public abstract class P11Slot implements Closeable {
   public P11Identity getIdentity(P11ObjectIdentifier keyId) throws P11UnknownEntityException {
     P11Identity ident = identities.get(keyId);
     if (ident == null) {
-      throw new P11UnknownEntityException(slotId, keyId);
+      ident = resolveIdentityInManifest(keyId.getId(), keyId.getLabel());
+      if (ident == null) {
+        throw new P11UnknownEntityException(slotId, keyId);
+      }
     }
     return ident;
   }
@@ -737,7 +830,8 @@ public abstract class P11Slot implements Closeable {
       }
     }
 
-    return null;
+    P11Identity identity = resolveIdentityInManifest(id, label);
+    return (identity == null) ? null : identity.getId().getKeyId();
   } // method getObjectId
 
   public P11IdentityId getIdentityId(byte[] keyId, String keyLabel) {
@@ -760,7 +854,8 @@ public abstract class P11Slot implements Closeable {
       }
     }
 
-    return null;
+    P11Identity identity = resolveIdentityInManifest(keyId, keyLabel);
+    return (identity == null) ? null : identity.getId();
   } // method getIdentityId
 
   /**
@@ -1247,6 +1342,16 @@ public abstract class P11Slot implements Closeable {
     LOG.info("updated certificate for key {}", keyId);
   } // method updateCertificate
 
+  /**
+   * Returns the statistics of the session pool, e.g. the number of sessions, the number of
+   * borrowed sessions and the accumulated time to borrow a session in nanoseconds.
+   *
+   * @return the statistics, empty if the slot has no session pool.
+   */
+  public Map<String, Long> getSessionStatistics() {
+    return Collections.emptyMap();
+  }
+
   /**
    * Writes the token details to the given {@code stream}.
    * @param stream
@@ -1320,6 +1425,13 @@ public abstract class P11Slot implements Closeable {
       }
     }
 
+    if (verbose) {
+      Map<String, Long> sessionStats = getSessionStatistics();
+      if (!sessionStats.isEmpty()) {
+        sb.append("\tSession pool: ").append(sessionStats).append("\n");
+      }
+    }
+
     if (sb.length() > 0) {
       stream.write(StringUtil.toUtf8Bytes(sb.toString()));
     }
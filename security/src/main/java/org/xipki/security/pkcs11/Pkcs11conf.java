@@ -147,6 +147,19 @@ public class Pkcs11conf extends ValidatableConf {
      */
     private Integer maxMessageSize;
 
+    /**
+     * number of sessions opened and logged in at startup, at most the maximal number of
+     * sessions supported by the device.
+     */
+    private Integer numSessions;
+
+    /**
+     * file to persist the identities of the slots. If present at startup, the slots are
+     * started without enumerating all objects, and the identities are resolved on demand
+     * until the full refresh in background is finished.
+     */
+    private String identityManifest;
+
     private List<PasswordSet> passwordSets;
 
     private List<MechanimFilter> mechanismFilters;
@@ -254,6 +267,22 @@ public class Pkcs11conf extends ValidatableConf {
       return maxMessageSize == null ? 16384 : maxMessageSize.intValue();
     }
 
+    public void setNumSessions(Integer numSessions) {
+      this.numSessions = numSessions;
+    }
+
+    public int getNumSessions() {
+      return numSessions == null ? 1 : numSessions.intValue();
+    }
+
+    public String getIdentityManifest() {
+      return identityManifest;
+    }
+
+    public void setIdentityManifest(String identityManifest) {
+      this.identityManifest = identityManifest;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
       notEmpty(name, "name");
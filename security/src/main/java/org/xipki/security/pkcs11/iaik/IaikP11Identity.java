@@ -29,6 +29,7 @@ import org.xipki.security.X509Cert;
 import org.xipki.security.pkcs11.P11Identity;
 import org.xipki.security.pkcs11.P11IdentityId;
 import org.xipki.security.pkcs11.P11Params;
+import org.xipki.security.pkcs11.P11SigningContext;
 import org.xipki.security.pkcs11.P11TokenException;
 import org.xipki.util.Args;
 
@@ -71,7 +72,7 @@ class IaikP11Identity extends P11Identity {
       String algName = publicKey.getAlgorithm();
       if (EdECConstants.Ed25519.equalsIgnoreCase(algName)) {
         expectedSignatureLen = 64;
-      } else if (EdECConstants.Ed25519.equalsIgnoreCase(algName)) {
+      } else if (EdECConstants.Ed448.equalsIgnoreCase(algName)) {
         expectedSignatureLen = 114;
       } else {
         throw new IllegalArgumentException("unknown EdDSA algorithm " + algName);
@@ -112,6 +113,18 @@ class IaikP11Identity extends P11Identity {
     return ((IaikP11Slot) slot).sign(mechanism, parameters, content, this);
   }
 
+  @Override
+  protected P11SigningContext newSigningContext(long mechanism, P11Params parameters)
+      throws P11TokenException {
+    return new IaikP11SigningContext(this, mechanism, parameters,
+        IaikP11Slot.getMechanism(mechanism, parameters),
+        IaikP11Slot.getExpectedSignatureLen(mechanism, this), getIaikSlot().getMaxMessageSize());
+  }
+
+  IaikP11Slot getIaikSlot() {
+    return (IaikP11Slot) slot;
+  }
+
   Key getSigningKey() {
     return signingKey;
   }
@@ -18,13 +18,22 @@
 package org.xipki.security.pkcs11.iaik;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.password.PasswordResolverException;
+import org.xipki.security.pkcs11.P11IdentityManifest;
 import org.xipki.security.pkcs11.P11Module;
 import org.xipki.security.pkcs11.P11ModuleConf;
 import org.xipki.security.pkcs11.P11Slot;
@@ -63,6 +72,8 @@ public class IaikP11Module extends P11Module {
 
   private static final Logger LOG = LoggerFactory.getLogger(IaikP11Module.class);
 
+  private static final int MAX_INIT_THREADS = 8;
+
   private Module module;
 
   private String description;
@@ -126,7 +137,10 @@ public class IaikP11Module extends P11Module {
 
     StringBuilder msg = new StringBuilder();
 
-    Set<P11Slot> slots = new HashSet<>();
+    P11IdentityManifest identityManifest = (moduleConf.getIdentityManifest() == null)
+        ? null : new P11IdentityManifest(moduleConf.getIdentityManifest());
+
+    List<Callable<P11Slot>> slotCreators = new ArrayList<>(slotList.length);
     for (int i = 0; i < slotList.length; i++) {
       Slot slot = slotList[i];
       if (slot == null) {
@@ -155,20 +169,88 @@ public class IaikP11Module extends P11Module {
       } catch (PasswordResolverException ex) {
         throw new P11TokenException("PasswordResolverException: " + ex.getMessage(), ex);
       }
-      P11Slot p11Slot = new IaikP11Slot(moduleConf.getName(), slotId, slot,
+      slotCreators.add(() -> new IaikP11Slot(moduleConf.getName(), slotId, slot,
           moduleConf.isReadOnly(), moduleConf.getUserType(), pwd, moduleConf.getMaxMessageSize(),
-          moduleConf.getP11MechanismFilter(), moduleConf.getP11NewObjectConf(), vendor);
-
-      slots.add(p11Slot);
+          moduleConf.getNumSessions(), moduleConf.getP11MechanismFilter(),
+          moduleConf.getP11NewObjectConf(), vendor, identityManifest));
     }
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("{}", msg);
     }
 
-    setSlots(slots);
+    setSlots(createSlots(moduleConf.getName(), slotCreators));
   } // constructor
 
+  /**
+   * Creates (login and refresh) the slots in parallel. If one slot could not be created,
+   * the already created slots will be closed.
+   */
+  private static Set<P11Slot> createSlots(String moduleName, List<Callable<P11Slot>> slotCreators)
+      throws P11TokenException {
+    Set<P11Slot> slots = new HashSet<>();
+    if (slotCreators.size() < 2) {
+      for (Callable<P11Slot> creator : slotCreators) {
+        slots.add(createSlot(creator));
+      }
+      return slots;
+    }
+
+    final AtomicInteger threadIndex = new AtomicInteger(0);
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable,
+          "p11-init-" + moduleName + "-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(slotCreators.size(), MAX_INIT_THREADS), threadFactory);
+
+    List<Future<P11Slot>> futures = new ArrayList<>(slotCreators.size());
+    for (Callable<P11Slot> creator : slotCreators) {
+      futures.add(executor.submit(() -> createSlot(creator)));
+    }
+    executor.shutdown();
+
+    P11TokenException exception = null;
+    for (Future<P11Slot> future : futures) {
+      try {
+        slots.add(future.get());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        if (exception == null) {
+          exception = new P11TokenException("interrupted while initializing the slots", ex);
+        }
+      } catch (ExecutionException ex) {
+        if (exception == null) {
+          Throwable cause = ex.getCause();
+          exception = (cause instanceof P11TokenException) ? (P11TokenException) cause
+              : new P11TokenException(cause.getMessage(), cause);
+        }
+      }
+    }
+
+    if (exception != null) {
+      executor.shutdownNow();
+      for (P11Slot slot : slots) {
+        slot.close();
+      }
+      throw exception;
+    }
+
+    return slots;
+  } // method createSlots
+
+  private static P11Slot createSlot(Callable<P11Slot> creator) throws P11TokenException {
+    try {
+      return creator.call();
+    } catch (P11TokenException | RuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new P11TokenException(ex.getMessage(), ex);
+    }
+  } // method createSlot
+
   public static P11Module getInstance(P11ModuleConf moduleConf) throws P11TokenException {
     Args.notNull(moduleConf, "moduleConf");
 
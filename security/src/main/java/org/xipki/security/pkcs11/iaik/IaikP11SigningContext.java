@@ -0,0 +1,78 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.iaik;
+
+import org.xipki.security.pkcs11.P11Params;
+import org.xipki.security.pkcs11.P11SigningContext;
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.Args;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.objects.Key;
+
+/**
+ * {@link P11SigningContext} based on the IAIK PKCS#11 wrapper, with the pre-built
+ * {@link Mechanism} object (including its parameters), the key handle, the expected
+ * signature length and the maximal size of a single-part signature.
+ *
+ * <p>The {@link Mechanism} object is shared by all threads and must not be modified.
+ *
+ * @author Lijun Liao
+ */
+
+class IaikP11SigningContext extends P11SigningContext {
+
+  private final Mechanism mechanismObject;
+
+  private final Key signingKey;
+
+  private final int expectedSignatureLen;
+
+  private final int maxMessageSize;
+
+  IaikP11SigningContext(IaikP11Identity identity, long mechanism, P11Params parameters,
+      Mechanism mechanismObject, int expectedSignatureLen, int maxMessageSize) {
+    super(identity, mechanism, parameters);
+    this.mechanismObject = Args.notNull(mechanismObject, "mechanismObject");
+    this.signingKey = identity.getSigningKey();
+    this.expectedSignatureLen = expectedSignatureLen;
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  @Override
+  public byte[] sign(byte[] content) throws P11TokenException {
+    return ((IaikP11Identity) identity).getIaikSlot().sign(this, content);
+  }
+
+  Mechanism getMechanismObject() {
+    return mechanismObject;
+  }
+
+  Key getSigningKey() {
+    return signingKey;
+  }
+
+  int getExpectedSignatureLen() {
+    return expectedSignatureLen;
+  }
+
+  int getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+}
@@ -27,12 +27,22 @@ import java.security.spec.RSAPublicKeySpec;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.DEROctetString;
@@ -47,6 +57,7 @@ import org.xipki.security.X509Cert;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.pkcs11.P11Identity;
 import org.xipki.security.pkcs11.P11IdentityId;
+import org.xipki.security.pkcs11.P11IdentityManifest;
 import org.xipki.security.pkcs11.P11ModuleConf.P11MechanismFilter;
 import org.xipki.security.pkcs11.P11ModuleConf.P11NewObjectConf;
 import org.xipki.security.pkcs11.P11ObjectIdentifier;
@@ -62,7 +73,9 @@ import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.concurrent.ConcurrentBag;
+import org.xipki.util.concurrent.ConcurrentBag.IConcurrentBagEntry;
 import org.xipki.util.concurrent.ConcurrentBagEntry;
+import org.xipki.util.metrics.MetricsRegistry;
 
 import iaik.pkcs.pkcs11.Mechanism;
 import iaik.pkcs.pkcs11.Session;
@@ -106,10 +119,38 @@ import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
  */
 class IaikP11Slot extends P11Slot {
 
+  /**
+   * Pooled session with the cached login state. The login state is verified with the device
+   * only if it is unknown, if the device reported CKR_USER_NOT_LOGGED_IN, or if the last
+   * verification is older than {@link IaikP11Slot#LOGIN_CHECK_INTERVAL}.
+   */
+  private static class SessionEntry extends ConcurrentBagEntry<Session> {
+
+    private volatile boolean loggedIn;
+
+    private volatile long lastLoginCheck;
+
+    private SessionEntry(Session session) {
+      super(session);
+    }
+
+  } // class SessionEntry
+
   private static final Logger LOG = LoggerFactory.getLogger(IaikP11Slot.class);
 
+  private static final int MAX_REFRESH_WORKERS = 8;
+
+  private static final int KEYS_PER_REFRESH_WORKER = 16;
+
+  private static final AtomicInteger REFRESH_WORKER_INDEX = new AtomicInteger(0);
+
   private static final long DEFAULT_MAX_COUNT_SESSION = 32;
 
+  private static final String METRIC_SESSIONS = "xipki_p11_session_pool";
+
+  // verify the login state of a session at least every 5 minutes
+  private static final long LOGIN_CHECK_INTERVAL = 5 * 60 * 1000L;
+
   private final int maxMessageSize;
 
   private Slot slot;
@@ -126,6 +167,12 @@ class IaikP11Slot extends P11Slot {
 
   private final AtomicLong countSessions = new AtomicLong(0);
 
+  private final LongAdder countBorrows = new LongAdder();
+
+  private final LongAdder borrowNanos = new LongAdder();
+
+  private final AtomicLong maxBorrowNanos = new AtomicLong(0);
+
   private final SecureRandom random = new SecureRandom();
 
   private final P11NewObjectConf newObjectConf;
@@ -135,9 +182,11 @@ class IaikP11Slot extends P11Slot {
   private final Vendor vendor;
 
   IaikP11Slot(String moduleName, P11SlotIdentifier slotId, Slot slot, boolean readOnly,
-      long userType, List<char[]> password, int maxMessageSize, P11MechanismFilter mechanismFilter,
-      P11NewObjectConf newObjectConf, Vendor vendor) throws P11TokenException {
+      long userType, List<char[]> password, int maxMessageSize, int numSessions,
+      P11MechanismFilter mechanismFilter, P11NewObjectConf newObjectConf, Vendor vendor,
+      P11IdentityManifest identityManifest) throws P11TokenException {
     super(moduleName, slotId, readOnly, mechanismFilter);
+    setIdentityManifest(identityManifest);
 
     this.newObjectConf = Args.notNull(newObjectConf, "newObjectConf");
     this.slot = Args.notNull(slot, "slot");
@@ -169,12 +218,18 @@ class IaikP11Slot extends P11Slot {
         throw ex;
       }
 
+      countSessions.incrementAndGet();
+      SessionEntry sessionEntry = new SessionEntry(session);
+      sessions.add(sessionEntry);
+
       try {
         firstLogin(session, password);
       } catch (P11TokenException ex) {
         LogUtil.error(LOG, ex, "firstLogin");
         throw ex;
       }
+      sessionEntry.loggedIn = true;
+      sessionEntry.lastLoginCheck = System.currentTimeMillis();
 
       Token token;
       try {
@@ -199,8 +254,26 @@ class IaikP11Slot extends P11Slot {
       this.maxSessionCount = (int) maxSessionCount2;
       LOG.info("maxSessionCount: {}", this.maxSessionCount);
 
-      sessions.add(new ConcurrentBagEntry<Session>(session));
-      refresh();
+      prewarmSessions(Math.min(numSessions, maxSessionCount));
+      if (identityManifest != null && identityManifest.hasEntries(slotId)) {
+        // resolve the identities on demand till the full refresh in background is finished.
+        refreshMechanisms(getMechanisms0());
+        Thread thread = new Thread(() -> {
+          try {
+            refresh();
+          } catch (Throwable th) {
+            LogUtil.error(LOG, th, "could not refresh slot " + slotId);
+          }
+        }, "p11-refresh-" + moduleName + "-" + slotId.getIndex());
+        thread.setDaemon(true);
+        thread.start();
+      } else {
+        refresh();
+      }
+
+      MetricsRegistry.getDefault().statistics(METRIC_SESSIONS, "Statistics of the session pool",
+          "stat", this::getSessionStatistics,
+          "module", moduleName, "slot", Integer.toString(slotId.getIndex()));
       successful = true;
     } finally {
       if (!successful) {
@@ -213,8 +286,7 @@ class IaikP11Slot extends P11Slot {
     return slot;
   }
 
-  @Override
-  protected P11SlotRefreshResult refresh0() throws P11TokenException {
+  private Set<Long> getMechanisms0() throws P11TokenException {
     Mechanism[] mechanisms;
     try {
       mechanisms = slot.getToken().getMechanismList();
@@ -222,13 +294,23 @@ class IaikP11Slot extends P11Slot {
       throw new P11TokenException("could not getMechanismList: " + ex.getMessage(), ex);
     }
 
-    P11SlotRefreshResult ret = new P11SlotRefreshResult();
+    Set<Long> ret = new HashSet<>();
     if (mechanisms != null) {
       for (Mechanism mech : mechanisms) {
-        ret.addMechanism(mech.getMechanismCode());
+        ret.add(mech.getMechanismCode());
       }
     }
+    return ret;
+  } // method getMechanisms0
+
+  @Override
+  protected P11SlotRefreshResult refresh0() throws P11TokenException {
+    P11SlotRefreshResult ret = new P11SlotRefreshResult();
+    for (Long mech : getMechanisms0()) {
+      ret.addMechanism(mech);
+    }
 
+    List<PrivateKey> privKeys;
     ConcurrentBagEntry<Session> bagEntry = borrowSession();
 
     try {
@@ -241,7 +323,10 @@ class IaikP11Slot extends P11Slot {
           continue;
         }
 
-        analyseSingleKey(secKey, ret);
+        P11Identity identity = analyseSingleKey(secKey);
+        if (identity != null) {
+          ret.addIdentity(identity);
+        }
       }
 
       // first get the list of all CA certificates
@@ -255,13 +340,82 @@ class IaikP11Slot extends P11Slot {
         }
       }
 
-      List<PrivateKey> privKeys = getAllPrivateObjects(session);
+      privKeys = getAllPrivateObjects(session);
+    } finally {
+      sessions.requite(bagEntry);
+    }
+
+    // analyse the private keys in parallel, each worker with its own session.
+    // The certificates in ret are not modified any more and can be read concurrently.
+    int numWorkers = Math.min(Math.min(maxSessionCount, MAX_REFRESH_WORKERS),
+        (privKeys.size() + KEYS_PER_REFRESH_WORKER - 1) / KEYS_PER_REFRESH_WORKER);
+    if (numWorkers < 2) {
+      for (P11Identity identity : analysePrivateKeys(privKeys, ret)) {
+        ret.addIdentity(identity);
+      }
+      return ret;
+    }
+
+    LOG.info("analyse {} private keys of slot {} with {} workers",
+        privKeys.size(), slotId, numWorkers);
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "p11-refresh-" + moduleName + "-"
+          + slotId.getIndex() + "-" + REFRESH_WORKER_INDEX.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(numWorkers, threadFactory);
 
+    try {
+      List<Future<List<P11Identity>>> futures = new ArrayList<>(numWorkers);
+      int blockSize = (privKeys.size() + numWorkers - 1) / numWorkers;
+      for (int from = 0; from < privKeys.size(); from += blockSize) {
+        final List<PrivateKey> block =
+            privKeys.subList(from, Math.min(privKeys.size(), from + blockSize));
+        futures.add(executor.submit(() -> analysePrivateKeys(block, ret)));
+      }
+
+      for (Future<List<P11Identity>> future : futures) {
+        for (P11Identity identity : future.get()) {
+          ret.addIdentity(identity);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new P11TokenException("interrupted while analysing the private keys", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof P11TokenException) {
+        throw (P11TokenException) cause;
+      }
+      throw new P11TokenException("could not analyse the private keys: " + cause.getMessage(),
+          cause);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return ret;
+  } // method refresh0
+
+  private List<P11Identity> analysePrivateKeys(List<PrivateKey> privKeys,
+      P11SlotRefreshResult refreshResult) throws P11TokenException {
+    List<P11Identity> identities = new ArrayList<>(privKeys.size());
+    if (privKeys.isEmpty()) {
+      return identities;
+    }
+
+    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    try {
+      Session session = bagEntry.value();
       for (PrivateKey privKey : privKeys) {
         byte[] keyId = privKey.getId().getByteArrayValue();
 
         try {
-          analyseSingleKey(session, privKey, ret);
+          P11Identity identity = keyId == null ? null : analyseSingleKey(session, privKey,
+              refreshResult.getCertForId(keyId), refreshResult.getCertLabelForId(keyId));
+          if (identity != null) {
+            identities.add(identity);
+          }
         } catch (XiSecurityException ex) {
           LogUtil.error(LOG, ex, "XiSecurityException while initializing private key "
               + "with id " + hex(keyId));
@@ -276,15 +430,68 @@ class IaikP11Slot extends P11Slot {
           continue;
         }
       }
+    } finally {
+      sessions.requite(bagEntry);
+    }
 
-      return ret;
+    return identities;
+  } // method analysePrivateKeys
+
+  @Override
+  protected P11Identity resolveIdentity(P11IdentityManifest.Entry entry)
+      throws P11TokenException {
+    byte[] id = decodeHex(entry.getId());
+    char[] label = entry.getLabel() == null ? null : entry.getLabel().toCharArray();
+
+    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    try {
+      Session session = bagEntry.value();
+      if (entry.isSecretKey()) {
+        SecretKey secretKey = getSecretKeyObject(session, id, label);
+        return (secretKey == null) ? null : analyseSingleKey(secretKey);
+      }
+
+      PrivateKey privKey = getPrivateKeyObject(session, id, label);
+      if (privKey == null) {
+        return null;
+      }
+
+      X509Cert cert = null;
+      String certLabel = null;
+      X509PublicKeyCertificate p11Cert = getCertificateObject(session, id, null);
+      if (p11Cert != null) {
+        cert = parseCert(p11Cert);
+        char[] chars = p11Cert.getLabel().getCharArrayValue();
+        certLabel = (chars == null) ? null : new String(chars);
+      }
+
+      try {
+        return analyseSingleKey(session, privKey, cert, certLabel);
+      } catch (XiSecurityException ex) {
+        throw new P11TokenException(ex.getMessage(), ex);
+      }
     } finally {
       sessions.requite(bagEntry);
     }
-  } // method refresh0
+  } // method resolveIdentity
+
+  @Override
+  public Map<String, Long> getSessionStatistics() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("sessions", countSessions.get());
+    stats.put("activeSessions", (long) sessions.getCount(IConcurrentBagEntry.STATE_IN_USE));
+    stats.put("maxSessions", (long) maxSessionCount);
+    stats.put("borrows", countBorrows.sum());
+    stats.put("borrowNanos", borrowNanos.sum());
+    stats.put("maxBorrowNanos", maxBorrowNanos.get());
+    return stats;
+  } // method getSessionStatistics
 
   @Override
   public final void close() {
+    MetricsRegistry.getDefault().remove(METRIC_SESSIONS,
+        "module", moduleName, "slot", Integer.toString(slotId.getIndex()));
+
     if (slot != null) {
       try {
         LOG.info("close all sessions on token: {}", slot.getSlotID());
@@ -304,26 +511,24 @@ class IaikP11Slot extends P11Slot {
     countSessions.lazySet(0);
   } // method close
 
-  private void analyseSingleKey(SecretKey secretKey, P11SlotRefreshResult refreshResult) {
+  private P11Identity analyseSingleKey(SecretKey secretKey) {
     byte[] id = secretKey.getId().getByteArrayValue();
     char[] label = secretKey.getLabel().getCharArrayValue();
     if (id == null || label == null) {
-      return;
+      return null;
     }
 
     P11ObjectIdentifier objectId = new P11ObjectIdentifier(id, new String(label));
 
-    IaikP11Identity identity = new IaikP11Identity(this,
-        new P11IdentityId(slotId, objectId, null, null), secretKey);
-    refreshResult.addIdentity(identity);
+    return new IaikP11Identity(this, new P11IdentityId(slotId, objectId, null, null), secretKey);
   } // method analyseSingleKey
 
-  private void analyseSingleKey(Session session, PrivateKey privKey,
-      P11SlotRefreshResult refreshResult) throws P11TokenException, XiSecurityException {
+  private P11Identity analyseSingleKey(Session session, PrivateKey privKey, X509Cert cert,
+      String certLabel) throws P11TokenException, XiSecurityException {
     byte[] id = privKey.getId().getByteArrayValue();
     char[] label = privKey.getLabel().getCharArrayValue();
     if (id == null || label == null) {
-      return;
+      return null;
     }
 
     String pubKeyLabel = null;
@@ -332,26 +537,22 @@ class IaikP11Slot extends P11Slot {
       pubKeyLabel = new String(p11PublicKey.getLabel().getCharArrayValue());
     }
 
-    String certLabel = null;
     java.security.PublicKey pubKey = null;
-    X509Cert cert = refreshResult.getCertForId(id);
-
     if (cert != null) {
-      certLabel = refreshResult.getCertLabelForId(id);
       pubKey = cert.getPublicKey();
     } else if (p11PublicKey != null) {
+      certLabel = null;
       pubKey = generatePublicKey(p11PublicKey);
     } else {
       LOG.info("neither certificate nor public key for the key (" + hex(id) + " is available");
-      return;
+      return null;
     }
 
     P11ObjectIdentifier objectId = new P11ObjectIdentifier(id, new String(label));
 
     X509Cert[] certs = (cert == null) ? null : new X509Cert[]{cert};
-    IaikP11Identity identity = new IaikP11Identity(this,
+    return new IaikP11Identity(this,
         new P11IdentityId(slotId, objectId, pubKeyLabel, certLabel), privKey, pubKey, certs);
-    refreshResult.addIdentity(identity);
   } // method analyseSingleKey
 
   byte[] digestKey(long mechanism, IaikP11Identity identity) throws P11TokenException {
@@ -398,8 +599,7 @@ class IaikP11Slot extends P11Slot {
         }
 
         LOG.info("digestKey ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
-        // force the login
-        forceLogin(session);
+        relogin(session0);
         try {
           return digestKey0(session, digestLen, mechanismObj, (SecretKey) key);
         } catch (TokenException ex2) {
@@ -427,43 +627,31 @@ class IaikP11Slot extends P11Slot {
     Args.notNull(content, "content");
     assertMechanismSupported(mechanism);
 
-    int expectedSignatureLen;
-    if (mechanism == PKCS11Constants.CKM_SHA_1_HMAC) {
-      expectedSignatureLen = 20;
-    } else if (mechanism == PKCS11Constants.CKM_SHA224_HMAC
-        || mechanism == PKCS11Constants.CKM_SHA3_224) {
-      expectedSignatureLen = 28;
-    } else if (mechanism == PKCS11Constants.CKM_SHA256_HMAC
-        || mechanism == PKCS11Constants.CKM_SHA3_256) {
-      expectedSignatureLen = 32;
-    } else if (mechanism == PKCS11Constants.CKM_SHA384_HMAC
-        || mechanism == PKCS11Constants.CKM_SHA3_384) {
-      expectedSignatureLen = 48;
-    } else if (mechanism == PKCS11Constants.CKM_SHA512_HMAC
-        || mechanism == PKCS11Constants.CKM_SHA3_512) {
-      expectedSignatureLen = 64;
-    } else if (mechanism == PKCS11Constants.CKM_VENDOR_SM2
-        || mechanism == PKCS11Constants.CKM_VENDOR_SM2_SM3) {
-      expectedSignatureLen = 32;
-    } else {
-      expectedSignatureLen = identity.getExpectedSignatureLen();
-    }
+    return sign(getMechanism(mechanism, parameters),
+        getExpectedSignatureLen(mechanism, identity), maxMessageSize,
+        identity.getSigningKey(), content);
+  } // method sign
 
-    Mechanism mechanismObj = getMechanism(mechanism, parameters);
-    Key signingKey = identity.getSigningKey();
+  byte[] sign(IaikP11SigningContext context, byte[] content) throws P11TokenException {
+    return sign(context.getMechanismObject(), context.getExpectedSignatureLen(),
+        context.getMaxMessageSize(), context.getSigningKey(), content);
+  } // method sign
 
+  private byte[] sign(Mechanism mechanismObj, int expectedSignatureLen, int maxMessageSize,
+      Key signingKey, byte[] content) throws P11TokenException {
     ConcurrentBagEntry<Session> session0 = borrowSession();
     try {
       Session session = session0.value();
       try {
-        return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
+        return sign0(session, expectedSignatureLen, maxMessageSize, mechanismObj, content,
+            signingKey);
       } catch (PKCS11Exception ex) {
         long errorCode = ex.getErrorCode();
         if (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
           LOG.info("sign ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
-          // force the login
-          forceLogin(session);
-          return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
+          relogin(session0);
+          return sign0(session, expectedSignatureLen, maxMessageSize, mechanismObj, content,
+              signingKey);
         } else {
           throw ex;
         }
@@ -475,8 +663,35 @@ class IaikP11Slot extends P11Slot {
     }
   } // method sign
 
-  private byte[] sign0(Session session, int expectedSignatureLen, Mechanism mechanism,
-      byte[] content, Key signingKey) throws TokenException {
+  static int getExpectedSignatureLen(long mechanism, IaikP11Identity identity) {
+    if (mechanism == PKCS11Constants.CKM_SHA_1_HMAC) {
+      return 20;
+    } else if (mechanism == PKCS11Constants.CKM_SHA224_HMAC
+        || mechanism == PKCS11Constants.CKM_SHA3_224) {
+      return 28;
+    } else if (mechanism == PKCS11Constants.CKM_SHA256_HMAC
+        || mechanism == PKCS11Constants.CKM_SHA3_256) {
+      return 32;
+    } else if (mechanism == PKCS11Constants.CKM_SHA384_HMAC
+        || mechanism == PKCS11Constants.CKM_SHA3_384) {
+      return 48;
+    } else if (mechanism == PKCS11Constants.CKM_SHA512_HMAC
+        || mechanism == PKCS11Constants.CKM_SHA3_512) {
+      return 64;
+    } else if (mechanism == PKCS11Constants.CKM_VENDOR_SM2
+        || mechanism == PKCS11Constants.CKM_VENDOR_SM2_SM3) {
+      return 32;
+    } else {
+      return identity.getExpectedSignatureLen();
+    }
+  } // method getExpectedSignatureLen
+
+  int getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+  private static byte[] sign0(Session session, int expectedSignatureLen, int maxMessageSize,
+      Mechanism mechanism, byte[] content, Key signingKey) throws TokenException {
     int len = content.length;
 
     if (len <= maxMessageSize) {
@@ -495,7 +710,7 @@ class IaikP11Slot extends P11Slot {
     return session.signFinal(expectedSignatureLen);
   } // method sign0
 
-  private byte[] singleSign(Session session, Mechanism mechanism, byte[] content,
+  private static byte[] singleSign(Session session, Mechanism mechanism, byte[] content,
       Key signingKey) throws TokenException {
     LOG.debug("single sign");
     session.signInit(mechanism, signingKey);
@@ -503,7 +718,7 @@ class IaikP11Slot extends P11Slot {
     return signature;
   } // method singleSign
 
-  private static Mechanism getMechanism(long mechanism, P11Params parameters)
+  static Mechanism getMechanism(long mechanism, P11Params parameters)
       throws P11TokenException {
     Mechanism ret = Mechanism.get(mechanism);
     if (parameters == null) {
@@ -538,40 +753,102 @@ class IaikP11Slot extends P11Slot {
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
     }
-    countSessions.incrementAndGet();
     return session;
   } // method openSession
 
+  private void prewarmSessions(int numSessions) {
+    while (true) {
+      long num = countSessions.get();
+      if (num >= numSessions) {
+        break;
+      }
+
+      if (!countSessions.compareAndSet(num, num + 1)) {
+        continue;
+      }
+
+      SessionEntry entry;
+      try {
+        entry = new SessionEntry(openSession());
+        login(entry);
+      } catch (P11TokenException ex) {
+        countSessions.decrementAndGet();
+        LogUtil.warn(LOG, ex, "could not open session for the session pool");
+        break;
+      }
+      sessions.add(entry);
+    }
+    LOG.info("opened {} sessions", countSessions.get());
+  } // method prewarmSessions
+
   private ConcurrentBagEntry<Session> borrowSession() throws P11TokenException {
+    final long start = System.nanoTime();
+    SessionEntry session = borrowSession0();
+
+    long duration = System.nanoTime() - start;
+    countBorrows.increment();
+    borrowNanos.add(duration);
+    if (duration > maxBorrowNanos.get()) {
+      maxBorrowNanos.accumulateAndGet(duration, Math::max);
+    }
+
+    try {
+      login(session);
+    } catch (P11TokenException | RuntimeException ex) {
+      sessions.requite(session);
+      throw ex;
+    }
+    return session;
+  } // method borrowSession
+
+  private SessionEntry borrowSession0() throws P11TokenException {
     ConcurrentBagEntry<Session> session = null;
-    synchronized (sessions) {
-      if (countSessions.get() < maxSessionCount) {
+    try {
+      session = sessions.borrow(1, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+    }
+
+    if (session != null) {
+      return (SessionEntry) session;
+    }
+
+    // no idle session, open a new one if the limit is not reached.
+    while (true) {
+      long num = countSessions.get();
+      if (num >= maxSessionCount) {
+        break;
+      }
+
+      if (countSessions.compareAndSet(num, num + 1)) {
+        SessionEntry entry;
         try {
-          session = sessions.borrow(1, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+          entry = new SessionEntry(openSession());
+        } catch (P11TokenException | RuntimeException ex) {
+          countSessions.decrementAndGet();
+          throw ex;
         }
 
-        if (session == null) {
-          // create new session
-          sessions.add(new ConcurrentBagEntry<>(openSession()));
+        // add the new session as idle one, so that the bag may hand it over to a waiting
+        // thread, and borrow it like the bag does. If a waiting thread has taken it, try again.
+        sessions.add(entry);
+        if (entry.compareAndSet(IConcurrentBagEntry.STATE_NOT_IN_USE,
+            IConcurrentBagEntry.STATE_IN_USE)) {
+          return entry;
         }
       }
     }
 
-    if (session == null) {
-      try {
-        session = sessions.borrow(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
-      } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
-      }
+    try {
+      session = sessions.borrow(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
     }
 
     if (session == null) {
       throw new P11TokenException("no idle session");
     }
 
-    login(session.value());
-    return session;
-  } // method borrowSession
+    return (SessionEntry) session;
+  } // method borrowSession0
 
   private void firstLogin(Session session, List<char[]> password) throws P11TokenException {
     try {
@@ -598,6 +875,31 @@ class IaikP11Slot extends P11Slot {
     }
   } // method firstLogin
 
+  private void login(SessionEntry entry) throws P11TokenException {
+    long now = System.currentTimeMillis();
+    if (entry.loggedIn && now - entry.lastLoginCheck < LOGIN_CHECK_INTERVAL) {
+      return;
+    }
+
+    login(entry.value());
+    entry.loggedIn = true;
+    entry.lastLoginCheck = now;
+  } // method login
+
+  /**
+   * Logs in again after the device reported CKR_USER_NOT_LOGGED_IN. Since the login state
+   * is shared by all sessions of the application, all sessions will be verified again.
+   */
+  private void relogin(ConcurrentBagEntry<Session> entry) throws P11TokenException {
+    for (ConcurrentBagEntry<Session> m : sessions.values()) {
+      ((SessionEntry) m).loggedIn = false;
+    }
+
+    forceLogin(entry.value());
+    ((SessionEntry) entry).loggedIn = true;
+    ((SessionEntry) entry).lastLoginCheck = System.currentTimeMillis();
+  } // method relogin
+
   private void login(Session session) throws P11TokenException {
     boolean isSessionLoggedIn = checkSessionLoggedIn(session);
     if (isSessionLoggedIn) {
@@ -17,12 +17,15 @@
 
 package org.xipki.ca.mgmt.shell;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
 import java.security.cert.CertificateException;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.Completion;
@@ -416,7 +419,7 @@ public class CertActions {
           DateUtil.toUtcTimeyyyyMMddhhmmss(info.getNotAfter()), " | ", info.getSubject());
     } // method format
 
-    private Date getDate(String str) throws IllegalCmdParamException {
+    static Date getDate(String str) throws IllegalCmdParamException {
       if (str == null) {
         return null;
       }
@@ -437,6 +440,79 @@ public class CertActions {
 
   } // class ListCert
 
+  @Command(scope = "ca", name = "export-cert-list",
+      description = "export the list of certificates to a CSV file")
+  @Service
+  public static class ExportCertList extends CaAction {
+
+    @Option(name = "--ca", required = true, description = "CA name")
+    @Completion(CaCompleters.CaNameCompleter.class)
+    protected String caName;
+
+    @Option(name = "--subject", description = "the subject pattern, * is allowed.")
+    protected String subjectPatternS;
+
+    @Option(name = "--valid-from",
+        description = "start UTC time when the certificate is still valid, in form of"
+            + "yyyyMMdd or yyyyMMddHHmmss")
+    private String validFromS;
+
+    @Option(name = "--valid-to",
+        description = "end UTC time when the certificate is still valid, in form of"
+            + "yyyMMdd or yyyyMMddHHmmss")
+    private String validToS;
+
+    @Option(name = "--after-id",
+        description = "export only certificates with ID greater than the given value,\n"
+            + "to resume an interrupted export use the last exported ID")
+    private long afterId = 0;
+
+    @Option(name = "-n", description = "maximal number of entries")
+    private int num = Integer.MAX_VALUE;
+
+    @Option(name = "--out", aliases = "-o", required = true,
+        description = "where to save the certificate list")
+    @Completion(FileCompleter.class)
+    private String outFile;
+
+    @Override
+    protected Object execute0() throws Exception {
+      Date validFrom = ListCert.getDate(validFromS);
+      Date validTo = ListCert.getDate(validToS);
+      X500Name subjectPattern = null;
+      if (StringUtil.isNotBlank(subjectPatternS)) {
+        subjectPattern = new X500Name(subjectPatternS);
+      }
+
+      File file = new File(expandFilepath(outFile));
+      IoUtil.mkdirsParent(file.toPath());
+
+      final AtomicInteger count = new AtomicInteger(0);
+      long lastId;
+      try (BufferedWriter writer = Files.newBufferedWriter(file.toPath())) {
+        writer.write("id,serial,notBefore,notAfter,subject\n");
+        lastId = caManager.streamCertificates(caName, subjectPattern, validFrom, validTo,
+            afterId, num, info -> {
+              try {
+                writer.write(StringUtil.concat(Long.toString(info.getId()), ",",
+                    info.getSerialNumber().toString(16), ",",
+                    DateUtil.toUtcTimeyyyyMMddhhmmss(info.getNotBefore()), ",",
+                    DateUtil.toUtcTimeyyyyMMddhhmmss(info.getNotAfter()), ",\"",
+                    info.getSubject().replace("\"", "\"\""), "\"\n"));
+              } catch (IOException ex) {
+                throw new CaMgmtException("could not write to file " + outFile, ex);
+              }
+              count.incrementAndGet();
+            });
+      }
+
+      println("exported " + count.get() + " certificates (last ID " + lastId + ") to "
+          + outFile);
+      return null;
+    } // method execute0
+
+  } // class ExportCertList
+
   @Command(scope = "ca", name = "rm-cert", description = "remove certificate")
   @Service
   public static class RmCert extends UnRevRmCertAction {
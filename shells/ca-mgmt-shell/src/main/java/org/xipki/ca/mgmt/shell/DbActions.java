@@ -120,6 +120,15 @@ public class DbActions {
     @Completion(FileCompleter.class)
     private List<String> caCertFiles;
 
+    @Option(name = "--bucket",
+        description = "compare digests of buckets and then only the certificates in the "
+            + "mismatching buckets, --target-threads is used for both databases")
+    private Boolean bucket = Boolean.FALSE;
+
+    @Option(name = "--resume",
+        description = "resume from the checkpoint in the report directory, requires --bucket")
+    private Boolean resume = Boolean.FALSE;
+
     protected DbPortWorker getDbPortWorker() throws Exception {
       Set<byte[]> caCerts = null;
       if (caCertFiles != null && !caCertFiles.isEmpty()) {
@@ -131,7 +140,8 @@ public class DbActions {
       }
 
       return new DigestDiffWorker(datasourceFactory, passwordResolver, revokedOnly,
-          refDbConf, dbconfFile, reportDir, numCertsPerSelect, numTargetThreads, caCerts);
+          refDbConf, dbconfFile, reportDir, numCertsPerSelect, numTargetThreads, caCerts,
+          bucket, resume);
     } // method getDbPortWorker
 
   } // class DiffDigest
@@ -157,10 +167,17 @@ public class DbActions {
     @Option(name = "--resume", description = "resume from the last successful point")
     private Boolean resume = Boolean.FALSE;
 
+    @Option(name = "--thread", description = "number of threads reading disjoint ID ranges")
+    private Integer numThreads = 1;
+
+    @Option(name = "--binary",
+        description = "write compact binary containers instead of zip files")
+    private Boolean binary = Boolean.FALSE;
+
     @Override
     protected DbPortWorker getDbPortWorker() throws Exception {
       return new DbPortWorker.ExportCaDb(datasourceFactory, passwordResolver, dbconfFile, outdir,
-          resume, numCertsInBundle, numCertsPerCommit);
+          resume, numCertsInBundle, numCertsPerCommit, numThreads, binary);
     }
 
   } // class ExportCa
@@ -212,10 +229,17 @@ public class DbActions {
     @Option(name = "--resume", description = "resume from the last successful point")
     private Boolean resume = Boolean.FALSE;
 
+    @Option(name = "--thread", description = "number of threads writing disjoint ID ranges")
+    private Integer numThreads = 1;
+
+    @Option(name = "--defer-index",
+        description = "drop the indexes before and create them after the bulk load")
+    private Boolean deferIndexes = Boolean.FALSE;
+
     @Override
     protected DbPortWorker getDbPortWorker() throws Exception {
       return new DbPortWorker.ImportCaDb(datasourceFactory, passwordResolver, dbconfFile, resume,
-          indir, numCertsPerCommit.intValue());
+          indir, numCertsPerCommit.intValue(), numThreads, deferIndexes);
     }
 
   } // class ImportCa
@@ -238,10 +262,17 @@ public class DbActions {
     @Option(name = "--resume", description = "resume from the last successful point")
     private Boolean resume = Boolean.FALSE;
 
+    @Option(name = "--thread", description = "number of threads writing disjoint ID ranges")
+    private Integer numThreads = 1;
+
+    @Option(name = "--defer-index",
+        description = "drop the indexes before and create them after the bulk load")
+    private Boolean deferIndexes = Boolean.FALSE;
+
     @Override
     protected DbPortWorker getDbPortWorker() throws Exception {
       return new DbPortWorker.ImportOcspDb(datasourceFactory, passwordResolver, dbconfFile, resume,
-          indir, numCertsPerCommit.intValue());
+          indir, numCertsPerCommit.intValue(), numThreads, deferIndexes);
     }
 
   } // class ImportOcsp
@@ -281,4 +312,52 @@ public class DbActions {
 
   } // class ImportOcspfromca
 
+  @Command(scope = "ca", name = "sync-ocspfromca",
+      description = "synchronize OCSP database directly from CA database")
+  @Service
+  public static class SyncOcspfromca extends DbPortAction {
+
+    private static final String DFLT_PUBLISHER = "ocsp-publisher";
+
+    @Option(name = "--ca-db-conf", required = true,
+        description = "CA database configuration file")
+    @Completion(FileCompleter.class)
+    private String caDbconfFile;
+
+    @Option(name = "--db-conf", required = true, description = "OCSP database configuration file")
+    @Completion(FileCompleter.class)
+    private String dbconfFile;
+
+    @Option(name = "--state-dir", required = true,
+        description = "directory of the process log file")
+    @Completion(Completers.DirCompleter.class)
+    private String stateDir;
+
+    @Option(name = "--publisher", description = "publisher name")
+    private String publisherName = DFLT_PUBLISHER;
+
+    @Option(name = "--thread", description = "number of threads copying disjoint ID ranges")
+    private Integer numThreads = 1;
+
+    @Option(name = "-n", description = "number of certificates per SELECT")
+    private Integer numCertsPerSelect = 1000;
+
+    @Option(name = "-k", description = "number of certificates per commit")
+    private Integer numCertsPerCommit = 100;
+
+    @Option(name = "--max-rounds", description = "maximal number of catch-up rounds")
+    private Integer maxCatchupRounds = 10;
+
+    @Option(name = "--resume", description = "resume from the last successful point")
+    private Boolean resume = Boolean.FALSE;
+
+    @Override
+    protected DbPortWorker getDbPortWorker() throws Exception {
+      return new DbPortWorker.SyncOcspFromCaDb(datasourceFactory, passwordResolver, caDbconfFile,
+          dbconfFile, publisherName, stateDir, numThreads, numCertsPerSelect, numCertsPerCommit,
+          maxCatchupRounds, resume);
+    }
+
+  } // class SyncOcspfromca
+
 }
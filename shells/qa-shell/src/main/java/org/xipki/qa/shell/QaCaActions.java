@@ -262,6 +262,14 @@ public class QaCaActions {
     @Option(name = "--thread", description = "number of threads")
     private Integer numThreads = 5;
 
+    @Option(name = "--rate",
+        description = "number of calls started per second (fixed rate)\n0 for closed-loop")
+    private Integer rate = 0;
+
+    @Option(name = "--report", description = "file to save the latency report (CSV or JSON)")
+    @Completion(FileCompleter.class)
+    private String reportFile;
+
     @Completion(value = StringsCompleter.class, values = {"RSA", "EC", "DSA"})
     @Option(name = "--key-type", description = "key type to be requested")
     private String keyType = "RSA";
@@ -327,6 +335,8 @@ public class QaCaActions {
 
       benchmark.setDuration(duration);
       benchmark.setThreads(numThreads);
+      benchmark.setRate(rate);
+      benchmark.setReportFile(reportFile);
       benchmark.execute();
 
       return null;
@@ -54,6 +54,7 @@ import org.xipki.qa.ValidationIssue;
 import org.xipki.qa.ValidationResult;
 import org.xipki.qa.ocsp.OcspBenchmark;
 import org.xipki.qa.ocsp.OcspCertStatus;
+import org.xipki.qa.ocsp.OcspLoadGenerator;
 import org.xipki.qa.ocsp.OcspError;
 import org.xipki.qa.ocsp.OcspQa;
 import org.xipki.qa.ocsp.OcspResponseOption;
@@ -68,6 +69,7 @@ import org.xipki.shell.CmdFailure;
 import org.xipki.shell.Completers;
 import org.xipki.shell.IllegalCmdParamException;
 import org.xipki.util.Args;
+import org.xipki.util.BenchmarkExecutor;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.DateUtil;
 import org.xipki.util.IoUtil;
@@ -495,18 +497,26 @@ public class QaOcspActions {
     private String duration = "30s";
 
     @Option(name = "--thread", description = "number of threads")
-    private Integer numThreads = 5;
+    protected Integer numThreads = 5;
+
+    @Option(name = "--rate",
+        description = "number of calls started per second (fixed rate)\n0 for closed-loop")
+    private Integer rate = 0;
+
+    @Option(name = "--report", description = "file to save the latency report (CSV or JSON)")
+    @Completion(FileCompleter.class)
+    private String reportFile;
 
     @Option(name = "--url", required = true, description = "OCSP responder URL")
-    private String serverUrl;
+    protected String serverUrl;
 
     @Option(name = "--max-num", description = "maximal number of OCSP queries\n0 for unlimited")
-    private Integer maxRequests = 0;
+    protected Integer maxRequests = 0;
 
     @Option(name = "--queue-size",
         description = "Number of maximal HTTP requests in the sending queue\n"
             + "0 for implemention default")
-    private Integer queueSize = 0;
+    protected Integer queueSize = 0;
 
     @Override
     protected Object execute0() throws Exception {
@@ -536,7 +546,7 @@ public class QaOcspActions {
 
       if (serialNumberFile != null) {
         serialNumberIterator = new FileBigIntegerIterator(
-            IoUtil.expandFilepath(serialNumberFile), hex, true);
+            IoUtil.expandFilepath(serialNumberFile), hex, loopSerialNumbers());
       } else {
         List<BigIntegerRange> serialNumbers = new LinkedList<>();
         if (serialNumberList != null) {
@@ -562,7 +572,7 @@ public class QaOcspActions {
           }
         }
 
-        serialNumberIterator = new RangeBigIntegerIterator(serialNumbers, true);
+        serialNumberIterator = new RangeBigIntegerIterator(serialNumbers, loopSerialNumbers());
       }
 
       try {
@@ -572,10 +582,12 @@ public class QaOcspActions {
         X509Cert issuerCert = X509Util.parseCert(new File(issuerCertFile));
 
         RequestOptions options = getRequestOptions();
-        OcspBenchmark loadTest = new OcspBenchmark(issuerCert, serverUrl, options,
-            serialNumberIterator, maxRequests, queueSize, description.toString());
+        BenchmarkExecutor loadTest = newBenchmark(issuerCert, options, serialNumberIterator,
+            description.toString());
         loadTest.setDuration(duration);
         loadTest.setThreads(numThreads);
+        loadTest.setRate(rate);
+        loadTest.setReportFile(reportFile);
         loadTest.execute();
       } finally {
         if (serialNumberIterator instanceof FileBigIntegerIterator) {
@@ -586,8 +598,63 @@ public class QaOcspActions {
       return null;
     } // end execute0
 
+    protected boolean loopSerialNumbers() {
+      return true;
+    }
+
+    protected BenchmarkExecutor newBenchmark(X509Cert issuerCert, RequestOptions options,
+        Iterator<BigInteger> serialNumbers, String description) {
+      return new OcspBenchmark(issuerCert, serverUrl, options, serialNumbers, maxRequests,
+          queueSize, description);
+    }
+
   } // class BenchmarkOcspStatusAction
 
+  @Command(scope = "xiqa", name = "benchmark-ocsp-load",
+      description = "OCSP load generator with pipelined keep-alive connections "
+          + "(one connection per thread)")
+  @Service
+  public static class BenchmarkOcspLoadAction extends BenchmarkOcspStatusAction {
+
+    @Option(name = "--io-thread",
+        description = "number of event loop threads shared by all connections\n"
+            + "0 for min(connections, processors)")
+    private Integer ioThreads = 0;
+
+    @Option(name = "--post-ratio",
+        description = "percentage of requests sent via HTTP POST\n"
+            + "-1 to use HTTP GET only if --http-get is set")
+    private Integer postPercent = -1;
+
+    @Option(name = "--zipf",
+        description = "exponent of the Zipf distribution to select the serial numbers\n"
+            + "0 for round-robin")
+    private Double zipfExponent = 0.0;
+
+    @Option(name = "--max-serials", description = "maximal number of serial numbers to load")
+    private Integer maxSerials = 100000;
+
+    @Override
+    protected boolean loopSerialNumbers() {
+      return false;
+    }
+
+    @Override
+    protected BenchmarkExecutor newBenchmark(X509Cert issuerCert, RequestOptions options,
+        Iterator<BigInteger> serialNumbers, String description) {
+      OcspLoadGenerator generator = new OcspLoadGenerator(issuerCert, serverUrl, options,
+          serialNumbers, maxSerials, maxRequests, queueSize, description
+          + "\nconnections: " + numThreads
+          + "\nrequests in flight per connection: " + (queueSize > 0 ? queueSize : "default")
+          + "\nzipf exponent: " + zipfExponent);
+      generator.setIoThreads(ioThreads);
+      generator.setPostPercent(postPercent);
+      generator.setZipfExponent(zipfExponent);
+      return generator;
+    }
+
+  } // class BenchmarkOcspLoadAction
+
   @Command(scope = "xiqa", name = "qa-ocsp-status", description = "request certificate status (QA)")
   @Service
   public static class OcspQaStatusAction extends BaseOcspStatusAction {
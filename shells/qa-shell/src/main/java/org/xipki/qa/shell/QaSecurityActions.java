@@ -26,6 +26,7 @@ import org.apache.karaf.shell.api.action.Completion;
 import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.completers.FileCompleter;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.gm.GMObjectIdentifiers;
 import org.slf4j.Logger;
@@ -128,6 +129,14 @@ public class QaSecurityActions {
     @Option(name = "--thread", description = "number of threads")
     private Integer numThreads = 5;
 
+    @Option(name = "--rate",
+        description = "number of calls started per second (fixed rate)\n0 for closed-loop")
+    private Integer rate = 0;
+
+    @Option(name = "--report", description = "file to save the latency report (CSV or JSON)")
+    @Completion(FileCompleter.class)
+    private String reportFile;
+
     protected abstract BenchmarkExecutor getTester() throws Exception;
 
     @Override
@@ -135,6 +144,8 @@ public class QaSecurityActions {
       BenchmarkExecutor tester = getTester();
       tester.setDuration(duration);
       tester.setThreads(getNumThreads());
+      tester.setRate(rate);
+      tester.setReportFile(reportFile);
 
       tester.execute();
       return null;
@@ -156,6 +167,10 @@ public class QaSecurityActions {
     @Option(name = "--thread", description = "number of threads")
     private Integer numThreads = 5;
 
+    @Option(name = "--rate",
+        description = "number of calls started per second (fixed rate)\n0 for closed-loop")
+    private Integer rate = 0;
+
     protected abstract BenchmarkExecutor nextTester() throws Exception;
 
     @Override
@@ -178,6 +193,7 @@ public class QaSecurityActions {
 
         tester.setDuration(duration);
         tester.setThreads(numThreads);
+        tester.setRate(rate);
         tester.execute();
         if (tester.isInterrupted()) {
           throw new InterruptedException("cancelled by the user");
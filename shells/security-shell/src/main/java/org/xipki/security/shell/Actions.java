@@ -17,6 +17,7 @@
 
 package org.xipki.security.shell;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -24,6 +25,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.Key;
@@ -84,6 +86,8 @@ import org.bouncycastle.pkcs.PKCS10CertificationRequest;
 import org.bouncycastle.pkcs.PKCS10CertificationRequestBuilder;
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemReader;
+import org.xipki.audit.services.FileAuditLogReader;
+import org.xipki.audit.services.FileAuditLogReader.VerifyResult;
 import org.xipki.password.OBFPasswordService;
 import org.xipki.password.PBEAlgo;
 import org.xipki.password.PBEPasswordService;
@@ -107,6 +111,7 @@ import org.xipki.security.XiSecurityException;
 import org.xipki.security.util.AlgorithmUtil;
 import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.X509Util;
+import org.xipki.shell.CmdFailure;
 import org.xipki.shell.Completers;
 import org.xipki.shell.Completers.ExtensionNameCompleter;
 import org.xipki.shell.IllegalCmdParamException;
@@ -129,6 +134,117 @@ import com.alibaba.fastjson.JSON;
 
 public class Actions {
 
+  @Command(scope = "xi", name = "audit-replay",
+      description = "print the records of the file-based audit")
+  @Service
+  public static class AuditReplay extends XiAction {
+
+    @Option(name = "--dir", required = true, description = "directory of the audit files")
+    @Completion(FileCompleter.class)
+    private String dir;
+
+    @Option(name = "--prefix", description = "prefix of the audit file names")
+    private String prefix = "audit";
+
+    @Option(name = "--from", description = "smallest sequence number (inclusive)")
+    private Long fromSeq = 0L;
+
+    @Option(name = "--to", description = "greatest sequence number (inclusive)")
+    private Long toSeq = Long.MAX_VALUE;
+
+    @Option(name = "--out", description = "where to save the records instead of console")
+    @Completion(FileCompleter.class)
+    private String outFile;
+
+    @Override
+    protected Object execute0() throws Exception {
+      FileAuditLogReader reader =
+          new FileAuditLogReader(Paths.get(expandFilepath(dir)), prefix, null);
+      final List<String> errors = new LinkedList<>();
+      if (outFile == null) {
+        reader.replay(fromSeq, toSeq, this::println, errors::add);
+        checkMalformedRecords(errors);
+        return null;
+      }
+
+      File file = expandFilepath(new File(outFile));
+      IoUtil.mkdirsParent(file.toPath());
+      long num;
+      try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(),
+          StandardCharsets.UTF_8)) {
+        final IOException[] exception = new IOException[1];
+        num = reader.replay(fromSeq, toSeq, record -> {
+          if (exception[0] != null) {
+            return;
+          }
+
+          try {
+            writer.write(record);
+            writer.newLine();
+          } catch (IOException ex) {
+            exception[0] = ex;
+          }
+        }, errors::add);
+
+        if (exception[0] != null) {
+          throw exception[0];
+        }
+      }
+
+      println("saved " + num + " records to " + file.getPath());
+      checkMalformedRecords(errors);
+      return null;
+    } // method execute0
+
+    private void checkMalformedRecords(List<String> errors) throws CmdFailure {
+      if (errors.isEmpty()) {
+        return;
+      }
+
+      for (String error : errors) {
+        println("malformed record " + error);
+      }
+      throw new CmdFailure("found " + errors.size() + " malformed records");
+    } // method checkMalformedRecords
+
+  } // class AuditReplay
+
+  @Command(scope = "xi", name = "audit-verify",
+      description = "verify the sequence numbers and hash chain of the file-based audit")
+  @Service
+  public static class AuditVerify extends XiAction {
+
+    @Option(name = "--dir", required = true, description = "directory of the audit files")
+    @Completion(FileCompleter.class)
+    private String dir;
+
+    @Option(name = "--prefix", description = "prefix of the audit file names")
+    private String prefix = "audit";
+
+    @Option(name = "--hash", description = "hash algorithm of the hash chain, or none")
+    private String hashAlgo = "SHA-256";
+
+    @Override
+    protected Object execute0() throws Exception {
+      FileAuditLogReader reader =
+          new FileAuditLogReader(Paths.get(expandFilepath(dir)), prefix, hashAlgo);
+      VerifyResult result = reader.verify();
+      println("verified " + result.getNumRecords() + " records (seq " + result.getFirstSeq()
+          + " to " + result.getLastSeq() + ") in " + result.getNumFiles() + " files");
+
+      if (result.isValid()) {
+        println("audit records are valid");
+        return null;
+      }
+
+      for (String error : result.getErrors()) {
+        println(error);
+      }
+      throw new CmdFailure("audit records are invalid");
+    } // method execute0
+
+  } // class AuditVerify
+
   @Command(scope = "xi", name = "cert-info", description = "print certificate information")
   @Service
   public static class CertInfo extends SecurityAction {
@@ -17,18 +17,36 @@
 
 package org.xipki.util;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Benchmark executor.
  *
+ * <p>The testors may record the latency of each call via {@link #account(long, long, long)}.
+ * The percentiles of the latencies are then printed for each status interval and at the end,
+ * and can be exported to a CSV or JSON file (see {@link #setReportFile(String)}).
+ *
+ * <p>By default the benchmark is closed-loop: each thread starts the next call once the
+ * previous one has finished. If a rate is specified (see {@link #setRate(int)}), the calls are
+ * started according to a fixed schedule (open-loop), and the latency is measured from the
+ * scheduled start time returned by {@link #nextStartNanos()}, so that calls delayed by slow
+ * previous calls are accounted correctly (no coordinated omission).
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
@@ -41,6 +59,12 @@ public abstract class BenchmarkExecutor {
 
   private static final int DEFAULT_THREADS = 25;
 
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9", "max"};
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
   private boolean interrupted;
 
   private String description;
@@ -55,6 +79,27 @@ public abstract class BenchmarkExecutor {
 
   private String unit = "";
 
+  private int rate; // calls per second, 0 for closed-loop
+
+  private String reportFile;
+
+  private long startNanos;
+
+  private final AtomicLong nextSlot = new AtomicLong(0);
+
+  // written by the testors
+  private final LatencyHistogram recorder = new LatencyHistogram();
+
+  // the following fields are accessed only by the thread which executes the benchmark
+  private final LatencyHistogram intervalHistogram = new LatencyHistogram();
+
+  private final LatencyHistogram totalHistogram = new LatencyHistogram();
+
+  // elapsed time in ms, number of calls, followed by the values at PERCENTILES
+  private final List<long[]> intervals = new ArrayList<>();
+
+  private volatile boolean latencyRecorded;
+
   public BenchmarkExecutor(String description) {
     this(description, 0);
   }
@@ -62,6 +107,7 @@ public abstract class BenchmarkExecutor {
   public BenchmarkExecutor(String description, int total) {
     this.description = Args.notNull(description, "description");
     this.processLog = new ProcessLog(total);
+    this.processLog.setStatusSuffix(this::closeInterval);
   }
 
   protected abstract Runnable getTestor() throws Exception;
@@ -98,6 +144,9 @@ public abstract class BenchmarkExecutor {
     }
     sb.append("threads: ").append(threads).append("\n");
     sb.append("duration: ").append(StringUtil.formatTime(duration, false)).append("\n");
+    if (rate > 0) {
+      sb.append("rate: ").append(rate).append(" calls/s\n");
+    }
     sb.append("unit: ").append(unit);
 
     System.out.println(sb.toString());
@@ -182,6 +231,33 @@ public abstract class BenchmarkExecutor {
     return errorAccount.get();
   }
 
+  /**
+   * Sets the number of calls to be started per second. If positive, the calls are started
+   * according to a fixed schedule (open-loop), see {@link #nextStartNanos()}.
+   *
+   * @param rate
+   *          Number of calls per second, 0 for closed-loop.
+   */
+  public void setRate(int rate) {
+    this.rate = Args.notNegative(rate, "rate");
+  }
+
+  public int getRate() {
+    return rate;
+  }
+
+  /**
+   * Sets the file to which the latency percentiles of all intervals and of the whole benchmark
+   * are written. The file is written in JSON format if its name ends with .json, and in CSV
+   * format otherwise.
+   *
+   * @param reportFile
+   *          Path of the report file, {@code null} to write no report.
+   */
+  public void setReportFile(String reportFile) {
+    this.reportFile = reportFile;
+  }
+
   public void account(long all, long failed) {
     processLog.addNumProcessed(getRealAccount(all));
     if (failed != 0) {
@@ -189,12 +265,60 @@ public abstract class BenchmarkExecutor {
     }
   }
 
+  /**
+   * Accounts the result of one call and records its latency.
+   *
+   * @param all
+   *          Number of processed units of the call.
+   * @param failed
+   *          Number of failed units of the call.
+   * @param latencyNanos
+   *          Latency of the call in nanoseconds, should be measured from the start time
+   *          returned by {@link #nextStartNanos()}.
+   */
+  public void account(long all, long failed, long latencyNanos) {
+    account(all, failed);
+    recorder.record(latencyNanos);
+    if (!latencyRecorded) {
+      latencyRecorded = true;
+    }
+  } // method account
+
+  /**
+   * Returns the start time of the next call. In closed-loop mode, this is the current time.
+   * In open-loop mode, this method waits until the scheduled start time of the next call, and
+   * returns the scheduled start time, which is earlier than the current time if the testors
+   * cannot keep up with the rate.
+   *
+   * @return the start time of the next call, as returned by {@link System#nanoTime()}.
+   */
+  protected long nextStartNanos() {
+    if (rate < 1) {
+      return System.nanoTime();
+    }
+
+    long slot = nextSlot.getAndIncrement();
+    long scheduled = startNanos + slot * TimeUnit.SECONDS.toNanos(1) / rate;
+    while (true) {
+      long waitNanos = scheduled - System.nanoTime();
+      if (waitNanos <= 0 || stop()) {
+        return scheduled;
+      }
+      LockSupport.parkNanos(Math.min(waitNanos, MAX_PARK_NANOS));
+    }
+  } // method nextStartNanos
+
   public int getThreads() {
     return threads;
   }
 
   protected void resetStartTime() {
     processLog.reset();
+    startNanos = System.nanoTime();
+    nextSlot.set(0);
+    recorder.reset();
+    totalHistogram.reset();
+    intervals.clear();
   }
 
   protected boolean stop() {
@@ -227,9 +351,151 @@ public abstract class BenchmarkExecutor {
         "\n     failed: ", StringUtil.formatAccount(errorAccount.get(), 1), " ", unit,
         "\n    average: ", averageText, " ", unit, "/s\n");
 
+    if (latencyRecorded) {
+      StringBuilder sb = new StringBuilder(msg);
+      long[] values = totalHistogram.getValuesAtPercentiles(PERCENTILES);
+      sb.append("    latency:");
+      for (int i = 0; i < values.length; i++) {
+        sb.append(i == 0 ? " " : ", ").append(PERCENTILE_NAMES[i]).append(" ")
+          .append(formatMillis(values[i]));
+      }
+      sb.append(" ms\n");
+      msg = sb.toString();
+    }
+
     System.out.println(msg);
+
+    if (reportFile != null) {
+      try {
+        writeReport(Paths.get(IoUtil.expandFilepath(reportFile)));
+        System.out.println("saved report in " + reportFile);
+      } catch (IOException ex) {
+        System.err.println("could not write report to " + reportFile + ": " + ex.getMessage());
+      }
+    }
+  } // method printSummary
+
+  private String closeInterval() {
+    intervalHistogram.reset();
+    recorder.moveTo(intervalHistogram);
+    totalHistogram.add(intervalHistogram);
+    if (!latencyRecorded) {
+      return null;
+    } else if (intervalHistogram.getCount() == 0) {
+      return "  p50       --  p99       --  max       -- ms";
+    }
+
+    long[] values = intervalHistogram.getValuesAtPercentiles(PERCENTILES);
+    long[] interval = new long[2 + values.length];
+    interval[0] = System.currentTimeMillis() - processLog.startTimeMs();
+    interval[1] = intervalHistogram.getCount();
+    System.arraycopy(values, 0, interval, 2, values.length);
+    intervals.add(interval);
+
+    // p50, p99 and max, in ms
+    return String.format(Locale.ROOT, "  p50%9.2f  p99%9.2f  max%9.2f ms",
+        values[0] / 1e6, values[2] / 1e6, values[4] / 1e6);
+  } // method closeInterval
+
+  private void writeReport(Path path) throws IOException {
+    IoUtil.mkdirsParent(path);
+    boolean json = path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+
+    long[] total = new long[2 + PERCENTILES.length];
+    total[0] = processLog.totalElapsedTime();
+    total[1] = totalHistogram.getCount();
+    System.arraycopy(totalHistogram.getValuesAtPercentiles(PERCENTILES), 0,
+        total, 2, PERCENTILES.length);
+
+    try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      if (json) {
+        writer.write("{\n  \"description\": \"" + jsonEscape(description) + "\",\n");
+        writer.write("  \"threads\": " + threads + ",\n");
+        writer.write("  \"rate\": " + rate + ",\n");
+        writer.write("  \"unit\": \"" + jsonEscape(unit) + "\",\n");
+        writer.write("  \"latencyUnit\": \"ms\",\n");
+        writer.write("  \"intervals\": [");
+        for (int i = 0; i < intervals.size(); i++) {
+          writer.write(i == 0 ? "\n    " : ",\n    ");
+          writer.write(toJson(intervals.get(i)));
+        }
+        writer.write("\n  ],\n  \"total\": " + toJson(total) + "\n}\n");
+      } else {
+        StringBuilder sb = new StringBuilder("time_s,count");
+        for (String name : PERCENTILE_NAMES) {
+          sb.append(",").append(name).append("_ms");
+        }
+        writer.write(sb.toString());
+        writer.newLine();
+        for (long[] interval : intervals) {
+          writer.write(toCsv(interval, false));
+          writer.newLine();
+        }
+        writer.write(toCsv(total, true));
+        writer.newLine();
+      }
+    }
+  } // method writeReport
+
+  private static String toCsv(long[] interval, boolean total) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(total ? "total" : formatSeconds(interval[0])).append(",").append(interval[1]);
+    for (int i = 2; i < interval.length; i++) {
+      sb.append(",").append(formatMillis(interval[i]));
+    }
+    return sb.toString();
+  }
+
+  private static String toJson(long[] interval) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"time\": ").append(formatSeconds(interval[0]))
+      .append(", \"count\": ").append(interval[1]);
+    for (int i = 2; i < interval.length; i++) {
+      sb.append(", \"").append(PERCENTILE_NAMES[i - 2]).append("\": ")
+        .append(formatMillis(interval[i]));
+    }
+    return sb.append("}").toString();
+  }
+
+  private static String formatSeconds(long millis) {
+    return String.format(Locale.ROOT, "%.3f", millis / 1e3);
+  }
+
+  private static String formatMillis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
   }
 
+  private static String jsonEscape(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      switch (ch) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (ch < 0x20) {
+            sb.append(String.format("\\u%04x", (int) ch));
+          } else {
+            sb.append(ch);
+          }
+      }
+    }
+    return sb.toString();
+  } // method jsonEscape
+
   protected static long getSecureIndex() {
     SecureRandom random = new SecureRandom();
     while (true) {
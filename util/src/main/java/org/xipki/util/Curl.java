@@ -29,12 +29,26 @@ public interface Curl {
 
   public static class CurlResult {
 
+    private int statusCode;
+
     private String contentType;
 
     private byte[] content;
 
     private byte[] errorContent;
 
+    /**
+     * Returns the HTTP status code.
+     * @return the HTTP status code, 0 if unknown.
+     */
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    public void setStatusCode(int statusCode) {
+      this.statusCode = statusCode;
+    }
+
     public String getContentType() {
       return contentType;
     }
@@ -45,6 +45,12 @@ public class DefaultCurl implements Curl {
 
   private SslContextConf sslContextConf;
 
+  private int connectTimeout;
+
+  private int readTimeout;
+
+  private boolean keepAlive;
+
   private boolean initialized;
 
   private ObjectCreationException initException;
@@ -53,6 +59,34 @@ public class DefaultCurl implements Curl {
     this.sslContextConf = sslContextConf;
   }
 
+  /**
+   * Sets the connect timeout.
+   * @param connectTimeout
+   *          Timeout in milliseconds, 0 for infinite timeout.
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = Args.notNegative(connectTimeout, "connectTimeout");
+  }
+
+  /**
+   * Sets the read timeout.
+   * @param readTimeout
+   *          Timeout in milliseconds, 0 for infinite timeout.
+   */
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = Args.notNegative(readTimeout, "readTimeout");
+  }
+
+  /**
+   * Sets whether the underlying connection is kept open after the response has been read, so
+   * that it can be reused by the following requests to the same server.
+   * @param keepAlive
+   *          true to keep the connection alive, false to disconnect after each request.
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
   private synchronized void initIfNotDone() throws ObjectCreationException {
     if (initException != null) {
       throw initException;
@@ -118,6 +152,8 @@ public class DefaultCurl implements Curl {
     try {
       httpConn.setRequestMethod(post ? "POST" : "GET");
       httpConn.setUseCaches(false);
+      httpConn.setConnectTimeout(connectTimeout);
+      httpConn.setReadTimeout(readTimeout);
 
       if (headers != null) {
         for (String headerName : headers.keySet()) {
@@ -190,6 +226,7 @@ public class DefaultCurl implements Curl {
       }
 
       CurlResult result = new CurlResult();
+      result.setStatusCode(respCode);
       result.setContentType(httpConn.getHeaderField("Content-Type"));
       if (inputStream != null) {
         result.setContent(IoUtil.read(inputStream));
@@ -199,7 +236,11 @@ public class DefaultCurl implements Curl {
 
       return result;
     } finally {
-      httpConn.disconnect();
+      // the connection is returned to the keep-alive cache of the JRE if the response
+      // has been read completely and not disconnected.
+      if (!keepAlive) {
+        httpConn.disconnect();
+      }
     }
   } // method curl
 
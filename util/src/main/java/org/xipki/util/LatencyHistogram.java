@@ -0,0 +1,260 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets (similar to the HdrHistogram).
+ * Values below 128 are counted exactly, greater values are counted in 64 sub-buckets per power
+ * of 2, so that the relative error of the reported values is less than 1/64. Values greater
+ * than 2<sup>40</sup> ns (about 18 minutes) are counted in the last bucket.
+ *
+ * <p>Recording a value does not allocate any object and is lock-free, so that it can be used
+ * by many threads concurrently.
+ *
+ * @author Lijun Liao
+ */
+
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+  private static final int MAX_EXPONENT = 40;
+
+  private static final int NUM_BUCKETS =
+      SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+  private final AtomicLong totalCount = new AtomicLong(0);
+
+  private final AtomicLong max = new AtomicLong(0);
+
+  /**
+   * Records a value.
+   *
+   * @param nanos
+   *          Latency in nanoseconds, negative value is regarded as 0.
+   */
+  public void record(long nanos) {
+    record(nanos, 1);
+  }
+
+  /**
+   * Records a value {@code count} times.
+   *
+   * @param nanos
+   *          Latency in nanoseconds, negative value is regarded as 0.
+   * @param count
+   *          How often the value is recorded.
+   */
+  public void record(long nanos, long count) {
+    if (count < 1) {
+      return;
+    }
+
+    if (nanos < 0) {
+      nanos = 0;
+    }
+
+    counts.addAndGet(indexOf(nanos), count);
+    totalCount.addAndGet(count);
+
+    long currentMax = max.get();
+    while (nanos > currentMax) {
+      if (max.compareAndSet(currentMax, nanos)) {
+        break;
+      }
+      currentMax = max.get();
+    }
+  } // method record
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the value at the given percentile. The returned value is the greatest value which
+   * is equivalent to the recorded values in the same bucket, but not greater than
+   * {@link #getMax()}.
+   *
+   * @param percentile
+   *          Percentile between 0 and 100.
+   * @return the value at the given percentile, 0 if no value has been recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    return getValuesAtPercentiles(percentile)[0];
+  }
+
+  /**
+   * Returns the values at the given percentiles, computed from the same snapshot of the
+   * histogram.
+   *
+   * @param percentiles
+   *          Percentiles between 0 and 100.
+   * @return the values at the given percentiles, see {@link #getValueAtPercentile(double)}.
+   */
+  public long[] getValuesAtPercentiles(double... percentiles) {
+    for (double percentile : percentiles) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("invalid percentile " + percentile);
+      }
+    }
+
+    long total = 0;
+    long[] snapshot = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+
+    long[] values = new long[percentiles.length];
+    if (total == 0) {
+      return values;
+    }
+
+    long currentMax = max.get();
+    for (int j = 0; j < percentiles.length; j++) {
+      values[j] = currentMax;
+      if (percentiles[j] == 100) {
+        continue;
+      }
+
+      long countAtPercentile = Math.max(1, (long) Math.ceil(percentiles[j] / 100 * total));
+      long sum = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        sum += snapshot[i];
+        if (sum >= countAtPercentile) {
+          values[j] = Math.min(highestEquivalentValue(i), currentMax);
+          break;
+        }
+      }
+    }
+    return values;
+  } // method getValuesAtPercentiles
+
+  /**
+   * Moves all recorded values to the {@code target} histogram. Values recorded concurrently
+   * are either moved or remain in this histogram, none of them is lost.
+   *
+   * @param target
+   *          Target histogram. Must not be {@code null}.
+   */
+  public void moveTo(LatencyHistogram target) {
+    Args.notNull(target, "target");
+    long moved = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long count = counts.getAndSet(i, 0);
+      if (count != 0) {
+        target.counts.addAndGet(i, count);
+        moved += count;
+      }
+    }
+    totalCount.addAndGet(-moved);
+    target.totalCount.addAndGet(moved);
+
+    long movedMax = max.getAndSet(0);
+    long currentMax = target.max.get();
+    while (movedMax > currentMax) {
+      if (target.max.compareAndSet(currentMax, movedMax)) {
+        break;
+      }
+      currentMax = target.max.get();
+    }
+  } // method moveTo
+
+  /**
+   * Adds all recorded values of the {@code other} histogram to this histogram.
+   *
+   * @param other
+   *          Other histogram. Must not be {@code null}.
+   */
+  public void add(LatencyHistogram other) {
+    Args.notNull(other, "other");
+    long added = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long count = other.counts.get(i);
+      if (count != 0) {
+        counts.addAndGet(i, count);
+        added += count;
+      }
+    }
+    totalCount.addAndGet(added);
+
+    long otherMax = other.max.get();
+    long currentMax = max.get();
+    while (otherMax > currentMax) {
+      if (max.compareAndSet(currentMax, otherMax)) {
+        break;
+      }
+      currentMax = max.get();
+    }
+  } // method add
+
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    max.set(0);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent >= MAX_EXPONENT) {
+      return NUM_BUCKETS - 1;
+    }
+
+    // keep the highest SUB_BUCKET_BITS - 1 bits
+    int shift = exponent - (SUB_BUCKET_BITS - 1);
+    int subIndex = (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+    return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT + subIndex;
+  } // method indexOf
+
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    if (index == NUM_BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+
+    int offset = index - SUB_BUCKET_COUNT;
+    int exponent = SUB_BUCKET_BITS + offset / SUB_BUCKET_HALF_COUNT;
+    int shift = exponent - (SUB_BUCKET_BITS - 1);
+    long lowest = ((long) (SUB_BUCKET_HALF_COUNT + offset % SUB_BUCKET_HALF_COUNT)) << shift;
+    return lowest + (1L << shift) - 1;
+  } // method highestEquivalentValue
+
+}
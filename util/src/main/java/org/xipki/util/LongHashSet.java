@@ -0,0 +1,154 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Add-only hash set of primitive long values with open addressing. The method
+ * {@link #contains(long)} is lock-free and can be called concurrently with
+ * {@link #add(long)}, the writers are serialized.
+ *
+ * @author Lijun Liao
+ */
+
+public class LongHashSet {
+
+  private static final long EMPTY = 0L;
+
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private volatile AtomicLongArray table;
+
+  private volatile boolean containsEmpty;
+
+  private int size;
+
+  private int threshold;
+
+  public LongHashSet() {
+    this(16);
+  }
+
+  public LongHashSet(int expectedSize) {
+    Args.notNegative(expectedSize, "expectedSize");
+    int capacity = tableSizeFor((int) Math.min(1L << 30, (long) (expectedSize / LOAD_FACTOR) + 1));
+    this.table = new AtomicLongArray(capacity);
+    this.threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  public boolean contains(long value) {
+    if (value == EMPTY) {
+      return containsEmpty;
+    }
+
+    AtomicLongArray tab = table;
+    int mask = tab.length() - 1;
+    int idx = hash(value) & mask;
+    while (true) {
+      long v = tab.get(idx);
+      if (v == value) {
+        return true;
+      } else if (v == EMPTY) {
+        return false;
+      }
+      idx = (idx + 1) & mask;
+    }
+  }
+
+  /**
+   * Adds the value to this set.
+   * @param value
+   *          the value to be added.
+   * @return true if this set did not already contain the value.
+   */
+  public synchronized boolean add(long value) {
+    if (value == EMPTY) {
+      if (containsEmpty) {
+        return false;
+      }
+      containsEmpty = true;
+      size++;
+      return true;
+    }
+
+    if (!insert(table, value)) {
+      return false;
+    }
+
+    if (++size > threshold) {
+      resize();
+    }
+    return true;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private void resize() {
+    AtomicLongArray oldTab = table;
+    int oldCapacity = oldTab.length();
+    if (oldCapacity >= (1 << 30)) {
+      threshold = Integer.MAX_VALUE;
+      return;
+    }
+
+    AtomicLongArray newTab = new AtomicLongArray(oldCapacity << 1);
+    for (int i = 0; i < oldCapacity; i++) {
+      long v = oldTab.get(i);
+      if (v != EMPTY) {
+        insert(newTab, v);
+      }
+    }
+
+    threshold = (int) (newTab.length() * LOAD_FACTOR);
+    // readers still using the old table see all values added before the resize
+    table = newTab;
+  }
+
+  private static boolean insert(AtomicLongArray tab, long value) {
+    int mask = tab.length() - 1;
+    int idx = hash(value) & mask;
+    while (true) {
+      long v = tab.get(idx);
+      if (v == value) {
+        return false;
+      } else if (v == EMPTY) {
+        tab.set(idx, value);
+        return true;
+      }
+      idx = (idx + 1) & mask;
+    }
+  }
+
+  private static int hash(long value) {
+    // mix the bits, since the values may be not uniformly distributed
+    long h = value * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private static int tableSizeFor(int cap) {
+    int n = 1;
+    while (n < cap) {
+      n <<= 1;
+    }
+    return Math.max(n, 2);
+  }
+
+}
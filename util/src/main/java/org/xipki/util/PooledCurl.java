@@ -0,0 +1,909 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.http.SslContextConf;
+
+/**
+ * An implementation of {@link Curl} with a pool of persistent HTTP/1.1 connections per
+ * server. The number of connections to each server is limited, idle connections are reused by
+ * the following requests, and TLS sessions are resumed since all connections share the same
+ * {@link javax.net.ssl.SSLContext}.
+ *
+ * <p>Only the methods GET and POST are supported, the responses are read completely into
+ * memory.
+ *
+ * <p>The connections are blocking, the transport is thread-per-request: an asynchronous
+ * request occupies one thread of the executor until its response has been read.
+ *
+ * @author Lijun Liao
+ */
+
+public class PooledCurl implements Curl, Closeable {
+
+  private static class PooledConnection {
+
+    private final Socket socket;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private long lastUsed;
+
+    PooledConnection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+      this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException ex) {
+        LOG.debug("could not close socket: {}", ex.getMessage());
+      }
+    }
+
+  } // class PooledConnection
+
+  private static class HostPool {
+
+    private final Semaphore permits;
+
+    private final ConcurrentLinkedDeque<PooledConnection> idleConnections =
+        new ConcurrentLinkedDeque<>();
+
+    HostPool(int maxConnections) {
+      this.permits = new Semaphore(maxConnections, true);
+    }
+
+  } // class HostPool
+
+  /**
+   * No byte of the response has been received: either the request could not be sent, or the
+   * connection was closed before the response.
+   */
+  private static class NoResponseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean writeFailed;
+
+    NoResponseException(String message, IOException cause, boolean writeFailed) {
+      super(message, cause);
+      this.writeFailed = writeFailed;
+    }
+
+  } // class NoResponseException
+
+  private static class Response {
+
+    private int statusCode;
+
+    private String statusMessage;
+
+    private final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+    private byte[] body;
+
+    private boolean keepAlive;
+
+    String getHeader(String name) {
+      List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+      return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+  } // class Response
+
+  private static final Logger LOG = LoggerFactory.getLogger(PooledCurl.class);
+
+  private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+  /**
+   * Connections idle for at least this time are checked before being reused.
+   */
+  private static final long VALIDATE_AFTER_IDLE_MS = 2000;
+
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+
+  private final ConcurrentHashMap<String, HostPool> pools = new ConcurrentHashMap<>();
+
+  private final LongAdder countRequests = new LongAdder();
+
+  private final LongAdder countFailed = new LongAdder();
+
+  private final LongAdder countCreated = new LongAdder();
+
+  private final LongAdder countReused = new LongAdder();
+
+  private SslContextConf sslContextConf;
+
+  private SSLSocketFactory sslSocketFactory;
+
+  private HostnameVerifier hostnameVerifier;
+
+  private int connectTimeout;
+
+  private int readTimeout;
+
+  private int maxConnectionsPerHost = 10;
+
+  private long idleTimeout = TimeUnit.SECONDS.toMillis(60);
+
+  private int maxResponseSize = 32 * 1024 * 1024;
+
+  private ExecutorService executor;
+
+  private boolean ownExecutor;
+
+  private boolean initialized;
+
+  private ObjectCreationException initException;
+
+  private volatile boolean closed;
+
+  public void setSslContextConf(SslContextConf sslContextConf) {
+    this.sslContextConf = sslContextConf;
+  }
+
+  /**
+   * Sets the SSL socket factory and the hostname verifier directly, instead of via
+   * {@link #setSslContextConf(SslContextConf)}. The TLS sessions are resumed only if the
+   * socket factory is reused.
+   *
+   * @param sslSocketFactory
+   *          SSL socket factory, {@code null} to use the default one.
+   * @param hostnameVerifier
+   *          Hostname verifier, {@code null} to verify the hostname as specified in RFC 2818.
+   */
+  public void setSsl(SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+    this.sslSocketFactory = sslSocketFactory;
+    this.hostnameVerifier = hostnameVerifier;
+  }
+
+  /**
+   * Sets the connect timeout.
+   * @param connectTimeout
+   *          Timeout in milliseconds, 0 for infinite timeout.
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = Args.notNegative(connectTimeout, "connectTimeout");
+  }
+
+  /**
+   * Sets the read timeout.
+   * @param readTimeout
+   *          Timeout in milliseconds, 0 for infinite timeout.
+   */
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = Args.notNegative(readTimeout, "readTimeout");
+  }
+
+  /**
+   * Sets the maximal number of concurrent connections to each server. A request waits at most
+   * the connect timeout for a free connection. Default to 10.
+   * @param maxConnectionsPerHost
+   *          Maximal number of connections.
+   */
+  public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+    this.maxConnectionsPerHost = Args.positive(maxConnectionsPerHost, "maxConnectionsPerHost");
+  }
+
+  /**
+   * Sets the time after which an idle connection is closed. Default to 60 seconds.
+   * @param idleTimeout
+   *          Timeout in milliseconds.
+   */
+  public void setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = Args.notNegative(idleTimeout, "idleTimeout");
+  }
+
+  /**
+   * Sets the maximal size of the response body. Responses with larger body are rejected
+   * without reading the body. Default to 32 MB.
+   * @param maxResponseSize
+   *          Maximal size in bytes.
+   */
+  public void setMaxResponseSize(int maxResponseSize) {
+    this.maxResponseSize = Args.positive(maxResponseSize, "maxResponseSize");
+  }
+
+  /**
+   * Sets the executor for the asynchronous requests. The connections are blocking, each request
+   * in flight occupies one thread of the executor until its response has been read. If not set,
+   * a pool with {@code maxConnectionsPerHost} threads is created and will be shutdown in
+   * {@link #close()}; further requests are queued.
+   * @param executor
+   *          Executor.
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  private synchronized void initIfNotDone() throws ObjectCreationException {
+    if (initException != null) {
+      throw initException;
+    }
+
+    if (initialized) {
+      return;
+    }
+
+    if (sslContextConf != null && sslContextConf.isUseSslConf()) {
+      try {
+        sslSocketFactory = sslContextConf.getSslSocketFactory();
+        hostnameVerifier = sslContextConf.buildHostnameVerifier();
+      } catch (ObjectCreationException ex) {
+        initException = new ObjectCreationException(
+            "could not initialize PooledCurl: " + ex.getMessage(), ex);
+        throw initException;
+      }
+    }
+
+    if (sslSocketFactory == null) {
+      sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+    }
+
+    if (executor == null) {
+      ownExecutor = true;
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConnectionsPerHost,
+          maxConnectionsPerHost, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          runnable -> {
+            Thread thread = new Thread(runnable, "pooled-curl-" + THREAD_INDEX.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    }
+
+    initialized = true;
+  } // method initIfNotDone
+
+  @Override
+  public CurlResult curlGet(String url, boolean verbose, Map<String, String> headers,
+      String userPassword) throws Exception {
+    return curl(false, url, verbose, headers, userPassword, null);
+  }
+
+  @Override
+  public CurlResult curlPost(String url, boolean verbose, Map<String, String> headers,
+      String userPassword, byte[] content) throws Exception {
+    return curl(true, url, verbose, headers, userPassword, content);
+  }
+
+  /**
+   * Asynchronous variant of {@link #curlGet(String, boolean, Map, String)}, executed in the
+   * executor of this instance.
+   *
+   * @param url
+   *          URL.
+   * @param headers
+   *          Additional headers, may be {@code null}.
+   * @param userPassword
+   *          User and password separated by ':' for the basic authentication, may be
+   *          {@code null}.
+   * @return the future of the result. The future is completed exceptionally with
+   *     {@link CompletionException} if the request fails.
+   */
+  public CompletableFuture<CurlResult> curlGetAsync(String url, Map<String, String> headers,
+      String userPassword) {
+    return curlAsync(false, url, headers, userPassword, null);
+  }
+
+  /**
+   * Asynchronous variant of {@link #curlPost(String, boolean, Map, String, byte[])}, executed
+   * in the executor of this instance.
+   *
+   * @param url
+   *          URL.
+   * @param headers
+   *          Additional headers, may be {@code null}.
+   * @param userPassword
+   *          User and password separated by ':' for the basic authentication, may be
+   *          {@code null}.
+   * @param content
+   *          Content to be posted.
+   * @return the future of the result. The future is completed exceptionally with
+   *     {@link CompletionException} if the request fails.
+   */
+  public CompletableFuture<CurlResult> curlPostAsync(String url, Map<String, String> headers,
+      String userPassword, byte[] content) {
+    return curlAsync(true, url, headers, userPassword, content);
+  }
+
+  /**
+   * Posts the content and returns the content of the response.
+   *
+   * @param url
+   *          URL.
+   * @param contentType
+   *          Content type of the request.
+   * @param content
+   *          Content of the request.
+   * @param expectedContentType
+   *          Expected content type of the response.
+   * @return the content of the response.
+   * @throws IOException
+   *           if the request fails, or the response has a status code other than 200 or
+   *           unexpected content type.
+   */
+  public byte[] post(String url, String contentType, byte[] content, String expectedContentType)
+      throws IOException {
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", contentType);
+
+    CurlResult result;
+    try {
+      result = curl(true, url, false, headers, null, content);
+    } catch (ObjectCreationException ex) {
+      throw new IOException(ex.getMessage(), ex);
+    }
+
+    if (result.getStatusCode() != 200) {
+      throw new IOException("bad response: code=" + result.getStatusCode());
+    }
+
+    if (!expectedContentType.equalsIgnoreCase(result.getContentType())) {
+      throw new IOException("bad response: mime type " + result.getContentType()
+          + " is not supported!");
+    }
+
+    return result.getContent();
+  } // method post
+
+  /**
+   * Returns the statistics of the requests and connections.
+   *
+   * @return the statistics.
+   */
+  public Map<String, Long> getStatistics() {
+    long idle = 0;
+    long inUse = 0;
+    for (HostPool pool : pools.values()) {
+      idle += pool.idleConnections.size();
+      inUse += maxConnectionsPerHost - pool.permits.availablePermits();
+    }
+
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("requests", countRequests.sum());
+    stats.put("failed", countFailed.sum());
+    stats.put("created", countCreated.sum());
+    stats.put("reused", countReused.sum());
+    stats.put("idle", idle);
+    stats.put("inUse", inUse);
+    return stats;
+  } // method getStatistics
+
+  private CompletableFuture<CurlResult> curlAsync(boolean post, String url,
+      Map<String, String> headers, String userPassword, byte[] content) {
+    try {
+      initIfNotDone();
+    } catch (ObjectCreationException ex) {
+      CompletableFuture<CurlResult> future = new CompletableFuture<>();
+      future.completeExceptionally(ex);
+      return future;
+    }
+
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return curl(post, url, false, headers, userPassword, content);
+      } catch (Exception ex) {
+        throw new CompletionException(ex);
+      }
+    }, executor);
+  } // method curlAsync
+
+  private CurlResult curl(boolean post, String url, boolean verbose, Map<String, String> headers,
+      String userPassword, byte[] content) throws IOException, ObjectCreationException {
+    if (!post && content != null) {
+      throw new IllegalArgumentException("method GET cannot be used to transfer non-empty content");
+    }
+
+    checkUserPassword(userPassword);
+    if (closed) {
+      throw new IOException("PooledCurl is closed");
+    }
+
+    initIfNotDone();
+    countRequests.increment();
+
+    URL newUrl = new URL(url);
+    String protocol = newUrl.getProtocol().toLowerCase(Locale.ROOT);
+    boolean https;
+    if ("https".equals(protocol)) {
+      https = true;
+    } else if ("http".equals(protocol)) {
+      https = false;
+    } else {
+      throw new IOException(url + " is not of protocol HTTP: " + protocol);
+    }
+
+    String host = newUrl.getHost();
+    int port = newUrl.getPort() == -1 ? newUrl.getDefaultPort() : newUrl.getPort();
+    String path = newUrl.getFile().isEmpty() ? "/" : newUrl.getFile();
+    String hostHeader = (newUrl.getPort() == -1) ? host : host + ":" + port;
+
+    byte[] requestHead = buildRequestHead(post ? "POST" : "GET", path, hostHeader, headers,
+        userPassword, content);
+    if (verbose) {
+      println("=====request=====");
+      println(new String(requestHead, StandardCharsets.ISO_8859_1).trim());
+    }
+
+    HostPool pool = pools.computeIfAbsent(protocol + "://" + hostHeader,
+        k -> new HostPool(maxConnectionsPerHost));
+    acquire(pool, url);
+    try {
+      Response response;
+      PooledConnection conn = pollIdleConnection(pool);
+      boolean reused = conn != null;
+      while (true) {
+        if (conn == null) {
+          conn = connect(https, host, port);
+        }
+
+        try {
+          response = execute(conn, requestHead, content, maxResponseSize);
+        } catch (IOException | RuntimeException ex) {
+          // the state of the connection is unknown
+          conn.close();
+          conn = null;
+          // A reused connection may have been closed by the server. The request is sent again
+          // only if the server cannot have received it: the write failed, or for GET the
+          // connection was closed before any byte of the response. A POST (e.g. CMP or
+          // signing requests) is never repeated after it has been written completely.
+          if (reused && ex instanceof NoResponseException
+              && (((NoResponseException) ex).writeFailed || !post)) {
+            reused = false;
+            LOG.debug("reused connection to {} failed, retry with new connection", hostHeader);
+            continue;
+          }
+          throw ex;
+        }
+        break;
+      }
+
+      if (response.keepAlive && !closed) {
+        conn.lastUsed = System.currentTimeMillis();
+        pool.idleConnections.offerFirst(conn);
+      } else {
+        conn.close();
+      }
+
+      if (verbose) {
+        println("=====response=====");
+        println("  response code: " + response.statusCode + " " + response.statusMessage);
+        for (Map.Entry<String, List<String>> entry : response.headers.entrySet()) {
+          for (String value : entry.getValue()) {
+            println("  " + entry.getKey() + ": " + value);
+          }
+        }
+        println("=====response content=====");
+      } else if (response.statusCode != 200) {
+        LOG.debug("bad response from {}: {} {}", hostHeader, response.statusCode,
+            response.statusMessage);
+      }
+
+      CurlResult result = new CurlResult();
+      result.setStatusCode(response.statusCode);
+      result.setContentType(response.getHeader("Content-Type"));
+      if (response.statusCode < 400) {
+        result.setContent(response.body);
+      } else {
+        result.setErrorContent(response.body);
+      }
+      return result;
+    } catch (IOException | RuntimeException ex) {
+      countFailed.increment();
+      throw ex;
+    } finally {
+      pool.permits.release();
+    }
+  } // method curl
+
+  private void acquire(HostPool pool, String url) throws IOException {
+    try {
+      if (connectTimeout == 0) {
+        pool.permits.acquire();
+      } else if (!pool.permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+        throw new IOException("timeout while waiting for a connection to " + url);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for a connection to " + url);
+    }
+  } // method acquire
+
+  private PooledConnection pollIdleConnection(HostPool pool) {
+    long now = System.currentTimeMillis();
+    PooledConnection conn;
+    while ((conn = pool.idleConnections.pollFirst()) != null) {
+      long idle = now - conn.lastUsed;
+      if (idle < idleTimeout && !conn.socket.isClosed()
+          && (idle < VALIDATE_AFTER_IDLE_MS || isAlive(conn))) {
+        countReused.increment();
+        return conn;
+      }
+      conn.close();
+    }
+
+    // close the connections idle for too long
+    PooledConnection oldest;
+    while ((oldest = pool.idleConnections.peekLast()) != null
+        && now - oldest.lastUsed >= idleTimeout) {
+      if (pool.idleConnections.removeLastOccurrence(oldest)) {
+        oldest.close();
+      }
+    }
+    return null;
+  } // method pollIdleConnection
+
+  /**
+   * Checks whether the idle connection has not been closed by the server. The server must not
+   * send anything on an idle connection, so any data or the end of stream means the connection
+   * is not usable.
+   */
+  private boolean isAlive(PooledConnection conn) {
+    try {
+      if (conn.in.available() > 0) {
+        return false;
+      }
+
+      conn.socket.setSoTimeout(1);
+      try {
+        // end of stream or unexpected data
+        conn.in.read();
+        return false;
+      } catch (SocketTimeoutException ex) {
+        return true;
+      } finally {
+        conn.socket.setSoTimeout(readTimeout);
+      }
+    } catch (IOException ex) {
+      return false;
+    }
+  } // method isAlive
+
+  private PooledConnection connect(boolean https, String host, int port) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.connect(new InetSocketAddress(host, port), connectTimeout);
+      socket.setSoTimeout(readTimeout);
+
+      if (https) {
+        // the host and port are used by JSSE as key to resume the TLS session
+        SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+        socket = sslSocket;
+        if (hostnameVerifier == null) {
+          SSLParameters params = sslSocket.getSSLParameters();
+          params.setEndpointIdentificationAlgorithm("HTTPS");
+          sslSocket.setSSLParameters(params);
+        }
+
+        sslSocket.startHandshake();
+        if (hostnameVerifier != null && !hostnameVerifier.verify(host, sslSocket.getSession())) {
+          throw new SSLPeerUnverifiedException("hostname " + host + " not verified");
+        }
+      }
+
+      countCreated.increment();
+      return new PooledConnection(socket);
+    } catch (IOException | RuntimeException ex) {
+      try {
+        socket.close();
+      } catch (IOException ex2) {
+        LOG.debug("could not close socket: {}", ex2.getMessage());
+      }
+      throw ex;
+    }
+  } // method connect
+
+  private static byte[] buildRequestHead(String method, String path, String hostHeader,
+      Map<String, String> headers, String userPassword, byte[] content) {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+    sb.append("Host: ").append(hostHeader).append("\r\n");
+    sb.append("Connection: keep-alive\r\n");
+    if (headers != null) {
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        String name = entry.getKey();
+        if ("Host".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name)
+            || "Content-Length".equalsIgnoreCase(name)) {
+          continue;
+        }
+        sb.append(name).append(": ").append(entry.getValue()).append("\r\n");
+      }
+    }
+
+    if (userPassword != null) {
+      sb.append("Authorization: Basic ")
+        .append(Base64.encodeToString(StringUtil.toUtf8Bytes(userPassword))).append("\r\n");
+    }
+
+    if (content != null) {
+      sb.append("Content-Length: ").append(content.length).append("\r\n");
+    }
+    sb.append("\r\n");
+    return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+  } // method buildRequestHead
+
+  private static Response execute(PooledConnection conn, byte[] requestHead, byte[] content,
+      int maxBodySize) throws IOException {
+    try {
+      conn.out.write(requestHead);
+      if (content != null) {
+        conn.out.write(content);
+      }
+      conn.out.flush();
+    } catch (IOException ex) {
+      throw new NoResponseException("could not send the request", ex, true);
+    }
+
+    InputStream in = conn.in;
+    // a read timeout here is not retried, the server may be processing the request
+    in.mark(1);
+    if (in.read() == -1) {
+      throw new NoResponseException("connection closed by the server before the response", null,
+          false);
+    }
+    in.reset();
+
+    Response response = new Response();
+    String statusLine;
+    while (true) {
+      statusLine = readLine(in);
+      if (statusLine == null) {
+        throw new EOFException("connection closed by the server");
+      }
+
+      String[] tokens = statusLine.split(" ", 3);
+      if (tokens.length < 2 || !tokens[0].startsWith("HTTP/")) {
+        throw new IOException("invalid HTTP status line: " + statusLine);
+      }
+
+      try {
+        response.statusCode = Integer.parseInt(tokens[1]);
+      } catch (NumberFormatException ex) {
+        throw new IOException("invalid HTTP status line: " + statusLine);
+      }
+      response.statusMessage = tokens.length > 2 ? tokens[2] : "";
+      response.headers.clear();
+      readHeaders(in, response.headers);
+
+      // skip the interim responses, e.g. 100 Continue
+      if (response.statusCode >= 200) {
+        break;
+      }
+    }
+
+    String connHeader = response.getHeader("Connection");
+    if (statusLine.startsWith("HTTP/1.0")) {
+      response.keepAlive = "keep-alive".equalsIgnoreCase(connHeader);
+    } else {
+      response.keepAlive = !"close".equalsIgnoreCase(connHeader);
+    }
+
+    String transferEncoding = response.getHeader("Transfer-Encoding");
+    String contentLength = response.getHeader("Content-Length");
+    if (response.statusCode == 204 || response.statusCode == 304) {
+      response.body = new byte[0];
+    } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT)
+        .contains("chunked")) {
+      response.body = readChunked(in, maxBodySize);
+    } else if (contentLength != null) {
+      long len;
+      try {
+        len = Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException ex) {
+        throw new IOException("invalid Content-Length: " + contentLength);
+      }
+
+      if (len < 0) {
+        throw new IOException("invalid Content-Length: " + contentLength);
+      }
+      checkBodySize(len, maxBodySize);
+      response.body = readFully(in, (int) len);
+    } else {
+      // the body is terminated by closing the connection
+      response.body = readToEnd(in, maxBodySize);
+      response.keepAlive = false;
+    }
+
+    return response;
+  } // method execute
+
+  private static void readHeaders(InputStream in, Map<String, List<String>> headers)
+      throws IOException {
+    String line;
+    while ((line = readLine(in)) != null && !line.isEmpty()) {
+      int idx = line.indexOf(':');
+      if (idx < 1) {
+        throw new IOException("invalid HTTP header: " + line);
+      }
+
+      String name = line.substring(0, idx).trim().toLowerCase(Locale.ROOT);
+      headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(line.substring(idx + 1).trim());
+    }
+  } // method readHeaders
+
+  private static byte[] readChunked(InputStream in, int maxBodySize) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    while (true) {
+      String line = readLine(in);
+      if (line == null) {
+        throw new EOFException("unexpected end of chunked body");
+      }
+
+      int idx = line.indexOf(';');
+      String sizeText = (idx == -1 ? line : line.substring(0, idx)).trim();
+      long size;
+      try {
+        size = Long.parseLong(sizeText, 16);
+      } catch (NumberFormatException ex) {
+        throw new IOException("invalid chunk size: " + line);
+      }
+
+      if (size < 0) {
+        throw new IOException("invalid chunk size: " + line);
+      }
+      checkBodySize(bout.size() + size, maxBodySize);
+
+      if (size == 0) {
+        // skip the trailers
+        readHeaders(in, new LinkedHashMap<>());
+        return bout.toByteArray();
+      }
+
+      bout.write(readFully(in, (int) size));
+      if (!"".equals(readLine(in))) {
+        throw new IOException("missing CRLF after chunk");
+      }
+    }
+  } // method readChunked
+
+  private static byte[] readToEnd(InputStream in, int maxBodySize) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      checkBodySize((long) bout.size() + read, maxBodySize);
+      bout.write(buffer, 0, read);
+    }
+    return bout.toByteArray();
+  } // method readToEnd
+
+  private static void checkBodySize(long size, int maxBodySize) throws IOException {
+    if (size > maxBodySize) {
+      throw new IOException("HTTP body too large: more than " + maxBodySize + " bytes");
+    }
+  }
+
+  private static byte[] readFully(InputStream in, int len) throws IOException {
+    byte[] bytes = new byte[len];
+    int off = 0;
+    while (off < len) {
+      int read = in.read(bytes, off, len - off);
+      if (read == -1) {
+        throw new EOFException("unexpected end of HTTP body");
+      }
+      off += read;
+    }
+    return bytes;
+  } // method readFully
+
+  /**
+   * Reads a line terminated by CRLF or LF.
+   * @return the line without line terminator, or {@code null} if the end of stream is reached.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder(64);
+    int ch;
+    while ((ch = in.read()) != -1) {
+      if (ch == '\n') {
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == '\r') {
+          sb.setLength(len - 1);
+        }
+        return sb.toString();
+      }
+
+      if (sb.length() >= MAX_LINE_LENGTH) {
+        throw new IOException("HTTP line too long");
+      }
+      sb.append((char) ch);
+    }
+
+    return sb.length() == 0 ? null : sb.toString();
+  } // method readLine
+
+  private static void checkUserPassword(String userPassword) {
+    if (userPassword == null) {
+      return;
+    }
+
+    int idx = userPassword.indexOf(':');
+    if (idx == -1 || idx == userPassword.length() - 1) {
+      throw new IllegalArgumentException("invalid userPassword");
+    }
+  }
+
+  private static void println(String text) {
+    System.out.println(text);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    for (HostPool pool : pools.values()) {
+      PooledConnection conn;
+      while ((conn = pool.idleConnections.pollFirst()) != null) {
+        conn.close();
+      }
+    }
+
+    synchronized (this) {
+      if (ownExecutor) {
+        executor.shutdown();
+      }
+    }
+  } // method close
+
+}
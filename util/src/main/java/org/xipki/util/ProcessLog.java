@@ -21,6 +21,7 @@ import java.util.Calendar;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Process Logger.
@@ -78,6 +79,8 @@ public class ProcessLog {
 
   private final ConcurrentLinkedDeque<MeasurePoint> measureDeque = new ConcurrentLinkedDeque<>();
 
+  private Supplier<String> statusSuffix;
+
   public ProcessLog(long total) {
     this.total = total;
     reset();
@@ -174,6 +177,17 @@ public class ProcessLog {
     hasTotal = total > 0;
   }
 
+  /**
+   * Sets the supplier of the text appended to each printed status line. The supplier is called
+   * once for each printed line, so that it can be used to close a measure interval.
+   *
+   * @param statusSuffix
+   *          Supplier of the suffix, may return {@code null}. {@code null} to append nothing.
+   */
+  public void setStatusSuffix(Supplier<String> statusSuffix) {
+    this.statusSuffix = statusSuffix;
+  }
+
   public long startTimeMs() {
     return startTimeMs;
   }
@@ -262,6 +276,13 @@ public class ProcessLog {
       }
     }
 
+    if (statusSuffix != null) {
+      String suffix = statusSuffix.get();
+      if (suffix != null) {
+        sb.append(suffix);
+      }
+    }
+
     System.out.print(sb.toString());
     System.out.flush();
   } // method printStatus
@@ -21,7 +21,8 @@ import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Helper class for debug.
+ * Helper class for debug. The pairs may be added concurrently, e.g. by the asynchronous
+ * requests sharing one instance.
  *
  * @author Lijun Liao
  * @since 2.0.0
@@ -75,23 +76,23 @@ public class ReqRespDebug {
     return saveResponse;
   }
 
-  public void add(ReqRespPair pair) {
+  public synchronized void add(ReqRespPair pair) {
     pairs.add(pair);
   }
 
-  public int size() {
+  public synchronized int size() {
     return pairs.size();
   }
 
-  public ReqRespPair get(int index) {
+  public synchronized ReqRespPair get(int index) {
     return pairs.get(index);
   }
 
-  public boolean remove(ReqRespPair pair) {
+  public synchronized boolean remove(ReqRespPair pair) {
     return pairs.remove(pair);
   }
 
-  public ReqRespPair remove(int index) {
+  public synchronized ReqRespPair remove(int index) {
     return pairs.remove(index);
   }
 
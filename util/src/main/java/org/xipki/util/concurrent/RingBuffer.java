@@ -0,0 +1,166 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.util.concurrent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.xipki.util.Args;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue backed by an array. Each cell carries
+ * a sequence number which tells the producers and consumers whether the cell is free or
+ * filled in the current round (D. Vyukov's bounded MPMC queue).
+ *
+ * @param <E> type of the elements.
+ *
+ * @author Lijun Liao
+ */
+
+public class RingBuffer<E> {
+
+  private final int mask;
+
+  private final AtomicLongArray sequences;
+
+  private final AtomicReferenceArray<E> elements;
+
+  private final AtomicLong head = new AtomicLong(0);
+
+  private final AtomicLong tail = new AtomicLong(0);
+
+  /**
+   * Constructor.
+   *
+   * @param capacity
+   *          Capacity of the buffer, will be rounded up to the next power of 2.
+   */
+  public RingBuffer(int capacity) {
+    Args.range(capacity, "capacity", 2, 1 << 30);
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = size - 1;
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.elements = new AtomicReferenceArray<>(size);
+  } // constructor
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Returns the number of elements. The value is only a snapshot if other threads are
+   * modifying the buffer concurrently.
+   *
+   * @return the number of elements.
+   */
+  public int size() {
+    while (true) {
+      long currentTail = tail.get();
+      long currentHead = head.get();
+      if (currentTail == tail.get()) {
+        return (int) Math.max(0, Math.min(capacity(), currentHead - currentTail));
+      }
+    }
+  }
+
+  public boolean isEmpty() {
+    return head.get() == tail.get();
+  }
+
+  /**
+   * Adds the element if the buffer is not full.
+   *
+   * @param element
+   *          Element to be added. Must not be {@code null}.
+   * @return whether the element has been added.
+   */
+  public boolean offer(E element) {
+    Args.notNull(element, "element");
+    while (true) {
+      long pos = head.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          elements.lazySet(index, element);
+          // publish the element
+          sequences.set(index, pos + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        // the cell has not been consumed in the last round: full
+        return false;
+      }
+      // else: another producer has taken the cell, retry.
+    }
+  } // method offer
+
+  /**
+   * Removes the oldest element.
+   *
+   * @return the oldest element, or {@code null} if the buffer is empty.
+   */
+  public E poll() {
+    while (true) {
+      long pos = tail.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          E element = elements.get(index);
+          elements.lazySet(index, null);
+          // release the cell for the next round
+          sequences.set(index, pos + mask + 1);
+          return element;
+        }
+      } else if (diff < 0) {
+        // the cell has not been filled: empty
+        return null;
+      }
+      // else: another consumer has taken the cell, retry.
+    }
+  } // method poll
+
+  /**
+   * Removes at most {@code maxElements} elements and adds them to the list.
+   *
+   * @param list
+   *          List to which the elements are added. Must not be {@code null}.
+   * @param maxElements
+   *          Maximal number of elements to be removed.
+   * @return the number of removed elements.
+   */
+  public int drainTo(List<? super E> list, int maxElements) {
+    int num = 0;
+    while (num < maxElements) {
+      E element = poll();
+      if (element == null) {
+        break;
+      }
+      list.add(element);
+      num++;
+    }
+    return num;
+  } // method drainTo
+
+}
@@ -0,0 +1,136 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with fixed buckets. Recording a duration does not allocate any
+ * object, the buckets are exported as seconds.
+ *
+ * <p>Typical usage to measure the phases of a request:
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * start = PHASE_A.observeSince(start);
+ * ...
+ * PHASE_B.observeSince(start);
+ * </pre>
+ *
+ * @author Lijun Liao
+ */
+
+public class Histogram {
+
+  /**
+   * Default upper bounds of the buckets in nanoseconds, from 50 microseconds to 10 seconds.
+   */
+  static final long[] DFLT_BOUNDS = {
+      us(50), us(100), us(250), us(500),
+      ms(1), ms(2) + us(500), ms(5), ms(10), ms(25), ms(50), ms(100), ms(250), ms(500),
+      ms(1000), ms(2500), ms(5000), ms(10000)};
+
+  private final long[] bounds;
+
+  // the last bucket is +Inf
+  private final LongAdder[] buckets;
+
+  private final LongAdder sumNanos = new LongAdder();
+
+  Histogram(long[] bounds) {
+    this.bounds = bounds;
+    this.buckets = new LongAdder[bounds.length + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  } // constructor
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos
+   *          Duration in nanoseconds.
+   */
+  public void observe(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+
+    int idx = 0;
+    while (idx < bounds.length && nanos > bounds[idx]) {
+      idx++;
+    }
+    buckets[idx].increment();
+    sumNanos.add(nanos);
+  } // method observe
+
+  /**
+   * Records the duration since {@code startNanos}.
+   *
+   * @param startNanos
+   *          Start time as returned by {@link System#nanoTime()}.
+   * @return the current {@link System#nanoTime()}, so that it can be used as the start time of
+   *         the next phase.
+   */
+  public long observeSince(long startNanos) {
+    long now = System.nanoTime();
+    observe(now - startNanos);
+    return now;
+  }
+
+  long[] getBounds() {
+    return bounds;
+  }
+
+  /**
+   * Returns the cumulative counts of the buckets, the last one is the total count.
+   * @return the cumulative counts.
+   */
+  long[] getCumulativeCounts() {
+    long[] counts = new long[buckets.length];
+    long sum = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      sum += buckets[i].sum();
+      counts[i] = sum;
+    }
+    return counts;
+  }
+
+  public long getCount() {
+    long sum = 0;
+    for (LongAdder bucket : buckets) {
+      sum += bucket.sum();
+    }
+    return sum;
+  }
+
+  public long getSumNanos() {
+    return sumNanos.sum();
+  }
+
+  private static long us(long value) {
+    return TimeUnit.MICROSECONDS.toNanos(value);
+  }
+
+  private static long ms(long value) {
+    return TimeUnit.MILLISECONDS.toNanos(value);
+  }
+
+}
@@ -0,0 +1,357 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.util.metrics;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Registry of the metrics, which can be exported in the Prometheus text format.
+ *
+ * <p>The counters and histograms shall be registered once (e.g. in a static field or in the
+ * constructor) and then be updated on the request path, which does not allocate any object.
+ * The gauges and statistics are only evaluated while exporting the metrics.
+ *
+ * @author Lijun Liao
+ */
+
+public class MetricsRegistry {
+
+  private enum Type {
+    counter,
+    gauge,
+    histogram
+  } // class Type
+
+  private static class Family {
+
+    private final String name;
+
+    private final String help;
+
+    private final Type type;
+
+    // labels text to Counter, Histogram, LongSupplier or Statistics
+    private final ConcurrentMap<String, Object> children = new ConcurrentSkipListMap<>();
+
+    Family(String name, String help, Type type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+  } // class Family
+
+  private static class Statistics {
+
+    private final String keyLabel;
+
+    private final Supplier<? extends Map<String, ? extends Number>> supplier;
+
+    Statistics(String keyLabel, Supplier<? extends Map<String, ? extends Number>> supplier) {
+      this.keyLabel = keyLabel;
+      this.supplier = supplier;
+    }
+
+  } // class Statistics
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+  private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+  private static final Pattern LABEL_PATTERN = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+  private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+  private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+  public static MetricsRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Returns the counter with given name and labels, creates it if not present.
+   *
+   * @param name
+   *          Name of the metric, should end with _total. Must not be {@code null}.
+   * @param help
+   *          Description of the metric. Must not be {@code null}.
+   * @param labels
+   *          Label names and values: name1, value1, name2, value2, ...
+   * @return the counter.
+   */
+  public Counter counter(String name, String help, String... labels) {
+    return (Counter) family(name, help, Type.counter).children
+        .computeIfAbsent(labelsText(labels), k -> new Counter());
+  }
+
+  /**
+   * Returns the histogram with given name and labels, creates it if not present.
+   *
+   * @param name
+   *          Name of the metric, should end with _seconds. Must not be {@code null}.
+   * @param help
+   *          Description of the metric. Must not be {@code null}.
+   * @param labels
+   *          Label names and values: name1, value1, name2, value2, ...
+   * @return the histogram.
+   */
+  public Histogram histogram(String name, String help, String... labels) {
+    return (Histogram) family(name, help, Type.histogram).children
+        .computeIfAbsent(labelsText(labels), k -> new Histogram(Histogram.DFLT_BOUNDS));
+  }
+
+  /**
+   * Registers a gauge, replaces the existing one with the same name and labels.
+   *
+   * @param name
+   *          Name of the metric. Must not be {@code null}.
+   * @param help
+   *          Description of the metric. Must not be {@code null}.
+   * @param supplier
+   *          Supplier of the value, called only while exporting the metrics.
+   *          Must not be {@code null}.
+   * @param labels
+   *          Label names and values: name1, value1, name2, value2, ...
+   */
+  public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+    Args.notNull(supplier, "supplier");
+    family(name, help, Type.gauge).children.put(labelsText(labels), supplier);
+  }
+
+  /**
+   * Registers a map of statistics as gauge, each entry is exported with its key as the value of
+   * the label {@code keyLabel}. Replaces the existing one with the same name and labels.
+   *
+   * @param name
+   *          Name of the metric. Must not be {@code null}.
+   * @param help
+   *          Description of the metric. Must not be {@code null}.
+   * @param keyLabel
+   *          Label name of the keys. Must not be {@code null}.
+   * @param supplier
+   *          Supplier of the statistics, called only while exporting the metrics.
+   *          Must not be {@code null}.
+   * @param labels
+   *          Label names and values: name1, value1, name2, value2, ...
+   */
+  public void statistics(String name, String help, String keyLabel,
+      Supplier<? extends Map<String, ? extends Number>> supplier, String... labels) {
+    checkLabelName(keyLabel);
+    Args.notNull(supplier, "supplier");
+    family(name, help, Type.gauge).children.put(labelsText(labels),
+        new Statistics(keyLabel, supplier));
+  }
+
+  /**
+   * Removes the metric with given name and labels, e.g. if the measured object is closed.
+   *
+   * @param name
+   *          Name of the metric. Must not be {@code null}.
+   * @param labels
+   *          Label names and values: name1, value1, name2, value2, ...
+   */
+  public void remove(String name, String... labels) {
+    Family family = families.get(name);
+    if (family != null) {
+      family.children.remove(labelsText(labels));
+    }
+  }
+
+  /**
+   * Writes all metrics in the Prometheus text format.
+   *
+   * @param out
+   *          Output to which the metrics are written. Must not be {@code null}.
+   * @throws IOException
+   *           if IO error occurs.
+   */
+  public void write(Appendable out) throws IOException {
+    for (Family family : families.values()) {
+      if (family.children.isEmpty()) {
+        continue;
+      }
+
+      out.append("# HELP ").append(family.name).append(' ')
+        .append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+      out.append("# TYPE ").append(family.name).append(' ')
+        .append(family.type.name()).append('\n');
+
+      for (Entry<String, Object> entry : family.children.entrySet()) {
+        String labels = entry.getKey();
+        Object child = entry.getValue();
+        if (child instanceof Counter) {
+          writeSample(out, family.name, labels, Long.toString(((Counter) child).get()));
+        } else if (child instanceof Histogram) {
+          writeHistogram(out, family.name, labels, (Histogram) child);
+        } else if (child instanceof LongSupplier) {
+          long value;
+          try {
+            value = ((LongSupplier) child).getAsLong();
+          } catch (RuntimeException ex) {
+            LogUtil.warn(LOG, ex, "could not get the value of gauge " + family.name + labels);
+            continue;
+          }
+          writeSample(out, family.name, labels, Long.toString(value));
+        } else {
+          Statistics stats = (Statistics) child;
+          Map<String, ? extends Number> map;
+          try {
+            map = stats.supplier.get();
+          } catch (RuntimeException ex) {
+            LogUtil.warn(LOG, ex, "could not get the statistics " + family.name + labels);
+            continue;
+          }
+
+          if (map == null) {
+            continue;
+          }
+
+          for (Entry<String, ? extends Number> m : map.entrySet()) {
+            if (m.getValue() != null) {
+              writeSample(out, family.name, addLabel(labels, stats.keyLabel, m.getKey()),
+                  m.getValue().toString());
+            }
+          }
+        }
+      }
+    }
+  } // method write
+
+  public String toPrometheusText() {
+    StringBuilder sb = new StringBuilder(4096);
+    try {
+      write(sb);
+    } catch (IOException ex) {
+      // StringBuilder does not throw IOException
+      throw new IllegalStateException(ex);
+    }
+    return sb.toString();
+  }
+
+  private Family family(String name, String help, Type type) {
+    Family family = families.get(Args.notNull(name, "name"));
+    if (family == null) {
+      if (!NAME_PATTERN.matcher(name).matches()) {
+        throw new IllegalArgumentException("invalid metric name '" + name + "'");
+      }
+      family = families.computeIfAbsent(name, k -> new Family(k, Args.notNull(help, "help"), type));
+    }
+
+    if (family.type != type) {
+      throw new IllegalArgumentException("metric " + name + " is already registered as "
+          + family.type + ", and cannot be used as " + type);
+    }
+    return family;
+  } // method family
+
+  private static void writeHistogram(Appendable out, String name, String labels,
+      Histogram histogram) throws IOException {
+    long[] bounds = histogram.getBounds();
+    long[] counts = histogram.getCumulativeCounts();
+    String bucketName = name + "_bucket";
+    for (int i = 0; i < bounds.length; i++) {
+      writeSample(out, bucketName, addLabel(labels, "le", toSeconds(bounds[i])),
+          Long.toString(counts[i]));
+    }
+    long count = counts[bounds.length];
+    writeSample(out, bucketName, addLabel(labels, "le", "+Inf"), Long.toString(count));
+    writeSample(out, name + "_sum", labels, toSeconds(histogram.getSumNanos()));
+    writeSample(out, name + "_count", labels, Long.toString(count));
+  } // method writeHistogram
+
+  private static void writeSample(Appendable out, String name, String labels, String value)
+      throws IOException {
+    out.append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  private static String toSeconds(long nanos) {
+    return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+  }
+
+  private static String labelsText(String... labels) {
+    if (labels == null || labels.length == 0) {
+      return "";
+    }
+
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("labels must be pairs of name and value");
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append('{');
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      appendLabel(sb, labels[i], labels[i + 1]);
+    }
+    sb.append('}');
+    return sb.toString();
+  } // method labelsText
+
+  private static String addLabel(String labels, String name, String value) {
+    StringBuilder sb = new StringBuilder(labels.length() + name.length() + value.length() + 6);
+    if (labels.isEmpty()) {
+      sb.append('{');
+    } else {
+      sb.append(labels, 0, labels.length() - 1).append(',');
+    }
+    appendLabel(sb, name, value);
+    return sb.append('}').toString();
+  } // method addLabel
+
+  private static void appendLabel(StringBuilder sb, String name, String value) {
+    checkLabelName(name);
+    sb.append(name).append("=\"");
+    String str = Args.notNull(value, "label value");
+    for (int i = 0; i < str.length(); i++) {
+      char ch = str.charAt(i);
+      if (ch == '\\' || ch == '"') {
+        sb.append('\\').append(ch);
+      } else if (ch == '\n') {
+        sb.append("\\n");
+      } else {
+        sb.append(ch);
+      }
+    }
+    sb.append('"');
+  } // method appendLabel
+
+  private static void checkLabelName(String name) {
+    if (name == null || !LABEL_PATTERN.matcher(name).matches()) {
+      throw new IllegalArgumentException("invalid label name '" + name + "'");
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.common.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.xipki.util.LatencyHistogram;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link LatencyHistogram}.
+ *
+ * @author Lijun Liao
+ */
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals("empty", 0, histogram.getValueAtPercentile(99));
+
+    // 1 to 100000 microseconds
+    for (long i = 1; i <= 100000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    Assert.assertEquals("count", 100000, histogram.getCount());
+    Assert.assertEquals("max", 100000 * 1000L, histogram.getMax());
+    Assert.assertEquals("p100", 100000 * 1000L, histogram.getValueAtPercentile(100));
+
+    double[] percentiles = {50, 90, 99, 99.9};
+    long[] values = histogram.getValuesAtPercentiles(percentiles);
+    for (int i = 0; i < percentiles.length; i++) {
+      long expected = (long) (percentiles[i] * 1000) * 1000;
+      double error = Math.abs(values[i] - expected) / (double) expected;
+      Assert.assertTrue("p" + percentiles[i] + ": " + values[i], error < 1.0 / 64);
+    }
+  }
+
+  @Test
+  public void testSmallAndLargeValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(100, 3);
+    histogram.record(Long.MAX_VALUE);
+
+    Assert.assertEquals("count", 5, histogram.getCount());
+    Assert.assertEquals("p20", 0, histogram.getValueAtPercentile(20));
+    Assert.assertEquals("p50", 100, histogram.getValueAtPercentile(50));
+    Assert.assertEquals("p80", 100, histogram.getValueAtPercentile(80));
+    Assert.assertEquals("p99", Long.MAX_VALUE, histogram.getValueAtPercentile(99));
+  }
+
+  @Test
+  public void testMoveToConcurrently() throws InterruptedException {
+    final LatencyHistogram recorder = new LatencyHistogram();
+    final int numThreads = 4;
+    final int numPerThread = 100000;
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++) {
+      threads.add(new Thread(() -> {
+        for (int j = 1; j <= numPerThread; j++) {
+          recorder.record(j);
+        }
+      }));
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    LatencyHistogram total = new LatencyHistogram();
+    LatencyHistogram interval = new LatencyHistogram();
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread thread : threads) {
+        if (thread.isAlive()) {
+          running = true;
+        }
+      }
+
+      interval.reset();
+      recorder.moveTo(interval);
+      total.add(interval);
+    }
+
+    Assert.assertEquals("recorder count", 0, recorder.getCount());
+    Assert.assertEquals("total count", (long) numThreads * numPerThread, total.getCount());
+    Assert.assertEquals("max", numPerThread, total.getMax());
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.common.test;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.xipki.util.LongHashSet;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link LongHashSet}.
+ *
+ * @author Lijun Liao
+ */
+
+public class LongHashSetTest {
+
+  @Test
+  public void testAddAndContains() {
+    LongHashSet set = new LongHashSet(4);
+    Random rnd = new Random(1);
+    long[] values = new long[10000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = rnd.nextLong();
+      Assert.assertTrue("add", set.add(values[i]));
+    }
+
+    Assert.assertEquals("size", values.length, set.size());
+    for (long v : values) {
+      Assert.assertTrue("contains", set.contains(v));
+      Assert.assertFalse("add duplicate", set.add(v));
+    }
+
+    Assert.assertEquals("size", values.length, set.size());
+  }
+
+  @Test
+  public void testZero() {
+    LongHashSet set = new LongHashSet();
+    Assert.assertFalse("contains 0", set.contains(0));
+    Assert.assertTrue("add 0", set.add(0));
+    Assert.assertTrue("contains 0", set.contains(0));
+    Assert.assertFalse("contains 1", set.contains(1));
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.common.test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.xipki.util.metrics.Counter;
+import org.xipki.util.metrics.Histogram;
+import org.xipki.util.metrics.MetricsRegistry;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link MetricsRegistry}.
+ *
+ * @author Lijun Liao
+ */
+
+public class MetricsRegistryTest {
+
+  @Test
+  public void testCounterAndGauge() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Counter counter = registry.counter("test_requests_total", "Number of requests",
+        "ca", "my\"ca");
+    counter.inc();
+    counter.add(2);
+    Assert.assertSame("same counter", counter,
+        registry.counter("test_requests_total", "Number of requests", "ca", "my\"ca"));
+
+    registry.gauge("test_depth", "Depth", () -> 5);
+
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("a", 1L);
+    stats.put("b", 2L);
+    registry.statistics("test_stats", "Statistics", "stat", () -> stats, "slot", "0");
+
+    String text = registry.toPrometheusText();
+    Assert.assertTrue(text, text.contains("# TYPE test_requests_total counter\n"));
+    Assert.assertTrue(text, text.contains("test_requests_total{ca=\"my\\\"ca\"} 3\n"));
+    Assert.assertTrue(text, text.contains("test_depth 5\n"));
+    Assert.assertTrue(text, text.contains("test_stats{slot=\"0\",stat=\"b\"} 2\n"));
+
+    registry.remove("test_depth");
+    text = registry.toPrometheusText();
+    Assert.assertFalse(text, text.contains("test_depth"));
+  }
+
+  @Test
+  public void testHistogram() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Histogram histogram = registry.histogram("test_duration_seconds", "Duration",
+        "phase", "sign");
+    histogram.observe(TimeUnit.MICROSECONDS.toNanos(30));
+    histogram.observe(TimeUnit.MILLISECONDS.toNanos(3));
+    histogram.observe(TimeUnit.SECONDS.toNanos(20));
+
+    Assert.assertEquals("count", 3, histogram.getCount());
+
+    String text = registry.toPrometheusText();
+    Assert.assertTrue(text, text.contains(
+        "test_duration_seconds_bucket{phase=\"sign\",le=\"0.00005\"} 1\n"));
+    Assert.assertTrue(text, text.contains(
+        "test_duration_seconds_bucket{phase=\"sign\",le=\"0.005\"} 2\n"));
+    Assert.assertTrue(text, text.contains(
+        "test_duration_seconds_bucket{phase=\"sign\",le=\"+Inf\"} 3\n"));
+    Assert.assertTrue(text, text.contains("test_duration_seconds_sum{phase=\"sign\"} 20.00303\n"));
+    Assert.assertTrue(text, text.contains("test_duration_seconds_count{phase=\"sign\"} 3\n"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTypeMismatch() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("test_metric", "Metric");
+    registry.histogram("test_metric", "Metric");
+  }
+
+}
@@ -0,0 +1,446 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.common.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.util.Curl.CurlResult;
+import org.xipki.util.IoUtil;
+import org.xipki.util.PooledCurl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link PooledCurl}.
+ *
+ * @author Lijun Liao
+ */
+
+public class PooledCurlTest {
+
+  /**
+   * Behavior of {@link RawServer} for the second request on a connection.
+   */
+  private enum SecondRequest {
+    RESPOND,
+    CLOSE,
+    HANG,
+    PARTIAL_RESPONSE,
+    NEGATIVE_LENGTH,
+    LARGE_LENGTH,
+    LARGE_CHUNK
+  } // class SecondRequest
+
+  /**
+   * HTTP server which answers the first request on each connection, and handles the second one
+   * as configured. It counts the completely received requests, and the connections closed by
+   * the client.
+   */
+  private static class RawServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+
+    private final SecondRequest secondRequest;
+
+    private final AtomicInteger numRequests = new AtomicInteger();
+
+    private final AtomicInteger numClosedByClient = new AtomicInteger();
+
+    private final List<Socket> sockets = new ArrayList<>();
+
+    RawServer(SecondRequest secondRequest) throws IOException {
+      this.secondRequest = secondRequest;
+      this.serverSocket = new ServerSocket(0);
+      Thread thread = new Thread(this::accept);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    String getUrl() {
+      return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/test";
+    }
+
+    private void accept() {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          synchronized (sockets) {
+            sockets.add(socket);
+          }
+          Thread thread = new Thread(() -> serve(socket));
+          thread.setDaemon(true);
+          thread.start();
+        } catch (IOException ex) {
+          return;
+        }
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        for (int i = 0; ; i++) {
+          if (!readRequest(in)) {
+            numClosedByClient.incrementAndGet();
+            break;
+          }
+          numRequests.incrementAndGet();
+
+          if (i == 0 || secondRequest == SecondRequest.RESPOND) {
+            out.write(("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+          } else if (secondRequest == SecondRequest.CLOSE) {
+            break;
+          } else if (secondRequest == SecondRequest.HANG) {
+            Thread.sleep(2000);
+            break;
+          } else if (secondRequest == SecondRequest.NEGATIVE_LENGTH) {
+            out.write(("HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+          } else if (secondRequest == SecondRequest.LARGE_LENGTH) {
+            out.write(("HTTP/1.1 200 OK\r\nContent-Length: 2000000000\r\n\r\nok")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+          } else if (secondRequest == SecondRequest.LARGE_CHUNK) {
+            out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "10\r\n0123456789abcdef\r\n7fffffff\r\nok")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+          } else {
+            out.write("HTTP/1.1 2".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            break;
+          }
+        }
+      } catch (IOException | InterruptedException ex) {
+        // connection closed
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          // ignore
+        }
+      }
+    }
+
+    private static boolean readRequest(InputStream in) throws IOException {
+      int contentLength = 0;
+      String line;
+      boolean first = true;
+      while ((line = readLine(in)) != null) {
+        if (line.isEmpty()) {
+          byte[] body = new byte[contentLength];
+          int off = 0;
+          while (off < contentLength) {
+            int read = in.read(body, off, contentLength - off);
+            if (read == -1) {
+              return false;
+            }
+            off += read;
+          }
+          return true;
+        }
+
+        if (!first && line.toLowerCase().startsWith("content-length:")) {
+          contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+        }
+        first = false;
+      }
+      return false;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      int ch;
+      while ((ch = in.read()) != -1) {
+        if (ch == '\n') {
+          String str = new String(bout.toByteArray(), StandardCharsets.ISO_8859_1);
+          return str.endsWith("\r") ? str.substring(0, str.length() - 1) : str;
+        }
+        bout.write(ch);
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+      synchronized (sockets) {
+        for (Socket socket : sockets) {
+          socket.close();
+        }
+      }
+    }
+
+  } // class RawServer
+
+  private static HttpServer server;
+
+  private static String baseUrl;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    // echoes the request body, with Content-Length
+    server.createContext("/echo", PooledCurlTest::echo);
+    // response with chunked transfer encoding
+    server.createContext("/chunked", exchange -> {
+      exchange.getResponseHeaders().add("Content-Type", "text/plain");
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream os = exchange.getResponseBody()) {
+        for (int i = 0; i < 100; i++) {
+          os.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+          os.flush();
+        }
+      }
+    });
+    server.createContext("/notfound", exchange -> {
+      byte[] body = "not found".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(404, body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    });
+    server.setExecutor(Executors.newFixedThreadPool(4));
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    server.stop(0);
+  }
+
+  private static void echo(HttpExchange exchange) throws IOException {
+    byte[] body = IoUtil.read(exchange.getRequestBody());
+    if (body.length == 0) {
+      body = exchange.getRequestURI().getQuery().getBytes(StandardCharsets.UTF_8);
+    }
+    exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  @Test
+  public void testKeepAlive() throws Exception {
+    try (PooledCurl curl = new PooledCurl()) {
+      curl.setConnectTimeout(5000);
+      curl.setReadTimeout(5000);
+      for (int i = 0; i < 20; i++) {
+        byte[] content = ("request " + i).getBytes(StandardCharsets.UTF_8);
+        CurlResult result = curl.curlPost(baseUrl + "/echo", false, null, null, content);
+        Assert.assertEquals("status", 200, result.getStatusCode());
+        Assert.assertEquals("content", new String(content, StandardCharsets.UTF_8),
+            new String(result.getContent(), StandardCharsets.UTF_8));
+      }
+
+      CurlResult result = curl.curlGet(baseUrl + "/echo?a=b", false, null, null);
+      Assert.assertEquals("content", "a=b", new String(result.getContent(),
+          StandardCharsets.UTF_8));
+
+      Map<String, Long> stats = curl.getStatistics();
+      Assert.assertEquals("requests", 21L, (long) stats.get("requests"));
+      Assert.assertEquals("created", 1L, (long) stats.get("created"));
+      Assert.assertEquals("reused", 20L, (long) stats.get("reused"));
+    }
+  }
+
+  @Test
+  public void testChunkedAndError() throws Exception {
+    try (PooledCurl curl = new PooledCurl()) {
+      CurlResult result = curl.curlGet(baseUrl + "/chunked", false, null, null);
+      String text = new String(result.getContent(), StandardCharsets.UTF_8);
+      Assert.assertEquals("lines", 100, text.split("\n").length);
+      Assert.assertEquals("contentType", "text/plain", result.getContentType());
+
+      result = curl.curlGet(baseUrl + "/notfound", false, null, null);
+      Assert.assertEquals("status", 404, result.getStatusCode());
+      Assert.assertNull("content", result.getContent());
+      Assert.assertEquals("errorContent", "not found",
+          new String(result.getErrorContent(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testAsyncWithConnectionLimit() throws Exception {
+    try (PooledCurl curl = new PooledCurl()) {
+      curl.setMaxConnectionsPerHost(2);
+      curl.setConnectTimeout(10000);
+      List<CompletableFuture<CurlResult>> futures = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        futures.add(curl.curlPostAsync(baseUrl + "/echo", null, null,
+            Integer.toString(i).getBytes(StandardCharsets.UTF_8)));
+      }
+
+      for (int i = 0; i < futures.size(); i++) {
+        CurlResult result = futures.get(i).get();
+        Assert.assertEquals("content", Integer.toString(i),
+            new String(result.getContent(), StandardCharsets.UTF_8));
+      }
+
+      Assert.assertTrue("created <= 2", curl.getStatistics().get("created") <= 2);
+    }
+  }
+
+  @Test
+  public void testNoRetryOfPostClosedAfterRequest() throws Exception {
+    try (RawServer rawServer = new RawServer(SecondRequest.CLOSE);
+        PooledCurl curl = new PooledCurl()) {
+      curl.setReadTimeout(5000);
+      byte[] content = "ir".getBytes(StandardCharsets.UTF_8);
+      Assert.assertEquals("status", 200,
+          curl.curlPost(rawServer.getUrl(), false, null, null, content).getStatusCode());
+
+      try {
+        curl.curlPost(rawServer.getUrl(), false, null, null, content);
+        Assert.fail("IOException expected");
+      } catch (IOException ex) {
+        // expected
+      }
+
+      Assert.assertEquals("requests received by server", 2, rawServer.numRequests.get());
+      Assert.assertEquals("created", 1L, (long) curl.getStatistics().get("created"));
+    }
+  }
+
+  @Test
+  public void testRetryOfGetClosedBeforeResponse() throws Exception {
+    try (RawServer rawServer = new RawServer(SecondRequest.CLOSE);
+        PooledCurl curl = new PooledCurl()) {
+      curl.setReadTimeout(5000);
+      Assert.assertEquals("status", 200,
+          curl.curlGet(rawServer.getUrl(), false, null, null).getStatusCode());
+      // the reused connection is closed after reading the request, GET is sent again
+      Assert.assertEquals("status", 200,
+          curl.curlGet(rawServer.getUrl(), false, null, null).getStatusCode());
+      Assert.assertEquals("created", 2L, (long) curl.getStatistics().get("created"));
+    }
+  }
+
+  @Test
+  public void testNoRetryAfterReadTimeout() throws Exception {
+    try (RawServer rawServer = new RawServer(SecondRequest.HANG);
+        PooledCurl curl = new PooledCurl()) {
+      curl.setReadTimeout(500);
+      Assert.assertEquals("status", 200,
+          curl.curlGet(rawServer.getUrl(), false, null, null).getStatusCode());
+
+      try {
+        curl.curlGet(rawServer.getUrl(), false, null, null);
+        Assert.fail("SocketTimeoutException expected");
+      } catch (SocketTimeoutException ex) {
+        // expected
+      }
+
+      Assert.assertEquals("requests received by server", 2, rawServer.numRequests.get());
+      Assert.assertEquals("created", 1L, (long) curl.getStatistics().get("created"));
+    }
+  }
+
+  @Test
+  public void testNoRetryAfterPartialResponse() throws Exception {
+    try (RawServer rawServer = new RawServer(SecondRequest.PARTIAL_RESPONSE);
+        PooledCurl curl = new PooledCurl()) {
+      curl.setReadTimeout(5000);
+      Assert.assertEquals("status", 200,
+          curl.curlGet(rawServer.getUrl(), false, null, null).getStatusCode());
+
+      try {
+        curl.curlGet(rawServer.getUrl(), false, null, null);
+        Assert.fail("IOException expected");
+      } catch (IOException ex) {
+        // expected
+      }
+
+      Assert.assertEquals("requests received by server", 2, rawServer.numRequests.get());
+      Assert.assertEquals("created", 1L, (long) curl.getStatistics().get("created"));
+    }
+  }
+
+  @Test
+  public void testNegativeContentLength() throws Exception {
+    assertInvalidResponseRejected(SecondRequest.NEGATIVE_LENGTH);
+  }
+
+  @Test
+  public void testTooLargeContentLength() throws Exception {
+    assertInvalidResponseRejected(SecondRequest.LARGE_LENGTH);
+  }
+
+  @Test
+  public void testTooLargeChunkedBody() throws Exception {
+    assertInvalidResponseRejected(SecondRequest.LARGE_CHUNK);
+  }
+
+  private static void assertInvalidResponseRejected(SecondRequest secondRequest)
+      throws Exception {
+    try (RawServer rawServer = new RawServer(secondRequest);
+        PooledCurl curl = new PooledCurl()) {
+      curl.setReadTimeout(5000);
+      curl.setMaxResponseSize(1024 * 1024);
+      Assert.assertEquals("status", 200,
+          curl.curlGet(rawServer.getUrl(), false, null, null).getStatusCode());
+
+      try {
+        curl.curlGet(rawServer.getUrl(), false, null, null);
+        Assert.fail("IOException expected");
+      } catch (IOException ex) {
+        // expected
+      }
+
+      // the connection with the invalid response has been closed, and not reused
+      long deadline = System.currentTimeMillis() + 5000;
+      while (rawServer.numClosedByClient.get() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals("connections closed by client", 1, rawServer.numClosedByClient.get());
+
+      Assert.assertEquals("status", 200,
+          curl.curlGet(rawServer.getUrl(), false, null, null).getStatusCode());
+      Assert.assertEquals("created", 2L, (long) curl.getStatistics().get("created"));
+    }
+  } // method assertInvalidResponseRejected
+
+}
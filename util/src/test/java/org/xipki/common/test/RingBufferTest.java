@@ -0,0 +1,107 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.common.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.xipki.util.concurrent.RingBuffer;
+
+import junit.framework.Assert;
+
+/**
+ * Test for {@link RingBuffer}.
+ *
+ * @author Lijun Liao
+ */
+
+public class RingBufferTest {
+
+  @Test
+  public void testOfferAndPoll() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(5);
+    Assert.assertEquals("capacity", 8, buffer.capacity());
+    Assert.assertNull("poll empty", buffer.poll());
+
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 8; i++) {
+        Assert.assertTrue("offer", buffer.offer(i));
+      }
+      Assert.assertFalse("offer full", buffer.offer(8));
+      Assert.assertEquals("size", 8, buffer.size());
+
+      List<Integer> list = new ArrayList<>();
+      Assert.assertEquals("drainTo", 3, buffer.drainTo(list, 3));
+      for (int i = 0; i < 5; i++) {
+        Assert.assertEquals("poll", Integer.valueOf(i + 3), buffer.poll());
+      }
+      Assert.assertTrue("isEmpty", buffer.isEmpty());
+      Assert.assertEquals("first", Integer.valueOf(0), list.get(0));
+    }
+  }
+
+  @Test
+  public void testConcurrentProducersAndConsumers() throws InterruptedException {
+    final RingBuffer<Long> buffer = new RingBuffer<>(64);
+    final int numProducers = 4;
+    final int numPerProducer = 50000;
+    final AtomicLong sum = new AtomicLong();
+    final AtomicLong count = new AtomicLong();
+    final long total = (long) numProducers * numPerProducer;
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < numProducers; i++) {
+      threads.add(new Thread(() -> {
+        for (long j = 1; j <= numPerProducer; j++) {
+          while (!buffer.offer(j)) {
+            Thread.yield();
+          }
+        }
+      }));
+    }
+
+    for (int i = 0; i < 2; i++) {
+      threads.add(new Thread(() -> {
+        while (count.get() < total) {
+          Long value = buffer.poll();
+          if (value == null) {
+            Thread.yield();
+          } else {
+            sum.addAndGet(value);
+            count.incrementAndGet();
+          }
+        }
+      }));
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals("count", total, count.get());
+    Assert.assertEquals("sum", numProducers * ((long) numPerProducer * (numPerProducer + 1) / 2),
+        sum.get());
+    Assert.assertTrue("isEmpty", buffer.isEmpty());
+  }
+
+}